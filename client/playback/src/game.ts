@@ -72,6 +72,10 @@ export default class Game {
     switch (event.eType()) {
       case schema.Event.GameHeader:
         const gameHeader = event.e(new schema.GameHeader()) as schema.GameHeader;
+        if (gameHeader.roundEncoding() !== schema.RoundEncoding.PLAIN) {
+          // See bc.server.compact-rounds; only the engine's replay tools read these
+          throw new Error("Can't play back a game with compact rounds");
+        }
         if (!gameStarted) {
           this._meta = new Metadata().parse(gameHeader);
         } else {
@@ -115,6 +119,13 @@ export default class Game {
         }
         break;
 
+      case schema.Event.Keyframe:
+        // We already get the same state by applying every Round
+        if (!gameStarted || matchCount === 0 || lastMatchFinished) {
+          throw new Error("Can't apply keyframe without unfinished match");
+        }
+        break;
+
       case schema.Event.NONE:
       default:
         throw new Error('No event to apply?');
@@ -0,0 +1,352 @@
+package battlecode.instrumenter;
+
+import battlecode.instrumenter.bytecode.MethodCostUtil;
+import battlecode.server.Config;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Reports what a team's methods cost in bytecodes, without running them.
+ * <p/>
+ * Usage:<br>
+ * <code>java CostAnalyzer ${team.url} [--format json|csv] [--min-cost n] [--out file]</code><br>
+ * <p/>
+ * Each class is instrumented the same way it is for a game, except that
+ * basic blocks aren't merged, so every basic block keeps its own
+ * incrementBytecodes call. The charges in the instrumented code are then
+ * reported for each method:
+ * <ul>
+ *     <li>every basic block and what it's charged, including engine methods
+ *         it calls (see MethodCostUtil);</li>
+ *     <li>every loop back-edge, and what one trip around the loop costs if
+ *         every block in its body runs;</li>
+ *     <li>every call to a RobotController method costing at least --min-cost.</li>
+ * </ul>
+ * Some costs are only known at run time (e.g. creating arrays, and calls into
+ * the team's own methods); they are counted as dynamic charges, but not
+ * included in the totals. Methods are listed most expensive first.
+ */
+public class CostAnalyzer {
+
+    private static final String MONITOR = "battlecode/instrumenter/inject/RobotMonitor";
+
+    private static final String ROBOT_CONTROLLER = "battlecode/common/RobotController";
+
+    /**
+     * The default for --min-cost: calls this expensive (e.g. any of the
+     * canX methods) are worth knowing about.
+     */
+    private static final int DEFAULT_MIN_CALLOUT_COST = 10;
+
+    public static void main(String[] args) {
+        String teamURL = null;
+        String format = "json";
+        int minCalloutCost = DEFAULT_MIN_CALLOUT_COST;
+        String out = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--format":
+                        format = args[++i];
+                        break;
+                    case "--min-cost":
+                        minCalloutCost = Integer.parseInt(args[++i]);
+                        break;
+                    case "--out":
+                        out = args[++i];
+                        break;
+                    default:
+                        if (teamURL != null) throw new IllegalArgumentException(args[i]);
+                        teamURL = args[i];
+                }
+            }
+            if (teamURL == null || !(format.equals("json") || format.equals("csv"))) {
+                throw new IllegalArgumentException();
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Usage: battlecode.instrumenter.CostAnalyzer ${team.url} [--format json|csv]" +
+                    " [--min-cost n] [--out file], where team.url is a folder or jar containing all of the" +
+                    " player-defined class files");
+            System.exit(1);
+            return;
+        }
+
+        try {
+            final List<MethodCosts> methods = analyze(teamURL, minCalloutCost);
+            try (PrintStream output = out == null ? System.out : new PrintStream(Files.newOutputStream(Paths.get(out)))) {
+                if (format.equals("json")) writeJson(methods, output);
+                else writeCsv(methods, output);
+            }
+        } catch (InstrumentationException | IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Analyze every method of every class in a submission.
+     *
+     * @param teamURL the folder or jar containing the team's classes
+     * @param minCalloutCost the cheapest RobotController call to report
+     * @return the costs of every method, most expensive first
+     * @throws InstrumentationException if the submission can't be read, or a
+     *         class fails to instrument
+     */
+    public static List<MethodCosts> analyze(String teamURL, int minCalloutCost) throws InstrumentationException {
+        final TeamClassLoaderFactory factory = new TeamClassLoaderFactory(teamURL, null);
+        if (factory.getError()) {
+            throw new InstrumentationException(InstrumentationException.Type.MISSING, "Can't read submission " + teamURL);
+        }
+        final TeamClassLoaderFactory.Loader loader = factory.createLoader(false, false, false);
+        final boolean debugMethodsEnabled = Config.getGlobalConfig().getBoolean("bc.engine.debug-methods");
+
+        final List<MethodCosts> result = new ArrayList<>();
+        for (String className : factory.getTeamClassNames()) {
+            final byte[] instrumented = loader.instrument(factory.teamReader(className), true, debugMethodsEnabled);
+            final ClassNode classNode = new ClassNode(Opcodes.ASM5);
+            new ClassReader(instrumented).accept(classNode, ClassReader.SKIP_FRAMES);
+            for (Object method : classNode.methods) {
+                result.add(analyze(factory, className.replace('/', '.'), (MethodNode) method, minCalloutCost));
+            }
+        }
+
+        result.sort((a, b) -> Long.compare(b.staticCost, a.staticCost));
+        return result;
+    }
+
+    private static MethodCosts analyze(TeamClassLoaderFactory factory,
+                                       String className,
+                                       MethodNode method,
+                                       int minCalloutCost) {
+        final MethodCosts costs = new MethodCosts(className, method.name + method.desc);
+        final AbstractInsnNode[] insns = method.instructions.toArray();
+
+        // The line each instruction is on, and where each label is.
+        final int[] lines = new int[insns.length];
+        final Map<LabelNode, Integer> labelIndices = new HashMap<>();
+        int line = -1;
+        for (int i = 0; i < insns.length; i++) {
+            if (insns[i] instanceof LineNumberNode) {
+                line = ((LineNumberNode) insns[i]).line;
+            } else if (insns[i] instanceof LabelNode) {
+                labelIndices.put((LabelNode) insns[i], i);
+            }
+            lines[i] = line;
+        }
+
+        // The charge made at each instruction, if any.
+        final int[] charges = new int[insns.length];
+        for (int i = 0; i < insns.length; i++) {
+            if (!(insns[i] instanceof MethodInsnNode)) {
+                continue;
+            }
+            final MethodInsnNode call = (MethodInsnNode) insns[i];
+            if (call.owner.equals(MONITOR)) {
+                // Merged charges push the String of their blocks after the total
+                final int ldc = call.desc.equals("(I)V") ? i - 1 : i - 2;
+                if (call.name.equals("incrementBytecodes") && insns[ldc] instanceof LdcInsnNode) {
+                    charges[i] = (Integer) ((LdcInsnNode) insns[ldc]).cst;
+                    costs.blocks.add(new Block(lines[i], charges[i]));
+                    costs.staticCost += charges[i];
+                } else if (call.name.equals("incrementBytecodesWithoutInterrupt")) {
+                    costs.dynamicCharges++;
+                }
+            } else if (call.owner.equals(ROBOT_CONTROLLER)) {
+                final MethodCostUtil.MethodData data = MethodCostUtil.getMethodData(call.owner, call.name);
+                if (data != null && data.cost >= minCalloutCost) {
+                    costs.callouts.add(new Callout(lines[i], call.name, data.cost));
+                }
+            } else if (call.owner.startsWith("instrumented/") || factory.hasTeamClass(call.owner)) {
+                // Player and library methods charge for themselves as they run.
+                costs.dynamicCharges++;
+            }
+        }
+
+        // Backwards jumps close loops.
+        for (int i = 0; i < insns.length; i++) {
+            for (LabelNode target : targets(insns[i])) {
+                final int start = labelIndices.get(target);
+                if (start > i) {
+                    continue;
+                }
+                long perIteration = 0;
+                for (int j = start; j <= i; j++) {
+                    perIteration += charges[j];
+                }
+                costs.loops.add(new Loop(firstLineFrom(insns, lines, start), lines[i], perIteration));
+            }
+        }
+
+        return costs;
+    }
+
+    /**
+     * Labels come just before their line numbers, so look ahead for the line.
+     */
+    private static int firstLineFrom(AbstractInsnNode[] insns, int[] lines, int index) {
+        for (int i = index; i < insns.length && insns[i].getOpcode() == -1; i++) {
+            if (insns[i] instanceof LineNumberNode) {
+                return ((LineNumberNode) insns[i]).line;
+            }
+        }
+        return lines[index];
+    }
+
+    private static List<LabelNode> targets(AbstractInsnNode insn) {
+        if (insn instanceof JumpInsnNode) {
+            return Collections.singletonList(((JumpInsnNode) insn).label);
+        }
+        final List<LabelNode> result = new ArrayList<>();
+        if (insn instanceof TableSwitchInsnNode) {
+            result.add(((TableSwitchInsnNode) insn).dflt);
+            for (Object label : ((TableSwitchInsnNode) insn).labels) {
+                result.add((LabelNode) label);
+            }
+        } else if (insn instanceof LookupSwitchInsnNode) {
+            result.add(((LookupSwitchInsnNode) insn).dflt);
+            for (Object label : ((LookupSwitchInsnNode) insn).labels) {
+                result.add((LabelNode) label);
+            }
+        }
+        return result;
+    }
+
+    public static void writeJson(List<MethodCosts> methods, PrintStream out) {
+        out.println("[");
+        for (int m = 0; m < methods.size(); m++) {
+            final MethodCosts method = methods.get(m);
+            out.println("  {");
+            out.println("    \"class\": " + quote(method.className) + ",");
+            out.println("    \"method\": " + quote(method.method) + ",");
+            out.println("    \"staticCost\": " + method.staticCost + ",");
+            out.println("    \"dynamicCharges\": " + method.dynamicCharges + ",");
+
+            final StringBuilder blocks = new StringBuilder();
+            for (Block block : method.blocks) {
+                if (blocks.length() > 0) blocks.append(", ");
+                blocks.append("{\"line\": ").append(block.line).append(", \"cost\": ").append(block.cost).append("}");
+            }
+            out.println("    \"blocks\": [" + blocks + "],");
+
+            final StringBuilder loops = new StringBuilder();
+            for (Loop loop : method.loops) {
+                if (loops.length() > 0) loops.append(", ");
+                loops.append("{\"line\": ").append(loop.line)
+                        .append(", \"backEdgeLine\": ").append(loop.backEdgeLine)
+                        .append(", \"perIterationCost\": ").append(loop.perIterationCost).append("}");
+            }
+            out.println("    \"loops\": [" + loops + "],");
+
+            final StringBuilder callouts = new StringBuilder();
+            for (Callout callout : method.callouts) {
+                if (callouts.length() > 0) callouts.append(", ");
+                callouts.append("{\"line\": ").append(callout.line)
+                        .append(", \"method\": ").append(quote(callout.method))
+                        .append(", \"cost\": ").append(callout.cost).append("}");
+            }
+            out.println("    \"callouts\": [" + callouts + "]");
+            out.println(m == methods.size() - 1 ? "  }" : "  },");
+        }
+        out.println("]");
+    }
+
+    /**
+     * One row per block, loop and callout:
+     * kind,class,method,line,cost,detail
+     */
+    public static void writeCsv(List<MethodCosts> methods, PrintStream out) {
+        out.println("kind,class,method,line,cost,detail");
+        for (MethodCosts method : methods) {
+            final String prefix = "," + csv(method.className) + "," + csv(method.method) + ",";
+            for (Block block : method.blocks) {
+                out.println("block" + prefix + block.line + "," + block.cost + ",");
+            }
+            for (Loop loop : method.loops) {
+                out.println("loop" + prefix + loop.line + "," + loop.perIterationCost + ",back edge on line " + loop.backEdgeLine);
+            }
+            for (Callout callout : method.callouts) {
+                out.println("callout" + prefix + callout.line + "," + callout.cost + "," + csv("RobotController." + callout.method));
+            }
+        }
+    }
+
+    private static String quote(String s) {
+        return "\"" + StringEscapeUtils.escapeJson(s) + "\"";
+    }
+
+    private static String csv(String s) {
+        return StringEscapeUtils.escapeCsv(s);
+    }
+
+    /**
+     * The costs of one method.
+     */
+    public static final class MethodCosts {
+        public final String className;
+        /**
+         * The name and descriptor of the method.
+         */
+        public final String method;
+        public final List<Block> blocks = new ArrayList<>();
+        public final List<Loop> loops = new ArrayList<>();
+        public final List<Callout> callouts = new ArrayList<>();
+        /**
+         * The total of every block, i.e. the cost if every block ran once.
+         */
+        public long staticCost;
+        /**
+         * The number of charges whose size is only known at run time.
+         */
+        public int dynamicCharges;
+
+        MethodCosts(String className, String method) {
+            this.className = className;
+            this.method = method;
+        }
+    }
+
+    public static final class Block {
+        public final int line;
+        public final int cost;
+
+        Block(int line, int cost) {
+            this.line = line;
+            this.cost = cost;
+        }
+    }
+
+    public static final class Loop {
+        /**
+         * The line the loop jumps back to.
+         */
+        public final int line;
+        public final int backEdgeLine;
+        public final long perIterationCost;
+
+        Loop(int line, int backEdgeLine, long perIterationCost) {
+            this.line = line;
+            this.backEdgeLine = backEdgeLine;
+            this.perIterationCost = perIterationCost;
+        }
+    }
+
+    public static final class Callout {
+        public final int line;
+        public final String method;
+        public final int cost;
+
+        Callout(int line, String method, int cost) {
+            this.line = line;
+            this.method = method;
+            this.cost = cost;
+        }
+    }
+}
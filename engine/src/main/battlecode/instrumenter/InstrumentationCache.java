@@ -0,0 +1,369 @@
+package battlecode.instrumenter;
+
+import battlecode.server.Config;
+import battlecode.server.ErrorReporter;
+import battlecode.server.Version;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * A persistent cache of instrumented class files, kept in a directory on disk
+ * so that it survives between engine processes.
+ *
+ * Entries are keyed by a SHA-256 over the original class bytes, the engine
+ * version and everything else that can change the output of the instrumenter
+ * (see TeamClassLoaderFactory). Entries are written to a temporary file and
+ * then atomically moved into place, so several engines can share one
+ * directory. When the directory grows past its size limit, the least recently
+ * used entries are deleted.
+ *
+ * The cache never makes instrumentation fail: if the directory can't be read
+ * or written, we warn once and carry on without it.
+ */
+public final class InstrumentationCache {
+
+    /**
+     * The magic number at the start of every class file; used to sanity-check entries.
+     */
+    private static final int CLASS_MAGIC = 0xCAFEBABE;
+
+    /**
+     * After evicting, we shrink the cache down to this fraction of its limit,
+     * so that we don't have to evict again on the next write.
+     */
+    private static final double EVICTION_TARGET = 0.8;
+
+    /**
+     * Classes and resources that determine what the instrumenter outputs.
+     * Their contents are hashed into every key, so that a rebuilt engine
+     * never picks up entries written by a different instrumenter, even when
+     * the version number hasn't been bumped.
+     */
+    private static final String[] ENGINE_RESOURCES = {
+            "battlecode/instrumenter/TeamClassLoaderFactory.class",
+            "battlecode/instrumenter/bytecode/ClassReferenceUtil.class",
+            "battlecode/instrumenter/bytecode/InliningBytecodeCounter.class",
+            "battlecode/instrumenter/bytecode/InstrumentingClassVisitor.class",
+            "battlecode/instrumenter/bytecode/InstrumentingMethodVisitor.class",
+            "battlecode/instrumenter/bytecode/InterfaceReader.class",
+            "battlecode/instrumenter/bytecode/MethodCostUtil.class",
+            "battlecode/instrumenter/bytecode/PackageTrie.class",
+            "battlecode/instrumenter/bytecode/resources/AllowedPackages.txt",
+            "battlecode/instrumenter/bytecode/resources/DisallowedClasses.txt",
+            "battlecode/instrumenter/bytecode/resources/MethodCosts.txt",
+    };
+
+    /**
+     * Caches opened through fromConfig, by directory, so that every team in
+     * this process shares one size count.
+     */
+    private static final Map<Path, InstrumentationCache> openCaches = new HashMap<>();
+
+    /**
+     * Identifies the engine and JVM we're running on; computed once.
+     */
+    private static String engineFingerprint;
+
+    /**
+     * The directory entries are stored in.
+     */
+    private final Path directory;
+
+    /**
+     * The maximum number of bytes we let the directory grow to.
+     */
+    private final long maxBytes;
+
+    /**
+     * Our best guess at the current size of the directory.
+     * Other processes may write to it too, so we recount when evicting.
+     */
+    private final AtomicLong approximateSize;
+
+    /**
+     * Set when the directory turns out to be unusable.
+     */
+    private volatile boolean disabled;
+
+    /**
+     * Create a cache in the given directory, creating the directory if necessary.
+     *
+     * @param directory the directory to store entries in
+     * @param maxBytes the size the directory should be kept under
+     * @throws IOException if the directory can't be created or read
+     */
+    public InstrumentationCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        this.approximateSize = new AtomicLong(directorySize());
+        this.disabled = false;
+    }
+
+    /**
+     * @param config the config to read bc.engine.instrument-cache-dir and
+     *               bc.engine.instrument-cache-max-bytes from
+     * @return the configured cache, or null if there isn't one (or it can't be used)
+     */
+    public static InstrumentationCache fromConfig(Config config) {
+        final String dir = config.get("bc.engine.instrument-cache-dir");
+        if (dir == null || dir.isEmpty()) {
+            return null;
+        }
+        final Path path;
+        try {
+            path = Paths.get(dir).toAbsolutePath().normalize();
+        } catch (InvalidPathException e) {
+            ErrorReporter.report(e, "Can't use instrumentation cache directory " + dir + ", continuing without it.", false);
+            return null;
+        }
+        synchronized (openCaches) {
+            InstrumentationCache cache = openCaches.get(path);
+            if (cache == null) {
+                try {
+                    cache = new InstrumentationCache(path, config.getLong("bc.engine.instrument-cache-max-bytes"));
+                } catch (IOException e) {
+                    ErrorReporter.report(e, "Can't use instrumentation cache directory " + dir
+                            + ", continuing without it.", false);
+                    return null;
+                }
+                openCaches.put(path, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Compute the key for a class.
+     *
+     * @param salt everything besides the class bytes that affects instrumentation
+     * @param originalBytes the uninstrumented class file
+     * @return a key to look the instrumented class up with
+     */
+    public static String key(String salt, byte[] originalBytes) {
+        final MessageDigest digest = sha256();
+        digest.update(engineFingerprint().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(salt.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(originalBytes);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @param key the key of the class
+     * @return the instrumented bytes of the class, or null if they aren't cached
+     */
+    public byte[] get(String key) {
+        if (disabled) {
+            return null;
+        }
+
+        final Path entry = entryPath(key);
+        final byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(entry);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            // Most likely evicted by another process while we were reading it.
+            return null;
+        }
+
+        if (!isClassFile(bytes)) {
+            // Somebody has been messing with the directory; ignore the entry.
+            return null;
+        }
+
+        try {
+            // Mark the entry as recently used.
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Not important.
+        }
+        return bytes;
+    }
+
+    /**
+     * Store an instrumented class.
+     *
+     * @param key the key of the class
+     * @param instrumentedBytes the instrumented class file
+     */
+    public void put(String key, byte[] instrumentedBytes) {
+        if (disabled) {
+            return;
+        }
+
+        final Path entry = entryPath(key);
+        try {
+            Files.createDirectories(entry.getParent());
+            final Path temp = Files.createTempFile(entry.getParent(), "tmp-", ".part");
+            try {
+                Files.write(temp, instrumentedBytes);
+                try {
+                    Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            disabled = true;
+            ErrorReporter.report(e, "Can't write to instrumentation cache directory " + directory
+                    + ", continuing without it.", false);
+            return;
+        }
+
+        if (approximateSize.addAndGet(instrumentedBytes.length) > maxBytes) {
+            evict();
+        }
+    }
+
+    /**
+     * Delete the least recently used entries until the directory is
+     * comfortably under its size limit.
+     */
+    private synchronized void evict() {
+        if (approximateSize.get() <= maxBytes) {
+            // Someone else evicted while we were waiting.
+            return;
+        }
+
+        final List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.forEach(path -> {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (attributes.isRegularFile() && path.toString().endsWith(".class")) {
+                        entries.add(new Entry(path, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                    }
+                } catch (IOException e) {
+                    // Deleted by another process; skip it.
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            return;
+        }
+
+        long size = 0;
+        for (Entry entry : entries) {
+            size += entry.size;
+        }
+
+        entries.sort(Comparator.comparingLong(entry -> entry.lastUsed));
+        final long target = (long) (maxBytes * EVICTION_TARGET);
+        for (Entry entry : entries) {
+            if (size <= target) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(entry.path);
+            } catch (IOException e) {
+                // Try the next one.
+                continue;
+            }
+            size -= entry.size;
+        }
+
+        approximateSize.set(size);
+    }
+
+    /**
+     * @return the total size of the entries in the directory
+     */
+    private long directorySize() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(path -> path.toString().endsWith(".class"))
+                    .mapToLong(path -> path.toFile().length())
+                    .sum();
+        }
+    }
+
+    /**
+     * Entries are spread over subdirectories named after the first two
+     * characters of their keys, so no one directory gets too large.
+     */
+    private Path entryPath(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + ".class");
+    }
+
+    private static boolean isClassFile(byte[] bytes) {
+        return bytes.length >= 4 &&
+                ((bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | (bytes[3] & 0xff))
+                        == CLASS_MAGIC;
+    }
+
+    /**
+     * @return a string that changes whenever the engine, its instrumenter, or the JVM changes
+     */
+    static synchronized String engineFingerprint() {
+        if (engineFingerprint == null) {
+            final MessageDigest digest = sha256();
+            digest.update(Version.version.getBytes(StandardCharsets.UTF_8));
+            digest.update(System.getProperty("java.version").getBytes(StandardCharsets.UTF_8));
+            digest.update(System.getProperty("java.vm.version").getBytes(StandardCharsets.UTF_8));
+            final byte[] buffer = new byte[8192];
+            for (String resource : ENGINE_RESOURCES) {
+                try (InputStream in = InstrumentationCache.class.getClassLoader().getResourceAsStream(resource)) {
+                    if (in == null) {
+                        throw new IllegalStateException("Can't find engine resource " + resource);
+                    }
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        digest.update(buffer, 0, read);
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException("Can't read engine resource " + resource, e);
+                }
+            }
+            engineFingerprint = toHex(digest.digest());
+        }
+        return engineFingerprint;
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 isn't supported on this system??", e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        final StringBuilder result = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    private static final class Entry {
+        final Path path;
+        final long size;
+        final long lastUsed;
+
+        Entry(Path path, long size, long lastUsed) {
+            this.path = path;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package battlecode.instrumenter;
+
+import battlecode.server.Config;
+import battlecode.server.Version;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static battlecode.instrumenter.InstrumentationException.Type.ILLEGAL;
+import static battlecode.instrumenter.InstrumentationException.Type.MISSING;
+
+/**
+ * A jar of a team's classes, already instrumented, along with every library
+ * (instrumented.*) class they use. Written once when a submission is compiled,
+ * so that game workers can skip instrumentation entirely
+ * (see bc.game.team-a.instrumented-url).
+ * <p/>
+ * Usage:<br>
+ * <code>java InstrumentedJar ${team.url} ${out.jar} [--profiler]</code><br>
+ * Prints the digest of the jar, to be passed to game workers as
+ * bc.game.team-a.instrumented-sha256, and returns 1 if any class fails to instrument.
+ * <p/>
+ * The manifest records the engine the jar was made with, the settings the
+ * classes were instrumented with, and the SHA-256 of every class. The jar is
+ * only used by an engine with the same fingerprint and settings, and only if
+ * every class matches its hash. The manifest also holds a digest of the whole
+ * jar; since anyone who can write the jar can also rewrite the manifest, game
+ * workers must be given the digest separately to check it against, and refuse
+ * the jar without it.
+ */
+public final class InstrumentedJar {
+
+    static final Attributes.Name ENGINE_VERSION = new Attributes.Name("Battlecode-Engine-Version");
+    static final Attributes.Name ENGINE_FINGERPRINT = new Attributes.Name("Battlecode-Engine-Fingerprint");
+    static final Attributes.Name JAVA_VERSION = new Attributes.Name("Battlecode-Java-Version");
+    static final Attributes.Name DEBUG_METHODS = new Attributes.Name("Battlecode-Debug-Methods");
+    static final Attributes.Name PROFILER = new Attributes.Name("Battlecode-Profiler");
+    static final Attributes.Name MERGE_BASIC_BLOCKS = new Attributes.Name("Battlecode-Merge-Basic-Blocks");
+    static final Attributes.Name INLINE_BYTECODE_COUNTER = new Attributes.Name("Battlecode-Inline-Bytecode-Counter");
+    static final Attributes.Name DIGEST = new Attributes.Name("Battlecode-Instrumented-Digest");
+    static final Attributes.Name ENTRY_DIGEST = new Attributes.Name("SHA-256-Digest");
+
+    /**
+     * Every entry gets the same timestamp, so that instrumenting the same
+     * submission twice gives the same jar.
+     */
+    private static final long ENTRY_TIME = 315532800000L; // 1980-01-01, the earliest a zip can store
+
+    /**
+     * Instrumented class files, by class name (e.g. instrumented.java.util.ArrayList).
+     */
+    public final Map<String, byte[]> classes;
+
+    /**
+     * Whether the classes were instrumented for profiled robots.
+     */
+    public final boolean profilerEnabled;
+
+    /**
+     * The digest of the jar; see digest().
+     */
+    public final String digest;
+
+    private InstrumentedJar(Map<String, byte[]> classes, boolean profilerEnabled, String digest) {
+        this.classes = classes;
+        this.profilerEnabled = profilerEnabled;
+        this.digest = digest;
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2 && !(args.length == 3 && args[2].equals("--profiler"))) {
+            System.err.println("Usage: battlecode.instrumenter.InstrumentedJar ${team.url} ${out.jar} [--profiler]," +
+                    " where team.url is a folder or jar containing all of the player-defined class files");
+            System.exit(1);
+        }
+
+        final TeamClassLoaderFactory factory = new TeamClassLoaderFactory(args[0]);
+        try {
+            System.out.println(write(factory, args.length == 3, Paths.get(args[1])));
+        } catch (InstrumentationException | IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Instrument a whole submission, and write it to a jar.
+     *
+     * @param factory the factory for the submission
+     * @param profilerEnabled whether robots using the jar will be profiled
+     * @param out where to write the jar
+     * @return the digest of the jar
+     * @throws InstrumentationException if any class fails to instrument
+     * @throws IOException if the jar can't be written
+     */
+    public static String write(TeamClassLoaderFactory factory, boolean profilerEnabled, Path out)
+            throws InstrumentationException, IOException {
+        final List<InstrumentationException> errors = factory.precompile(profilerEnabled);
+        if (!errors.isEmpty()) {
+            final StringBuilder message = new StringBuilder("Can't instrument submission:");
+            for (InstrumentationException e : errors) {
+                message.append('\n').append(e.getMessage());
+            }
+            throw new InstrumentationException(ILLEGAL, message.toString(), errors.get(0));
+        }
+
+        final SortedMap<String, byte[]> classes = new TreeMap<>();
+        for (String className : factory.getCachedClassNames()) {
+            classes.put(className, factory.getCached(className));
+        }
+
+        final Config config = Config.getGlobalConfig();
+        final Manifest manifest = new Manifest();
+        final Attributes main = manifest.getMainAttributes();
+        main.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        main.put(ENGINE_VERSION, Version.version);
+        main.put(ENGINE_FINGERPRINT, InstrumentationCache.engineFingerprint());
+        main.put(JAVA_VERSION, System.getProperty("java.version"));
+        main.put(DEBUG_METHODS, Boolean.toString(config.getBoolean("bc.engine.debug-methods")));
+        main.put(PROFILER, Boolean.toString(profilerEnabled));
+        main.put(MERGE_BASIC_BLOCKS, Boolean.toString(config.getBoolean("bc.engine.merge-basic-blocks")));
+        main.put(INLINE_BYTECODE_COUNTER, Boolean.toString(config.getBoolean("bc.engine.inline-bytecode-counter")));
+        main.put(DIGEST, digest(classes));
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            final Attributes attributes = new Attributes();
+            attributes.put(ENTRY_DIGEST, entryDigest(entry.getValue()));
+            manifest.getEntries().put(entryName(entry.getKey()), attributes);
+        }
+
+        // Write next to the destination, then move, so nobody sees half a jar.
+        final Path absolute = out.toAbsolutePath();
+        final Path temp = Files.createTempFile(absolute.getParent(), "tmp-", ".jar");
+        try {
+            try (OutputStream file = Files.newOutputStream(temp);
+                 JarOutputStream jar = new JarOutputStream(file)) {
+                final JarEntry manifestEntry = new JarEntry(JarFile.MANIFEST_NAME);
+                manifestEntry.setTime(ENTRY_TIME);
+                jar.putNextEntry(manifestEntry);
+                manifest.write(jar);
+                jar.closeEntry();
+
+                for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                    final JarEntry jarEntry = new JarEntry(entryName(entry.getKey()));
+                    jarEntry.setTime(ENTRY_TIME);
+                    jar.putNextEntry(jarEntry);
+                    jar.write(entry.getValue());
+                    jar.closeEntry();
+                }
+            }
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        return main.getValue(DIGEST);
+    }
+
+    /**
+     * Read an instrumented jar, checking that it was made by this engine, with
+     * the current settings, and hasn't been tampered with.
+     *
+     * @param url the location of the jar
+     * @param expectedDigest the digest the jar must have
+     * @return the contents of the jar
+     * @throws InstrumentationException if the jar can't be read, or can't be used
+     */
+    public static InstrumentedJar read(URL url, String expectedDigest) throws InstrumentationException {
+        if (expectedDigest == null) {
+            // The manifest's own digest proves nothing: whoever can write the jar can rewrite it.
+            throw new InstrumentationException(ILLEGAL, "Instrumented jar " + url
+                    + " can't be trusted without an expected digest (bc.game.team-X.instrumented-sha256)");
+        }
+
+        final Path path;
+        try {
+            path = Paths.get(url.toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new InstrumentationException(MISSING, "Can't read instrumented jar " + url, e);
+        }
+
+        final Map<String, byte[]> classes = new HashMap<>();
+        final Manifest manifest;
+        try (JarFile jar = new JarFile(path.toFile())) {
+            manifest = jar.getManifest();
+            if (manifest == null) {
+                throw new InstrumentationException(ILLEGAL, "Instrumented jar " + url + " has no manifest");
+            }
+
+            for (JarEntry entry : Collections.list(jar.entries())) {
+                final String name = entry.getName();
+                if (entry.isDirectory() || name.startsWith("META-INF/")) {
+                    continue;
+                }
+                if (!name.endsWith(".class")) {
+                    throw new InstrumentationException(ILLEGAL, "Instrumented jar " + url + " has unexpected entry " + name);
+                }
+
+                final byte[] bytes;
+                try (InputStream in = jar.getInputStream(entry)) {
+                    bytes = readFully(in);
+                }
+                final Attributes attributes = manifest.getAttributes(name);
+                if (attributes == null || !entryDigest(bytes).equals(attributes.getValue(ENTRY_DIGEST))) {
+                    throw new InstrumentationException(ILLEGAL, "Instrumented jar " + url + " has a modified class " + name);
+                }
+                classes.put(name.substring(0, name.length() - 6).replace('/', '.'), bytes);
+            }
+        } catch (IOException e) {
+            throw new InstrumentationException(MISSING, "Can't read instrumented jar " + url, e);
+        }
+
+        final Attributes main = manifest.getMainAttributes();
+        if (manifest.getEntries().size() != classes.size()) {
+            throw new InstrumentationException(ILLEGAL, "Instrumented jar " + url + " is missing classes");
+        }
+        if (!InstrumentationCache.engineFingerprint().equals(main.getValue(ENGINE_FINGERPRINT))) {
+            throw new InstrumentationException(ILLEGAL, "Instrumented jar " + url + " was made by engine "
+                    + main.getValue(ENGINE_VERSION) + " on Java " + main.getValue(JAVA_VERSION)
+                    + ", not this one (" + Version.version + " on Java " + System.getProperty("java.version")
+                    + "); instrument the submission again");
+        }
+
+        final Config config = Config.getGlobalConfig();
+        checkSetting(url, main, DEBUG_METHODS, config.getBoolean("bc.engine.debug-methods"));
+        checkSetting(url, main, MERGE_BASIC_BLOCKS, config.getBoolean("bc.engine.merge-basic-blocks"));
+        checkSetting(url, main, INLINE_BYTECODE_COUNTER, config.getBoolean("bc.engine.inline-bytecode-counter"));
+
+        final String digest = digest(classes);
+        if (!digest.equals(main.getValue(DIGEST))) {
+            throw new InstrumentationException(ILLEGAL, "Instrumented jar " + url + " doesn't match its manifest");
+        }
+        if (!expectedDigest.equalsIgnoreCase(digest)) {
+            throw new InstrumentationException(ILLEGAL, "Instrumented jar " + url + " has digest " + digest
+                    + ", expected " + expectedDigest);
+        }
+
+        return new InstrumentedJar(classes, Boolean.parseBoolean(main.getValue(PROFILER)), digest);
+    }
+
+    private static void checkSetting(URL url, Attributes main, Attributes.Name setting, boolean expected) {
+        if (!Boolean.toString(expected).equals(main.getValue(setting))) {
+            throw new InstrumentationException(ILLEGAL, "Instrumented jar " + url + " was made with "
+                    + setting + " " + main.getValue(setting) + ", but this engine uses " + expected);
+        }
+    }
+
+    /**
+     * @param classes class files, by class name
+     * @return a hex SHA-256 over the names and contents of every class
+     */
+    static String digest(Map<String, byte[]> classes) {
+        final MessageDigest digest = InstrumentationCache.sha256();
+        for (String className : new TreeSet<>(classes.keySet())) {
+            digest.update(className.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(InstrumentationCache.sha256().digest(classes.get(className)));
+        }
+        return InstrumentationCache.toHex(digest.digest());
+    }
+
+    private static String entryDigest(byte[] bytes) {
+        return Base64.getEncoder().encodeToString(InstrumentationCache.sha256().digest(bytes));
+    }
+
+    private static String entryName(String className) {
+        return className.replace('.', '/') + ".class";
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
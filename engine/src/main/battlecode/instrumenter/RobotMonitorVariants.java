@@ -0,0 +1,197 @@
+package battlecode.instrumenter;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+
+import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
+
+/**
+ * The two versions of RobotMonitor we give to robots: the class as written,
+ * for robots that are being profiled, and a copy with all of its profiling
+ * code stripped out, for everyone else (i.e. every tournament match).
+ *
+ * To strip the profiling code, we remove the profiler field, every
+ * "if (profiler != null) { ... }" block, and the assignment in init. If
+ * RobotMonitor ever uses the field any other way, we fail loudly.
+ */
+final class RobotMonitorVariants {
+
+    static final String NAME = "battlecode.instrumenter.inject.RobotMonitor";
+
+    private static final String INTERNAL_NAME = NAME.replace('.', '/');
+
+    private static final String PROFILER_FIELD = "profiler";
+
+    private static final byte[] profiling;
+
+    private static final byte[] nonProfiling;
+
+    static {
+        profiling = TeamClassLoaderFactory.normalBytes(NAME);
+        nonProfiling = stripProfiler(profiling);
+    }
+
+    private RobotMonitorVariants() {}
+
+    /**
+     * @param profilerEnabled whether the robot is being profiled
+     * @return the class file of the RobotMonitor to give the robot
+     */
+    static byte[] get(boolean profilerEnabled) {
+        return profilerEnabled ? profiling : nonProfiling;
+    }
+
+    private static byte[] stripProfiler(byte[] classBytes) {
+        final ClassReader reader = new ClassReader(classBytes);
+        final ClassNode classNode = new ClassNode(Opcodes.ASM5);
+        // Expanded frames, so removing code doesn't throw off the frames after it.
+        reader.accept(classNode, ClassReader.EXPAND_FRAMES);
+
+        boolean foundField = false;
+        for (Iterator<?> fields = classNode.fields.iterator(); fields.hasNext(); ) {
+            if (((FieldNode) fields.next()).name.equals(PROFILER_FIELD)) {
+                fields.remove();
+                foundField = true;
+            }
+        }
+        if (!foundField) {
+            throw new IllegalStateException("RobotMonitor has no profiler field to strip");
+        }
+
+        for (Object method : classNode.methods) {
+            stripProfiler((MethodNode) method);
+        }
+
+        final ClassWriter writer = new ClassWriter(COMPUTE_MAXS);
+        classNode.accept(writer);
+        return writer.toByteArray();
+    }
+
+    private static void stripProfiler(MethodNode method) {
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; ) {
+            if (!isProfilerField(insn)) {
+                insn = insn.getNext();
+            } else if (insn.getOpcode() == Opcodes.PUTSTATIC) {
+                // Drop the value instead of storing it.
+                final AbstractInsnNode pop = new InsnNode(Opcodes.POP);
+                method.instructions.set(insn, pop);
+                insn = pop.getNext();
+            } else if (insn.getOpcode() == Opcodes.GETSTATIC
+                    && insn.getNext() != null
+                    && insn.getNext().getOpcode() == Opcodes.IFNULL) {
+                insn = removeBlock(method, insn, ((JumpInsnNode) insn.getNext()).label);
+            } else {
+                throw new IllegalStateException("Can't strip use of RobotMonitor.profiler in "
+                        + method.name + "; only use it in \"if (profiler != null) { ... }\" blocks");
+            }
+        }
+    }
+
+    /**
+     * Remove the instructions from start up to (but not including) end.
+     *
+     * @return end
+     */
+    private static AbstractInsnNode removeBlock(MethodNode method, AbstractInsnNode start, LabelNode end) {
+        final Set<AbstractInsnNode> block = new HashSet<>();
+        for (AbstractInsnNode insn = start; insn != end; insn = insn.getNext()) {
+            if (insn == null) {
+                throw new IllegalStateException("Backwards profiler block in " + method.name);
+            }
+            block.add(insn);
+        }
+
+        // Nothing outside the block may jump into it.
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (block.contains(insn)) {
+                continue;
+            }
+            for (LabelNode target : targets(insn)) {
+                if (block.contains(target)) {
+                    throw new IllegalStateException("Jump into profiler block in " + method.name);
+                }
+            }
+        }
+        for (Object o : method.tryCatchBlocks) {
+            final TryCatchBlockNode tryCatch = (TryCatchBlockNode) o;
+            if (block.contains(tryCatch.start) || block.contains(tryCatch.end) || block.contains(tryCatch.handler)) {
+                throw new IllegalStateException("Exception handler in profiler block in " + method.name);
+            }
+        }
+        if (method.localVariables != null) {
+            for (Iterator<?> locals = method.localVariables.iterator(); locals.hasNext(); ) {
+                final LocalVariableNode local = (LocalVariableNode) locals.next();
+                if (block.contains(local.start) || block.contains(local.end)) {
+                    locals.remove();
+                }
+            }
+        }
+
+        for (AbstractInsnNode insn : block) {
+            method.instructions.remove(insn);
+        }
+
+        // A frame just before the block now has the same offset as a frame
+        // just after it, which isn't allowed. Everything that reached the
+        // first also reached the second, so the second is the one to keep.
+        final AbstractInsnNode before = adjacentFrame(end, false);
+        if (before != null && adjacentFrame(end, true) != null) {
+            method.instructions.remove(before);
+        }
+        return end;
+    }
+
+    /**
+     * @return the first frame found from start going forwards (or backwards)
+     *         without passing an actual instruction, or null
+     */
+    private static AbstractInsnNode adjacentFrame(AbstractInsnNode start, boolean forwards) {
+        AbstractInsnNode insn = start;
+        while (insn != null && insn.getOpcode() == -1) {
+            if (insn.getType() == AbstractInsnNode.FRAME) {
+                return insn;
+            }
+            insn = forwards ? insn.getNext() : insn.getPrevious();
+        }
+        return null;
+    }
+
+    private static boolean isProfilerField(AbstractInsnNode insn) {
+        if (insn.getType() != AbstractInsnNode.FIELD_INSN) {
+            return false;
+        }
+        final FieldInsnNode field = (FieldInsnNode) insn;
+        return field.owner.equals(INTERNAL_NAME) && field.name.equals(PROFILER_FIELD);
+    }
+
+    private static List<LabelNode> targets(AbstractInsnNode insn) {
+        switch (insn.getType()) {
+            case AbstractInsnNode.JUMP_INSN:
+                return Collections.singletonList(((JumpInsnNode) insn).label);
+            case AbstractInsnNode.TABLESWITCH_INSN: {
+                final TableSwitchInsnNode tableSwitch = (TableSwitchInsnNode) insn;
+                final List<LabelNode> result = new ArrayList<>();
+                result.add(tableSwitch.dflt);
+                for (Object label : tableSwitch.labels) {
+                    result.add((LabelNode) label);
+                }
+                return result;
+            }
+            case AbstractInsnNode.LOOKUPSWITCH_INSN: {
+                final LookupSwitchInsnNode lookupSwitch = (LookupSwitchInsnNode) insn;
+                final List<LabelNode> result = new ArrayList<>();
+                result.add(lookupSwitch.dflt);
+                for (Object label : lookupSwitch.labels) {
+                    result.add((LabelNode) label);
+                }
+                return result;
+            }
+            default:
+                return Collections.emptyList();
+        }
+    }
+}
@@ -7,6 +7,7 @@ import battlecode.instrumenter.stream.RoboPrintStream;
 import battlecode.instrumenter.stream.SilencedPrintStream;
 import battlecode.server.ErrorReporter;
 import battlecode.server.Config;
+import battlecode.server.PhaseTimer;
 
 import java.io.OutputStream;
 import java.io.PrintStream;
@@ -293,6 +294,7 @@ public class SandboxedRobotPlayer {
         // Update the robot's information
         updateOut();
 
+        final long start = PhaseTimer.start();
         try {
             synchronized (notifier) {
                 // We are now running the robot!
@@ -310,6 +312,8 @@ public class SandboxedRobotPlayer {
         } catch (InterruptedException e) {
             throw new RuntimeException("Unexpected interruption", e);
         }
+        PhaseTimer.end(PhaseTimer.Phase.ROBOT_STEP, start,
+                robotController.getRoundNum(), 1, robotController.getTeam());
     }
 
     /**
@@ -2,20 +2,35 @@ package battlecode.instrumenter;
 
 import battlecode.instrumenter.bytecode.ClassReferenceUtil;
 import battlecode.instrumenter.bytecode.InstrumentingClassVisitor;
+import battlecode.instrumenter.bytecode.PackageTrie;
 import battlecode.server.Config;
+import battlecode.server.ErrorReporter;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static battlecode.instrumenter.InstrumentationException.Type.ILLEGAL;
 import static battlecode.instrumenter.InstrumentationException.Type.MISSING;
@@ -33,37 +48,45 @@ import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
  */
 public final class TeamClassLoaderFactory {
 
+    /**
+     * Why players can't put their classes in certain packages, by package.
+     * Packages that players may use map to null.
+     */
+    private static final PackageTrie<String> forbiddenPlayerPackages;
+
+    static {
+        final String battlecodeMessage =
+                "Sorry, you can't use the package 'battlecode.' or any of its subpackages, " +
+                "because you might be trying to hack the server, which isn't allowed. Move your code.";
+        final String systemMessage =
+                "Sorry, you can't use system packages ('java.', 'sun.', 'org.sun.') " +
+                "because you might be trying to hack the server, which isn't allowed. Move your code.";
+        final String libraryMessage =
+                "Sorry, you can't use certain library packages ('org.apache.', 'org.objectweb.') " +
+                "because you might be trying to hack the server, which isn't allowed. Move your code.";
+        final String kotlinMessage =
+                "Sorry, you can't use certain library packages ('kotlin.') " +
+                "because you might be trying to hack the server, which isn't allowed. Move your code.";
+
+        forbiddenPlayerPackages = new PackageTrie<String>(null)
+                .addSubtree("battlecode", battlecodeMessage)
+                .addSubtree("java", systemMessage)
+                .addSubtree("com/sun", systemMessage)
+                .addSubtree("sun", systemMessage)
+                .addSubtree("org/apache", libraryMessage)
+                .addSubtree("org/objectweb", libraryMessage)
+                .addSubtree("kotlin", kotlinMessage);
+    }
+
     /**
      * Players have no business writing bots that live in some packages.
      *
      * Class name should be in binary form, i.e. with .s and not /s
      */
-    private static void assertAllowedPackage(String packageName) throws InstrumentationException {
-        if (packageName.startsWith("battlecode.")) {
-            throw new InstrumentationException(
-                    ILLEGAL,
-                    "Sorry, you can't use the package 'battlecode.' or any of its subpackages, " +
-                    "because you might be trying to hack the server, which isn't allowed. Move your code."
-            );
-        } else if (packageName.startsWith("java.") || packageName.startsWith("com.sun.")
-            || packageName.startsWith("sun.")) {
-            throw new InstrumentationException(
-                    ILLEGAL,
-                    "Sorry, you can't use system packages ('java.', 'sun.', 'org.sun.') " +
-                    "because you might be trying to hack the server, which isn't allowed. Move your code."
-            );
-        } else if (packageName.startsWith("org.apache.") || packageName.startsWith("org.objectweb.")) {
-            throw new InstrumentationException(
-                    ILLEGAL,
-                    "Sorry, you can't use certain library packages ('org.apache.', 'org.objectweb.') " +
-                    "because you might be trying to hack the server, which isn't allowed. Move your code."
-            );
-        } else if (packageName.startsWith("kotlin.")) {
-            throw new InstrumentationException(
-                    ILLEGAL,
-                    "Sorry, you can't use certain library packages ('kotlin.') " +
-                    "because you might be trying to hack the server, which isn't allowed. Move your code."
-            );
+    static void assertAllowedPackage(String packageName) throws InstrumentationException {
+        final String message = forbiddenPlayerPackages.lookup(packageName, '.');
+        if (message != null) {
+            throw new InstrumentationException(ILLEGAL, message);
         }
     }
 
@@ -87,6 +110,25 @@ public final class TeamClassLoaderFactory {
             "battlecode.common.Clock"
     )));
 
+    /**
+     * Team classes in these packages are rejected by assertAllowedPackage, but
+     * before that happens they can change how library classes are instrumented,
+     * so we don't use the persistent cache for library classes if we see them.
+     */
+    private final static String[] SYSTEM_PACKAGE_PREFIXES = {
+            "java/", "javax/", "jdk/", "sun/", "com/sun/"
+    };
+
+    /**
+     * The constant pool tag of CONSTANT_Class entries.
+     */
+    private final static int CONSTANT_CLASS = 7;
+
+    /**
+     * The URL of the team's jar or folder.
+     */
+    private final URL teamURL;
+
     /**
      * We use this to find resources from the player URL.
      *
@@ -100,19 +142,51 @@ public final class TeamClassLoaderFactory {
      * The values are byte arrays, not Classes, because each instance of
      * InstrumentingClassLoader should define its own class, even if another
      * InstrumentingClassLoader has already loaded a class from the same class file.
+     *
+     * Concurrent, since precompile fills it from several threads.
      */
     private final Map<String, byte[]> instrumentedClasses;
 
     /**
      * If this team has an error, don't bother trying to cache again.
      */
-    private boolean hasError;
+    private volatile boolean hasError;
 
     /**
      * The ClassReferenceUtil used by this cache.
      */
     private final ClassReferenceUtil refUtil;
 
+    /**
+     * Instrumented classes stored on disk, shared between runs; or null.
+     */
+    private final InstrumentationCache persistentCache;
+
+    /**
+     * A digest of every class in the team's submission, included in the
+     * persistent cache keys of team classes: how a class is instrumented
+     * depends on which other classes the team has.
+     * Computed on first use; null if not yet computed or if the submission
+     * couldn't be read.
+     */
+    private String submissionDigest;
+
+    /**
+     * Whether submissionDigest has been computed yet.
+     */
+    private boolean submissionDigested;
+
+    /**
+     * Whether the team ships classes in system packages.
+     */
+    private boolean shadowsSystemPackages;
+
+    /**
+     * If the team's classes came from an InstrumentedJar, whether they were
+     * instrumented for profiled robots; otherwise null.
+     */
+    private Boolean prebuiltForProfiler;
+
     /**
      * Create a cache for classes loaded from a URL (or local file).
      * The URL can point to a jar file or a directory containing class
@@ -120,20 +194,37 @@ public final class TeamClassLoaderFactory {
      * is a bad idea, even if we do try to instrument it.
      * Resources will be searched for at the URL and then locally.
      *
+     * Instrumented classes are also stored in the persistent cache
+     * configured by bc.engine.instrument-cache-dir, if there is one.
+     *
      * @param classURL the URL to load clases from
      */
     public TeamClassLoaderFactory(final String classURL) {
+        this(classURL, InstrumentationCache.fromConfig(Config.getGlobalConfig()));
+    }
+
+    /**
+     * Create a cache for classes loaded from a URL (or local file).
+     *
+     * @param classURL the URL to load clases from
+     * @param persistentCache where to store instrumented classes between runs, or null
+     */
+    public TeamClassLoaderFactory(final String classURL, final InstrumentationCache persistentCache) {
         URL url;
         try {
             url = getFilesystemURL(classURL);
         } catch (InstrumentationException e) {
+            this.teamURL = null;
             this.teamResourceLookup = null;
             this.hasError = true;
             this.instrumentedClasses = null;
             this.refUtil = null;
+            this.persistentCache = null;
             return;
         }
 
+        this.teamURL = url;
+
         this.teamResourceLookup = new URLClassLoader(
                 new URL[] { url }
         ) {
@@ -147,9 +238,41 @@ public final class TeamClassLoaderFactory {
                 return findResource(name);
             }
         };
-        this.instrumentedClasses = new HashMap<>();
+        this.instrumentedClasses = new ConcurrentHashMap<>();
         this.hasError = false;
         this.refUtil = new ClassReferenceUtil(this);
+        this.persistentCache = persistentCache;
+    }
+
+    /**
+     * Create a factory for classes that have already been instrumented, by
+     * InstrumentedJar. Every class in the jar is checked against its hash and
+     * then trusted as is; nothing in the jar is instrumented again.
+     *
+     * If the jar can't be used, or no digest is given to check it against,
+     * the factory has an error, like a factory for a submission that can't be
+     * found.
+     *
+     * @param instrumentedURL the location of the instrumented jar
+     * @param expectedDigest the digest the jar must have
+     * @return a factory for the classes in the jar
+     */
+    public static TeamClassLoaderFactory fromInstrumentedJar(final String instrumentedURL,
+                                                             final String expectedDigest) {
+        final TeamClassLoaderFactory factory = new TeamClassLoaderFactory(instrumentedURL, null);
+        if (factory.hasError) {
+            return factory;
+        }
+
+        try {
+            final InstrumentedJar jar = InstrumentedJar.read(factory.teamURL, expectedDigest);
+            factory.instrumentedClasses.putAll(jar.classes);
+            factory.prebuiltForProfiler = jar.profilerEnabled;
+        } catch (InstrumentationException e) {
+            ErrorReporter.report(e.getMessage(), false);
+            factory.hasError = true;
+        }
+        return factory;
     }
 
     /**
@@ -157,7 +280,34 @@ public final class TeamClassLoaderFactory {
      * @return
      */
     public Loader createLoader(boolean profilerEnabled) {
-        return new Loader(profilerEnabled);
+        return new Loader(profilerEnabled, profilerEnabled);
+    }
+
+    /**
+     * Create a loader for a new robot of a team that's profiling some of its
+     * robots. Every class the team loads is cached for all of its robots, so
+     * they must all be instrumented the same way: with calls to the profiler
+     * if any robot may be profiled. Robots that aren't get a RobotMonitor
+     * that ignores those calls.
+     *
+     * @param profilerHooks whether to instrument classes with calls to the profiler
+     * @param profilerEnabled whether this robot is being profiled
+     * @return
+     */
+    public Loader createLoader(boolean profilerHooks, boolean profilerEnabled) {
+        if (profilerEnabled && !profilerHooks) {
+            throw new IllegalArgumentException("Can't profile a robot without profiler hooks");
+        }
+        return new Loader(profilerHooks, profilerEnabled);
+    }
+
+    /**
+     * Create a loader that instruments with the given settings, rather than
+     * the configured ones. Only for calling instrument() on: anything the
+     * loader loads is cached for the whole factory.
+     */
+    Loader createLoader(boolean profilerEnabled, boolean mergeBasicBlocks, boolean inlineBytecodeCounter) {
+        return new Loader(profilerEnabled, profilerEnabled, mergeBasicBlocks, inlineBytecodeCounter);
     }
 
     /**
@@ -185,6 +335,172 @@ public final class TeamClassLoaderFactory {
         this.instrumentedClasses.put(className, classBytes);
     }
 
+    /**
+     * @return the names of every class we've cached the bytes of
+     */
+    Set<String> getCachedClassNames() {
+        return new HashSet<>(this.instrumentedClasses.keySet());
+    }
+
+    /**
+     * @return whether the team's classes came from an InstrumentedJar
+     */
+    public boolean isPrebuilt() {
+        return prebuiltForProfiler != null;
+    }
+
+    /**
+     * Instrument every class in the team's submission ahead of time, along with
+     * all of the library (instrumented.*) classes they reference, spread across
+     * several threads. Robots created afterwards don't have to instrument
+     * anything themselves.
+     *
+     * Classes that fail to instrument are left out of the cache; if a robot
+     * does load one of them later, it will fail the same way it would have
+     * without precompiling.
+     *
+     * @param profilerEnabled whether the robots using this factory will be profiled
+     * @return the problems found, one per class that couldn't be instrumented
+     */
+    public List<InstrumentationException> precompile(boolean profilerEnabled) {
+        if (hasError) {
+            return Collections.singletonList(
+                    new InstrumentationException(ILLEGAL, "Team is known to have errors"));
+        }
+
+        final List<String> teamClasses;
+        try {
+            teamClasses = getTeamClassNames();
+        } catch (InstrumentationException e) {
+            return Collections.singletonList(e);
+        }
+
+        final Precompiler precompiler = new Precompiler(
+                new Loader(profilerEnabled, profilerEnabled),
+                Config.getGlobalConfig().getBoolean("bc.engine.debug-methods")
+        );
+
+        final List<Precompiler.PrecompileTask> tasks = new ArrayList<>();
+        for (String className : teamClasses) {
+            tasks.add(precompiler.new PrecompileTask(className.replace('/', '.'), true));
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+
+        return new ArrayList<>(precompiler.errors);
+    }
+
+    /**
+     * Shared state for one call to precompile.
+     */
+    private final class Precompiler {
+        final Loader loader;
+        final boolean debugMethodsEnabled;
+        final Set<String> seen = ConcurrentHashMap.newKeySet();
+        final Queue<InstrumentationException> errors = new ConcurrentLinkedQueue<>();
+
+        Precompiler(Loader loader, boolean debugMethodsEnabled) {
+            this.loader = loader;
+            this.debugMethodsEnabled = debugMethodsEnabled;
+        }
+
+        /**
+         * Instruments one class, then forks tasks for the library classes it references.
+         */
+        final class PrecompileTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final String name;
+            private final boolean teamClass;
+
+            PrecompileTask(String name, boolean teamClass) {
+                this.name = name;
+                this.teamClass = teamClass;
+            }
+
+            @Override
+            protected void compute() {
+                if (!seen.add(name) || hasCached(name)) {
+                    return;
+                }
+
+                final byte[] classBytes;
+                try {
+                    if (teamClass) {
+                        assertAllowedPackage(name);
+                    }
+                    classBytes = loader.instrumentCached(name, teamClass, teamClass && debugMethodsEnabled);
+                } catch (InstrumentationException e) {
+                    errors.add(e);
+                    return;
+                } catch (RuntimeException e) {
+                    // ASM doesn't take kindly to malformed class files.
+                    errors.add(new InstrumentationException(ILLEGAL, "Can't instrument class " + name, e));
+                    return;
+                }
+                setCached(name, classBytes);
+
+                final List<PrecompileTask> referenced = new ArrayList<>();
+                for (String referencedName : referencedInstrumentedClasses(classBytes)) {
+                    if (!seen.contains(referencedName)) {
+                        referenced.add(new PrecompileTask(referencedName, false));
+                    }
+                }
+                invokeAll(referenced);
+            }
+        }
+    }
+
+    /**
+     * Find the library classes an instrumented class refers to, by reading the
+     * class entries of its constant pool.
+     *
+     * @param classBytes an instrumented class file
+     * @return the names of the instrumented.* classes it refers to, in the form
+     *         instrumented.java.util.ArrayList
+     */
+    private static Set<String> referencedInstrumentedClasses(byte[] classBytes) {
+        final ClassReader reader = new ClassReader(classBytes);
+        final char[] buffer = new char[reader.getMaxStringLength()];
+        final Set<String> result = new HashSet<>();
+
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            final int offset = reader.getItem(i);
+            // Offset 0 is the unusable slot after a long or double constant.
+            if (offset == 0 || classBytes[offset - 1] != CONSTANT_CLASS) {
+                continue;
+            }
+
+            String name = reader.readUTF8(offset, buffer);
+            int dimensions = 0;
+            while (name.charAt(dimensions) == '[') {
+                dimensions++;
+            }
+            if (dimensions > 0) {
+                if (name.charAt(dimensions) != 'L') {
+                    continue;
+                }
+                name = name.substring(dimensions + 1, name.length() - 1);
+            }
+
+            if (name.startsWith("instrumented/")) {
+                result.add(name.replace('/', '.'));
+            }
+        }
+
+        return result;
+    }
+
     /**
      * @return whether the team is known to have errors
      */
@@ -200,6 +516,58 @@ public final class TeamClassLoaderFactory {
         return getTeamURL(toResourceName(className)) != null;
     }
 
+    /**
+     * List every class in the team's jar or folder, leaving out anything
+     * under META-INF and module-info and package-info.
+     *
+     * @return the names of the team's classes, in the form
+     *         somepackage/RobotPlayer, sorted
+     * @throws InstrumentationException if the team's container can't be read
+     */
+    public List<String> getTeamClassNames() throws InstrumentationException {
+        if (teamURL == null) {
+            throw new InstrumentationException(MISSING, "Team has no classes to list");
+        }
+
+        final List<String> resources = new ArrayList<>();
+        try {
+            final Path path = Paths.get(teamURL.toURI());
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.walk(path)) {
+                    resources.addAll(files
+                            .filter(Files::isRegularFile)
+                            .map(file -> path.relativize(file).toString().replace(File.separatorChar, '/'))
+                            .collect(Collectors.toList()));
+                }
+            } else {
+                try (JarFile jar = new JarFile(path.toFile())) {
+                    for (JarEntry entry : Collections.list(jar.entries())) {
+                        if (!entry.isDirectory()) {
+                            resources.add(entry.getName());
+                        }
+                    }
+                }
+            }
+        } catch (IOException | URISyntaxException e) {
+            throw new InstrumentationException(MISSING, "Can't list classes in "+teamURL, e);
+        }
+
+        // Multi-release classes and module and package descriptors aren't loadable classes
+        final List<String> classNames = new ArrayList<>();
+        for (String resource : resources) {
+            if (!resource.endsWith(".class") || resource.startsWith("META-INF/")) {
+                continue;
+            }
+            final String className = resource.substring(0, resource.length() - 6);
+            final String simpleName = className.substring(className.lastIndexOf('/') + 1);
+            if (!simpleName.equals("module-info") && !simpleName.equals("package-info")) {
+                classNames.add(className);
+            }
+        }
+        Collections.sort(classNames);
+        return classNames;
+    }
+
     /**
      * Get the URL of a resource from the team's container.
      *
@@ -257,6 +625,88 @@ public final class TeamClassLoaderFactory {
         throw new InstrumentationException(MISSING, "Can't load class "+className+" from player classpath");
     }
 
+    /**
+     * Read the raw bytes of a class from the system classloader
+     *
+     * @param className the name of the class
+     * @return the contents of the class file
+     * @throws InstrumentationException if the class cannot be read
+     */
+    public static byte[] normalBytes(String className) throws InstrumentationException {
+        URL resURL = getNormalURL(toResourceName(className));
+        if (resURL != null) {
+            try {
+                return readFully(resURL);
+            } catch (IOException e) {
+                throw new InstrumentationException(MISSING, "Can't load class "+className+" on the system classpath", e);
+            }
+        }
+        throw new InstrumentationException(MISSING, "Can't load class "+className+" on the system classpath");
+    }
+
+    /**
+     * Read the raw bytes of a class from the team classloader
+     *
+     * @param className the name of the class
+     * @return the contents of the class file
+     * @throws InstrumentationException if the class cannot be read
+     */
+    public byte[] teamBytes(String className) throws InstrumentationException {
+        URL resURL = getTeamURL(toResourceName(className));
+        if (resURL != null) {
+            try {
+                return readFully(resURL);
+            } catch (IOException e) {
+                throw new InstrumentationException(MISSING, "Can't load class "+className+" from player classpath", e);
+            }
+        }
+        throw new InstrumentationException(MISSING, "Can't load class "+className+" from player classpath");
+    }
+
+    private static byte[] readFully(URL url) throws IOException {
+        try (InputStream in = url.openStream()) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Hash every class the team has, so that persistent cache entries for
+     * team classes are only reused for the exact same submission.
+     *
+     * @return the digest, or null if the submission can't be read
+     */
+    private synchronized String getSubmissionDigest() {
+        if (!submissionDigested) {
+            submissionDigested = true;
+            try {
+                final MessageDigest digest = InstrumentationCache.sha256();
+                for (String className : getTeamClassNames()) {
+                    for (String prefix : SYSTEM_PACKAGE_PREFIXES) {
+                        if (className.startsWith(prefix)) {
+                            shadowsSystemPackages = true;
+                        }
+                    }
+                    final byte[] classBytes = teamBytes(className);
+                    digest.update(className.getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
+                    digest.update(Integer.toString(classBytes.length).getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
+                    digest.update(classBytes);
+                }
+                submissionDigest = InstrumentationCache.toHex(digest.digest());
+            } catch (InstrumentationException e) {
+                submissionDigest = null;
+            }
+        }
+        return submissionDigest;
+    }
+
     /**
      * @param maybeFactory a factory to look in, or null to only look at the system.
      * @param className the class to read.
@@ -345,6 +795,7 @@ public final class TeamClassLoaderFactory {
      *     If we've already loaded it as a full Class<?>, return it.
      *     If someone in our team's factory has already loaded it as a byte[],
      *       redefine that byte[], redefine it as a Class<?>, return it.
+     *     If it is RobotMonitor, load the version with or without profiling code as a class.
      *     If it is special, load it as a byte[], cache the byte[], load the byte[] as a class.
      *     If it is in the team's code blob (a .jar or folder),
      *       load it as a byte[], instrument the byte[], cache the instrumented byte[],
@@ -364,17 +815,50 @@ public final class TeamClassLoaderFactory {
          */
         private final Map<String, Class<?>> loadedCache;
 
+        /**
+         * Whether classes are instrumented with calls to the profiler.
+         */
+        private final boolean profilerHooks;
+
         /**
          * Whether bytecode profiling is enabled or not.
          */
         private final boolean profilerEnabled;
 
+        /**
+         * Whether to merge bytecode accounting across straight-line basic blocks.
+         */
+        private final boolean mergeBasicBlocks;
+
+        /**
+         * Whether to count bytecodes with inline arithmetic, calling
+         * RobotMonitor only when something needs to happen.
+         */
+        private final boolean inlineBytecodeCounter;
+
         /**
          * Create a loader.
          *
          * @throws InstrumentationException if we fail to create a loader for some reason.
          */
-        private Loader(boolean profilerEnabled) throws InstrumentationException {
+        private Loader(boolean profilerHooks, boolean profilerEnabled) throws InstrumentationException {
+            this(
+                    profilerHooks,
+                    profilerEnabled,
+                    Config.getGlobalConfig().getBoolean("bc.engine.merge-basic-blocks"),
+                    Config.getGlobalConfig().getBoolean("bc.engine.inline-bytecode-counter")
+            );
+        }
+
+        /**
+         * Create a loader with the given instrumentation settings.
+         *
+         * @throws InstrumentationException if we fail to create a loader for some reason.
+         */
+        private Loader(boolean profilerHooks,
+                       boolean profilerEnabled,
+                       boolean mergeBasicBlocks,
+                       boolean inlineBytecodeCounter) throws InstrumentationException {
 
             // use our classloader as a parent, rather than the default
             // system classloader
@@ -395,8 +879,19 @@ public final class TeamClassLoaderFactory {
                 }
             }*/
 
+            Boolean prebuiltForProfiler = TeamClassLoaderFactory.this.prebuiltForProfiler;
+            if (prebuiltForProfiler != null && prebuiltForProfiler != profilerHooks) {
+                throw new InstrumentationException(ILLEGAL, "Team was instrumented "
+                        + (prebuiltForProfiler ? "with" : "without")
+                        + " the profiler, but is being run "
+                        + (profilerHooks ? "with" : "without") + " it");
+            }
+
             this.loadedCache = new HashMap<>();
+            this.profilerHooks = profilerHooks;
             this.profilerEnabled = profilerEnabled;
+            this.mergeBasicBlocks = mergeBasicBlocks;
+            this.inlineBytecodeCounter = inlineBytecodeCounter;
         }
 
         public TeamClassLoaderFactory getFactory() {
@@ -422,7 +917,12 @@ public final class TeamClassLoaderFactory {
             // this is the class we'll return
             Class finishedClass;
 
-            if (TeamClassLoaderFactory.this.hasCached(name)) {
+            if (name.equals(RobotMonitorVariants.NAME)) {
+                // Like the rest of alwaysRedefine, but robots that aren't
+                // being profiled get a monitor without any profiling code.
+                byte[] classBytes = RobotMonitorVariants.get(profilerEnabled);
+                finishedClass = defineClass(null, classBytes, 0, classBytes.length);
+            } else if (TeamClassLoaderFactory.this.hasCached(name)) {
                 byte[] classBytes = TeamClassLoaderFactory.this.getCached(name);
                 finishedClass = defineClass(null, classBytes, 0, classBytes.length);
             } else if (alwaysRedefine.contains(name)) {
@@ -451,8 +951,8 @@ public final class TeamClassLoaderFactory {
 
                 final byte[] classBytes;
                 try {
-                    classBytes = instrument(
-                            TeamClassLoaderFactory.this.teamReader(name),
+                    classBytes = instrumentCached(
+                            name,
                             true,
                             Config.getGlobalConfig().getBoolean("bc.engine.debug-methods")
                     );
@@ -470,9 +970,7 @@ public final class TeamClassLoaderFactory {
                 // we would need to modify ObjectHashCode.
                 byte[] classBytes;
                 try {
-                    classBytes = instrument(
-                            TeamClassLoaderFactory.normalReader(name),
-                            false, false);
+                    classBytes = instrumentCached(name, false, false);
                 } catch (InstrumentationException ie) {
                     TeamClassLoaderFactory.this.hasError = true;
                     throw ie;
@@ -518,6 +1016,66 @@ public final class TeamClassLoaderFactory {
 
         }
 
+        /**
+         * Instrument a class, going through the persistent cache if there is one.
+         *
+         * @param name the name of the class
+         * @param teamClass whether to read the class from the team (rather than the system)
+         *                  and check it for disallowed references
+         * @param debugMethodsEnabled whether to keep debug methods
+         * @return the instrumented class file
+         * @throws InstrumentationException if the class can't be read or instrumented
+         */
+        public byte[] instrumentCached(String name,
+                                       boolean teamClass,
+                                       boolean debugMethodsEnabled) throws InstrumentationException {
+            final TeamClassLoaderFactory factory = TeamClassLoaderFactory.this;
+            final byte[] originalBytes = teamClass ? factory.teamBytes(name) : normalBytes(name);
+
+            final String salt = cacheSalt(teamClass, debugMethodsEnabled);
+            if (factory.persistentCache == null || salt == null) {
+                return instrument(new ClassReader(originalBytes), teamClass, debugMethodsEnabled);
+            }
+
+            final String key = InstrumentationCache.key(salt, originalBytes);
+            byte[] classBytes = factory.persistentCache.get(key);
+            if (classBytes == null) {
+                classBytes = instrument(new ClassReader(originalBytes), teamClass, debugMethodsEnabled);
+                factory.persistentCache.put(key, classBytes);
+            }
+            return classBytes;
+        }
+
+        /**
+         * Describe everything, besides the class itself, that affects how
+         * a class is instrumented.
+         *
+         * @return the description, or null if the class shouldn't be cached
+         */
+        private String cacheSalt(boolean teamClass, boolean debugMethodsEnabled) {
+            final TeamClassLoaderFactory factory = TeamClassLoaderFactory.this;
+            if (factory.persistentCache == null) {
+                return null;
+            }
+
+            final String submission = factory.getSubmissionDigest();
+            if (submission == null) {
+                return null;
+            }
+
+            final String flags = ";debug=" + debugMethodsEnabled
+                    + ";profiler=" + profilerHooks
+                    + ";merge=" + mergeBasicBlocks
+                    + ";inline=" + inlineBytecodeCounter;
+            if (teamClass) {
+                return "team:" + submission + flags;
+            } else if (factory.shadowsSystemPackages) {
+                return null;
+            } else {
+                return "system" + flags;
+            }
+        }
+
         public byte[] instrument(ClassReader reader,
                                  boolean checkDisallowed,
                                  boolean debugMethodsEnabled) throws InstrumentationException {
@@ -529,9 +1087,12 @@ public final class TeamClassLoaderFactory {
                     false,
                     checkDisallowed,
                     debugMethodsEnabled,
-                    profilerEnabled
+                    profilerHooks,
+                    mergeBasicBlocks,
+                    inlineBytecodeCounter
             );
-            reader.accept(cv, 0);        //passing false lets debug info be included in the transformation, so players get line numbers in stack traces
+            //passing no SKIP_DEBUG lets debug info be included in the transformation, so players get line numbers in stack traces
+            reader.accept(cv, inlineBytecodeCounter ? ClassReader.EXPAND_FRAMES : 0);
             return cw.toByteArray();
         }
 
@@ -1,11 +1,28 @@
 package battlecode.instrumenter;
 
+import battlecode.server.Config;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
+import static battlecode.instrumenter.InstrumentationException.Type.ILLEGAL;
 import static battlecode.instrumenter.InstrumentationException.Type.MISSING;
 
 /**
@@ -15,15 +32,36 @@ import static battlecode.instrumenter.InstrumentationException.Type.MISSING;
  * <code>java Verifier teamXXX</code><br>
  * If the submission passes, the Java process will return 0, and there will be no output to stderr.  If the
  * submission fails, the Java process will return 1, and there will be error messages in stderr.
+ * <p/>
+ * Batch usage:<br>
+ * <code>java Verifier --batch manifest reportDir</code><br>
+ * where every line of the manifest is a team package and the url of its submission, separated by whitespace.
+ * The submissions are verified in parallel, each with its own TeamClassLoaderFactory, and a JSON report is
+ * written to reportDir/teamXXX.json for each of them (see verifyBatch). The Java process returns 0 if every
+ * submission passes, and 1 otherwise.
  *
  * @author adamd
  */
 public class Verifier {
+
+    private static final String MONITOR = "battlecode/instrumenter/inject/RobotMonitor";
+
     public static void main(String[] args) {
+        if (args.length == 3 && args[0].equals("--batch")) {
+            try {
+                if (!verifyBatch(Paths.get(args[1]), Paths.get(args[2]))) System.exit(1);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
         if (args.length != 2) {
             System.err.println("Usage: battlecode.instrumenter.Verifier ${team} ${team.url}, where team is a package" +
                     "containing a RobotPlayer and team.url is a folder or jar containing all of the player-defined class files" +
                     "for that RobotPlayer");
+            System.err.println("   or: battlecode.instrumenter.Verifier --batch ${manifest} ${reportDir}, where each line" +
+                    " of manifest is a ${team} ${team.url} pair");
         }
         if (!verify(args[0], args[1])) System.exit(1);
     }
@@ -78,4 +116,270 @@ public class Verifier {
             }
         });
     }
+
+    /**
+     * Verify every submission in a manifest, and write a report for each.
+     *
+     * Unlike verify, this doesn't stop at the first bad class: every class of
+     * every submission is instrumented (in parallel), and each report lists
+     * all the classes that failed. The instrumenter stops at the first
+     * disallowed reference in a class, though, so only one is reported per class.
+     *
+     * @param manifest a file with one "teamXXX url" pair per line; blank lines
+     *                 and lines starting with # are ignored
+     * @param reportDir the directory to write teamXXX.json to, for each team
+     * @return whether every submission passed
+     * @throws IOException if the manifest can't be read or a report can't be written
+     */
+    public static boolean verifyBatch(Path manifest, Path reportDir) throws IOException {
+        final List<String[]> submissions = new ArrayList<>();
+        final Set<String> packages = new HashSet<>();
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+
+            final String[] submission = line.split("\\s+", 2);
+            if (submission.length != 2) {
+                throw new IOException("Bad manifest line, expected \"team url\": " + line);
+            }
+            if (!packages.add(submission[0])) {
+                throw new IOException("Team " + submission[0] + " appears twice in the manifest");
+            }
+            submissions.add(submission);
+        }
+
+        Files.createDirectories(reportDir);
+
+        final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        final List<SubmissionReport> reports;
+        try {
+            // Parallel streams run in the pool they're started from, so both
+            // submissions and the classes within them are spread over it.
+            reports = pool.submit(() -> submissions.parallelStream()
+                    .map(submission -> verifySubmission(submission[0], submission[1]))
+                    .collect(Collectors.toList())
+            ).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Verification was interrupted", e);
+        } finally {
+            pool.shutdown();
+        }
+
+        boolean allPassed = true;
+        for (SubmissionReport report : reports) {
+            Files.write(reportDir.resolve(report.teamPackageName + ".json"),
+                    report.toJson().getBytes(StandardCharsets.UTF_8));
+            System.out.println(report.teamPackageName + ": " + (report.passed() ? "passed" : "FAILED")
+                    + " (" + report.classes.size() + " classes, " + (report.nanos / 1000000) + " ms)");
+            allPassed &= report.passed();
+        }
+        return allPassed;
+    }
+
+    /**
+     * Verify one submission with a factory of its own.
+     *
+     * @param teamPackageName the package containing the team's RobotPlayer
+     * @param teamURL the folder or jar containing the team's classes
+     * @return the report for the submission
+     */
+    public static SubmissionReport verifySubmission(String teamPackageName, String teamURL) {
+        final long start = System.nanoTime();
+        final SubmissionReport report = new SubmissionReport(teamPackageName, teamURL);
+
+        final TeamClassLoaderFactory factory = new TeamClassLoaderFactory(teamURL);
+        final List<String> classNames;
+        try {
+            if (factory.getError()) {
+                throw new InstrumentationException(MISSING, "Can't read submission " + teamURL);
+            }
+            classNames = factory.getTeamClassNames();
+        } catch (InstrumentationException e) {
+            report.errors.add(e.getMessage());
+            report.nanos = System.nanoTime() - start;
+            return report;
+        }
+
+        final TeamClassLoaderFactory.Loader loader = factory.createLoader(false);
+        final boolean debugMethodsEnabled = Config.getGlobalConfig().getBoolean("bc.engine.debug-methods");
+        report.classes.addAll(classNames.parallelStream()
+                .map(className -> verifyClass(factory, loader, className.replace('/', '.'), debugMethodsEnabled))
+                .collect(Collectors.toList()));
+
+        report.referenceHits = loader.getRefUtil().getReferenceHits();
+        report.referenceMisses = loader.getRefUtil().getReferenceMisses();
+
+        final String robotPlayer = teamPackageName + ".RobotPlayer";
+        if (!classNames.contains(robotPlayer.replace('.', '/'))) {
+            report.errors.add(MISSING + " Submission has no class " + robotPlayer);
+        } else if (factory.hasCached(robotPlayer)) {
+            // Make sure the JVM accepts the instrumented class, too.
+            try {
+                loader.loadClass(robotPlayer);
+            } catch (ClassNotFoundException | LinkageError | InstrumentationException e) {
+                report.errors.add(ILLEGAL + " Can't load " + robotPlayer + ": " + e);
+            }
+        }
+
+        report.nanos = System.nanoTime() - start;
+        return report;
+    }
+
+    private static ClassReport verifyClass(TeamClassLoaderFactory factory,
+                                           TeamClassLoaderFactory.Loader loader,
+                                           String className,
+                                           boolean debugMethodsEnabled) {
+        final long start = System.nanoTime();
+        final ClassReport report = new ClassReport(className);
+        try {
+            TeamClassLoaderFactory.assertAllowedPackage(className);
+            report.originalSize = factory.teamBytes(className).length;
+            final byte[] classBytes = loader.instrumentCached(className, true, debugMethodsEnabled);
+            factory.setCached(className, classBytes);
+            report.instrumentedSize = classBytes.length;
+            report.accountingPoints = countAccountingPoints(classBytes);
+        } catch (InstrumentationException e) {
+            report.error = e.getMessage();
+            report.disallowed = e.type == ILLEGAL;
+        } catch (RuntimeException e) {
+            // ASM doesn't take kindly to malformed class files.
+            report.error = ILLEGAL + " Can't instrument class " + className + ": " + e;
+        }
+        report.nanos = System.nanoTime() - start;
+        return report;
+    }
+
+    /**
+     * @param classBytes an instrumented class file
+     * @return the number of places bytecodes are charged to the robot
+     */
+    private static int countAccountingPoints(byte[] classBytes) {
+        final int[] count = {0};
+        new ClassReader(classBytes).accept(new ClassVisitor(Opcodes.ASM5) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM5) {
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                        // With the inline counter, every charge has exactly one slow path call.
+                        if (owner.equals(MONITOR) &&
+                                (name.equals("incrementBytecodes") || name.equals("incrementBytecodesSlowPath"))) {
+                            count[0]++;
+                        }
+                    }
+                };
+            }
+        }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return count[0];
+    }
+
+    /**
+     * What we found out about one submission.
+     */
+    public static final class SubmissionReport {
+        public final String teamPackageName;
+        public final String teamURL;
+        public final List<ClassReport> classes = new ArrayList<>();
+        /**
+         * Problems with the submission as a whole.
+         */
+        public final List<String> errors = new ArrayList<>();
+        public long nanos;
+        /**
+         * How many class references the instrumenter looked up were already
+         * memoized, and how many weren't.
+         */
+        public long referenceHits;
+        public long referenceMisses;
+
+        SubmissionReport(String teamPackageName, String teamURL) {
+            this.teamPackageName = teamPackageName;
+            this.teamURL = teamURL;
+        }
+
+        public boolean passed() {
+            if (!errors.isEmpty()) return false;
+            for (ClassReport c : classes) {
+                if (c.error != null) return false;
+            }
+            return true;
+        }
+
+        public String toJson() {
+            final StringBuilder json = new StringBuilder();
+            json.append("{\n");
+            json.append("  \"team\": ").append(quote(teamPackageName)).append(",\n");
+            json.append("  \"url\": ").append(quote(teamURL)).append(",\n");
+            json.append("  \"passed\": ").append(passed()).append(",\n");
+            json.append("  \"verificationMillis\": ").append(nanos / 1000000.0).append(",\n");
+            json.append("  \"classReferences\": {\"hits\": ").append(referenceHits)
+                    .append(", \"misses\": ").append(referenceMisses).append("},\n");
+
+            json.append("  \"errors\": [");
+            appendStrings(json, errors);
+            json.append("],\n");
+
+            final List<String> disallowed = new ArrayList<>();
+            for (ClassReport c : classes) {
+                if (c.disallowed) disallowed.add(c.error);
+            }
+            json.append("  \"disallowedReferences\": [");
+            appendStrings(json, disallowed);
+            json.append("],\n");
+
+            json.append("  \"classes\": [");
+            for (int i = 0; i < classes.size(); i++) {
+                json.append(i == 0 ? "\n" : ",\n");
+                json.append("    ");
+                classes.get(i).appendJson(json);
+            }
+            json.append(classes.isEmpty() ? "]\n" : "\n  ]\n");
+            json.append("}\n");
+            return json.toString();
+        }
+    }
+
+    /**
+     * What we found out about one class of a submission.
+     */
+    public static final class ClassReport {
+        public final String className;
+        public int originalSize;
+        public int instrumentedSize;
+        public int accountingPoints;
+        public long nanos;
+        /**
+         * Why the class failed to instrument, or null if it didn't.
+         */
+        public String error;
+        /**
+         * Whether the error is a reference to something players may not use.
+         */
+        public boolean disallowed;
+
+        ClassReport(String className) {
+            this.className = className;
+        }
+
+        void appendJson(StringBuilder json) {
+            json.append("{\"name\": ").append(quote(className));
+            json.append(", \"originalSize\": ").append(originalSize);
+            json.append(", \"instrumentedSize\": ").append(instrumentedSize);
+            json.append(", \"accountingPoints\": ").append(accountingPoints);
+            json.append(", \"verificationMillis\": ").append(nanos / 1000000.0);
+            json.append(", \"error\": ").append(error == null ? "null" : quote(error));
+            json.append("}");
+        }
+    }
+
+    private static void appendStrings(StringBuilder json, List<String> strings) {
+        for (int i = 0; i < strings.size(); i++) {
+            if (i > 0) json.append(", ");
+            json.append(quote(strings.get(i)));
+        }
+    }
+
+    private static String quote(String s) {
+        return "\"" + StringEscapeUtils.escapeJson(s) + "\"";
+    }
 }
@@ -9,8 +9,9 @@ import org.objectweb.asm.signature.SignatureWriter;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import static battlecode.instrumenter.InstrumentationException.Type.ILLEGAL;
 import static battlecode.instrumenter.InstrumentationException.Type.MISSING;
@@ -34,15 +35,17 @@ public class ClassReferenceUtil {
     private final static String DISALLOWED_RESOURCE_FILE = "resources/DisallowedClasses.txt";
 
     /**
-     * Packages for which the player is allowed to use any of the contained classes;
-     * loaded from AllowedPackages.txt
+     * Whether the player is allowed to use a class. Classes directly in the
+     * packages listed in AllowedPackages.txt are allowed, unless they're listed
+     * in DisallowedClasses.txt.
      */
-    private final static Set<String> allowedPackages;
+    private final static PackageTrie<Boolean> allowedClasses;
 
     /**
-     * Classes the player is not allowed to use; loaded from DisallowedClasses.txt
+     * Whether references to a class should be replaced with references to
+     * our instrumented copy of it.
      */
-    private final static Set<String> disallowedClasses;
+    private final static PackageTrie<Boolean> instrumentedPrefixClasses;
 
     // We can't instrument these classes because they have native methods.  Java won't allow us
     // to create an instrumented class that has the same prefix as a builtin class, so we have to
@@ -52,8 +55,25 @@ public class ClassReferenceUtil {
 
     private final TeamClassLoaderFactory factory;
 
+    /**
+     * Results of classReference, with and without checking for disallowed
+     * classes. Failed references aren't remembered, so they fail every time.
+     */
+    private final Map<String, String> checkedReferences;
+    private final Map<String, String> uncheckedReferences;
+
+    /**
+     * How often classReference found its result in the maps above, or didn't.
+     */
+    private final LongAdder referenceHits;
+    private final LongAdder referenceMisses;
+
     public ClassReferenceUtil(TeamClassLoaderFactory factory) {
         this.factory = factory;
+        this.checkedReferences = new ConcurrentHashMap<>();
+        this.uncheckedReferences = new ConcurrentHashMap<>();
+        this.referenceHits = new LongAdder();
+        this.referenceMisses = new LongAdder();
     }
 
     static void fileLoadError(String filename) {
@@ -67,8 +87,7 @@ public class ClassReferenceUtil {
         BufferedReader reader;
         String line;
 
-        allowedPackages = new HashSet<>();
-        disallowedClasses = new HashSet<>();
+        allowedClasses = new PackageTrie<>(false);
 
         // load allowed packages
         try {
@@ -76,7 +95,7 @@ public class ClassReferenceUtil {
                     ClassReferenceUtil.class.getResourceAsStream(ALLOWED_RESOURCE_FILE)
             ));
             while ((line = reader.readLine()) != null) {
-                allowedPackages.add(line);
+                allowedClasses.addPackageMembers(line, true);
             }
         } catch (Exception e) {
             fileLoadError(ALLOWED_RESOURCE_FILE);
@@ -88,48 +107,53 @@ public class ClassReferenceUtil {
                     ClassReferenceUtil.class.getResourceAsStream(DISALLOWED_RESOURCE_FILE)
             ));
             while ((line = reader.readLine()) != null) {
-                disallowedClasses.add(line);
+                allowedClasses.addClass(line, false);
             }
         } catch (Exception e) {
             fileLoadError(DISALLOWED_RESOURCE_FILE);
         }
+
+        instrumentedPrefixClasses = new PackageTrie<>(true)
+                .addSubtree("battlecode", false)
+                .addClass("battlecode/instrumenter/inject/InstrumentableFunctions", true)
+                .addSubtree("instrumented", false)
+                // Don't override JVM internals
+                .addSubtree("java/util/invoke", false)
+                .addSubtree("java/util/jar", false)
+                .addSubtree("java/util/zip", false)
+                .addClass("java/util/Iterator", false)
+                .addClass("java/util/concurrent/TimeUnit", false)
+                .addSubtree("java/util", true)
+                .addSubtree("java/math", true)
+                // Kotlin standard library is counted is player code
+                .addSubtree("kotlin", true)
+                // except Intrinsics which is free
+                .addClass("kotlin/jvm/internal/Intrinsics", false)
+                .addSubtree("sun", false)
+                .addSubtree("com", false)
+                .addSubtree("java", false);
     }
 
     protected static boolean isInAllowedPackage(String className) {
-        int dotIndex = className.lastIndexOf('/');
-        if (dotIndex == -1) return false;
-        return allowedPackages.contains(className.substring(0, dotIndex));
+        return allowedClasses.lookup(className);
     }
 
     private boolean shouldAddInstrumentedPrefix(String className) {
-        if (className.startsWith("battlecode/")) {
-            return className.equals("battlecode/instrumenter/inject/InstrumentableFunctions");
-        }
-
-        if (className.startsWith("instrumented/"))
-            return false;
-
-        if (className.startsWith("java/util/invoke") || // Don't override JVM internals
-                className.startsWith("java/util/jar") ||
-                className.startsWith("java/util/zip") ||
-                className.equals("java/util/Iterator") ||
-                className.equals("java/util/concurrent/TimeUnit"))
-            return false;
-
-        if (className.startsWith("java/util/") ||
-                className.startsWith("java/math/"))
-            return true;
-
-        if (className.startsWith("kotlin/")) { // Kotlin standard library is counted is player code
-            return !className.equals("kotlin/jvm/internal/Intrinsics"); // except Intrinsics which is free
-        }
+        return instrumentedPrefixClasses.lookup(className);
+    }
 
-        if (className.startsWith("sun/") ||
-                className.startsWith("com/") ||
-                className.startsWith("java/"))
-            return false;
+    /**
+     * @return how many calls to classReference were answered from memory
+     */
+    public long getReferenceHits() {
+        return referenceHits.sum();
+    }
 
-        return true;
+    /**
+     * @return how many calls to classReference had to work out their result
+     */
+    public long getReferenceMisses() {
+        return referenceMisses.sum();
     }
 
     /**
@@ -148,6 +172,20 @@ public class ClassReferenceUtil {
     public String classReference(String className, boolean checkDisallowed) {
         if (className == null) return null;
 
+        final Map<String, String> references = checkDisallowed ? checkedReferences : uncheckedReferences;
+        String result = references.get(className);
+        if (result != null) {
+            referenceHits.increment();
+            return result;
+        }
+
+        referenceMisses.increment();
+        result = resolveClassReference(className, checkDisallowed);
+        references.put(className, result);
+        return result;
+    }
+
+    private String resolveClassReference(String className, boolean checkDisallowed) {
         if (className.charAt(0) == '[') {
             int arrayIndex = className.lastIndexOf('[');
             if (className.charAt(arrayIndex + 1) == 'L') {
@@ -172,7 +210,7 @@ public class ClassReferenceUtil {
             return "battlecode/instrumenter/inject/Unsafe";
 
         if (checkDisallowed) {
-            if (disallowedClasses.contains(className) || !isInAllowedPackage(className)) {
+            if (!isInAllowedPackage(className)) {
                 throw new InstrumentationException(ILLEGAL, "Illegal class: " + className + "\n    this class cannot be referenced by player code.");
             }
         }
@@ -0,0 +1,261 @@
+package battlecode.instrumenter.bytecode;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.AnalyzerAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replaces the RobotMonitor.incrementBytecodes calls added by
+ * InstrumentingMethodVisitor with inline arithmetic on
+ * RobotMonitor.bytecodesLeft. That is,
+ *
+ * <pre>
+ *     LDC n
+ *     INVOKESTATIC RobotMonitor.incrementBytecodes(I)V
+ * </pre>
+ *
+ * becomes
+ *
+ * <pre>
+ *     GETSTATIC RobotMonitor.bytecodesLeft
+ *     LDC n
+ *     ISUB
+ *     DUP
+ *     PUTSTATIC RobotMonitor.bytecodesLeft
+ *     GETSTATIC RobotMonitor.fastPathFloor
+ *     IF_ICMPGT skip
+ *     LDC n
+ *     INVOKESTATIC RobotMonitor.incrementBytecodesSlowPath(I)V
+ *   skip:
+ *     NOP
+ * </pre>
+ *
+ * so that in the common case (the robot has bytecodes left, and nothing
+ * special is going on) no call is made at all. See RobotMonitor for how the
+ * slow path keeps the totals identical. Merged charges, which also push the
+ * String of their blocks' charges, go the same way, passing the String on to
+ * the slow path.
+ *
+ * The jump needs a stack map frame at its target, so we track the frame with
+ * an AnalyzerAdapter; the class must be read with EXPAND_FRAMES, and all
+ * frames in the method must be F_NEW. The NOP keeps our frame from landing on
+ * the same offset as a frame that follows it.
+ */
+class InliningBytecodeCounter extends AnalyzerAdapter implements Opcodes {
+
+    private final static String MONITOR = "battlecode/instrumenter/inject/RobotMonitor";
+
+    /**
+     * The bytecode count of an LDC we've held back, because it may be
+     * followed by a call to incrementBytecodes; or null.
+     */
+    private Integer pendingCharge;
+
+    /**
+     * The blocks of the held back charge, if it's a merged one; or null.
+     */
+    private String pendingBlocks;
+
+    InliningBytecodeCounter(String owner, int access, String name, String desc, MethodVisitor mv) {
+        super(ASM5, owner, access, name, desc, mv);
+    }
+
+    /**
+     * Write out the LDC we've been holding back, if any.
+     */
+    private void flush() {
+        if (pendingCharge != null) {
+            final Integer charge = pendingCharge;
+            final String blocks = pendingBlocks;
+            pendingCharge = null;
+            pendingBlocks = null;
+            super.visitLdcInsn(charge);
+            if (blocks != null) {
+                super.visitLdcInsn(blocks);
+            }
+        }
+    }
+
+    /**
+     * @param blocks the blocks of a merged charge, or null
+     */
+    private void emitCharge(int charge, String blocks) {
+        final String desc = blocks == null ? "(I)V" : "(ILjava/lang/String;)V";
+        if (locals == null) {
+            // Unreachable code; we can't know the frame, so don't branch.
+            super.visitLdcInsn(charge);
+            if (blocks != null) {
+                super.visitLdcInsn(blocks);
+            }
+            super.visitMethodInsn(INVOKESTATIC, MONITOR, "incrementBytecodes", desc, false);
+            return;
+        }
+
+        final Object[] frameLocals = collapse(locals);
+        final Object[] frameStack = collapse(stack);
+        final Label skip = new Label();
+
+        super.visitFieldInsn(GETSTATIC, MONITOR, "bytecodesLeft", "I");
+        super.visitLdcInsn(charge);
+        super.visitInsn(ISUB);
+        super.visitInsn(DUP);
+        super.visitFieldInsn(PUTSTATIC, MONITOR, "bytecodesLeft", "I");
+        super.visitFieldInsn(GETSTATIC, MONITOR, "fastPathFloor", "I");
+        super.visitJumpInsn(IF_ICMPGT, skip);
+        super.visitLdcInsn(charge);
+        if (blocks != null) {
+            super.visitLdcInsn(blocks);
+        }
+        super.visitMethodInsn(INVOKESTATIC, MONITOR, "incrementBytecodesSlowPath", desc, false);
+        super.visitLabel(skip);
+        super.visitFrame(F_NEW, frameLocals.length, frameLocals, frameStack.length, frameStack);
+        super.visitInsn(NOP);
+    }
+
+    /**
+     * AnalyzerAdapter represents longs and doubles as two entries, the
+     * second of which is TOP; frames represent them as one.
+     */
+    private static Object[] collapse(List<?> types) {
+        final List<Object> result = new ArrayList<>(types.size());
+        for (int i = 0; i < types.size(); i++) {
+            final Object type = types.get(i);
+            result.add(type);
+            if (type == LONG || type == DOUBLE) {
+                i++;
+            }
+        }
+        return result.toArray();
+    }
+
+    @Override
+    public void visitLdcInsn(Object cst) {
+        if (cst instanceof String && pendingCharge != null && pendingBlocks == null) {
+            pendingBlocks = (String) cst;
+            return;
+        }
+        flush();
+        if (cst instanceof Integer) {
+            pendingCharge = (Integer) cst;
+        } else {
+            super.visitLdcInsn(cst);
+        }
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+        if (pendingCharge != null && opcode == INVOKESTATIC && owner.equals(MONITOR)
+                && name.equals("incrementBytecodes")
+                && desc.equals(pendingBlocks == null ? "(I)V" : "(ILjava/lang/String;)V")) {
+            final int charge = pendingCharge;
+            final String blocks = pendingBlocks;
+            pendingCharge = null;
+            pendingBlocks = null;
+            emitCharge(charge, blocks);
+            return;
+        }
+        flush();
+        super.visitMethodInsn(opcode, owner, name, desc, itf);
+    }
+
+    @Override
+    public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
+        flush();
+        super.visitFrame(type, nLocal, local, nStack, stack);
+    }
+
+    @Override
+    public void visitInsn(int opcode) {
+        flush();
+        super.visitInsn(opcode);
+    }
+
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+        flush();
+        super.visitIntInsn(opcode, operand);
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int var) {
+        flush();
+        super.visitVarInsn(opcode, var);
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+        flush();
+        super.visitTypeInsn(opcode, type);
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+        flush();
+        super.visitFieldInsn(opcode, owner, name, desc);
+    }
+
+    @Override
+    public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+        flush();
+        super.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+        flush();
+        super.visitJumpInsn(opcode, label);
+    }
+
+    @Override
+    public void visitLabel(Label label) {
+        flush();
+        super.visitLabel(label);
+    }
+
+    @Override
+    public void visitIincInsn(int var, int increment) {
+        flush();
+        super.visitIincInsn(var, increment);
+    }
+
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+        flush();
+        super.visitTableSwitchInsn(min, max, dflt, labels);
+    }
+
+    @Override
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+        flush();
+        super.visitLookupSwitchInsn(dflt, keys, labels);
+    }
+
+    @Override
+    public void visitMultiANewArrayInsn(String desc, int dims) {
+        flush();
+        super.visitMultiANewArrayInsn(desc, dims);
+    }
+
+    @Override
+    public void visitLineNumber(int line, Label start) {
+        flush();
+        super.visitLineNumber(line, start);
+    }
+
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+        flush();
+        super.visitMaxs(maxStack, maxLocals);
+    }
+
+    @Override
+    public void visitEnd() {
+        flush();
+        super.visitEnd();
+    }
+}
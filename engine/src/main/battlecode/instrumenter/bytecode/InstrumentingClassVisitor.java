@@ -22,6 +22,11 @@ public class InstrumentingClassVisitor extends ClassVisitor implements Opcodes {
     private final boolean silenced;
     private final boolean debugMethodsEnabled;
     private final boolean profilerEnabled;
+    private final boolean mergeBasicBlocks;
+    private final boolean inlineBytecodeCounter;
+
+    // whether to inline the bytecode counter in this class in particular
+    private boolean inlineCounterInClass;
 
     // Used to find other class files, which is occasionally necessary.
     private TeamClassLoaderFactory.Loader loader;
@@ -36,19 +41,26 @@ public class InstrumentingClassVisitor extends ClassVisitor implements Opcodes {
      *  @param cv                  the ClassVisitor that should be used to read the class
      * @param silenced            whether System.out should be silenced for this class
      * @param checkDisallowed     whether to check for disallowed classes and methods
+     * @param mergeBasicBlocks    whether to merge bytecode accounting across straight-line blocks
+     * @param inlineBytecodeCounter whether to count bytecodes inline rather than by calling RobotMonitor;
+     *                            the class must be read with EXPAND_FRAMES
      */
     public InstrumentingClassVisitor(final ClassVisitor cv,
                                      final TeamClassLoaderFactory.Loader loader,
                                      boolean silenced,
                                      boolean checkDisallowed,
                                      boolean debugMethodsEnabled,
-                                     boolean profilerEnabled) throws InstrumentationException {
+                                     boolean profilerEnabled,
+                                     boolean mergeBasicBlocks,
+                                     boolean inlineBytecodeCounter) throws InstrumentationException {
         super(Opcodes.ASM5, cv);
         this.loader = loader;
         this.silenced = silenced;
         this.checkDisallowed = checkDisallowed;
         this.debugMethodsEnabled = debugMethodsEnabled;
         this.profilerEnabled = profilerEnabled;
+        this.mergeBasicBlocks = mergeBasicBlocks;
+        this.inlineBytecodeCounter = inlineBytecodeCounter;
     }
 
     /**
@@ -63,6 +75,9 @@ public class InstrumentingClassVisitor extends ClassVisitor implements Opcodes {
             final String superName,
             final String[] interfaces) {
         className = loader.getRefUtil().classReference(name, checkDisallowed);
+        // The inline counter branches, and we only add stack map frames for it
+        // in classes that have them; older classes keep the plain calls.
+        inlineCounterInClass = inlineBytecodeCounter && (version & 0xFFFF) >= Opcodes.V1_6;
         for (int i = 0; i < interfaces.length; i++) {
             interfaces[i] = loader.getRefUtil().classReference(interfaces[i], checkDisallowed);
         }
@@ -110,7 +125,9 @@ public class InstrumentingClassVisitor extends ClassVisitor implements Opcodes {
                 silenced,
                 checkDisallowed,
                 debugMethodsEnabled,
-                profilerEnabled
+                profilerEnabled,
+                mergeBasicBlocks,
+                inlineCounterInClass
         );
     }
 
@@ -8,6 +8,7 @@ import org.objectweb.asm.*;
 import org.objectweb.asm.tree.*;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -20,6 +21,7 @@ import static org.objectweb.asm.tree.AbstractInsnNode.*;
  * The class where the bulk of instrumentation happens.
  * Takes in the bytecode for a method and modifies it to do a few things:
  *  - Call RobotMonitor.incrementBytecodes() at the end of every basic block
+ *    (merging the calls for runs of blocks that can only be entered from the previous one)
  *  - Overrides class references with our injected / instrumented class references
  *  - Modifies some particularly finnicky method calls so that they behave correctly
  *    (e.g. Object.hashCode(), Math.random(), Throwable.printStackTrace())
@@ -32,6 +34,8 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
     private final boolean checkDisallowed;
     private final boolean debugMethodsEnabled;
     private final boolean profilerEnabled;
+    private final boolean mergeBasicBlocks;
+    private final boolean inlineBytecodeCounter;
 
     // used to load other class files
     private final TeamClassLoaderFactory.Loader loader;
@@ -53,6 +57,9 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
 
     private int bytecodeCtr = 0;
 
+    // the LDCs pushing the bytecode counts of every incrementBytecodes call we've added
+    private final List<LdcInsnNode> charges = new ArrayList<>();
+
     private MethodVisitor methodWriter;
 
     public InstrumentingMethodVisitor(final MethodVisitor mv,
@@ -66,7 +73,9 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
                                       boolean silenced,
                                       boolean checkDisallowed,
                                       boolean debugMethodsEnabled,
-                                      boolean profilerEnabled) {
+                                      boolean profilerEnabled,
+                                      boolean mergeBasicBlocks,
+                                      boolean inlineBytecodeCounter) {
         super(ASM5, access, methodName, methodDesc, signature, exceptions);
         this.methodWriter = mv;
 
@@ -75,6 +84,8 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
         this.checkDisallowed = checkDisallowed;
         this.debugMethodsEnabled = debugMethodsEnabled;
         this.profilerEnabled = profilerEnabled;
+        this.mergeBasicBlocks = mergeBasicBlocks;
+        this.inlineBytecodeCounter = inlineBytecodeCounter;
     }
 
     protected String classReference(String name) {
@@ -167,6 +178,10 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
         if (anyTryCatch) {
             addRobotDeathHandler();
         }
+        if (mergeBasicBlocks) {
+            // must be called after all the try / catch blocks have been added
+            mergeCharges();
+        }
         for (Object o : localVariables) {
             visitLocalVariableNode((LocalVariableNode) o);
         }
@@ -174,7 +189,18 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
     }
 
     public void visitEnd() {
-        accept(methodWriter);
+        if (inlineBytecodeCounter) {
+            accept(new InliningBytecodeCounter(className, access, name, methodDescReference(desc), methodWriter));
+        } else {
+            accept(methodWriter);
+        }
+    }
+
+    /**
+     * @return the type of frame to add; InliningBytecodeCounter needs them all expanded
+     */
+    private int fullFrameType() {
+        return inlineBytecodeCounter ? F_NEW : F_FULL;
     }
 
     private void visitTryCatchBlockNode(TryCatchBlockNode n) {
@@ -259,7 +285,7 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
 
         // create a new stack frame
         instructions.add(new FrameNode(
-                F_FULL, // a full new one
+                fullFrameType(), // a full new one
                 0, new Object[0], // with no local variables
                 1, new Object[]{"java/lang/Throwable"} // but an exception on the stack
         ));
@@ -288,7 +314,7 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
         }
         tryCatchBlocks.add(0, new TryCatchBlockNode(firstTryCatch, robotDeathLabel, robotDeathLabel, "java/lang/VirtualMachineError"));
         instructions.add(robotDeathLabel);
-        instructions.add(new FrameNode(F_FULL, 0, new Object[0], 1, new Object[]{"java/lang/VirtualMachineError"}));
+        instructions.add(new FrameNode(fullFrameType(), 0, new Object[0], 1, new Object[]{"java/lang/VirtualMachineError"}));
         instructions.add(new InsnNode(ATHROW));
     }
 
@@ -681,11 +707,131 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
     private void endOfBasicBlock(AbstractInsnNode n) {
         if (bytecodeCtr == 0)
             return;
-        instructions.insertBefore(n, new LdcInsnNode(bytecodeCtr));
+        LdcInsnNode charge = new LdcInsnNode(bytecodeCtr);
+        instructions.insertBefore(n, charge);
         instructions.insertBefore(n, new MethodInsnNode(INVOKESTATIC, "battlecode/instrumenter/inject/RobotMonitor", "incrementBytecodes", "(I)V", false));
+        charges.add(charge);
         bytecodeCtr = 0;
     }
 
+    /**
+     * Most of our basic blocks end at labels nothing jumps to (javac puts one
+     * at the start of every line, for line numbers), so the next block can only
+     * be entered from the one before it. When that block also can't throw,
+     * branch or call anything, it always runs to its own incrementBytecodes
+     * call, so we charge for it together with the block before.
+     *
+     * Merged charges still list each block's charge, so that a robot that
+     * runs out of bytecodes partway through them is charged block by block,
+     * and pauses with the same count as before; see RobotMonitor. Nothing
+     * skipped over can observe the bytecode count, so running it before the
+     * pause instead of after makes no difference.
+     */
+    private void mergeCharges() {
+        if (charges.size() < 2)
+            return;
+
+        final Set<LabelNode> referencedLabels = new HashSet<>();
+        for (Object o : tryCatchBlocks) {
+            TryCatchBlockNode n = (TryCatchBlockNode) o;
+            referencedLabels.add(n.start);
+            referencedLabels.add(n.end);
+            referencedLabels.add(n.handler);
+        }
+        for (AbstractInsnNode node : instructions.toArray()) {
+            switch (node.getType()) {
+                case JUMP_INSN:
+                    referencedLabels.add(((JumpInsnNode) node).label);
+                    break;
+                case LOOKUPSWITCH_INSN: {
+                    @SuppressWarnings("unchecked") // labels is a raw List of LabelNodes
+                    final List<LabelNode> labels = (List<LabelNode>) ((LookupSwitchInsnNode) node).labels;
+                    referencedLabels.add(((LookupSwitchInsnNode) node).dflt);
+                    referencedLabels.addAll(labels);
+                    break;
+                }
+                case TABLESWITCH_INSN: {
+                    @SuppressWarnings("unchecked") // labels is a raw List of LabelNodes
+                    final List<LabelNode> labels = (List<LabelNode>) ((TableSwitchInsnNode) node).labels;
+                    referencedLabels.add(((TableSwitchInsnNode) node).dflt);
+                    referencedLabels.addAll(labels);
+                    break;
+                }
+            }
+        }
+
+        final Set<LdcInsnNode> pending = new HashSet<>(charges);
+        for (LdcInsnNode charge : charges) {
+            if (!pending.remove(charge))
+                continue; // merged into an earlier charge
+
+            // each block's charge has to fit in a char
+            if ((Integer) charge.cst > Character.MAX_VALUE)
+                continue;
+            final StringBuilder blocks = new StringBuilder().append((char) (int) (Integer) charge.cst);
+
+            // skip the incrementBytecodes call itself
+            final MethodInsnNode chargeCall = (MethodInsnNode) charge.getNext();
+            AbstractInsnNode n = chargeCall.getNext();
+            while (n != null) {
+                if (n.getType() == LDC_INSN && pending.contains(n)) {
+                    final int block = (Integer) ((LdcInsnNode) n).cst;
+                    final int total = (Integer) charge.cst + block;
+                    if (total < 0 || block > Character.MAX_VALUE)
+                        break; // don't overflow
+                    charge.cst = total;
+                    blocks.append((char) block);
+
+                    final AbstractInsnNode call = n.getNext();
+                    final AbstractInsnNode next = call.getNext();
+                    pending.remove(n);
+                    instructions.remove(n);
+                    instructions.remove(call);
+                    n = next;
+                } else if (canSkipWhenMerging(n, referencedLabels)) {
+                    n = n.getNext();
+                } else {
+                    break;
+                }
+            }
+
+            if (blocks.length() > 1) {
+                instructions.insert(charge, new LdcInsnNode(blocks.toString()));
+                chargeCall.desc = "(ILjava/lang/String;)V";
+            }
+        }
+    }
+
+    /**
+     * @return whether n can't branch, throw, call out, or be jumped to.
+     */
+    private static boolean canSkipWhenMerging(AbstractInsnNode n, Set<LabelNode> referencedLabels) {
+        switch (n.getType()) {
+            case LABEL:
+                return !referencedLabels.contains(n);
+            case LINE:
+            case FRAME:
+            case IINC_INSN:
+                return true;
+            case VAR_INSN:
+                return n.getOpcode() != RET;
+            case INT_INSN:
+                return n.getOpcode() == BIPUSH || n.getOpcode() == SIPUSH;
+            case LDC_INSN:
+                // class and method handle constants may have to be loaded
+                Object cst = ((LdcInsnNode) n).cst;
+                return !(cst instanceof Type) && !(cst instanceof Handle);
+            case INSN:
+                int opcode = n.getOpcode();
+                if (opcode == IDIV || opcode == LDIV || opcode == IREM || opcode == LREM)
+                    return false; // division by zero
+                return (opcode >= NOP && opcode <= DCONST_1)
+                        || (opcode >= POP && opcode <= DCMPG);
+            default:
+                return false;
+        }
+    }
+
     /**
      * Tests whether the class referenced by <code>owner</code> extends or implements <code>superclass</code>.
      * e.g. isSuperClass("battlecode/common/GameActionException", "java/lang/Throwable") => true
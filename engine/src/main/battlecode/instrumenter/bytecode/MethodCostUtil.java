@@ -6,9 +6,13 @@ import org.objectweb.asm.ClassReader;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static org.objectweb.asm.ClassReader.SKIP_DEBUG;
 
@@ -30,14 +34,17 @@ public class MethodCostUtil {
     private final static String RESOURCE_FILE = "resources/MethodCosts.txt";
 
     /**
-     * This is a map from method names (in the format 'ClassName/methodName'), to the MethodData associated with each method.
+     * This is a map from binary class names, to a map from method names to the MethodData associated with each method.
+     * Built once, when this class is loaded, and never modified afterwards.
      */
-    private final static Map<String, MethodData> methodCosts;
+    private final static Map<String, Map<String, MethodData>> methodCosts;
 
     /**
-     * This is a map from binary class names, to all the classes/interfaces that the class transitively implements/extends.
+     * This is a map from binary class names that aren't listed in the resource file, to the costs they inherit from
+     * the classes/interfaces they transitively implement/extend. Most classes inherit nothing, and share an empty map.
+     * Classes may be instrumented on several threads at once, so this is concurrent.
      */
-    private final static Map<String, String[]> interfacesMap;
+    private final static ConcurrentMap<String, Map<String, MethodData>> inheritedCosts;
 
     /**
      * A struct that stores data about a method -- what its lookup bytecode cost is, and whether it should end the basic block or not.
@@ -56,7 +63,7 @@ public class MethodCostUtil {
         BufferedReader reader;
         String line;
 
-        methodCosts = new HashMap<>();
+        final Map<String, Map<String, MethodData>> costs = new HashMap<>();
         // load method costs
         try {
             reader = new BufferedReader(new InputStreamReader(
@@ -66,13 +73,41 @@ public class MethodCostUtil {
                 StringTokenizer st = new StringTokenizer(line);
                 if (st.countTokens() != 3)
                     ClassReferenceUtil.fileLoadError(RESOURCE_FILE);
-                methodCosts.put(st.nextToken(), new MethodData(Integer.parseInt(st.nextToken()), Boolean.parseBoolean(st.nextToken())));
+                String method = st.nextToken();
+                int split = method.lastIndexOf('/');
+                if (split == -1)
+                    ClassReferenceUtil.fileLoadError(RESOURCE_FILE);
+                costs.computeIfAbsent(method.substring(0, split), owner -> new HashMap<>())
+                        .put(method.substring(split + 1),
+                                new MethodData(Integer.parseInt(st.nextToken()), Boolean.parseBoolean(st.nextToken())));
             }
         } catch (IOException e) {
             ClassReferenceUtil.fileLoadError(RESOURCE_FILE);
         }
 
-        interfacesMap = new HashMap<>();
+        // Listed classes also inherit the costs of any listed ancestors,
+        // without overriding their own.
+        final Map<String, Map<String, MethodData>> resolved = new HashMap<>();
+        for (Map.Entry<String, Map<String, MethodData>> entry : costs.entrySet()) {
+            final Map<String, MethodData> own = new HashMap<>(entry.getValue());
+            String[] ancestors;
+            try {
+                ancestors = sortedAncestors(entry.getKey());
+            } catch (RuntimeException e) {
+                // Not on this classpath (e.g. the docs build); it keeps its own costs.
+                ancestors = new String[0];
+            }
+            for (String ancestor : ancestors) {
+                final Map<String, MethodData> ancestorCosts = costs.get(ancestor);
+                if (ancestorCosts != null) {
+                    ancestorCosts.forEach(own::putIfAbsent);
+                }
+            }
+            resolved.put(entry.getKey(), Collections.unmodifiableMap(own));
+        }
+        methodCosts = Collections.unmodifiableMap(resolved);
+
+        inheritedCosts = new ConcurrentHashMap<>();
     }
 
     /**
@@ -84,30 +119,47 @@ public class MethodCostUtil {
     public static MethodData getMethodData(String className, String methodName) {
         if (className.charAt(0) == '[')
             return null;
-        String key = className + "/" + methodName;
-
-        if (methodCosts.containsKey(key))
-            return methodCosts.get(key);
-
-        String[] interfaces;
-        if (interfacesMap.containsKey(className))
-            interfaces = interfacesMap.get(className);
-        else {
-            ClassReader cr = TeamClassLoaderFactory.normalReader(className);
-            InterfaceReader ir = new InterfaceReader(null);
-            cr.accept(ir, SKIP_DEBUG);
-            interfaces = ir.getInterfaces();
-            interfacesMap.put(className, interfaces);
-        }
 
-        for (String anInterface : interfaces) {
-            key = anInterface + "/" + methodName;
-            if (methodCosts.containsKey(key))
-                return methodCosts.get(key);
+        Map<String, MethodData> costs = methodCosts.get(className);
+        if (costs == null) {
+            // Failures (e.g. missing classes) throw out of here and aren't remembered.
+            costs = inheritedCosts.computeIfAbsent(className, MethodCostUtil::resolveInheritedCosts);
         }
 
-        return null;
+        return costs.get(methodName);
     }
 
+    /**
+     * Collect the costs a class that isn't listed in the resource file inherits from its ancestors.
+     *
+     * @param className the binary name of the class
+     */
+    private static Map<String, MethodData> resolveInheritedCosts(String className) {
+        Map<String, MethodData> result = null;
+        for (String ancestor : sortedAncestors(className)) {
+            final Map<String, MethodData> ancestorCosts = methodCosts.get(ancestor);
+            if (ancestorCosts != null) {
+                if (result == null) {
+                    result = new HashMap<>();
+                }
+                ancestorCosts.forEach(result::putIfAbsent);
+            }
+        }
+        return result == null ? Collections.emptyMap() : Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @param className the binary name of a class on the system classpath
+     * @return all the classes/interfaces that the class transitively implements/extends,
+     *         sorted so that lookups don't depend on hash order
+     */
+    private static String[] sortedAncestors(String className) {
+        ClassReader cr = TeamClassLoaderFactory.normalReader(className);
+        InterfaceReader ir = new InterfaceReader(null);
+        cr.accept(ir, SKIP_DEBUG);
+        String[] interfaces = ir.getInterfaces();
+        Arrays.sort(interfaces);
+        return interfaces;
+    }
 
 }
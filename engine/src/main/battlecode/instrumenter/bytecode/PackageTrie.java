@@ -0,0 +1,165 @@
+package battlecode.instrumenter.bytecode;
+
+import java.util.Arrays;
+
+/**
+ * PackageTrie maps class names to values using rules about packages and
+ * classes, looking names up segment by segment without creating any strings.
+ *
+ * There are three kinds of rule, all added using names in internal form
+ * (e.g. "java/util"):
+ * <ul>
+ *     <li>exact rules, which apply only to the named class;</li>
+ *     <li>member rules, which apply to classes directly inside the named package,
+ *         but not to its subpackages;</li>
+ *     <li>subtree rules, which apply to everything inside the named package,
+ *         including its subpackages.</li>
+ * </ul>
+ * When several rules apply to a name, the most specific one wins: exact rules
+ * beat member rules, which beat subtree rules, and deeper subtree rules beat
+ * shallower ones.
+ *
+ * A trie is built once, then only read; reads are safe from any thread.
+ *
+ * @param <V> the type of value rules map to
+ */
+public final class PackageTrie<V> {
+
+    private static final class Node<V> {
+        final String segment;
+        Node<V>[] children;
+        int childCount;
+
+        V exact;
+        V members;
+        V subtree;
+
+        @SuppressWarnings("unchecked")
+        Node(String segment) {
+            this.segment = segment;
+            this.children = (Node<V>[]) new Node<?>[0];
+        }
+
+        Node<V> child(String name, int start, int end) {
+            final int length = end - start;
+            for (int i = 0; i < childCount; i++) {
+                final Node<V> child = children[i];
+                if (child.segment.length() == length && name.regionMatches(start, child.segment, 0, length)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        Node<V> addChild(String segment) {
+            Node<V> child = child(segment, 0, segment.length());
+            if (child == null) {
+                child = new Node<>(segment);
+                if (childCount == children.length) {
+                    children = Arrays.copyOf(children, Math.max(4, childCount * 2));
+                }
+                children[childCount++] = child;
+            }
+            return child;
+        }
+    }
+
+    private final Node<V> root = new Node<>("");
+
+    /**
+     * The value for names no rule applies to.
+     */
+    private final V defaultValue;
+
+    /**
+     * @param defaultValue the value for names no rule applies to
+     */
+    public PackageTrie(V defaultValue) {
+        this.defaultValue = defaultValue;
+    }
+
+    /**
+     * @param className a class, e.g. "java/util/Iterator"
+     * @param value the value for exactly that class
+     * @return this trie, for chaining
+     */
+    public PackageTrie<V> addClass(String className, V value) {
+        find(className).exact = value;
+        return this;
+    }
+
+    /**
+     * @param packageName a package, e.g. "java/util"
+     * @param value the value for classes directly in that package
+     * @return this trie, for chaining
+     */
+    public PackageTrie<V> addPackageMembers(String packageName, V value) {
+        find(packageName).members = value;
+        return this;
+    }
+
+    /**
+     * @param packageName a package, e.g. "java/util"
+     * @param value the value for everything in that package and its subpackages
+     * @return this trie, for chaining
+     */
+    public PackageTrie<V> addSubtree(String packageName, V value) {
+        find(packageName).subtree = value;
+        return this;
+    }
+
+    private Node<V> find(String name) {
+        Node<V> node = root;
+        for (String segment : name.split("/")) {
+            node = node.addChild(segment);
+        }
+        return node;
+    }
+
+    /**
+     * @param className a class name in internal form, e.g. "java/util/ArrayList"
+     * @return the value of the most specific rule that applies to the class
+     */
+    public V lookup(String className) {
+        return lookup(className, '/');
+    }
+
+    /**
+     * @param className a class name, e.g. "java/util/ArrayList" or "java.util.ArrayList"
+     * @param separator the character separating the segments of the name
+     * @return the value of the most specific rule that applies to the class
+     */
+    public V lookup(String className, char separator) {
+        V result = defaultValue;
+        Node<V> node = root;
+        int start = 0;
+        final int length = className.length();
+
+        while (true) {
+            int end = className.indexOf(separator, start);
+            final boolean last = end == -1;
+            if (last) {
+                end = length;
+                // The class is a direct member of the package we're in.
+                if (node.members != null) {
+                    result = node.members;
+                }
+            }
+
+            node = node.child(className, start, end);
+            if (node == null) {
+                return result;
+            }
+
+            if (last) {
+                return node.exact != null ? node.exact : result;
+            }
+
+            // Everything further down the name is inside this package.
+            if (node.subtree != null) {
+                result = node.subtree;
+            }
+            start = end + 1;
+        }
+    }
+}
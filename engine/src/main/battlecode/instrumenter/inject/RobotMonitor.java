@@ -16,6 +16,10 @@ import java.lang.Integer;
  * a new version is loaded every time a new robot player is loaded, and is specific to that robot.
  *
  * The specific call the instrumentation uses is "incrementBytecodes".
+ * With bc.engine.merge-basic-blocks, straight-line blocks are charged together, by the
+ * two argument "incrementBytecodes".
+ * With bc.engine.inline-bytecode-counter, instrumented code instead subtracts from bytecodesLeft
+ * itself, and calls "incrementBytecodesSlowPath" when the result is at or below fastPathFloor.
  *
  * @author adamd
  */
@@ -24,7 +28,20 @@ public final class RobotMonitor {
 
     private static int randomSeed;
 
-    private static int bytecodesLeft;
+    /**
+     * Public so that instrumented code can count bytecodes inline.
+     * Player code can't name this class, so it can't touch this.
+     */
+    public static int bytecodesLeft;
+
+    /**
+     * Instrumented code counting bytecodes inline calls incrementBytecodesSlowPath
+     * when bytecodesLeft drops to this or below. It's 0 when the robot has bytecodes
+     * left and the only thing that can happen is running out of them, and
+     * Integer.MAX_VALUE (so every charge goes through the slow path) otherwise.
+     */
+    public static int fastPathFloor;
+
     private static int bytecodesToRemove;
     private static boolean shouldDie;
     private static int debugLevel;
@@ -32,6 +49,11 @@ public final class RobotMonitor {
     private static SandboxedRobotPlayer.Pauser pauser;
     private static SandboxedRobotPlayer.Killer killer;
 
+    /**
+     * Loaders that don't profile get a copy of this class with this field,
+     * and every "if (profiler != null) { ... }" block, stripped out
+     * (see RobotMonitorVariants). So only ever use it in such blocks.
+     */
     private static Profiler profiler;
 
     // Methods called from SandboxedRobotPlayer
@@ -61,6 +83,8 @@ public final class RobotMonitor {
         killer = theKiller;
 
         profiler = theProfiler;
+
+        updateFastPathFloor();
     }
 
     /**
@@ -92,6 +116,7 @@ public final class RobotMonitor {
     @SuppressWarnings("unused")
     public static void killRobot() {
         shouldDie = true;
+        updateFastPathFloor();
     }
 
     /**
@@ -148,8 +173,81 @@ public final class RobotMonitor {
                 pause();
             }
         }
-	
-	    bytecodesToRemove = 0;
+
+        bytecodesToRemove = 0;
+        updateFastPathFloor();
+    }
+
+    /**
+     * Increments the currently active robot's bytecode count for several basic blocks at
+     * once, that the instrumenter merged because nothing between them can observe the count.
+     * Does exactly what calling incrementBytecodes for each block in turn would have done,
+     * so robots that run out of bytecodes partway pause with the same count.
+     *
+     * THIS METHOD IS CALLED BY THE INSTRUMENTER.
+     *
+     * @param numBytecodes the number of bytecodes the robot just executed, in all the blocks
+     * @param blocks the number of bytecodes in each block, one per char
+     */
+    @SuppressWarnings("unused")
+    public static void incrementBytecodes(int numBytecodes, String blocks) {
+        // Nothing but the count can change unless the robot runs out of bytecodes.
+        // Can't overflow: bytecodesLeft is positive whenever fastPathFloor is 0.
+        if (fastPathFloor == 0 && bytecodesLeft - numBytecodes > 0) {
+            bytecodesLeft -= numBytecodes;
+            return;
+        }
+
+        for (int i = 0; i < blocks.length(); i++) {
+            incrementBytecodes(blocks.charAt(i));
+        }
+    }
+
+    /**
+     * Called by instrumented code counting bytecodes inline, after it has already
+     * subtracted numBytecodes from bytecodesLeft and found it at or below fastPathFloor.
+     * Puts them back, then does exactly what incrementBytecodes would have done.
+     *
+     * THIS METHOD IS CALLED BY THE INSTRUMENTER.
+     *
+     * @param numBytecodes the number of bytecodes the robot just executed
+     */
+    @SuppressWarnings("unused")
+    public static void incrementBytecodesSlowPath(int numBytecodes) {
+        // Inline subtraction can't overflow: bytecodesLeft is positive whenever
+        // fastPathFloor is 0, and numBytecodes is positive. So this is exact.
+        bytecodesLeft += numBytecodes;
+        incrementBytecodes(numBytecodes);
+    }
+
+    /**
+     * incrementBytecodesSlowPath, for blocks charged together.
+     *
+     * THIS METHOD IS CALLED BY THE INSTRUMENTER.
+     *
+     * @param numBytecodes the number of bytecodes the robot just executed, in all the blocks
+     * @param blocks the number of bytecodes in each block, one per char
+     */
+    @SuppressWarnings("unused")
+    public static void incrementBytecodesSlowPath(int numBytecodes, String blocks) {
+        bytecodesLeft += numBytecodes;
+        incrementBytecodes(numBytecodes, blocks);
+    }
+
+    /**
+     * Work out whether instrumented code counting bytecodes inline can skip
+     * calling us, as long as it has bytecodes left.
+     */
+    private static void updateFastPathFloor() {
+        if (bytecodesLeft <= 0 || shouldDie || debugLevel != 0 || bytecodesToRemove != 0) {
+            fastPathFloor = Integer.MAX_VALUE;
+        } else {
+            fastPathFloor = 0;
+        }
+
+        if (profiler != null) {
+            fastPathFloor = Integer.MAX_VALUE;
+        }
     }
 
     /**
@@ -172,6 +270,7 @@ public final class RobotMonitor {
             } catch (ArithmeticException e) {
                 bytecodesToRemove = Integer.MAX_VALUE;
             }
+            updateFastPathFloor();
         }
     }
 
@@ -222,6 +321,7 @@ public final class RobotMonitor {
     @SuppressWarnings("unused")
     public static void incrementDebugLevel() {
         debugLevel++;
+        updateFastPathFloor();
     }
 
     /**
@@ -236,6 +336,7 @@ public final class RobotMonitor {
             ErrorReporter.report("Debug level below zero, this should be impossible!", true);
             killRobot();
         }
+        updateFastPathFloor();
     }
 
 
@@ -259,8 +360,10 @@ public final class RobotMonitor {
      */
     @SuppressWarnings("unused")
     public static void enterMethod(String methodName) {
-        if (debugLevel == 0 && profiler != null) {
-            profiler.enterMethod(methodName);
+        if (debugLevel == 0) {
+            if (profiler != null) {
+                profiler.enterMethod(methodName);
+            }
         }
     }
 
@@ -273,8 +376,10 @@ public final class RobotMonitor {
      */
     @SuppressWarnings("unused")
     public static void exitMethod(String methodName) {
-        if (debugLevel == 0 && profiler != null) {
-            profiler.exitMethod(methodName);
+        if (debugLevel == 0) {
+            if (profiler != null) {
+                profiler.exitMethod(methodName);
+            }
         }
     }
 
@@ -305,5 +410,6 @@ public final class RobotMonitor {
         } else {
             bytecodesLeft = bytecodeLimit;
         }
+        updateFastPathFloor();
     }
 }
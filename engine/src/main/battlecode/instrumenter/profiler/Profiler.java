@@ -1,9 +1,8 @@
 package battlecode.instrumenter.profiler;
 
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Deque;
-import java.util.List;
+import battlecode.common.RobotType;
+
+import java.util.Arrays;
 
 /**
  * The Profiler class profiles bytecode usage in a sandboxed robot player.
@@ -16,19 +15,80 @@ import java.util.List;
  * which is used in the client to show the profiling data. See
  * https://github.com/jlfwong/speedscope/wiki/Importing-from-custom-sources
  * for more information on speedscope's file format.
+ * <p>
+ * Events are packed into longs (see pack()) and kept in fixed-size chunks,
+ * so recording one never allocates an object, and a long profile never
+ * has to be copied to grow.
+ * <p>
+ * If the collection samples instead, no events are recorded: we only keep
+ * track of the methods we're in, and hand them to the collection every
+ * sample interval bytecodes. If it aggregates, we charge the bytecodes
+ * used to the collection's call tree whenever we enter or exit a method.
+ * Either way, only in the rounds the collection's budget includes.
  */
 public class Profiler {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final long OPEN_BIT = 1L << 32;
+
+    private static final int UNRECORDED = -1;
+
     private final ProfilerCollection collection;
     private final String name;
+    private final RobotType robotType;
+    private final ProfilerCollection.Mode mode;
 
     private int bytecodeCounter = 0;
 
-    private final List<ProfilerEvent> events = new ArrayList<>();
-    private final Deque<Integer> openFrameIds = new ArrayDeque<>();
+    /**
+     * The collection's sample interval, or 0 if we're not sampling.
+     */
+    private final int sampleInterval;
+
+    /**
+     * The number of bytecodes left until the next sample.
+     */
+    private long bytecodesToSample;
 
-    public Profiler(ProfilerCollection collection, String name) {
+    private long[][] eventChunks = new long[1][];
+    private int eventCount = 0;
+
+    /**
+     * The number of open events we've recorded, for our budget.
+     */
+    private int recordedEvents = 0;
+
+    /**
+     * The frame ids of the methods we're in, outermost first. When tracing,
+     * methods we didn't record entering, because we weren't recording at the
+     * time, are UNRECORDED; we don't record exiting them either.
+     */
+    private int[] openFrameIds = new int[16];
+    private int openFrameCount = 0;
+
+    /**
+     * When aggregating, the call tree nodes of the open frames, and of being
+     * in no method; and the bytecode counter when we last charged one.
+     */
+    private ProfilerCollection.CallNode[] openNodes;
+    private final ProfilerCollection.CallNode rootNode;
+    private int chargedAt = 0;
+
+    public Profiler(ProfilerCollection collection, String name, RobotType robotType) {
         this.collection = collection;
         this.name = name;
+        this.robotType = robotType;
+        this.mode = collection.getMode();
+        this.sampleInterval = collection.getSampleInterval();
+        this.bytecodesToSample = sampleInterval;
+        if (mode == ProfilerCollection.Mode.AGGREGATE) {
+            this.openNodes = new ProfilerCollection.CallNode[openFrameIds.length];
+            this.rootNode = collection.getCallTree(robotType);
+        } else {
+            this.rootNode = null;
+        }
     }
 
     public void incrementBytecodes(int amount) {
@@ -37,49 +97,195 @@ public class Profiler {
         } catch (ArithmeticException e) {
             bytecodeCounter = Integer.MAX_VALUE;
         }
+
+        if (sampleInterval != 0) {
+            bytecodesToSample -= amount;
+            if (bytecodesToSample <= 0) {
+                // One sample for every interval we've gone past
+                long samples = 1 + (-bytecodesToSample) / sampleInterval;
+                bytecodesToSample += samples * sampleInterval;
+                if (collection.isProfilingRound()) {
+                    collection.addSamples(robotType, openFrameIds, openFrameCount, samples);
+                }
+            }
+        }
     }
 
     public void enterMethod(String methodName) {
-        if (!collection.isRecordingEvents()) {
+        if (methodName.startsWith("instrumented.")) {
             return;
         }
 
-        if (methodName.startsWith("instrumented.")) {
+        switch (mode) {
+            case SAMPLE:
+                pushFrame(collection.getFrameId(methodName));
+                return;
+            case AGGREGATE: {
+                chargeOpenMethod();
+                int frameId = collection.getFrameId(methodName);
+                ProfilerCollection.CallNode node = topNode().child(frameId);
+                if (collection.isProfilingRound()) {
+                    collection.call(node);
+                }
+                pushFrame(frameId);
+                openNodes[openFrameCount - 1] = node;
+                return;
+            }
+            default:
+                break;
+        }
+
+        if (!collection.isRecordingEvents(robotType, recordedEvents)) {
+            pushFrame(UNRECORDED);
             return;
         }
 
-        collection.recordEvent();
+        collection.recordEvent(robotType);
+        recordedEvents++;
 
         int frameId = collection.getFrameId(methodName);
 
-        events.add(new ProfilerEvent(ProfilerEventType.OPEN, bytecodeCounter, frameId));
-        openFrameIds.addFirst(frameId);
+        addEvent(pack(true, bytecodeCounter, frameId));
+        pushFrame(frameId);
     }
 
     public void exitMethod(String methodName) {
-        if (openFrameIds.isEmpty() && !collection.isRecordingEvents()) {
+        if (methodName.startsWith("instrumented.")) {
             return;
         }
 
-        if (methodName.startsWith("instrumented.")) {
+        if (openFrameCount == 0) {
             return;
         }
 
-        events.add(new ProfilerEvent(ProfilerEventType.CLOSE, bytecodeCounter, collection.getFrameId(methodName)));
-        openFrameIds.pop();
+        switch (mode) {
+            case SAMPLE:
+                openFrameCount--;
+                return;
+            case AGGREGATE:
+                chargeOpenMethod();
+                openNodes[--openFrameCount] = null;
+                return;
+            default:
+                break;
+        }
+
+        closeFrame();
     }
 
     public void exitOpenMethods() {
-        while (!openFrameIds.isEmpty()) {
-            events.add(new ProfilerEvent(ProfilerEventType.CLOSE, bytecodeCounter, openFrameIds.pop()));
+        if (mode == ProfilerCollection.Mode.AGGREGATE) {
+            chargeOpenMethod();
+            Arrays.fill(openNodes, 0, openFrameCount, null);
+        }
+        if (mode != ProfilerCollection.Mode.TRACE) {
+            openFrameCount = 0;
+        }
+        while (openFrameCount > 0) {
+            closeFrame();
+        }
+    }
+
+    /**
+     * When tracing, pop the innermost open frame, recording its exit if we
+     * recorded its entry.
+     */
+    private void closeFrame() {
+        final int frameId = openFrameIds[--openFrameCount];
+        if (frameId != UNRECORDED) {
+            addEvent(pack(false, bytecodeCounter, frameId));
+        }
+    }
+
+    /**
+     * When aggregating, charge the bytecodes used since we last did to the
+     * innermost open method (or to being in no method), if this is a round
+     * we're profiling.
+     */
+    void chargeOpenMethod() {
+        if (mode != ProfilerCollection.Mode.AGGREGATE || bytecodeCounter == chargedAt) {
+            return;
+        }
+        if (collection.isProfilingRound()) {
+            collection.charge(topNode(), bytecodeCounter - chargedAt);
+        }
+        chargedAt = bytecodeCounter;
+    }
+
+    private ProfilerCollection.CallNode topNode() {
+        return openFrameCount == 0 ? rootNode : openNodes[openFrameCount - 1];
+    }
+
+    private void pushFrame(int frameId) {
+        if (openFrameCount == openFrameIds.length) {
+            openFrameIds = Arrays.copyOf(openFrameIds, openFrameCount * 2);
+            if (openNodes != null) {
+                openNodes = Arrays.copyOf(openNodes, openFrameCount * 2);
+            }
+        }
+        openFrameIds[openFrameCount++] = frameId;
+    }
+
+    /**
+     * An event is packed into a long as: the frame id in the top 31 bits,
+     * then whether the event is an open event, then the bytecode counter
+     * in the bottom 32 bits.
+     */
+    private static long pack(boolean open, int at, int frameId) {
+        return ((long) frameId << 33) | (open ? OPEN_BIT : 0) | (at & 0xFFFFFFFFL);
+    }
+
+    private void addEvent(long event) {
+        final int chunk = eventCount >>> CHUNK_BITS;
+        if (chunk == eventChunks.length) {
+            eventChunks = Arrays.copyOf(eventChunks, chunk * 2);
+        }
+        if (eventChunks[chunk] == null) {
+            eventChunks[chunk] = new long[CHUNK_SIZE];
+        }
+        eventChunks[chunk][eventCount & CHUNK_MASK] = event;
+        eventCount++;
+    }
+
+    private long getEvent(int index) {
+        if (index < 0 || index >= eventCount) {
+            throw new IndexOutOfBoundsException("No event " + index + " of " + eventCount);
         }
+        return eventChunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
     }
 
     public String getName() {
         return name;
     }
 
-    public List<ProfilerEvent> getEvents() {
-        return events;
+    /**
+     * @return the number of events recorded
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @param index the index of an event
+     * @return whether the event is an open event (rather than a close event)
+     */
+    public boolean isOpenEvent(int index) {
+        return (getEvent(index) & OPEN_BIT) != 0;
+    }
+
+    /**
+     * @param index the index of an event
+     * @return the bytecode counter at the time of the event
+     */
+    public int getEventAt(int index) {
+        return (int) getEvent(index);
+    }
+
+    /**
+     * @param index the index of an event
+     * @return the index of the event's method name in the collection's frames
+     */
+    public int getEventFrameId(int index) {
+        return (int) (getEvent(index) >>> 33);
     }
 }
@@ -0,0 +1,203 @@
+package battlecode.instrumenter.profiler;
+
+import battlecode.common.RobotType;
+import battlecode.server.Config;
+import battlecode.server.ErrorReporter;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Which robots a ProfilerCollection profiles, and how many events it may
+ * record for them when tracing.
+ * <p>
+ * Selectors pick robots when they spawn: by type, by the round they spawn
+ * in, and one in every so many of those. Robots that aren't picked aren't
+ * profiled at all. Budgets limit the method entries recorded per team per
+ * match, per robot, per robot type, and per window of rounds; once one is
+ * used up, entries that would count against it aren't recorded. A limit of
+ * 0 means no limit.
+ */
+public final class ProfilerBudget {
+    /**
+     * By default, we record a maximum of 2,000,000 events per team per match.
+     * This equals a rough maximum of 50MB of profiling data per match,
+     * which should prevent the client from hanging when opening a replay
+     * of a match in which profiling was enabled.
+     */
+    public static final int DEFAULT_MAX_EVENTS = 2_000_000;
+
+    private int maxEvents = DEFAULT_MAX_EVENTS;
+    private int maxEventsPerRobot = 0;
+    private int maxEventsPerType = 0;
+    private int maxEventsPerWindow = 0;
+    private int windowRounds = 100;
+
+    private Set<RobotType> robotTypes = EnumSet.allOf(RobotType.class);
+    private int firstRound = 0;
+    private int lastRound = Integer.MAX_VALUE;
+    private int spawnInterval = 1;
+
+    /**
+     * Read a budget from bc.engine.profiler-max-events[-per-robot, -per-type,
+     * -per-window], bc.engine.profiler-window-rounds, and the selectors
+     * bc.engine.profiler-robot-types (e.g. "POLITICIAN,MUCKRAKER"),
+     * bc.engine.profiler-rounds (e.g. "800-900", or "800-") and
+     * bc.engine.profiler-spawn-interval. Settings that don't make sense are
+     * reported and ignored.
+     *
+     * @param config the config to read
+     * @return the budget
+     */
+    public static ProfilerBudget fromConfig(Config config) {
+        final ProfilerBudget budget = new ProfilerBudget();
+        try {
+            budget.setMaxEvents(config.getInt("bc.engine.profiler-max-events"));
+            budget.setMaxEventsPerRobot(config.getInt("bc.engine.profiler-max-events-per-robot"));
+            budget.setMaxEventsPerType(config.getInt("bc.engine.profiler-max-events-per-type"));
+            budget.setMaxEventsPerWindow(config.getInt("bc.engine.profiler-max-events-per-window"),
+                    config.getInt("bc.engine.profiler-window-rounds"));
+        } catch (IllegalArgumentException e) {
+            ErrorReporter.report("Ignoring profiler budget: " + e.getMessage(), false);
+        }
+
+        final String types = config.get("bc.engine.profiler-robot-types");
+        if (types != null && !types.trim().isEmpty()) {
+            try {
+                final Set<RobotType> robotTypes = EnumSet.noneOf(RobotType.class);
+                for (String type : types.split(",")) {
+                    robotTypes.add(RobotType.valueOf(type.trim().toUpperCase()));
+                }
+                budget.setRobotTypes(robotTypes);
+            } catch (IllegalArgumentException e) {
+                ErrorReporter.report("Ignoring profiler robot types " + types + ": " + e.getMessage(), false);
+            }
+        }
+
+        final String rounds = config.get("bc.engine.profiler-rounds");
+        if (rounds != null && !rounds.trim().isEmpty()) {
+            try {
+                final String[] range = rounds.trim().split("-", -1);
+                if (range.length != 2) {
+                    throw new IllegalArgumentException("expected first-last");
+                }
+                budget.setRounds(
+                        range[0].isEmpty() ? 0 : Integer.parseInt(range[0].trim()),
+                        range[1].isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(range[1].trim()));
+            } catch (IllegalArgumentException e) {
+                ErrorReporter.report("Ignoring profiler rounds " + rounds + ": " + e.getMessage(), false);
+            }
+        }
+
+        try {
+            budget.setSpawnInterval(config.getInt("bc.engine.profiler-spawn-interval"));
+        } catch (IllegalArgumentException e) {
+            ErrorReporter.report("Ignoring profiler spawn interval: " + e.getMessage(), false);
+        }
+
+        return budget;
+    }
+
+    public ProfilerBudget setMaxEvents(int maxEvents) {
+        this.maxEvents = nonNegative(maxEvents, "max events");
+        return this;
+    }
+
+    public ProfilerBudget setMaxEventsPerRobot(int maxEventsPerRobot) {
+        this.maxEventsPerRobot = nonNegative(maxEventsPerRobot, "max events per robot");
+        return this;
+    }
+
+    public ProfilerBudget setMaxEventsPerType(int maxEventsPerType) {
+        this.maxEventsPerType = nonNegative(maxEventsPerType, "max events per type");
+        return this;
+    }
+
+    /**
+     * @param maxEventsPerWindow the most events to record in each window
+     * @param windowRounds the number of rounds in a window; windows start
+     *                     at round 0
+     */
+    public ProfilerBudget setMaxEventsPerWindow(int maxEventsPerWindow, int windowRounds) {
+        if (windowRounds <= 0) {
+            throw new IllegalArgumentException("window rounds must be positive, not " + windowRounds);
+        }
+        this.maxEventsPerWindow = nonNegative(maxEventsPerWindow, "max events per window");
+        this.windowRounds = windowRounds;
+        return this;
+    }
+
+    public ProfilerBudget setRobotTypes(Set<RobotType> robotTypes) {
+        this.robotTypes = EnumSet.copyOf(robotTypes);
+        return this;
+    }
+
+    /**
+     * Only profile robots alive in the given rounds, and only in them: outside
+     * of them, no events are recorded, no samples taken, and no bytecodes or
+     * calls added to call trees.
+     */
+    public ProfilerBudget setRounds(int firstRound, int lastRound) {
+        if (firstRound > lastRound) {
+            throw new IllegalArgumentException("round " + firstRound + " is after round " + lastRound);
+        }
+        this.firstRound = firstRound;
+        this.lastRound = lastRound;
+        return this;
+    }
+
+    /**
+     * Profile one in every spawnInterval of the robots that are otherwise
+     * selected, starting with the first.
+     */
+    public ProfilerBudget setSpawnInterval(int spawnInterval) {
+        if (spawnInterval <= 0) {
+            throw new IllegalArgumentException("spawn interval must be positive, not " + spawnInterval);
+        }
+        this.spawnInterval = spawnInterval;
+        return this;
+    }
+
+    int getMaxEvents() {
+        return maxEvents;
+    }
+
+    int getMaxEventsPerRobot() {
+        return maxEventsPerRobot;
+    }
+
+    int getMaxEventsPerType() {
+        return maxEventsPerType;
+    }
+
+    int getMaxEventsPerWindow() {
+        return maxEventsPerWindow;
+    }
+
+    int getWindow(int round) {
+        return round / windowRounds;
+    }
+
+    int getSpawnInterval() {
+        return spawnInterval;
+    }
+
+    /**
+     * @return whether a robot of the given type spawning in the given round
+     *         may be profiled, before counting spawns
+     */
+    boolean selects(RobotType robotType, int round) {
+        return robotTypes.contains(robotType) && round <= lastRound;
+    }
+
+    boolean includesRound(int round) {
+        return round >= firstRound && round <= lastRound;
+    }
+
+    private static int nonNegative(int value, String name) {
+        if (value < 0) {
+            throw new IllegalArgumentException(name + " can't be negative, not " + value);
+        }
+        return value;
+    }
+}
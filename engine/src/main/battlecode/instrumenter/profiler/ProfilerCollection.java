@@ -1,36 +1,169 @@
 package battlecode.instrumenter.profiler;
 
 import battlecode.common.RobotType;
+import battlecode.server.Config;
+import battlecode.server.ErrorReporter;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import org.apache.commons.lang3.StringEscapeUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
 
 /**
  * A ProfilerCollection is a collection of all Profiler instances for a team for a match.
+ * <p>
+ * A collection works in one of three modes:
+ * <ul>
+ * <li>TRACE records every method entry and exit of its profilers as events,
+ * for the client to build flame graphs from.</li>
+ * <li>SAMPLE records nothing but the stack its profilers are in every
+ * sampleInterval bytecodes.</li>
+ * <li>AGGREGATE folds every method entry and exit into a call tree per robot
+ * type as it happens, keeping bytecode totals, call counts and the
+ * distribution of bytecodes per round for each node.</li>
+ * </ul>
+ * Samples and call trees are aggregated per robot type as they're made, so
+ * they take as much memory as there are distinct stacks, however long the
+ * match runs. Traces are limited by the collection's ProfilerBudget, which
+ * also picks the robots profiled in every mode.
  */
 public class ProfilerCollection {
-    /**
-     * We record a maximum of 2,000,000 events per team per match.
-     * This equals a rough maximum of 50MB of profiling data per match,
-     * which should prevent the client from hanging when opening a replay
-     * of a match in which profiling was enabled.
-     */
-    private static final int MAX_EVENTS_TO_RECORD = 2_000_000;
+    public enum Mode {
+        TRACE,
+        SAMPLE,
+        AGGREGATE
+    }
 
     private List<Profiler> profilers = new ArrayList<>();
 
     private List<String> frames = new ArrayList<>();
     private Map<String, Integer> frameIds = new HashMap<>();
 
+    private ProfilerBudget budget = new ProfilerBudget();
+
+    private int currentRound = 0;
+    private int currentWindow = 0;
+    private int selectedSpawns = 0;
+
+    /**
+     * The number of events recorded in this match, for each robot type,
+     * and in the current window of rounds.
+     */
     private int recordedEvents = 0;
+    private final Map<RobotType, Integer> recordedEventsPerType = new EnumMap<>(RobotType.class);
+    private int recordedEventsInWindow = 0;
+
+    private final Mode mode;
+
+    /**
+     * The number of bytecodes between samples, or 0 if we're not sampling.
+     */
+    private final int sampleInterval;
+
+    /**
+     * The roots of the trees of sampled stacks, by robot type.
+     */
+    private final Map<RobotType, SampleNode> samples = new EnumMap<>(RobotType.class);
+
+    /**
+     * The roots of the call trees, by robot type.
+     */
+    private final Map<RobotType, CallNode> callTrees = new EnumMap<>(RobotType.class);
+
+    /**
+     * The call tree nodes that have been charged or called this round,
+     * along with all their ancestors.
+     */
+    private final List<CallNode> touchedNodes = new ArrayList<>();
+
+    /**
+     * Create a collection that traces.
+     */
+    public ProfilerCollection() {
+        this(Mode.TRACE);
+    }
+
+    /**
+     * @param mode TRACE or AGGREGATE; use ProfilerCollection(int) to sample
+     */
+    public ProfilerCollection(Mode mode) {
+        if (mode == Mode.SAMPLE) {
+            throw new IllegalArgumentException("Sampling needs a sample interval");
+        }
+        this.mode = mode;
+        this.sampleInterval = 0;
+    }
+
+    /**
+     * Create a collection that samples.
+     *
+     * @param sampleInterval the number of bytecodes between samples
+     */
+    public ProfilerCollection(int sampleInterval) {
+        if (sampleInterval <= 0) {
+            throw new IllegalArgumentException("Sample interval must be positive: " + sampleInterval);
+        }
+        this.mode = Mode.SAMPLE;
+        this.sampleInterval = sampleInterval;
+    }
+
+    /**
+     * Create a collection as configured by bc.engine.profiler-mode ("trace",
+     * "sample" or "aggregate") and
+     * bc.engine.profiler-sample-interval. Falls back to tracing if they
+     * don't make sense. Its budget is read by ProfilerBudget.fromConfig.
+     *
+     * @param config the config to read
+     * @return a new collection
+     */
+    public static ProfilerCollection fromConfig(Config config) {
+        final ProfilerCollection collection = fromConfigMode(config);
+        collection.setBudget(ProfilerBudget.fromConfig(config));
+        return collection;
+    }
+
+    private static ProfilerCollection fromConfigMode(Config config) {
+        final String mode = config.get("bc.engine.profiler-mode");
+        if ("sample".equals(mode)) {
+            final int interval = config.getInt("bc.engine.profiler-sample-interval");
+            if (interval > 0) {
+                return new ProfilerCollection(interval);
+            }
+            ErrorReporter.report("Profiler sample interval must be positive, not " + interval
+                    + "; tracing instead.", false);
+        } else if ("aggregate".equals(mode)) {
+            return new ProfilerCollection(Mode.AGGREGATE);
+        } else if (!"trace".equals(mode)) {
+            ErrorReporter.report("Unknown profiler mode " + mode + "; tracing instead.", false);
+        }
+        return new ProfilerCollection();
+    }
+
+    public void setBudget(ProfilerBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Decide whether to profile a robot that just spawned. Call once per
+     * spawn, since it counts them.
+     *
+     * @param robotType the type of the robot
+     * @param round the round it spawned in
+     * @return whether to create a profiler for it
+     */
+    public boolean shouldProfile(RobotType robotType, int round) {
+        if (!budget.selects(robotType, round)) {
+            return false;
+        }
+        return selectedSpawns++ % budget.getSpawnInterval() == 0;
+    }
 
     public Profiler createProfiler(int robotId, RobotType robotType) {
         // The name has to be display-friendly
         String name = String.format("#%s (%s)", robotId, robotType.toString());
 
-        Profiler profiler = new Profiler(this, name);
+        Profiler profiler = new Profiler(this, name, robotType);
         profilers.add(profiler);
 
         return profiler;
@@ -53,11 +186,432 @@ public class ProfilerCollection {
         return frameIds.get(methodName);
     }
 
-    public void recordEvent() {
+    /**
+     * Called at the start of each round.
+     *
+     * @param round the round that's starting
+     */
+    public void roundStarted(int round) {
+        currentRound = round;
+        final int window = budget.getWindow(round);
+        if (window != currentWindow) {
+            currentWindow = window;
+            recordedEventsInWindow = 0;
+        }
+    }
+
+    void recordEvent(RobotType robotType) {
         recordedEvents++;
+        recordedEventsPerType.merge(robotType, 1, Integer::sum);
+        recordedEventsInWindow++;
+    }
+
+    /**
+     * @return whether the current round is one the budget says to profile in
+     */
+    boolean isProfilingRound() {
+        return budget.includesRound(currentRound);
     }
 
+    /**
+     * @return whether the team's budget for events this match has room for more
+     */
     public boolean isRecordingEvents() {
-        return recordedEvents < MAX_EVENTS_TO_RECORD;
+        return withinLimit(recordedEvents, budget.getMaxEvents());
+    }
+
+    /**
+     * @param robotType the type of the robot that would record an event
+     * @param robotEvents the number of events the robot has recorded
+     * @return whether there's room for the event in every budget
+     */
+    boolean isRecordingEvents(RobotType robotType, int robotEvents) {
+        return isProfilingRound()
+                && isRecordingEvents()
+                && withinLimit(robotEvents, budget.getMaxEventsPerRobot())
+                && withinLimit(recordedEventsPerType.getOrDefault(robotType, 0), budget.getMaxEventsPerType())
+                && withinLimit(recordedEventsInWindow, budget.getMaxEventsPerWindow());
+    }
+
+    private static boolean withinLimit(int recorded, int limit) {
+        return limit == 0 || recorded < limit;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the number of bytecodes between samples, or 0 if we're not sampling
+     */
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * Record that a robot was in the given stack when it was sampled.
+     *
+     * @param robotType the type of the robot
+     * @param frameIds the frame ids of the stack, outermost first
+     * @param depth the number of frame ids in the stack
+     * @param count the number of samples to record
+     */
+    void addSamples(RobotType robotType, int[] frameIds, int depth, long count) {
+        SampleNode node = samples.get(robotType);
+        if (node == null) {
+            node = new SampleNode();
+            samples.put(robotType, node);
+        }
+        for (int i = 0; i < depth; i++) {
+            node = node.child(frameIds[i]);
+        }
+        node.samples += count;
+    }
+
+    /**
+     * @param robotType a robot type
+     * @return the root of the type's call tree, which stands for being in no method
+     */
+    CallNode getCallTree(RobotType robotType) {
+        CallNode root = callTrees.get(robotType);
+        if (root == null) {
+            root = new CallNode(null, -1);
+            callTrees.put(robotType, root);
+        }
+        return root;
+    }
+
+    /**
+     * Charge bytecodes used in a call tree node itself (and not its children).
+     */
+    void charge(CallNode node, long bytecodes) {
+        node.exclusive += bytecodes;
+        node.roundTotal += bytecodes;
+        touch(node);
+    }
+
+    /**
+     * Record that a call tree node was called.
+     */
+    void call(CallNode node) {
+        node.calls++;
+        touch(node);
+    }
+
+    private void touch(CallNode node) {
+        while (node != null && !node.touched) {
+            node.touched = true;
+            touchedNodes.add(node);
+            node = node.parent;
+        }
+    }
+
+    /**
+     * Called at the end of each round, to fold the bytecodes used in each
+     * call tree node this round into its distribution.
+     */
+    public void roundEnded() {
+        if (mode != Mode.AGGREGATE) {
+            return;
+        }
+
+        for (Profiler profiler : profilers) {
+            profiler.chargeOpenMethod();
+        }
+
+        // Deepest first, so each node's children are done before it is
+        touchedNodes.sort((a, b) -> b.depth - a.depth);
+        for (CallNode node : touchedNodes) {
+            if (node.parent != null) {
+                node.parent.roundTotal += node.roundTotal;
+            }
+            node.endRound();
+        }
+        touchedNodes.clear();
+    }
+
+    /**
+     * @return whether there's anything to write with writeCollapsedStacks
+     */
+    public boolean hasCollapsedStacks() {
+        return !samples.isEmpty() || !callTrees.isEmpty();
+    }
+
+    /**
+     * Write the sampled stacks, or the call trees, in the "collapsed"
+     * format used by flamegraph.pl and speedscope: one line per distinct
+     * stack, of the robot type and the methods in the stack, outermost
+     * first, separated by semicolons, then a space and the number of
+     * bytecodes used in that stack itself (approximate, when sampling).
+     *
+     * @param out where to write the stacks to
+     * @throws IOException if out does
+     */
+    public void writeCollapsedStacks(Writer out) throws IOException {
+        for (Map.Entry<RobotType, SampleNode> root : samples.entrySet()) {
+            writeCollapsedStacks(out, new StringBuilder(root.getKey().toString()), root.getValue());
+        }
+        for (Map.Entry<RobotType, CallNode> root : callTrees.entrySet()) {
+            writeCollapsedStacks(out, new StringBuilder(root.getKey().toString()), root.getValue());
+        }
+        out.flush();
+    }
+
+    private void writeCollapsedStacks(Writer out, StringBuilder stack, SampleNode node) throws IOException {
+        if (node.samples > 0) {
+            writeCollapsedStack(out, stack, node.samples * sampleInterval);
+        }
+        if (node.children == null) {
+            return;
+        }
+        final int length = stack.length();
+        for (Map.Entry<Integer, SampleNode> child : node.children.entrySet()) {
+            stack.append(';').append(frames.get(child.getKey()));
+            writeCollapsedStacks(out, stack, child.getValue());
+            stack.setLength(length);
+        }
+    }
+
+    private void writeCollapsedStacks(Writer out, StringBuilder stack, CallNode node) throws IOException {
+        if (node.exclusive > 0) {
+            writeCollapsedStack(out, stack, node.exclusive);
+        }
+        if (node.children == null) {
+            return;
+        }
+        final int length = stack.length();
+        for (CallNode child : node.children.values()) {
+            stack.append(';').append(frames.get(child.frameId));
+            writeCollapsedStacks(out, stack, child);
+            stack.setLength(length);
+        }
+    }
+
+    private static void writeCollapsedStack(Writer out, StringBuilder stack, long bytecodes) throws IOException {
+        out.write(stack.toString());
+        out.write(' ');
+        out.write(Long.toString(bytecodes));
+        out.write('\n');
+    }
+
+    /**
+     * @return whether there's anything to write with writeCallTrees
+     */
+    public boolean hasCallTrees() {
+        return !callTrees.isEmpty();
+    }
+
+    /**
+     * Write the call trees as JSON, of the form
+     * <pre>
+     * {"frames": [method names...],
+     *  "trees": {"POLITICIAN": node, ...}}
+     * </pre>
+     * where each node is
+     * <pre>
+     * {"frame": index into frames, or -1 for the root,
+     *  "calls": n, "inclusive": bytecodes, "exclusive": bytecodes,
+     *  "rounds": rounds it was used in,
+     *  "p50": bytecodes, "p90": bytecodes, "p99": bytecodes, "max": bytecodes,
+     *  "children": [nodes...]}
+     * </pre>
+     * The percentiles are of the bytecodes all robots of the type used in
+     * the node (inclusive) per round it was used in, and are accurate to
+     * within one part in eight.
+     *
+     * @param out where to write the trees to
+     * @throws IOException if out does
+     */
+    public void writeCallTrees(Writer out) throws IOException {
+        out.write("{\"frames\":[");
+        for (int i = 0; i < frames.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write('"');
+            out.write(StringEscapeUtils.escapeJson(frames.get(i)));
+            out.write('"');
+        }
+        out.write("],\"trees\":{");
+        boolean first = true;
+        for (Map.Entry<RobotType, CallNode> root : callTrees.entrySet()) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            out.write('"');
+            out.write(root.getKey().toString());
+            out.write("\":");
+            writeCallTree(out, root.getValue());
+        }
+        out.write("}}\n");
+        out.flush();
+    }
+
+    private static long writeCallTree(Writer out, CallNode node) throws IOException {
+        out.write("{\"frame\":" + node.frameId
+                + ",\"calls\":" + node.calls
+                + ",\"exclusive\":" + node.exclusive
+                + ",\"rounds\":" + node.rounds
+                + ",\"p50\":" + node.percentile(0.5)
+                + ",\"p90\":" + node.percentile(0.9)
+                + ",\"p99\":" + node.percentile(0.99)
+                + ",\"max\":" + node.roundMax
+                + ",\"children\":[");
+        long inclusive = node.exclusive;
+        if (node.children != null) {
+            boolean first = true;
+            for (CallNode child : node.children.values()) {
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                inclusive += writeCallTree(out, child);
+            }
+        }
+        // Last, since we only know it once the children are written
+        out.write("],\"inclusive\":" + inclusive + "}");
+        return inclusive;
+    }
+
+    /**
+     * A stack that's been sampled, or that's the prefix of one.
+     */
+    private static final class SampleNode {
+        /**
+         * The number of samples taken in exactly this stack.
+         */
+        long samples;
+
+        /**
+         * The stacks one method deeper, by frame id; null until there are any.
+         * Sorted, so the output doesn't depend on hashing.
+         */
+        TreeMap<Integer, SampleNode> children;
+
+        SampleNode child(int frameId) {
+            if (children == null) {
+                children = new TreeMap<>();
+            }
+            SampleNode child = children.get(frameId);
+            if (child == null) {
+                child = new SampleNode();
+                children.put(frameId, child);
+            }
+            return child;
+        }
+    }
+
+    /**
+     * A method in a call tree, identified by the path of calls to it.
+     * Inclusive totals aren't kept, since they're just the sum of the
+     * exclusive totals in the subtree.
+     */
+    static final class CallNode {
+        /**
+         * Values below this get a bucket each; above it, there are
+         * this many buckets for each power of two.
+         */
+        private static final int SUB_BUCKETS = 8;
+        private static final int SUB_BUCKET_BITS = 3;
+
+        final CallNode parent;
+        final int frameId;
+        final int depth;
+
+        /**
+         * The nodes this one calls, by frame id; null until there are any.
+         */
+        TreeMap<Integer, CallNode> children;
+
+        long calls;
+        long exclusive;
+
+        /**
+         * The bytecodes used in this node this round. Exclusive until the
+         * round ends, when the children's are added to make it inclusive.
+         */
+        long roundTotal;
+        boolean touched;
+
+        /**
+         * The number of rounds, and the largest inclusive total in one;
+         * and how many rounds' totals were in each bucket.
+         */
+        long rounds;
+        long roundMax;
+        long[] roundHistogram;
+
+        CallNode(CallNode parent, int frameId) {
+            this.parent = parent;
+            this.frameId = frameId;
+            this.depth = parent == null ? 0 : parent.depth + 1;
+        }
+
+        CallNode child(int frameId) {
+            if (children == null) {
+                children = new TreeMap<>();
+            }
+            CallNode child = children.get(frameId);
+            if (child == null) {
+                child = new CallNode(this, frameId);
+                children.put(frameId, child);
+            }
+            return child;
+        }
+
+        void endRound() {
+            final int bucket = bucket(roundTotal);
+            if (roundHistogram == null || bucket >= roundHistogram.length) {
+                roundHistogram = roundHistogram == null
+                        ? new long[bucket + 1]
+                        : Arrays.copyOf(roundHistogram, bucket + 1);
+            }
+            roundHistogram[bucket]++;
+            rounds++;
+            roundMax = Math.max(roundMax, roundTotal);
+
+            roundTotal = 0;
+            touched = false;
+        }
+
+        /**
+         * @return the inclusive total of the round at the given fraction
+         *         of the way through the sorted rounds, rounded up to the
+         *         top of its bucket (but no more than the max); or 0 if
+         *         there haven't been any
+         */
+        long percentile(double fraction) {
+            if (rounds == 0) {
+                return 0;
+            }
+            final long target = Math.max(1, (long) Math.ceil(fraction * rounds));
+            long seen = 0;
+            for (int i = 0; i < roundHistogram.length; i++) {
+                seen += roundHistogram[i];
+                if (seen >= target) {
+                    return Math.min(bucketMax(i), roundMax);
+                }
+            }
+            return roundMax;
+        }
+
+        static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            final int exponent = 63 - Long.numberOfLeadingZeros(value);
+            final int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+        }
+
+        static long bucketMax(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            final int mantissa = bucket % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + mantissa + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
     }
 }
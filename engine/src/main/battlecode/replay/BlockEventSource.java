@@ -0,0 +1,175 @@
+package battlecode.replay;
+
+import battlecode.schema.EventWrapper;
+import battlecode.schema.GameWrapper;
+import battlecode.server.ReplayIndex;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Events read out of a compressed replay mapped into memory, using the
+ * index the server writes next to it to inflate only the block an event
+ * is in. See battlecode.server.ReplayIndex for the index's format.
+ * <p>
+ * Only the last block read is kept inflated, so events read from an
+ * earlier block stay valid (they keep their block alive), but reading
+ * back and forth across blocks inflates them again each time.
+ */
+final class BlockEventSource extends EventSource {
+
+    private final MappedByteBuffer compressed;
+
+    private final long[] blockStarts;
+    private final int[] blockLengths;
+    private final int[] blockRawLengths;
+
+    private final int[] eventRounds;
+    private final int[] eventBlocks;
+    private final int[] eventOffsets;
+
+    private final GameWrapper wrapper;
+
+    private final Inflater inflater = new Inflater(true);
+    private byte[] scratch = new byte[0];
+    private int currentBlock = -1;
+    private ByteBuffer currentBuffer;
+
+    /**
+     * @param file a gzipped replay
+     * @param index its index
+     * @throws IOException if either can't be read, or the index is bad or
+     *                     is for some other replay
+     */
+    BlockEventSource(File file, File index) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            // The mapping stays valid after the channel's closed
+            compressed = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+
+        final ByteBuffer in = ByteBuffer.wrap(FileUtils.readFileToByteArray(index)).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            final byte[] magic = new byte[ReplayIndex.magic().length];
+            in.get(magic);
+            if (!ReplayIndex.isMagic(magic)) {
+                throw new IOException(index + " isn't a replay index");
+            }
+
+            // The gzip trailer ends with the CRC and length of the contents
+            final long replayLength = in.getLong();
+            final int replayCrc = in.getInt();
+            if (replayLength != compressed.capacity() || replayLength < 8
+                    || compressed.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt((int) replayLength - 8) != replayCrc) {
+                throw new IOException(index + " doesn't match " + file);
+            }
+
+            final int blockCount = in.getInt();
+            final int eventCount = in.getInt();
+            if (blockCount < 1 || eventCount < 0 || ReplayIndex.size(blockCount, eventCount) != in.capacity()) {
+                throw new IOException(index + " is " + in.capacity() + " bytes, not the "
+                        + ReplayIndex.size(blockCount, eventCount) + " its counts need");
+            }
+            blockStarts = new long[blockCount];
+            blockLengths = new int[blockCount];
+            blockRawLengths = new int[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                blockStarts[i] = in.getLong();
+                blockLengths[i] = in.getInt();
+                in.getLong(); // where the block goes in the whole replay; we don't need it
+                blockRawLengths[i] = in.getInt();
+                if (blockStarts[i] < 0 || blockStarts[i] + blockLengths[i] > compressed.capacity()) {
+                    throw new IOException(index + " doesn't match " + file);
+                }
+            }
+
+            eventRounds = new int[eventCount];
+            eventBlocks = new int[eventCount];
+            eventOffsets = new int[eventCount];
+            for (int i = 0; i < eventCount; i++) {
+                in.getInt(); // the match; the wrapper tells us that
+                eventRounds[i] = in.getInt();
+                eventBlocks[i] = in.getInt();
+                eventOffsets[i] = in.getInt();
+                if (eventBlocks[i] <= 0 || eventBlocks[i] >= blockCount) {
+                    throw new IOException(index + " has an event in block " + eventBlocks[i]);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException(index + " is cut short", e);
+        }
+
+        // The first block is just the wrapper
+        wrapper = GameWrapper.getRootAsGameWrapper(inflate(0));
+        if (wrapper.eventsLength() != eventRounds.length) {
+            throw new IOException(index + " doesn't match " + file);
+        }
+    }
+
+    @Override
+    GameWrapper getWrapper() {
+        return wrapper;
+    }
+
+    @Override
+    EventWrapper getEvent(int index, EventWrapper reuse) {
+        final int block = eventBlocks[index];
+        if (block != currentBlock) {
+            currentBuffer = inflate(block);
+            currentBlock = block;
+        }
+        return reuse.__assign(eventOffsets[index], currentBuffer);
+    }
+
+    @Override
+    int getEventRound(int index) {
+        return eventRounds[index];
+    }
+
+    @Override
+    boolean isKeyframe(int index) {
+        // A keyframe comes right after the Round for the same round
+        return index > 0 && eventRounds[index] >= 0 && eventRounds[index] == eventRounds[index - 1];
+    }
+
+    private ByteBuffer inflate(int block) {
+        final int length = blockLengths[block];
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        final ByteBuffer source = compressed.duplicate();
+        source.position((int) blockStarts[block]);
+        source.get(scratch, 0, length);
+
+        final byte[] raw = new byte[blockRawLengths[block]];
+        inflater.reset();
+        inflater.setInput(scratch, 0, length);
+        try {
+            int read = 0;
+            while (read < raw.length) {
+                final int n = inflater.inflate(raw, read, raw.length - read);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new DataFormatException("block ends after " + read + " of " + raw.length + " bytes");
+                }
+                read += n;
+            }
+        } catch (DataFormatException e) {
+            throw new RuntimeException("Can't inflate replay block " + block, e);
+        }
+        return ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public void close() {
+        inflater.end();
+        currentBuffer = null;
+    }
+}
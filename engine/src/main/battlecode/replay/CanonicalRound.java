@@ -0,0 +1,210 @@
+package battlecode.replay;
+
+import battlecode.schema.RGBTable;
+import battlecode.schema.Round;
+import battlecode.schema.SpawnedBodyTable;
+import battlecode.schema.VecTable;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A Round as a list of ints: the values of its fields in a fixed order,
+ * with each vector preceded by its length. Two rounds with the same
+ * contents have the same canonical form however their flatbuffers are laid
+ * out, so it can be hashed, or compared to find the first field in which
+ * two rounds differ.
+ * <p>
+ * Logs and indicators (and the counts of those dropped to keep the replay
+ * within its budget) can be left out, since they don't change the game
+ * and depend on things like bc.engine.show-indicators.
+ */
+public final class CanonicalRound {
+
+    private static final String[] FIELDS = {
+            "roundID",
+            "teamIDs", "teamVotes", "teamBidderIDs", "teamNumBuffs",
+            "movedIDs", "movedLocs.xs", "movedLocs.ys",
+            "spawnedBodies.robotIDs", "spawnedBodies.teamIDs", "spawnedBodies.types",
+            "spawnedBodies.locs.xs", "spawnedBodies.locs.ys", "spawnedBodies.influences",
+            "diedIDs",
+            "actionIDs", "actions", "actionTargets",
+            "bytecodeIDs", "bytecodesUsed",
+            "indicatorDotIDs", "indicatorDotLocs.xs", "indicatorDotLocs.ys",
+            "indicatorDotRGBs.red", "indicatorDotRGBs.green", "indicatorDotRGBs.blue",
+            "indicatorLineIDs", "indicatorLineStartLocs.xs", "indicatorLineStartLocs.ys",
+            "indicatorLineEndLocs.xs", "indicatorLineEndLocs.ys",
+            "indicatorLineRGBs.red", "indicatorLineRGBs.green", "indicatorLineRGBs.blue",
+            "logs",
+            "teamDroppedIndicators", "teamDroppedLogBytes"
+    };
+
+    private final boolean ignoreLogsAndIndicators;
+
+    private final VecTable vecs = new VecTable();
+    private final RGBTable rgbs = new RGBTable();
+    private final SpawnedBodyTable bodies = new SpawnedBodyTable();
+
+    /**
+     * The canonical form; and for each value, its field and its index in
+     * the field, or -1 for a vector's length, or -2 for a scalar.
+     */
+    private final TIntArrayList values = new TIntArrayList();
+    private final TIntArrayList fields = new TIntArrayList();
+    private final TIntArrayList indices = new TIntArrayList();
+
+    private int field;
+
+    /**
+     * @param ignoreLogsAndIndicators whether to leave out logs and indicators
+     */
+    public CanonicalRound(boolean ignoreLogsAndIndicators) {
+        this.ignoreLogsAndIndicators = ignoreLogsAndIndicators;
+    }
+
+    /**
+     * Take the canonical form of a round, replacing the last one taken.
+     *
+     * @param round the round
+     * @return this
+     */
+    public CanonicalRound load(Round round) {
+        values.resetQuick();
+        fields.resetQuick();
+        indices.resetQuick();
+        field = 0;
+
+        add(round.roundID(), -2);
+        field++;
+        vector(round.teamIDsLength(), round::teamIDs);
+        vector(round.teamVotesLength(), round::teamVotes);
+        vector(round.teamBidderIDsLength(), round::teamBidderIDs);
+        vector(round.teamNumBuffsLength(), round::teamNumBuffs);
+
+        vector(round.movedIDsLength(), round::movedIDs);
+        vecs(round.movedLocs(vecs));
+
+        final SpawnedBodyTable spawned = round.spawnedBodies(bodies);
+        if (spawned != null) {
+            vector(spawned.robotIDsLength(), spawned::robotIDs);
+            vector(spawned.teamIDsLength(), spawned::teamIDs);
+            vector(spawned.typesLength(), spawned::types);
+            vecs(spawned.locs(vecs));
+            vector(spawned.influencesLength(), spawned::influences);
+        } else {
+            for (int i = 0; i < 6; i++) {
+                vector(0, null);
+            }
+        }
+
+        vector(round.diedIDsLength(), round::diedIDs);
+        vector(round.actionIDsLength(), round::actionIDs);
+        vector(round.actionsLength(), round::actions);
+        vector(round.actionTargetsLength(), round::actionTargets);
+
+        vector(round.bytecodeIDsLength(), round::bytecodeIDs);
+        vector(round.bytecodesUsedLength(), round::bytecodesUsed);
+
+        if (ignoreLogsAndIndicators) {
+            return this;
+        }
+
+        vector(round.indicatorDotIDsLength(), round::indicatorDotIDs);
+        vecs(round.indicatorDotLocs(vecs));
+        rgbs(round.indicatorDotRGBs(rgbs));
+        vector(round.indicatorLineIDsLength(), round::indicatorLineIDs);
+        vecs(round.indicatorLineStartLocs(vecs));
+        vecs(round.indicatorLineEndLocs(vecs));
+        rgbs(round.indicatorLineRGBs(rgbs));
+
+        final ByteBuffer logs = round.logsAsByteBuffer();
+        if (logs != null) {
+            vector(logs.remaining(), i -> logs.get(logs.position() + i));
+        } else {
+            vector(0, null);
+        }
+        vector(round.teamDroppedIndicatorsLength(), round::teamDroppedIndicators);
+        vector(round.teamDroppedLogBytesLength(), round::teamDroppedLogBytes);
+        return this;
+    }
+
+    /**
+     * @return a 64 bit FNV-1a hash of the canonical form
+     */
+    public long hash() {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < values.size(); i++) {
+            final int value = values.getQuick(i);
+            for (int shift = 0; shift < 32; shift += 8) {
+                hash ^= (value >>> shift) & 0xff;
+                hash *= 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @param expected a canonical round
+     * @param actual another canonical round
+     * @return the first field the rounds differ in, described, or null if
+     *         they're the same
+     */
+    public static String firstDifference(CanonicalRound expected, CanonicalRound actual) {
+        if (expected.ignoreLogsAndIndicators != actual.ignoreLogsAndIndicators) {
+            throw new IllegalArgumentException("Can't compare rounds with and without logs and indicators");
+        }
+        // Vectors are preceded by their lengths, so the forms are the same length until they differ
+        for (int i = 0; i < expected.values.size(); i++) {
+            final int expectedValue = expected.values.getQuick(i);
+            final int actualValue = actual.values.getQuick(i);
+            if (expectedValue == actualValue) {
+                continue;
+            }
+            final String name = FIELDS[expected.fields.getQuick(i)];
+            final int index = expected.indices.getQuick(i);
+            if (index == -1) {
+                return name + ": expected " + expectedValue + " values but was " + actualValue;
+            }
+            return name + (index == -2 ? "" : "[" + index + "]")
+                    + ": expected " + expectedValue + " but was " + actualValue;
+        }
+        return null;
+    }
+
+    private void vector(int length, IntUnaryOperator element) {
+        add(length, -1);
+        for (int i = 0; i < length; i++) {
+            add(element.applyAsInt(i), i);
+        }
+        field++;
+    }
+
+    private void vecs(VecTable table) {
+        if (table != null) {
+            vector(table.xsLength(), table::xs);
+            vector(table.ysLength(), table::ys);
+        } else {
+            vector(0, null);
+            vector(0, null);
+        }
+    }
+
+    private void rgbs(RGBTable table) {
+        if (table != null) {
+            vector(table.redLength(), table::red);
+            vector(table.greenLength(), table::green);
+            vector(table.blueLength(), table::blue);
+        } else {
+            vector(0, null);
+            vector(0, null);
+            vector(0, null);
+        }
+    }
+
+    private void add(int value, int index) {
+        values.add(value);
+        fields.add(field);
+        indices.add(index);
+    }
+}
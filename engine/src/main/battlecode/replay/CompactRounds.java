@@ -0,0 +1,224 @@
+package battlecode.replay;
+
+import battlecode.common.Direction;
+import battlecode.schema.*;
+import battlecode.util.FlatHelpers;
+import com.google.flatbuffers.FlatBufferBuilder;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Turns the Rounds of a replay written with RoundEncoding.COMPACT back
+ * into plain Rounds, so the rest of this package doesn't have to know
+ * about the encoding. Keeps the spawn table of the match: the ID, and
+ * latest location, of each robot by spawn index.
+ */
+final class CompactRounds {
+
+    private static final Direction[] DIRECTIONS = Direction.allDirections();
+
+    private final TIntArrayList ids = new TIntArrayList();
+    private final TIntArrayList xs = new TIntArrayList();
+    private final TIntArrayList ys = new TIntArrayList();
+
+    private final FlatBufferBuilder builder = new FlatBufferBuilder(1024);
+    private final Round plain = new Round();
+    private final VecTable vecs = new VecTable();
+    private final RGBTable rgbs = new RGBTable();
+    private final SpawnedBodyTable bodies = new SpawnedBodyTable();
+
+    private final TIntArrayList movedIDs = new TIntArrayList();
+    private final TIntArrayList movedXs = new TIntArrayList();
+    private final TIntArrayList movedYs = new TIntArrayList();
+    private final TIntArrayList bytecodeIDs = new TIntArrayList();
+    private final TIntArrayList bytecodesUsed = new TIntArrayList();
+
+    /**
+     * Start reading a match from its header.
+     */
+    void reset(MatchHeader header) {
+        ids.resetQuick();
+        xs.resetQuick();
+        ys.resetQuick();
+        final SpawnedBodyTable initialBodies = header.map().bodies(bodies);
+        if (initialBodies != null) {
+            spawn(initialBodies);
+        }
+    }
+
+    /**
+     * Start reading a match from a keyframe.
+     */
+    void reset(Keyframe keyframe) {
+        if (keyframe.spawnIndicesLength() != keyframe.robotIDsLength()) {
+            throw new IllegalStateException("Keyframe for round " + keyframe.roundID() + " has no spawn indices");
+        }
+        // Robots that died before the keyframe aren't in it, but can't move or act again either
+        ids.resetQuick();
+        xs.resetQuick();
+        ys.resetQuick();
+        for (int i = 0; i < keyframe.spawnCount(); i++) {
+            ids.add(-1);
+            xs.add(0);
+            ys.add(0);
+        }
+        final VecTable locs = keyframe.locs(vecs);
+        for (int i = 0; i < keyframe.robotIDsLength(); i++) {
+            final int index = keyframe.spawnIndices(i);
+            ids.setQuick(index, keyframe.robotIDs(i));
+            xs.setQuick(index, locs.xs(i));
+            ys.setQuick(index, locs.ys(i));
+        }
+    }
+
+    /**
+     * Decode the next Round of the match.
+     *
+     * @param round a compact Round
+     * @return the round as a plain Round, valid until the next call
+     */
+    Round expand(Round round) {
+        final SpawnedBodyTable spawned = round.spawnedBodies(bodies);
+        if (spawned != null) {
+            spawn(spawned);
+        }
+
+        // Moves; -1 takes the new location from movedLocs
+        movedIDs.resetQuick();
+        movedXs.resetQuick();
+        movedYs.resetQuick();
+        final ByteBuffer movedIndices = round.compactMovedIndicesAsByteBuffer();
+        final VecTable movedLocs = round.movedLocs(vecs);
+        int escapes = 0;
+        for (int i = 0; i < round.compactMovedDirectionsLength(); i++) {
+            final int index = FlatHelpers.readVarint(movedIndices);
+            final byte direction = round.compactMovedDirections(i);
+            int x, y;
+            if (direction == -1) {
+                x = movedLocs.xs(escapes);
+                y = movedLocs.ys(escapes);
+                escapes++;
+            } else {
+                x = xs.get(index) + DIRECTIONS[direction].getDeltaX();
+                y = ys.get(index) + DIRECTIONS[direction].getDeltaY();
+            }
+            xs.setQuick(index, x);
+            ys.setQuick(index, y);
+            movedIDs.add(ids.get(index));
+            movedXs.add(x);
+            movedYs.add(y);
+        }
+
+        final int actionCount = round.actionsLength();
+        final int[] actionIDs = new int[actionCount];
+        final int[] actionTargets = new int[actionCount];
+        final ByteBuffer actionIndices = round.compactActionIndicesAsByteBuffer();
+        final ByteBuffer targets = round.compactActionTargetsAsByteBuffer();
+        for (int i = 0; i < actionCount; i++) {
+            actionIDs[i] = ids.get(FlatHelpers.readVarint(actionIndices));
+            final int target = FlatHelpers.readZigzagVarint(targets);
+            if (FlatHelpers.isBodyTarget(round.actions(i))) {
+                actionTargets[i] = target >= 0 ? ids.get(target) : -1 - target;
+            } else {
+                actionTargets[i] = target;
+            }
+        }
+
+        bytecodeIDs.resetQuick();
+        bytecodesUsed.resetQuick();
+        final ByteBuffer bytecodeIndices = round.compactBytecodeIndicesAsByteBuffer();
+        final ByteBuffer used = round.compactBytecodesUsedAsByteBuffer();
+        while (bytecodeIndices != null && bytecodeIndices.hasRemaining()) {
+            bytecodeIDs.add(ids.get(FlatHelpers.readVarint(bytecodeIndices)));
+            bytecodesUsed.add(FlatHelpers.readVarint(used));
+        }
+
+        // Everything else is copied as it is
+        builder.clear();
+        final int spawnedBodiesP = spawned == null ? 0 : SpawnedBodyTable.createSpawnedBodyTable(builder,
+                ints(spawned.robotIDsLength(), spawned::robotIDs),
+                bytes(spawned.teamIDsLength(), spawned::teamIDs),
+                bytes(spawned.typesLength(), spawned::types),
+                vecs(spawned.locs(vecs)),
+                ints(spawned.influencesLength(), spawned::influences));
+        final ByteBuffer logs = round.logsAsByteBuffer();
+        final int droppedIndicatorsP = round.teamDroppedIndicatorsLength() == 0 ? 0
+                : ints(round.teamDroppedIndicatorsLength(), round::teamDroppedIndicators);
+        final int droppedLogBytesP = round.teamDroppedLogBytesLength() == 0 ? 0
+                : ints(round.teamDroppedLogBytesLength(), round::teamDroppedLogBytes);
+        final int root = Round.createRound(builder,
+                ints(round.teamIDsLength(), round::teamIDs),
+                ints(round.teamVotesLength(), round::teamVotes),
+                ints(round.teamBidderIDsLength(), round::teamBidderIDs),
+                Round.createMovedIDsVector(builder, movedIDs.toArray()),
+                FlatHelpers.createVecTable(builder, movedXs, movedYs),
+                spawnedBodiesP,
+                ints(round.diedIDsLength(), round::diedIDs),
+                Round.createActionIDsVector(builder, actionIDs),
+                bytes(actionCount, round::actions),
+                Round.createActionTargetsVector(builder, actionTargets),
+                ints(round.indicatorDotIDsLength(), round::indicatorDotIDs),
+                vecs(round.indicatorDotLocs(vecs)),
+                rgbs(round.indicatorDotRGBs(rgbs)),
+                ints(round.indicatorLineIDsLength(), round::indicatorLineIDs),
+                vecs(round.indicatorLineStartLocs(vecs)),
+                vecs(round.indicatorLineEndLocs(vecs)),
+                rgbs(round.indicatorLineRGBs(rgbs)),
+                logs == null ? 0 : bytes(logs.remaining(), i -> logs.get(logs.position() + i)),
+                round.roundID(),
+                Round.createBytecodeIDsVector(builder, bytecodeIDs.toArray()),
+                Round.createBytecodesUsedVector(builder, bytecodesUsed.toArray()),
+                ints(round.teamNumBuffsLength(), round::teamNumBuffs),
+                0, 0, 0, 0, 0, 0,
+                droppedIndicatorsP,
+                droppedLogBytesP);
+        builder.finish(root);
+        return Round.getRootAsRound(builder.dataBuffer(), plain);
+    }
+
+    private void spawn(SpawnedBodyTable spawned) {
+        final VecTable locs = spawned.locs(vecs);
+        for (int i = 0; i < spawned.robotIDsLength(); i++) {
+            ids.add(spawned.robotIDs(i));
+            xs.add(locs.xs(i));
+            ys.add(locs.ys(i));
+        }
+    }
+
+    private int ints(int length, IntUnaryOperator element) {
+        builder.startVector(4, length, 4);
+        for (int i = length - 1; i >= 0; i--) {
+            builder.addInt(element.applyAsInt(i));
+        }
+        return builder.endVector();
+    }
+
+    private int bytes(int length, IntUnaryOperator element) {
+        builder.startVector(1, length, 1);
+        for (int i = length - 1; i >= 0; i--) {
+            builder.addByte((byte) element.applyAsInt(i));
+        }
+        return builder.endVector();
+    }
+
+    private int vecs(VecTable table) {
+        if (table == null) {
+            return 0;
+        }
+        final int xsP = ints(table.xsLength(), table::xs);
+        final int ysP = ints(table.ysLength(), table::ys);
+        return VecTable.createVecTable(builder, xsP, ysP);
+    }
+
+    private int rgbs(RGBTable table) {
+        if (table == null) {
+            return 0;
+        }
+        final int redP = ints(table.redLength(), table::red);
+        final int greenP = ints(table.greenLength(), table::green);
+        final int blueP = ints(table.blueLength(), table::blue);
+        return RGBTable.createRGBTable(builder, redP, greenP, blueP);
+    }
+}
@@ -0,0 +1,38 @@
+package battlecode.replay;
+
+import battlecode.schema.EventWrapper;
+import battlecode.schema.GameWrapper;
+
+import java.io.Closeable;
+
+/**
+ * Where a ReplayReader gets its events from.
+ */
+abstract class EventSource implements Closeable {
+
+    /**
+     * @return the replay's GameWrapper, for its match header and footer
+     *         indices and its number of events; its events may not be
+     *         readable through it
+     */
+    abstract GameWrapper getWrapper();
+
+    /**
+     * @param index the index of an event
+     * @param reuse the object to point at it
+     * @return reuse
+     */
+    abstract EventWrapper getEvent(int index, EventWrapper reuse);
+
+    /**
+     * @param index the index of an event
+     * @return the round of the event if it's a Round or Keyframe, or -1
+     */
+    abstract int getEventRound(int index);
+
+    /**
+     * @param index the index of an event
+     * @return whether the event is a Keyframe
+     */
+    abstract boolean isKeyframe(int index);
+}
@@ -0,0 +1,81 @@
+package battlecode.replay;
+
+import battlecode.schema.Event;
+import battlecode.schema.EventWrapper;
+import battlecode.schema.GameWrapper;
+import battlecode.schema.Keyframe;
+import battlecode.schema.Round;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Events read straight out of an uncompressed replay, mapped into memory.
+ */
+final class MappedEventSource extends EventSource {
+
+    private final File deleteOnClose;
+    private final GameWrapper wrapper;
+
+    private final EventWrapper event = new EventWrapper();
+    private final Round round = new Round();
+    private final Keyframe keyframe = new Keyframe();
+
+    /**
+     * @param file an uncompressed replay
+     * @param deleteOnClose whether the file is temporary, to be deleted when
+     *                      we're closed
+     * @throws IOException if the file can't be mapped
+     */
+    MappedEventSource(File file, boolean deleteOnClose) throws IOException {
+        this.deleteOnClose = deleteOnClose ? file : null;
+        final MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            // The mapping stays valid after the channel's closed
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.wrapper = GameWrapper.getRootAsGameWrapper(buffer);
+    }
+
+    @Override
+    GameWrapper getWrapper() {
+        return wrapper;
+    }
+
+    @Override
+    EventWrapper getEvent(int index, EventWrapper reuse) {
+        return wrapper.events(reuse, index);
+    }
+
+    @Override
+    int getEventRound(int index) {
+        wrapper.events(event, index);
+        switch (event.eType()) {
+            case Event.Round:
+                return ((Round) event.e(round)).roundID();
+            case Event.Keyframe:
+                return ((Keyframe) event.e(keyframe)).roundID();
+            default:
+                return -1;
+        }
+    }
+
+    @Override
+    boolean isKeyframe(int index) {
+        return wrapper.events(event, index).eType() == Event.Keyframe;
+    }
+
+    @Override
+    public void close() {
+        // The mapping goes away when it's collected; on Windows, the file
+        // can't be deleted before then, so we try again on exit
+        if (deleteOnClose != null && !deleteOnClose.delete()) {
+            deleteOnClose.deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package battlecode.replay;
+
+import battlecode.schema.GameFooter;
+import battlecode.schema.MatchFooter;
+import battlecode.schema.MatchHeader;
+import battlecode.schema.Round;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Compares replays round by round, to check that a change to the engine
+ * doesn't change how games play out.
+ * <p/>
+ * Usage:<br>
+ * <code>java battlecode.replay.ReplayDiff [--ignore-logs] expected.bc21 actual.bc21</code><br>
+ * prints the first place the replays differ, if they do, and<br>
+ * <code>java battlecode.replay.ReplayDiff [--ignore-logs] --hashes replay.bc21</code><br>
+ * prints the hash of the canonical form (see CanonicalRound) of each
+ * round, a line per round, to compare with other tools.
+ * <p/>
+ * Keyframes are skipped, since they're worked out from the rounds before
+ * them; as are profiler files, which differ from run to run.
+ * <p/>
+ * Matches that end in a tie are won on a coin flip (see
+ * GameWorld.setWinnerArbitrary), so the same game can have different
+ * winners. Replays don't say how a match was won, but if every round of a
+ * match is the same and the winner isn't, the winner was arbitrary; that's
+ * reported, and isn't a difference.
+ */
+public final class ReplayDiff {
+
+    private ReplayDiff() {}
+
+    public static void main(String[] args) {
+        boolean ignoreLogsAndIndicators = false;
+        boolean hashes = false;
+        final List<File> replays = new ArrayList<>();
+        for (String arg : args) {
+            switch (arg) {
+                case "--ignore-logs":
+                    ignoreLogsAndIndicators = true;
+                    break;
+                case "--hashes":
+                    hashes = true;
+                    break;
+                default:
+                    replays.add(new File(arg));
+            }
+        }
+        if (replays.size() != (hashes ? 1 : 2)) {
+            System.err.println("Usage: battlecode.replay.ReplayDiff [--ignore-logs] expected.bc21 actual.bc21");
+            System.err.println("   or: battlecode.replay.ReplayDiff [--ignore-logs] --hashes replay.bc21");
+            System.exit(1);
+            return;
+        }
+
+        try {
+            if (hashes) {
+                try (ReplayReader reader = ReplayReader.open(replays.get(0))) {
+                    printHashes(reader, ignoreLogsAndIndicators);
+                }
+                System.exit(0);
+            }
+
+            final String difference;
+            final List<Integer> arbitraryWinners = new ArrayList<>();
+            try (ReplayReader expected = ReplayReader.open(replays.get(0));
+                 ReplayReader actual = ReplayReader.open(replays.get(1))) {
+                difference = diff(expected, actual, ignoreLogsAndIndicators, arbitraryWinners);
+            }
+            printArbitraryWinners(arbitraryWinners);
+            if (difference == null) {
+                System.out.println("The replays are the same");
+                System.exit(0);
+            }
+            System.out.println(difference);
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Can't read replay: " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Find the first place two replays differ, not counting arbitrary winners.
+     *
+     * @param expected the replay to compare to
+     * @param actual the replay to compare
+     * @param ignoreLogsAndIndicators whether to ignore differences in logs and indicators
+     * @return where and how the replays first differ, or null if they don't
+     */
+    public static String diff(ReplayReader expected, ReplayReader actual, boolean ignoreLogsAndIndicators) {
+        return diff(expected, actual, ignoreLogsAndIndicators, new ArrayList<>());
+    }
+
+    /**
+     * Find the first place two replays differ.
+     *
+     * @param expected the replay to compare to
+     * @param actual the replay to compare
+     * @param ignoreLogsAndIndicators whether to ignore differences in logs and indicators
+     * @param arbitraryWinners where to add the indices of matches, before the
+     *                         first difference, whose winners differ only
+     *                         because they were won on a coin flip
+     * @return where and how the replays first differ, or null if they don't
+     */
+    public static String diff(ReplayReader expected, ReplayReader actual, boolean ignoreLogsAndIndicators,
+                              List<Integer> arbitraryWinners) {
+        final int matches = Math.min(expected.getMatches().size(), actual.getMatches().size());
+        for (int m = 0; m < matches; m++) {
+            final String difference = diff(expected.getMatches().get(m), actual.getMatches().get(m),
+                    ignoreLogsAndIndicators, arbitraryWinners);
+            if (difference != null) {
+                return "Match " + m + ", " + difference;
+            }
+        }
+        if (expected.getMatches().size() != actual.getMatches().size()) {
+            return "Expected " + expected.getMatches().size() + " matches but was " + actual.getMatches().size();
+        }
+
+        final GameFooter expectedFooter = expected.getGameFooter();
+        final GameFooter actualFooter = actual.getGameFooter();
+        if (expectedFooter == null || actualFooter == null) {
+            return expectedFooter == actualFooter ? null : "Only one game finished";
+        }
+        // The game's winner is whoever won the most matches, so it can be arbitrary too
+        if (expectedFooter.winner() != actualFooter.winner() && arbitraryWinners.isEmpty()) {
+            return "Game footer, winner: expected " + expectedFooter.winner() + " but was " + actualFooter.winner();
+        }
+        return null;
+    }
+
+    private static String diff(ReplayMatch expected, ReplayMatch actual, boolean ignoreLogsAndIndicators,
+                               List<Integer> arbitraryWinners) {
+        final MatchHeader expectedHeader = expected.getHeader(new MatchHeader());
+        final MatchHeader actualHeader = actual.getHeader(new MatchHeader());
+        if (!expectedHeader.map().name().equals(actualHeader.map().name())) {
+            return "header, map: expected " + expectedHeader.map().name() + " but was " + actualHeader.map().name();
+        }
+        if (expectedHeader.maxRounds() != actualHeader.maxRounds()) {
+            return "header, maxRounds: expected " + expectedHeader.maxRounds() + " but was " + actualHeader.maxRounds();
+        }
+
+        final CanonicalRound expectedRound = new CanonicalRound(ignoreLogsAndIndicators);
+        final CanonicalRound actualRound = new CanonicalRound(ignoreLogsAndIndicators);
+        final Iterator<Round> expectedRounds = expected.rounds().iterator();
+        final Iterator<Round> actualRounds = actual.rounds().iterator();
+        while (expectedRounds.hasNext() && actualRounds.hasNext()) {
+            final Round round = expectedRounds.next();
+            final String difference = CanonicalRound.firstDifference(
+                    expectedRound.load(round), actualRound.load(actualRounds.next()));
+            if (difference != null) {
+                return "round " + round.roundID() + ", " + difference;
+            }
+        }
+        if (expectedRounds.hasNext() || actualRounds.hasNext()) {
+            return "expected " + expected.getLastRound() + " rounds but was " + actual.getLastRound();
+        }
+
+        final MatchFooter expectedFooter = expected.getFooter(new MatchFooter());
+        final MatchFooter actualFooter = actual.getFooter(new MatchFooter());
+        if (expectedFooter.totalRounds() != actualFooter.totalRounds()) {
+            return "footer, totalRounds: expected " + expectedFooter.totalRounds()
+                    + " but was " + actualFooter.totalRounds();
+        }
+        // Every round was the same, so every tiebreaker but the coin flip was too
+        if (expectedFooter.winner() != actualFooter.winner()) {
+            arbitraryWinners.add(expected.getIndex());
+        }
+        return null;
+    }
+
+    /**
+     * Say which matches were won on a coin flip, and so had different winners.
+     */
+    static void printArbitraryWinners(List<Integer> arbitraryWinners) {
+        for (int match : arbitraryWinners) {
+            System.out.println("Match " + match + ", winner: arbitrary (won on a coin flip)");
+        }
+    }
+
+    /**
+     * Print "match round hash" for each round in a replay, with the hash in hex.
+     */
+    private static void printHashes(ReplayReader reader, boolean ignoreLogsAndIndicators) {
+        final CanonicalRound canonical = new CanonicalRound(ignoreLogsAndIndicators);
+        for (ReplayMatch match : reader.getMatches()) {
+            for (Round round : match.rounds()) {
+                System.out.println(match.getIndex() + " " + round.roundID() + " "
+                        + String.format("%016x", canonical.load(round).hash()));
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package battlecode.replay;
+
+import battlecode.schema.Event;
+import battlecode.schema.EventWrapper;
+import battlecode.schema.Keyframe;
+import battlecode.schema.MatchFooter;
+import battlecode.schema.MatchHeader;
+import battlecode.schema.Round;
+import battlecode.schema.RoundEncoding;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A match in a replay, read as it's asked for.
+ */
+public final class ReplayMatch {
+
+    private final ReplayReader reader;
+    private final int index;
+    private final int headerEvent;
+    private final int footerEvent;
+
+    ReplayMatch(ReplayReader reader, int index, int headerEvent, int footerEvent) {
+        this.reader = reader;
+        this.index = index;
+        this.headerEvent = headerEvent;
+        this.footerEvent = footerEvent;
+    }
+
+    /**
+     * @return the index of the match in the game
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the index of the match's header in the replay's events
+     */
+    public int getHeaderEvent() {
+        return headerEvent;
+    }
+
+    /**
+     * @return the index of the match's footer in the replay's events
+     */
+    public int getFooterEvent() {
+        return footerEvent;
+    }
+
+    /**
+     * @param reuse the object to read the header into
+     * @return reuse
+     */
+    public MatchHeader getHeader(MatchHeader reuse) {
+        return (MatchHeader) readEvent(headerEvent, Event.MatchHeader).e(reuse);
+    }
+
+    /**
+     * @param reuse the object to read the footer into
+     * @return reuse
+     */
+    public MatchFooter getFooter(MatchFooter reuse) {
+        return (MatchFooter) readEvent(footerEvent, Event.MatchFooter).e(reuse);
+    }
+
+    /**
+     * @return the number of the last round in the match
+     */
+    public int getLastRound() {
+        return footerEvent - 1 > headerEvent ? reader.getEventRound(footerEvent - 1) : 0;
+    }
+
+    /**
+     * Iterate over the match's rounds, skipping keyframes. Every call to
+     * next returns the same Round object, pointed at the next round, so a
+     * round must be done with before going on to the next. Rounds written
+     * with RoundEncoding.COMPACT are turned back into plain Rounds.
+     *
+     * @return the rounds
+     */
+    public Iterable<Round> rounds() {
+        return () -> new RoundIterator(headerEvent + 1);
+    }
+
+    /**
+     * @param round a round number
+     * @return the index of the event with the round's Round, or -1 if it
+     *         isn't in the replay
+     */
+    public int findRound(int round) {
+        // Rounds are in order, and a keyframe comes after its round's Round
+        int low = headerEvent + 1;
+        int high = footerEvent;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (reader.getEventRound(mid) < round) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < footerEvent && reader.getEventRound(low) == round && !reader.isKeyframe(low) ? low : -1;
+    }
+
+    /**
+     * Work out the state of the match at the end of a round (or at its
+     * start, for round 0), starting from the latest keyframe before it if
+     * there is one, and otherwise from the match's header.
+     *
+     * @param state the state to overwrite
+     * @param round the round
+     */
+    public void reconstruct(WorldState state, int round) {
+        if (round < 0 || round > getLastRound()) {
+            throw new IllegalArgumentException("Match " + index + " has no round " + round);
+        }
+
+        // Find the last event at or before the round, then a keyframe at or before that
+        int last = headerEvent;
+        if (round > 0) {
+            last = findRound(round);
+            if (last == -1) {
+                throw new IllegalArgumentException("Match " + index + " has no round " + round);
+            }
+            if (last + 1 < footerEvent && reader.isKeyframe(last + 1)) {
+                last++;
+            }
+        }
+        int start = last;
+        while (start > headerEvent && !reader.isKeyframe(start)) {
+            start--;
+        }
+
+        if (start == headerEvent) {
+            state.reset(getHeader(new MatchHeader()));
+        } else {
+            state.load((Keyframe) readEvent(start, Event.Keyframe).e(new Keyframe()));
+        }
+
+        final Iterator<Round> rounds = new RoundIterator(start + 1);
+        while (state.getRound() < round) {
+            state.apply(rounds.next());
+        }
+    }
+
+    private EventWrapper readEvent(int index, byte type) {
+        final EventWrapper event = reader.getEvent(index, new EventWrapper());
+        if (event.eType() != type) {
+            throw new IllegalStateException("Event " + index + " should be a " + Event.name(type)
+                    + " but is a " + Event.name(event.eType()));
+        }
+        return event;
+    }
+
+    private final class RoundIterator implements Iterator<Round> {
+        private final EventWrapper event = new EventWrapper();
+        private final Round round = new Round();
+        private final CompactRounds compactRounds;
+        private int next;
+
+        /**
+         * @param first the event after the match's header, or after a keyframe
+         */
+        RoundIterator(int first) {
+            this.next = first;
+            if (reader.getRoundEncoding() == RoundEncoding.COMPACT) {
+                compactRounds = new CompactRounds();
+                if (first - 1 == headerEvent) {
+                    compactRounds.reset(getHeader(new MatchHeader()));
+                } else {
+                    compactRounds.reset((Keyframe) readEvent(first - 1, Event.Keyframe).e(new Keyframe()));
+                }
+            } else {
+                compactRounds = null;
+            }
+            skipKeyframes();
+        }
+
+        private void skipKeyframes() {
+            while (next < footerEvent && reader.isKeyframe(next)) {
+                next++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < footerEvent;
+        }
+
+        @Override
+        public Round next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            reader.getEvent(next++, event);
+            if (event.eType() != Event.Round) {
+                throw new IllegalStateException("Event " + (next - 1) + " in a match isn't a Round");
+            }
+            event.e(round);
+            skipKeyframes();
+            return compactRounds != null ? compactRounds.expand(round) : round;
+        }
+    }
+}
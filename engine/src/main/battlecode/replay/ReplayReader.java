@@ -0,0 +1,165 @@
+package battlecode.replay;
+
+import battlecode.schema.Event;
+import battlecode.schema.EventWrapper;
+import battlecode.schema.GameFooter;
+import battlecode.schema.GameHeader;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a replay (a .bc21 file) without loading it all into memory.
+ * <p>
+ * An uncompressed replay is mapped into memory and read in place. A
+ * gzipped replay with an index next to it (see bc.server.replay-index) is
+ * mapped too, and only the blocks holding the events read are inflated.
+ * Any other gzipped replay is inflated to a temporary file first, which
+ * is then mapped.
+ * <p>
+ * Events are read with the flatbuffer accessors, into objects you pass in
+ * and can reuse, so reading a replay allocates very little. A reader
+ * isn't thread safe; use a reader per thread.
+ */
+public final class ReplayReader implements Closeable {
+
+    private final EventSource source;
+    private final List<ReplayMatch> matches;
+    private byte roundEncoding = -1;
+
+    private ReplayReader(EventSource source) {
+        this.source = source;
+        final int matchCount = source.getWrapper().matchHeadersLength();
+        this.matches = new AbstractList<ReplayMatch>() {
+            @Override
+            public ReplayMatch get(int index) {
+                if (index < 0 || index >= matchCount) {
+                    throw new IndexOutOfBoundsException("No match " + index + " of " + matchCount);
+                }
+                return new ReplayMatch(ReplayReader.this, index,
+                        source.getWrapper().matchHeaders(index), source.getWrapper().matchFooters(index));
+            }
+
+            @Override
+            public int size() {
+                return matchCount;
+            }
+        };
+    }
+
+    /**
+     * Open a replay. A gzipped replay is read using its index, [replay].idx,
+     * if it has one that matches it.
+     *
+     * @param file the replay
+     * @return a reader for it
+     * @throws IOException if it can't be read
+     */
+    public static ReplayReader open(File file) throws IOException {
+        if (!isGzipped(file)) {
+            return new ReplayReader(new MappedEventSource(file, false));
+        }
+
+        final File index = new File(file.getPath() + ".idx");
+        if (index.isFile()) {
+            try {
+                return new ReplayReader(new BlockEventSource(file, index));
+            } catch (IOException e) {
+                // Most likely left by an earlier replay saved to the same
+                // place; reading the replay the slow way still works
+            }
+        }
+
+        final File inflated = File.createTempFile("battlecode-replay", ".bc21raw");
+        try {
+            try (InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)));
+                 OutputStream out = FileUtils.openOutputStream(inflated)) {
+                IOUtils.copyLarge(in, out);
+            }
+            return new ReplayReader(new MappedEventSource(inflated, true));
+        } catch (IOException | RuntimeException e) {
+            inflated.delete();
+            throw e;
+        }
+    }
+
+    private static boolean isGzipped(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
+    /**
+     * @return the number of events in the replay
+     */
+    public int getEventCount() {
+        return source.getWrapper().eventsLength();
+    }
+
+    /**
+     * Read an event. The event stays readable after others are read.
+     *
+     * @param index the index of the event
+     * @param reuse the object to read it into
+     * @return reuse
+     */
+    public EventWrapper getEvent(int index, EventWrapper reuse) {
+        if (index < 0 || index >= getEventCount()) {
+            throw new IndexOutOfBoundsException("No event " + index + " of " + getEventCount());
+        }
+        return source.getEvent(index, reuse);
+    }
+
+    /**
+     * @return the game's header
+     */
+    public GameHeader getGameHeader() {
+        final EventWrapper event = getEvent(0, new EventWrapper());
+        if (event.eType() != Event.GameHeader) {
+            throw new IllegalStateException("Replay doesn't start with a game header");
+        }
+        return (GameHeader) event.e(new GameHeader());
+    }
+
+    /**
+     * @return the game's footer, or null if the game didn't finish
+     */
+    public GameFooter getGameFooter() {
+        final EventWrapper event = getEvent(getEventCount() - 1, new EventWrapper());
+        return event.eType() == Event.GameFooter ? (GameFooter) event.e(new GameFooter()) : null;
+    }
+
+    /**
+     * @return the matches in the replay, each made as it's asked for
+     */
+    public List<ReplayMatch> getMatches() {
+        return matches;
+    }
+
+    /**
+     * @return how the game's Rounds are encoded
+     */
+    byte getRoundEncoding() {
+        if (roundEncoding == -1) {
+            roundEncoding = getGameHeader().roundEncoding();
+        }
+        return roundEncoding;
+    }
+
+    int getEventRound(int index) {
+        return source.getEventRound(index);
+    }
+
+    boolean isKeyframe(int index) {
+        return source.isKeyframe(index);
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
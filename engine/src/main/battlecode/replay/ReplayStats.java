@@ -0,0 +1,373 @@
+package battlecode.replay;
+
+import battlecode.common.Team;
+import battlecode.schema.BodyType;
+import battlecode.schema.MatchHeader;
+import battlecode.schema.Round;
+import battlecode.util.TeamMapping;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Exports per-round statistics from replays, for analysis.
+ * <p/>
+ * Usage:<br>
+ * <code>java battlecode.replay.ReplayStats [--format csv|columns|both] [--out dir] [--threads n] replay...</code><br>
+ * <p/>
+ * Each replay (or every .bc21 file in a folder given instead) is read with
+ * a ReplayReader, and gets a row for each team in each round of each
+ * match, with the columns in COLUMNS. For a replay called name.bc21, the
+ * rows are written to name.csv in the output folder, and/or as columns to
+ * the folder name/, with each column in its own file, column.i32, as one
+ * little-endian 32 bit int per row.
+ * <p/>
+ * Replays are read in parallel, a replay per thread, and rows are written
+ * as they're made, so memory use doesn't grow with the number of replays
+ * or their length.
+ */
+public final class ReplayStats {
+
+    /**
+     * The columns, in order: the match and round; the team's ID; the
+     * number of the team's robots, all told and of each type, and their
+     * total influence and conviction, at the end of the round; the votes
+     * the team won in the round, its winning bidder's ID, and its buffs;
+     * and the bytecodes its robots used in the round.
+     */
+    public static final String[] COLUMNS = {
+            "match", "round", "team",
+            "robots", "enlightenment_centers", "politicians", "slanderers", "muckrakers",
+            "influence", "conviction",
+            "votes", "bidder_id", "buffs",
+            "bytecodes"
+    };
+
+    private static final byte[] TEAMS = {TeamMapping.id(Team.A), TeamMapping.id(Team.B)};
+
+    private ReplayStats() {}
+
+    public static void main(String[] args) {
+        String format = "csv";
+        File out = new File(".");
+        int threads = Runtime.getRuntime().availableProcessors();
+        final List<File> replays = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--format":
+                        format = args[++i];
+                        break;
+                    case "--out":
+                        out = new File(args[++i]);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        final File replay = new File(args[i]);
+                        if (replay.isDirectory()) {
+                            replays.addAll(FileUtils.listFiles(replay, new String[] {"bc21"}, false));
+                        } else {
+                            replays.add(replay);
+                        }
+                }
+            }
+            if (replays.isEmpty() || threads <= 0
+                    || !(format.equals("csv") || format.equals("columns") || format.equals("both"))) {
+                throw new IllegalArgumentException();
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Usage: battlecode.replay.ReplayStats [--format csv|columns|both] [--out dir]" +
+                    " [--threads n] replay..., where each replay is a .bc21 file or a folder of them");
+            System.exit(1);
+            return;
+        }
+
+        final boolean csv = !format.equals("columns");
+        final boolean columns = !format.equals("csv");
+        System.exit(export(replays, out, csv, columns, threads) == 0 ? 0 : 1);
+    }
+
+    /**
+     * Export many replays, in parallel. Failures are reported, and don't
+     * stop the other replays from being exported.
+     *
+     * @param replays the replays
+     * @param out the folder to write to
+     * @param csv whether to write CSV files
+     * @param columns whether to write column files
+     * @param threads how many replays to read at once
+     * @return the number of replays that couldn't be exported
+     */
+    public static int export(List<File> replays, File out, boolean csv, boolean columns, int threads) {
+        final Map<String, File> names = new HashMap<>();
+        for (File replay : replays) {
+            final File other = names.put(baseName(replay), replay);
+            if (other != null) {
+                System.err.println(replay + " and " + other + " would be written to the same place");
+                return replays.size();
+            }
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (File replay : replays) {
+                final String name = baseName(replay);
+                tasks.add(pool.submit(() -> {
+                    export(replay, csv ? new File(out, name + ".csv") : null, columns ? new File(out, name) : null);
+                    return null;
+                }));
+            }
+
+            int failures = 0;
+            for (int i = 0; i < tasks.size(); i++) {
+                try {
+                    tasks.get(i).get();
+                } catch (ExecutionException e) {
+                    System.err.println("Can't export " + replays.get(i) + ": " + e.getCause());
+                    failures++;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return replays.size();
+                }
+            }
+            return failures;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Export a replay.
+     *
+     * @param replay the replay
+     * @param csv the CSV file to write, or null
+     * @param columns the folder to write columns to, or null
+     * @throws IOException if the replay can't be read, or the output written
+     */
+    public static void export(File replay, File csv, File columns) throws IOException {
+        final List<RowSink> sinks = new ArrayList<>(2);
+        try (ReplayReader reader = ReplayReader.open(replay)) {
+            if (csv != null) {
+                sinks.add(new CsvSink(csv));
+            }
+            if (columns != null) {
+                sinks.add(new ColumnSink(columns));
+            }
+
+            final WorldState state = new WorldState(reader.getGameHeader());
+            final int[] row = new int[COLUMNS.length];
+            final int[][] teamStats = new int[TEAMS.length][COLUMNS.length];
+            final TeamBytecodes bytecodes = new TeamBytecodes();
+            for (ReplayMatch match : reader.getMatches()) {
+                state.reset(match.getHeader(new MatchHeader()));
+                for (Round round : match.rounds()) {
+                    bytecodes.before(state, round);
+                    state.apply(round);
+                    collect(match.getIndex(), state, round, teamStats);
+                    bytecodes.after(state, round, teamStats);
+                    for (int[] stats : teamStats) {
+                        System.arraycopy(stats, 0, row, 0, row.length);
+                        for (RowSink sink : sinks) {
+                            sink.write(row);
+                        }
+                    }
+                }
+            }
+        } finally {
+            IOException failure = null;
+            for (RowSink sink : sinks) {
+                try {
+                    sink.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Work out the rows for a round, once it's been applied to the state.
+     */
+    private static void collect(int match, WorldState state, Round round, int[][] teamStats) {
+        for (int t = 0; t < TEAMS.length; t++) {
+            final int[] stats = teamStats[t];
+            Arrays.fill(stats, 0);
+            stats[0] = match;
+            stats[1] = round.roundID();
+            stats[2] = TEAMS[t];
+            stats[11] = state.getBidderID(TEAMS[t]);
+            stats[12] = state.getNumBuffs(TEAMS[t]);
+        }
+
+        for (int i = 0; i < state.size(); i++) {
+            final int t = teamIndex(state.getTeam(i));
+            if (t == -1) {
+                continue;
+            }
+            final int[] stats = teamStats[t];
+            stats[3]++;
+            stats[4 + typeColumn(state.getType(i))]++;
+            stats[8] += state.getInfluence(i);
+            stats[9] += state.getConviction(i);
+        }
+
+        for (int i = 0; i < round.teamIDsLength(); i++) {
+            final int t = teamIndex((byte) round.teamIDs(i));
+            if (t != -1) {
+                teamStats[t][10] = round.teamVotes(i);
+            }
+        }
+    }
+
+    private static int teamIndex(byte team) {
+        for (int t = 0; t < TEAMS.length; t++) {
+            if (TEAMS[t] == team) {
+                return t;
+            }
+        }
+        return -1;
+    }
+
+    private static int typeColumn(byte type) {
+        switch (type) {
+            case BodyType.ENLIGHTENMENT_CENTER:
+                return 0;
+            case BodyType.POLITICIAN:
+                return 1;
+            case BodyType.SLANDERER:
+                return 2;
+            case BodyType.MUCKRAKER:
+                return 3;
+            default:
+                throw new IllegalArgumentException("Unknown body type " + type);
+        }
+    }
+
+    private static String baseName(File replay) {
+        final String name = replay.getName();
+        return name.endsWith(".bc21") ? name.substring(0, name.length() - ".bc21".length()) : name;
+    }
+
+    /**
+     * Adds up the bytecodes each team used in a round. Robots that ran in
+     * the round may have died by its end, and robots spawned in it aren't
+     * there at its start, so the team of each robot is looked up on both
+     * sides of applying the round.
+     */
+    private static final class TeamBytecodes {
+        private int[] teams = new int[0];
+
+        void before(WorldState state, Round round) {
+            final int count = round.bytecodeIDsLength();
+            if (teams.length < count) {
+                teams = new int[Math.max(count, teams.length * 2)];
+            }
+            for (int i = 0; i < count; i++) {
+                final int index = state.indexOf(round.bytecodeIDs(i));
+                teams[i] = index == -1 ? -1 : teamIndex(state.getTeam(index));
+            }
+        }
+
+        void after(WorldState state, Round round, int[][] teamStats) {
+            for (int i = 0; i < round.bytecodeIDsLength(); i++) {
+                int t = teams[i];
+                if (t == -1) {
+                    final int index = state.indexOf(round.bytecodeIDs(i));
+                    t = index == -1 ? -1 : teamIndex(state.getTeam(index));
+                }
+                if (t != -1) {
+                    teamStats[t][13] += round.bytecodesUsed(i);
+                }
+            }
+        }
+    }
+
+    private interface RowSink extends Closeable {
+        void write(int[] row) throws IOException;
+    }
+
+    private static final class CsvSink implements RowSink {
+        private final Writer out;
+        private final StringBuilder line = new StringBuilder();
+
+        CsvSink(File file) throws IOException {
+            out = new BufferedWriter(new OutputStreamWriter(FileUtils.openOutputStream(file), StandardCharsets.UTF_8));
+            out.write(String.join(",", COLUMNS));
+            out.write('\n');
+        }
+
+        @Override
+        public void write(int[] row) throws IOException {
+            line.setLength(0);
+            for (int i = 0; i < row.length; i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                line.append(row[i]);
+            }
+            line.append('\n');
+            out.append(line);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static final class ColumnSink implements RowSink {
+        private final OutputStream[] outs = new OutputStream[COLUMNS.length];
+        private final byte[] value = new byte[4];
+
+        ColumnSink(File folder) throws IOException {
+            FileUtils.forceMkdir(folder);
+            try {
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    outs[i] = new BufferedOutputStream(new FileOutputStream(new File(folder, COLUMNS[i] + ".i32")));
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(int[] row) throws IOException {
+            for (int i = 0; i < row.length; i++) {
+                value[0] = (byte) row[i];
+                value[1] = (byte) (row[i] >>> 8);
+                value[2] = (byte) (row[i] >>> 16);
+                value[3] = (byte) (row[i] >>> 24);
+                outs[i].write(value);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (OutputStream out : outs) {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package battlecode.replay;
+
+import battlecode.common.MapLocation;
+import battlecode.common.RobotInfo;
+import battlecode.schema.GameHeader;
+import battlecode.schema.MatchHeader;
+import battlecode.schema.SpawnedBodyTable;
+import battlecode.schema.TeamData;
+import battlecode.server.Config;
+import battlecode.server.GameInfo;
+import battlecode.server.Server;
+import battlecode.server.ServerState;
+import battlecode.world.GameMapIO;
+import battlecode.world.LiveMap;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays the game in a replay again, and compares the new replay to it
+ * round by round, to check that a change to the engine doesn't change
+ * how games play out.
+ * <p/>
+ * Usage:<br>
+ * <code>java battlecode.replay.Resimulator [--team-a-url url] [--team-b-url url] [--ignore-logs] [--out file] replay.bc21</code><br>
+ * <p/>
+ * The teams' names and packages are taken from the replay's game header,
+ * and the maps, with their seeds, from its match headers. Replays don't
+ * say where the teams' classes came from, so that's given with
+ * --team-a-url and --team-b-url, or bc.game.team-a.url and
+ * bc.game.team-b.url, like when running a game. The new replay is thrown
+ * away unless --out is given.
+ * <p/>
+ * Prints the first place the replays differ, if they do (see ReplayDiff),
+ * and exits with 0 if they don't. Matches won on a coin flip may have a
+ * different winner; they're reported as arbitrary, not as differences.
+ */
+public final class Resimulator {
+
+    private Resimulator() {}
+
+    public static void main(String[] args) {
+        final Config options = Config.getGlobalConfig();
+        String teamAURL = options.get("bc.game.team-a.url");
+        String teamBURL = options.get("bc.game.team-b.url");
+        boolean ignoreLogsAndIndicators = false;
+        File out = null;
+        File replay = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--team-a-url":
+                        teamAURL = args[++i];
+                        break;
+                    case "--team-b-url":
+                        teamBURL = args[++i];
+                        break;
+                    case "--ignore-logs":
+                        ignoreLogsAndIndicators = true;
+                        break;
+                    case "--out":
+                        out = new File(args[++i]);
+                        break;
+                    default:
+                        if (replay != null) {
+                            throw new IllegalArgumentException();
+                        }
+                        replay = new File(args[i]);
+                }
+            }
+            if (replay == null || teamAURL == null || teamBURL == null) {
+                throw new IllegalArgumentException();
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Usage: battlecode.replay.Resimulator [--team-a-url url] [--team-b-url url]" +
+                    " [--ignore-logs] [--out file] replay.bc21");
+            System.exit(1);
+            return;
+        }
+
+        try {
+            final List<Integer> arbitraryWinners = new ArrayList<>();
+            final String difference = resimulate(options, replay, teamAURL, teamBURL, out, ignoreLogsAndIndicators,
+                    arbitraryWinners);
+            ReplayDiff.printArbitraryWinners(arbitraryWinners);
+            if (difference == null) {
+                System.out.println("The game played out the same way");
+                System.exit(0);
+            }
+            System.out.println(difference);
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Can't resimulate " + replay + ": " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Play the game in a replay again, and compare the replays.
+     *
+     * @param options the configuration to run the game with
+     * @param replay the replay
+     * @param teamAURL the location of team A's classes
+     * @param teamBURL the location of team B's classes
+     * @param out the file to write the new replay to, or null to throw it away
+     * @param ignoreLogsAndIndicators whether to ignore differences in logs and indicators
+     * @param arbitraryWinners where to add the indices of matches won on a
+     *                         coin flip whose winner changed
+     * @return where and how the replays first differ, or null if they don't
+     * @throws IOException if a replay can't be read or written, or the game fails
+     */
+    public static String resimulate(Config options, File replay, String teamAURL, String teamBURL,
+                                    File out, boolean ignoreLogsAndIndicators,
+                                    List<Integer> arbitraryWinners) throws IOException {
+        final File mapDir = Files.createTempDirectory("battlecode-maps").toFile();
+        final File saveFile = out != null ? out : File.createTempFile("battlecode-resimulated", ".bc21");
+        final String mapPath = options.get("bc.game.map-path");
+        final String websocket = options.get("bc.server.websocket");
+        try {
+            final GameInfo game;
+            try (ReplayReader reader = ReplayReader.open(replay)) {
+                game = readGame(reader, mapDir, teamAURL, teamBURL, saveFile);
+            }
+
+            options.set("bc.game.map-path", mapDir.getPath());
+            options.set("bc.server.websocket", "false");
+            final Server server = new Server(options, false);
+            server.addGameNotification(game);
+            server.terminateNotification();
+            server.run();
+            if (server.getState() != ServerState.FINISHED) {
+                throw new IOException("The game didn't finish");
+            }
+
+            try (ReplayReader expected = ReplayReader.open(replay);
+                 ReplayReader actual = ReplayReader.open(saveFile)) {
+                return ReplayDiff.diff(expected, actual, ignoreLogsAndIndicators, arbitraryWinners);
+            }
+        } finally {
+            options.set("bc.game.map-path", mapPath);
+            options.set("bc.server.websocket", websocket);
+            FileUtils.deleteQuietly(mapDir);
+            if (out == null) {
+                FileUtils.deleteQuietly(saveFile);
+                FileUtils.deleteQuietly(new File(saveFile.getPath() + ".idx"));
+            }
+        }
+    }
+
+    /**
+     * Work out the game in a replay, writing its maps to a folder.
+     */
+    private static GameInfo readGame(ReplayReader reader, File mapDir, String teamAURL, String teamBURL,
+                                     File saveFile) throws IOException {
+        final GameHeader header = reader.getGameHeader();
+        if (header.teamsLength() != 2) {
+            throw new IOException("Expected 2 teams but the replay has " + header.teamsLength());
+        }
+        final TeamData teamA = header.teams(0);
+        final TeamData teamB = header.teams(1);
+
+        final String[] maps = new String[reader.getMatches().size()];
+        final MatchHeader matchHeader = new MatchHeader();
+        for (int i = 0; i < maps.length; i++) {
+            reader.getMatches().get(i).getHeader(matchHeader);
+            maps[i] = matchHeader.map().name();
+            GameMapIO.writeMap(readMap(matchHeader), mapDir);
+        }
+
+        return new GameInfo(
+                teamA.name(), teamA.packageName(), teamAURL,
+                teamB.name(), teamB.packageName(), teamBURL,
+                maps, saveFile, false);
+    }
+
+    /**
+     * Work out the map a match was played on. The match header has the
+     * map's initial bodies as they were spawned: with the IDs they were
+     * given, and at locations with the origin added. Map files number them
+     * from 0, in the order they're spawned in, and don't add the origin.
+     */
+    private static LiveMap readMap(MatchHeader header) {
+        final LiveMap spawned = GameMapIO.Serial.deserialize(header.map());
+        final SpawnedBodyTable bodies = header.map().bodies();
+        final MapLocation origin = spawned.getOrigin();
+
+        final RobotInfo[] initialBodies = new RobotInfo[spawned.getInitialBodies().length];
+        for (RobotInfo body : spawned.getInitialBodies()) {
+            int i = 0;
+            while (bodies.robotIDs(i) != body.getID()) {
+                i++;
+            }
+            initialBodies[i] = new RobotInfo(i, body.getTeam(), body.getType(), body.getInfluence(),
+                    body.getConviction(), body.getLocation().translate(-origin.x, -origin.y));
+        }
+
+        return new LiveMap(spawned.getWidth(), spawned.getHeight(), origin, spawned.getSeed(),
+                header.maxRounds(), spawned.getMapName(), initialBodies, spawned.getPassabilityArray());
+    }
+}
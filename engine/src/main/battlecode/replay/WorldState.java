@@ -0,0 +1,334 @@
+package battlecode.replay;
+
+import battlecode.schema.*;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+import java.util.Arrays;
+
+/**
+ * The state of the robots in a match, worked out from a replay, kept in
+ * columns (an array per field) that are reused as it changes. Robots are
+ * numbered from 0 to size() - 1; removing a robot moves the last robot
+ * into its place, so a robot's number can change from round to round,
+ * while its ID doesn't.
+ * <p>
+ * Robot fields are changed the way the client changes them: conviction
+ * and influence by CHANGE_CONVICTION and CHANGE_INFLUENCE actions, flags
+ * by SET_FLAG, and types by CAMOUFLAGE.
+ */
+public final class WorldState {
+
+    /**
+     * The conviction ratio of each body type, for robots that spawn.
+     */
+    private final float[] convictionRatios;
+
+    private int round;
+    private int size;
+
+    private int[] ids = new int[0];
+    private byte[] teams = new byte[0];
+    private byte[] types = new byte[0];
+    private int[] xs = new int[0];
+    private int[] ys = new int[0];
+    private int[] influences = new int[0];
+    private int[] convictions = new int[0];
+    private int[] flags = new int[0];
+    private int[] bytecodesUsed = new int[0];
+
+    private final TIntIntHashMap indices = new TIntIntHashMap(64, 0.5f, -1, -1);
+
+    /**
+     * Votes, buffs and bidders, by team ID.
+     */
+    private final int[] votes = new int[3];
+    private final int[] numBuffs = new int[3];
+    private final int[] bidderIDs = new int[3];
+
+    /**
+     * @param gameHeader the header of the game the state is of
+     */
+    public WorldState(GameHeader gameHeader) {
+        this.convictionRatios = new float[BodyType.names.length];
+        final BodyTypeMetadata metadata = new BodyTypeMetadata();
+        for (int i = 0; i < gameHeader.bodyTypeMetadataLength(); i++) {
+            gameHeader.bodyTypeMetadata(metadata, i);
+            convictionRatios[metadata.type()] = metadata.convictionRatio();
+        }
+    }
+
+    /**
+     * Start a match: the state at round 0.
+     *
+     * @param header the match's header
+     */
+    public void reset(MatchHeader header) {
+        clear();
+        final SpawnedBodyTable bodies = header.map().bodies();
+        if (bodies != null) {
+            spawn(bodies);
+        }
+        round = 0;
+    }
+
+    /**
+     * Take the state in a keyframe. Votes are only counted from the
+     * keyframe's round on.
+     *
+     * @param keyframe the keyframe
+     */
+    public void load(Keyframe keyframe) {
+        clear();
+        final int count = keyframe.robotIDsLength();
+        final VecTable locs = keyframe.locs();
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            add(keyframe.robotIDs(i), keyframe.teamIDs(i), keyframe.types(i), locs.xs(i), locs.ys(i),
+                    keyframe.influences(i), keyframe.convictions(i), keyframe.flags(i));
+        }
+        round = keyframe.roundID();
+    }
+
+    /**
+     * Apply the next round.
+     *
+     * @param delta the round after the current one
+     */
+    public void apply(Round delta) {
+        if (delta.roundID() != round + 1) {
+            throw new IllegalArgumentException("Can't apply round " + delta.roundID() + " to round " + round);
+        }
+
+        for (int i = 0; i < delta.teamIDsLength(); i++) {
+            final int team = delta.teamIDs(i);
+            votes[team] += delta.teamVotes(i);
+            numBuffs[team] = delta.teamNumBuffs(i);
+            bidderIDs[team] = delta.teamBidderIDs(i);
+        }
+
+        final VecTable movedLocs = delta.movedLocs();
+        for (int i = 0; i < delta.movedIDsLength(); i++) {
+            final int index = indexOfExisting(delta.movedIDs(i));
+            xs[index] = movedLocs.xs(i);
+            ys[index] = movedLocs.ys(i);
+        }
+
+        final SpawnedBodyTable spawned = delta.spawnedBodies();
+        if (spawned != null) {
+            spawn(spawned);
+        }
+
+        for (int i = 0; i < delta.actionsLength(); i++) {
+            final int index = indices.get(delta.actionIDs(i));
+            if (index == -1) {
+                continue;
+            }
+            final int target = delta.actionTargets(i);
+            switch (delta.actions(i)) {
+                case Action.CAMOUFLAGE:
+                    types[index] = BodyType.POLITICIAN;
+                    break;
+                case Action.SET_FLAG:
+                    flags[index] = target;
+                    break;
+                case Action.CHANGE_INFLUENCE:
+                    influences[index] += target;
+                    break;
+                case Action.CHANGE_CONVICTION:
+                    convictions[index] += target;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        for (int i = 0; i < delta.diedIDsLength(); i++) {
+            remove(delta.diedIDs(i));
+        }
+
+        for (int i = 0; i < delta.bytecodeIDsLength(); i++) {
+            final int index = indices.get(delta.bytecodeIDs(i));
+            if (index != -1) {
+                bytecodesUsed[index] = delta.bytecodesUsed(i);
+            }
+        }
+
+        round = delta.roundID();
+    }
+
+    /**
+     * @return the round the state is at the end of
+     */
+    public int getRound() {
+        return round;
+    }
+
+    /**
+     * @return the number of robots
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param id a robot's ID
+     * @return the robot's number, or -1 if there's no such robot
+     */
+    public int indexOf(int id) {
+        return indices.get(id);
+    }
+
+    public int getID(int index) {
+        return ids[check(index)];
+    }
+
+    /**
+     * @return the robot's team ID; see TeamMapping
+     */
+    public byte getTeam(int index) {
+        return teams[check(index)];
+    }
+
+    /**
+     * @return the robot's BodyType
+     */
+    public byte getType(int index) {
+        return types[check(index)];
+    }
+
+    public int getX(int index) {
+        return xs[check(index)];
+    }
+
+    public int getY(int index) {
+        return ys[check(index)];
+    }
+
+    public int getInfluence(int index) {
+        return influences[check(index)];
+    }
+
+    public int getConviction(int index) {
+        return convictions[check(index)];
+    }
+
+    public int getFlag(int index) {
+        return flags[check(index)];
+    }
+
+    /**
+     * @return the bytecodes the robot used the last time it ran
+     */
+    public int getBytecodesUsed(int index) {
+        return bytecodesUsed[check(index)];
+    }
+
+    /**
+     * @param team a team ID
+     * @return the votes the team has won since the state was reset or loaded
+     */
+    public int getVotes(byte team) {
+        return votes[team];
+    }
+
+    /**
+     * @param team a team ID
+     * @return the team's buffs in the current round
+     */
+    public int getNumBuffs(byte team) {
+        return numBuffs[team];
+    }
+
+    /**
+     * @param team a team ID
+     * @return the ID of the team's last winning bidder
+     */
+    public int getBidderID(byte team) {
+        return bidderIDs[team];
+    }
+
+    private void clear() {
+        size = 0;
+        indices.clear();
+        Arrays.fill(votes, 0);
+        Arrays.fill(numBuffs, 0);
+        Arrays.fill(bidderIDs, 0);
+    }
+
+    private void spawn(SpawnedBodyTable bodies) {
+        final int count = bodies.robotIDsLength();
+        final VecTable locs = bodies.locs();
+        ensureCapacity(size + count);
+        for (int i = 0; i < count; i++) {
+            final byte type = bodies.types(i);
+            final int influence = bodies.influences(i);
+            add(bodies.robotIDs(i), bodies.teamIDs(i), type, locs.xs(i), locs.ys(i),
+                    influence, (int) Math.ceil(convictionRatios[type] * influence), 0);
+        }
+    }
+
+    private void add(int id, byte team, byte type, int x, int y, int influence, int conviction, int flag) {
+        ids[size] = id;
+        teams[size] = team;
+        types[size] = type;
+        xs[size] = x;
+        ys[size] = y;
+        influences[size] = influence;
+        convictions[size] = conviction;
+        flags[size] = flag;
+        bytecodesUsed[size] = 0;
+        indices.put(id, size);
+        size++;
+    }
+
+    private void remove(int id) {
+        final int index = indices.remove(id);
+        if (index == -1) {
+            return;
+        }
+        final int last = --size;
+        if (index != last) {
+            ids[index] = ids[last];
+            teams[index] = teams[last];
+            types[index] = types[last];
+            xs[index] = xs[last];
+            ys[index] = ys[last];
+            influences[index] = influences[last];
+            convictions[index] = convictions[last];
+            flags[index] = flags[last];
+            bytecodesUsed[index] = bytecodesUsed[last];
+            indices.put(ids[index], index);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        final int newCapacity = Math.max(capacity, ids.length * 2);
+        ids = Arrays.copyOf(ids, newCapacity);
+        teams = Arrays.copyOf(teams, newCapacity);
+        types = Arrays.copyOf(types, newCapacity);
+        xs = Arrays.copyOf(xs, newCapacity);
+        ys = Arrays.copyOf(ys, newCapacity);
+        influences = Arrays.copyOf(influences, newCapacity);
+        convictions = Arrays.copyOf(convictions, newCapacity);
+        flags = Arrays.copyOf(flags, newCapacity);
+        bytecodesUsed = Arrays.copyOf(bytecodesUsed, newCapacity);
+    }
+
+    private int indexOfExisting(int id) {
+        final int index = indices.get(id);
+        if (index == -1) {
+            throw new IllegalArgumentException("No robot " + id + " in round " + round);
+        }
+        return index;
+    }
+
+    private int check(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("No robot " + index + " of " + size);
+        }
+        return index;
+    }
+}
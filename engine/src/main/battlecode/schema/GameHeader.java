@@ -35,19 +35,25 @@ public final class GameHeader extends Table {
   public BodyTypeMetadata bodyTypeMetadata(int j) { return bodyTypeMetadata(new BodyTypeMetadata(), j); }
   public BodyTypeMetadata bodyTypeMetadata(BodyTypeMetadata obj, int j) { int o = __offset(8); return o != 0 ? obj.__assign(__indirect(__vector(o) + j * 4), bb) : null; }
   public int bodyTypeMetadataLength() { int o = __offset(8); return o != 0 ? __vector_len(o) : 0; }
+  /**
+   * How the game's Rounds are encoded. Added at end for backwards compatability.
+   */
+  public byte roundEncoding() { int o = __offset(10); return o != 0 ? bb.get(o + bb_pos) : 0; }
 
   public static int createGameHeader(FlatBufferBuilder builder,
       int specVersionOffset,
       int teamsOffset,
-      int bodyTypeMetadataOffset) {
-    builder.startObject(3);
+      int bodyTypeMetadataOffset,
+      byte roundEncoding) {
+    builder.startObject(4);
     GameHeader.addBodyTypeMetadata(builder, bodyTypeMetadataOffset);
     GameHeader.addTeams(builder, teamsOffset);
     GameHeader.addSpecVersion(builder, specVersionOffset);
+    GameHeader.addRoundEncoding(builder, roundEncoding);
     return GameHeader.endGameHeader(builder);
   }
 
-  public static void startGameHeader(FlatBufferBuilder builder) { builder.startObject(3); }
+  public static void startGameHeader(FlatBufferBuilder builder) { builder.startObject(4); }
   public static void addSpecVersion(FlatBufferBuilder builder, int specVersionOffset) { builder.addOffset(0, specVersionOffset, 0); }
   public static void addTeams(FlatBufferBuilder builder, int teamsOffset) { builder.addOffset(1, teamsOffset, 0); }
   public static int createTeamsVector(FlatBufferBuilder builder, int[] data) { builder.startVector(4, data.length, 4); for (int i = data.length - 1; i >= 0; i--) builder.addOffset(data[i]); return builder.endVector(); }
@@ -55,6 +61,7 @@ public final class GameHeader extends Table {
   public static void addBodyTypeMetadata(FlatBufferBuilder builder, int bodyTypeMetadataOffset) { builder.addOffset(2, bodyTypeMetadataOffset, 0); }
   public static int createBodyTypeMetadataVector(FlatBufferBuilder builder, int[] data) { builder.startVector(4, data.length, 4); for (int i = data.length - 1; i >= 0; i--) builder.addOffset(data[i]); return builder.endVector(); }
   public static void startBodyTypeMetadataVector(FlatBufferBuilder builder, int numElems) { builder.startVector(4, numElems, 4); }
+  public static void addRoundEncoding(FlatBufferBuilder builder, byte roundEncoding) { builder.addByte(3, roundEncoding, 0); }
   public static int endGameHeader(FlatBufferBuilder builder) {
     int o = builder.endObject();
     return o;
@@ -176,6 +176,76 @@ public final class Round extends Table {
   public int teamNumBuffsLength() { int o = __offset(46); return o != 0 ? __vector_len(o) : 0; }
   public ByteBuffer teamNumBuffsAsByteBuffer() { return __vector_as_bytebuffer(46, 4); }
   public ByteBuffer teamNumBuffsInByteBuffer(ByteBuffer _bb) { return __vector_in_bytebuffer(_bb, 46, 4); }
+  /**
+   * With RoundEncoding.COMPACT: the spawn indices of bodies that moved,
+   * as varints.
+   */
+  public int compactMovedIndices(int j) { int o = __offset(48); return o != 0 ? bb.get(__vector(o) + j * 1) & 0xFF : 0; }
+  public int compactMovedIndicesLength() { int o = __offset(48); return o != 0 ? __vector_len(o) : 0; }
+  public ByteBuffer compactMovedIndicesAsByteBuffer() { return __vector_as_bytebuffer(48, 1); }
+  public ByteBuffer compactMovedIndicesInByteBuffer(ByteBuffer _bb) { return __vector_in_bytebuffer(_bb, 48, 1); }
+  /**
+   * With RoundEncoding.COMPACT: the direction each body moved in, from
+   * where it was before; the ordinal of a battlecode.common.Direction
+   * (NORTH = 0, going clockwise, to NORTHWEST = 7). -1 means the move
+   * wasn't to an adjacent location, and the body's new location is the
+   * next one in movedLocs.
+   */
+  public byte compactMovedDirections(int j) { int o = __offset(50); return o != 0 ? bb.get(__vector(o) + j * 1) : 0; }
+  public int compactMovedDirectionsLength() { int o = __offset(50); return o != 0 ? __vector_len(o) : 0; }
+  public ByteBuffer compactMovedDirectionsAsByteBuffer() { return __vector_as_bytebuffer(50, 1); }
+  public ByteBuffer compactMovedDirectionsInByteBuffer(ByteBuffer _bb) { return __vector_in_bytebuffer(_bb, 50, 1); }
+  /**
+   * With RoundEncoding.COMPACT: the spawn indices of bodies that
+   * performed actions, as varints.
+   */
+  public int compactActionIndices(int j) { int o = __offset(52); return o != 0 ? bb.get(__vector(o) + j * 1) & 0xFF : 0; }
+  public int compactActionIndicesLength() { int o = __offset(52); return o != 0 ? __vector_len(o) : 0; }
+  public ByteBuffer compactActionIndicesAsByteBuffer() { return __vector_as_bytebuffer(52, 1); }
+  public ByteBuffer compactActionIndicesInByteBuffer(ByteBuffer _bb) { return __vector_in_bytebuffer(_bb, 52, 1); }
+  /**
+   * With RoundEncoding.COMPACT: the targets of the actions, as zigzag
+   * varints.
+   */
+  public int compactActionTargets(int j) { int o = __offset(54); return o != 0 ? bb.get(__vector(o) + j * 1) & 0xFF : 0; }
+  public int compactActionTargetsLength() { int o = __offset(54); return o != 0 ? __vector_len(o) : 0; }
+  public ByteBuffer compactActionTargetsAsByteBuffer() { return __vector_as_bytebuffer(54, 1); }
+  public ByteBuffer compactActionTargetsInByteBuffer(ByteBuffer _bb) { return __vector_in_bytebuffer(_bb, 54, 1); }
+  /**
+   * With RoundEncoding.COMPACT: the spawn indices of player bodies, as
+   * varints.
+   */
+  public int compactBytecodeIndices(int j) { int o = __offset(56); return o != 0 ? bb.get(__vector(o) + j * 1) & 0xFF : 0; }
+  public int compactBytecodeIndicesLength() { int o = __offset(56); return o != 0 ? __vector_len(o) : 0; }
+  public ByteBuffer compactBytecodeIndicesAsByteBuffer() { return __vector_as_bytebuffer(56, 1); }
+  public ByteBuffer compactBytecodeIndicesInByteBuffer(ByteBuffer _bb) { return __vector_in_bytebuffer(_bb, 56, 1); }
+  /**
+   * With RoundEncoding.COMPACT: the bytecodes used by the player bodies,
+   * as varints.
+   */
+  public int compactBytecodesUsed(int j) { int o = __offset(58); return o != 0 ? bb.get(__vector(o) + j * 1) & 0xFF : 0; }
+  public int compactBytecodesUsedLength() { int o = __offset(58); return o != 0 ? __vector_len(o) : 0; }
+  public ByteBuffer compactBytecodesUsedAsByteBuffer() { return __vector_as_bytebuffer(58, 1); }
+  public ByteBuffer compactBytecodesUsedInByteBuffer(ByteBuffer _bb) { return __vector_in_bytebuffer(_bb, 58, 1); }
+  /**
+   * The number of indicator dots and lines of each team (in the order of
+   * teamIDs) left out of this round to keep the replay within its budget.
+   * Only written if the server has one; see
+   * bc.server.replay-indicator-budget-bytes.
+   */
+  public int teamDroppedIndicators(int j) { int o = __offset(60); return o != 0 ? bb.getInt(__vector(o) + j * 4) : 0; }
+  public int teamDroppedIndicatorsLength() { int o = __offset(60); return o != 0 ? __vector_len(o) : 0; }
+  public ByteBuffer teamDroppedIndicatorsAsByteBuffer() { return __vector_as_bytebuffer(60, 4); }
+  public ByteBuffer teamDroppedIndicatorsInByteBuffer(ByteBuffer _bb) { return __vector_in_bytebuffer(_bb, 60, 4); }
+  /**
+   * The number of bytes of each team's logs left out of this round to
+   * keep the replay within its budget; see
+   * bc.server.replay-log-budget-bytes.
+   */
+  public int teamDroppedLogBytes(int j) { int o = __offset(62); return o != 0 ? bb.getInt(__vector(o) + j * 4) : 0; }
+  public int teamDroppedLogBytesLength() { int o = __offset(62); return o != 0 ? __vector_len(o) : 0; }
+  public ByteBuffer teamDroppedLogBytesAsByteBuffer() { return __vector_as_bytebuffer(62, 4); }
+  public ByteBuffer teamDroppedLogBytesInByteBuffer(ByteBuffer _bb) { return __vector_in_bytebuffer(_bb, 62, 4); }
 
   public static int createRound(FlatBufferBuilder builder,
       int teamIDsOffset,
@@ -199,8 +269,24 @@ public final class Round extends Table {
       int roundID,
       int bytecodeIDsOffset,
       int bytecodesUsedOffset,
-      int teamNumBuffsOffset) {
-    builder.startObject(22);
+      int teamNumBuffsOffset,
+      int compactMovedIndicesOffset,
+      int compactMovedDirectionsOffset,
+      int compactActionIndicesOffset,
+      int compactActionTargetsOffset,
+      int compactBytecodeIndicesOffset,
+      int compactBytecodesUsedOffset,
+      int teamDroppedIndicatorsOffset,
+      int teamDroppedLogBytesOffset) {
+    builder.startObject(30);
+    Round.addTeamDroppedLogBytes(builder, teamDroppedLogBytesOffset);
+    Round.addTeamDroppedIndicators(builder, teamDroppedIndicatorsOffset);
+    Round.addCompactBytecodesUsed(builder, compactBytecodesUsedOffset);
+    Round.addCompactBytecodeIndices(builder, compactBytecodeIndicesOffset);
+    Round.addCompactActionTargets(builder, compactActionTargetsOffset);
+    Round.addCompactActionIndices(builder, compactActionIndicesOffset);
+    Round.addCompactMovedDirections(builder, compactMovedDirectionsOffset);
+    Round.addCompactMovedIndices(builder, compactMovedIndicesOffset);
     Round.addTeamNumBuffs(builder, teamNumBuffsOffset);
     Round.addBytecodesUsed(builder, bytecodesUsedOffset);
     Round.addBytecodeIDs(builder, bytecodeIDsOffset);
@@ -226,7 +312,7 @@ public final class Round extends Table {
     return Round.endRound(builder);
   }
 
-  public static void startRound(FlatBufferBuilder builder) { builder.startObject(22); }
+  public static void startRound(FlatBufferBuilder builder) { builder.startObject(30); }
   public static void addTeamIDs(FlatBufferBuilder builder, int teamIDsOffset) { builder.addOffset(0, teamIDsOffset, 0); }
   public static int createTeamIDsVector(FlatBufferBuilder builder, int[] data) { builder.startVector(4, data.length, 4); for (int i = data.length - 1; i >= 0; i--) builder.addInt(data[i]); return builder.endVector(); }
   public static void startTeamIDsVector(FlatBufferBuilder builder, int numElems) { builder.startVector(4, numElems, 4); }
@@ -275,6 +361,30 @@ public final class Round extends Table {
   public static void addTeamNumBuffs(FlatBufferBuilder builder, int teamNumBuffsOffset) { builder.addOffset(21, teamNumBuffsOffset, 0); }
   public static int createTeamNumBuffsVector(FlatBufferBuilder builder, int[] data) { builder.startVector(4, data.length, 4); for (int i = data.length - 1; i >= 0; i--) builder.addInt(data[i]); return builder.endVector(); }
   public static void startTeamNumBuffsVector(FlatBufferBuilder builder, int numElems) { builder.startVector(4, numElems, 4); }
+  public static void addCompactMovedIndices(FlatBufferBuilder builder, int compactMovedIndicesOffset) { builder.addOffset(22, compactMovedIndicesOffset, 0); }
+  public static int createCompactMovedIndicesVector(FlatBufferBuilder builder, byte[] data) { builder.startVector(1, data.length, 1); for (int i = data.length - 1; i >= 0; i--) builder.addByte(data[i]); return builder.endVector(); }
+  public static void startCompactMovedIndicesVector(FlatBufferBuilder builder, int numElems) { builder.startVector(1, numElems, 1); }
+  public static void addCompactMovedDirections(FlatBufferBuilder builder, int compactMovedDirectionsOffset) { builder.addOffset(23, compactMovedDirectionsOffset, 0); }
+  public static int createCompactMovedDirectionsVector(FlatBufferBuilder builder, byte[] data) { builder.startVector(1, data.length, 1); for (int i = data.length - 1; i >= 0; i--) builder.addByte(data[i]); return builder.endVector(); }
+  public static void startCompactMovedDirectionsVector(FlatBufferBuilder builder, int numElems) { builder.startVector(1, numElems, 1); }
+  public static void addCompactActionIndices(FlatBufferBuilder builder, int compactActionIndicesOffset) { builder.addOffset(24, compactActionIndicesOffset, 0); }
+  public static int createCompactActionIndicesVector(FlatBufferBuilder builder, byte[] data) { builder.startVector(1, data.length, 1); for (int i = data.length - 1; i >= 0; i--) builder.addByte(data[i]); return builder.endVector(); }
+  public static void startCompactActionIndicesVector(FlatBufferBuilder builder, int numElems) { builder.startVector(1, numElems, 1); }
+  public static void addCompactActionTargets(FlatBufferBuilder builder, int compactActionTargetsOffset) { builder.addOffset(25, compactActionTargetsOffset, 0); }
+  public static int createCompactActionTargetsVector(FlatBufferBuilder builder, byte[] data) { builder.startVector(1, data.length, 1); for (int i = data.length - 1; i >= 0; i--) builder.addByte(data[i]); return builder.endVector(); }
+  public static void startCompactActionTargetsVector(FlatBufferBuilder builder, int numElems) { builder.startVector(1, numElems, 1); }
+  public static void addCompactBytecodeIndices(FlatBufferBuilder builder, int compactBytecodeIndicesOffset) { builder.addOffset(26, compactBytecodeIndicesOffset, 0); }
+  public static int createCompactBytecodeIndicesVector(FlatBufferBuilder builder, byte[] data) { builder.startVector(1, data.length, 1); for (int i = data.length - 1; i >= 0; i--) builder.addByte(data[i]); return builder.endVector(); }
+  public static void startCompactBytecodeIndicesVector(FlatBufferBuilder builder, int numElems) { builder.startVector(1, numElems, 1); }
+  public static void addCompactBytecodesUsed(FlatBufferBuilder builder, int compactBytecodesUsedOffset) { builder.addOffset(27, compactBytecodesUsedOffset, 0); }
+  public static int createCompactBytecodesUsedVector(FlatBufferBuilder builder, byte[] data) { builder.startVector(1, data.length, 1); for (int i = data.length - 1; i >= 0; i--) builder.addByte(data[i]); return builder.endVector(); }
+  public static void startCompactBytecodesUsedVector(FlatBufferBuilder builder, int numElems) { builder.startVector(1, numElems, 1); }
+  public static void addTeamDroppedIndicators(FlatBufferBuilder builder, int teamDroppedIndicatorsOffset) { builder.addOffset(28, teamDroppedIndicatorsOffset, 0); }
+  public static int createTeamDroppedIndicatorsVector(FlatBufferBuilder builder, int[] data) { builder.startVector(4, data.length, 4); for (int i = data.length - 1; i >= 0; i--) builder.addInt(data[i]); return builder.endVector(); }
+  public static void startTeamDroppedIndicatorsVector(FlatBufferBuilder builder, int numElems) { builder.startVector(4, numElems, 4); }
+  public static void addTeamDroppedLogBytes(FlatBufferBuilder builder, int teamDroppedLogBytesOffset) { builder.addOffset(29, teamDroppedLogBytesOffset, 0); }
+  public static int createTeamDroppedLogBytesVector(FlatBufferBuilder builder, int[] data) { builder.startVector(4, data.length, 4); for (int i = data.length - 1; i >= 0; i--) builder.addInt(data[i]); return builder.endVector(); }
+  public static void startTeamDroppedLogBytesVector(FlatBufferBuilder builder, int numElems) { builder.startVector(4, numElems, 4); }
   public static int endRound(FlatBufferBuilder builder) {
     int o = builder.endObject();
     return o;
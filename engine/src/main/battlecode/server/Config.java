@@ -42,7 +42,36 @@ public class Config {
         // This does not affect output to stdout
         defaults.setProperty("bc.server.robot-player-replay-file-per-team-limit-bytes","-1");
 
+        // The max number of bytes of indicators and of logs each team can put
+        // in the replay of a match; -1 means infinity. Past half of its
+        // indicator budget, a team's indicators are sampled, with at most
+        // replay-indicators-per-robot dots and lines per robot per round.
+        // What's dropped is counted in each Round.
+        defaults.setProperty("bc.server.replay-indicator-budget-bytes", "-1");
+        defaults.setProperty("bc.server.replay-log-budget-bytes", "-1");
+        defaults.setProperty("bc.server.replay-indicators-per-robot", "10");
+
         defaults.setProperty("bc.server.save-file", "match.rms");
+
+        // How many bytes of replay events to compress at a time, and how many
+        // threads to compress them on while the game runs (0 to compress them
+        // on the game's thread).
+        defaults.setProperty("bc.server.replay-block-bytes", "1048576");
+        defaults.setProperty("bc.server.replay-compression-threads", "2");
+
+        // Whether to write an index next to the replay, saying where to find
+        // each round in it, for readers that don't want to inflate it all.
+        defaults.setProperty("bc.server.replay-index", "false");
+
+        // How many rounds apart to put keyframes in the replay, with the state
+        // of every robot, so readers can start from them; 0 for none.
+        defaults.setProperty("bc.server.keyframe-interval", "0");
+
+        // Whether to write rounds with RoundEncoding.COMPACT, which refers to
+        // robots by their spawn index and packs moves and bytecodes into a
+        // few bytes each. Only battlecode.replay can read these replays.
+        defaults.setProperty("bc.server.compact-rounds", "false");
+
         defaults.setProperty("bc.server.transcribe-input", "match.rms");
         defaults.setProperty("bc.server.transcribe-output", "transcribed.txt");
         defaults.setProperty("bc.server.debug", "false");
@@ -59,8 +88,50 @@ public class Config {
         defaults.setProperty("bc.engine.silence-d", "false");
         defaults.setProperty("bc.engine.debug-methods", "false");
         defaults.setProperty("bc.engine.enable-profiler", "false");
+
+        // How to profile, if profiling: "trace" records every method call,
+        // for the client; "sample" records the stack every so many bytecodes,
+        // and "aggregate" keeps a call tree per robot type, both written next
+        // to the replay.
+        defaults.setProperty("bc.engine.profiler-mode", "trace");
+        defaults.setProperty("bc.engine.profiler-sample-interval", "5000");
+
+        // Which robots to profile, and how many method calls to trace for
+        // them (0 for no limit); see ProfilerBudget.
+        defaults.setProperty("bc.engine.profiler-max-events", "2000000");
+        defaults.setProperty("bc.engine.profiler-max-events-per-robot", "0");
+        defaults.setProperty("bc.engine.profiler-max-events-per-type", "0");
+        defaults.setProperty("bc.engine.profiler-max-events-per-window", "0");
+        defaults.setProperty("bc.engine.profiler-window-rounds", "100");
+        defaults.setProperty("bc.engine.profiler-robot-types", "");
+        defaults.setProperty("bc.engine.profiler-rounds", "");
+        defaults.setProperty("bc.engine.profiler-spawn-interval", "1");
+
+        // Whether to time the phases of each round, and where to write each
+        // timing as CSV (if anywhere); see PhaseTimer.
+        defaults.setProperty("bc.engine.phase-timer", "false");
+        defaults.setProperty("bc.engine.phase-timer-csv", "");
         defaults.setProperty("bc.engine.show-indicators", "true");
 
+        // Where to keep instrumented team and library classes between runs,
+        // and how large that directory may grow. Leave the directory empty
+        // to disable the cache.
+        defaults.setProperty("bc.engine.instrument-cache-dir", "");
+        defaults.setProperty("bc.engine.instrument-cache-max-bytes", "268435456");
+
+        // Whether to instrument all of a team's classes before the first round,
+        // instead of as robots load them.
+        defaults.setProperty("bc.engine.eager-instrumentation", "false");
+
+        // Whether to charge for runs of straight-line basic blocks with one
+        // RobotMonitor call. Doesn't change how many bytecodes are charged.
+        defaults.setProperty("bc.engine.merge-basic-blocks", "true");
+
+        // Whether to count bytecodes with inline field arithmetic in player
+        // code, only calling into RobotMonitor when the robot runs out (or
+        // is being profiled, debugged or killed).
+        defaults.setProperty("bc.engine.inline-bytecode-counter", "false");
+
         defaults.setProperty("bc.game.team-a", "team000");
         defaults.setProperty("bc.game.team-b", "team000");
         defaults.setProperty("bc.game.maps", "glass");
@@ -198,6 +269,13 @@ public class Config {
         return Integer.valueOf(this.properties.getProperty(key, "0"));
     }
 
+    /**
+     * Gets a configuration value (as a long).
+     */
+    public long getLong(String key) {
+        return Long.valueOf(this.properties.getProperty(key, "0"));
+    }
+
     /**
      * Gets a configuration value (as a boolean).
      */
@@ -1,12 +1,13 @@
 package battlecode.server;
 
 import battlecode.common.GameConstants;
+import battlecode.common.Direction;
 import battlecode.common.MapLocation;
+import battlecode.common.RobotInfo;
 import battlecode.common.RobotType;
 import battlecode.common.Team;
 import battlecode.instrumenter.profiler.Profiler;
 import battlecode.instrumenter.profiler.ProfilerCollection;
-import battlecode.instrumenter.profiler.ProfilerEventType;
 import battlecode.schema.*;
 import battlecode.util.FlatHelpers;
 import battlecode.util.TeamMapping;
@@ -16,15 +17,16 @@ import gnu.trove.list.array.TByteArrayList;
 import gnu.trove.list.array.TFloatArrayList;
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.list.array.TCharArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
 import java.util.List;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.function.ToIntFunction;
-import java.util.zip.GZIPOutputStream;
 
 import static battlecode.util.FlatHelpers.*;
 
@@ -60,21 +62,21 @@ public strictfp class GameMaker {
     // this un-separation-of-concerns makes me uncomfortable
 
     /**
-     * We write the whole match to this builder, then write it to a file.
+     * We build each event in this builder, once, as its own flatbuffer; the
+     * same bytes are then spooled to disk until the game's written out, and
+     * sent to the client.
      */
-    private final FlatBufferBuilder fileBuilder;
+    private FlatBufferBuilder eventBuilder;
 
     /**
-     * Null until the end of the match.
+     * The events made so far, for the file. Null once the game's written.
      */
-    private byte[] finishedGame;
+    private ReplaySpool spool;
 
     /**
-     * We have a separate byte[] for each packet sent to the client.
-     * This is necessary because flatbuffers shares metadata between structures, so we
-     * can't just cut out chunks of the larger buffer :/
+     * Null until the end of the match.
      */
-    private FlatBufferBuilder packetBuilder;
+    private byte[] finishedGame;
 
     /**
      * The server we're sending packets on.
@@ -88,15 +90,19 @@ public strictfp class GameMaker {
     private final GameInfo gameInfo;
 
     /**
-     * Only relevant to the file builder:
+     * Only relevant to the file:
      * We add a table called a GameWrapper to the front of the saved files
      * that lets you quickly navigate to events by index, and tells you the
      * indices of headers and footers.
      */
-    private TIntArrayList events;
     private TIntArrayList matchHeaders;
     private TIntArrayList matchFooters;
 
+    /**
+     * The index of the match being made, or -1 between matches.
+     */
+    private int currentMatch = -1;
+
     /**
      * The MatchMaker associated with this GameMaker.
      */
@@ -107,6 +113,16 @@ public strictfp class GameMaker {
      */
     private final boolean showIndicators;
 
+    /**
+     * How many rounds apart to make keyframes, or 0 for none.
+     */
+    private final int keyframeInterval;
+
+    /**
+     * Whether to write Rounds with RoundEncoding.COMPACT.
+     */
+    private final boolean compactRounds;
+
     /**
      * @param gameInfo the mapping of teams to bytes
      * @param packetSink the NetServer to send packets to
@@ -118,13 +134,18 @@ public strictfp class GameMaker {
         this.gameInfo = gameInfo;
 
         this.packetSink = packetSink;
-        if (packetSink != null) {
-            this.packetBuilder = new FlatBufferBuilder();
-        }
 
-        this.fileBuilder = new FlatBufferBuilder();
+        this.eventBuilder = new FlatBufferBuilder();
+        try {
+            Config config = Config.getGlobalConfig();
+            this.spool = new ReplaySpool(config.getInt("bc.server.replay-block-bytes"),
+                    config.getInt("bc.server.replay-compression-threads"));
+        } catch (IOException e) {
+            throw new RuntimeException("Can't create a file to spool the replay to", e);
+        }
+        this.keyframeInterval = Config.getGlobalConfig().getInt("bc.server.keyframe-interval");
+        this.compactRounds = Config.getGlobalConfig().getBoolean("bc.server.compact-rounds");
 
-        this.events = new TIntArrayList();
         this.matchHeaders = new TIntArrayList();
         this.matchFooters = new TIntArrayList();
 
@@ -161,38 +182,25 @@ public strictfp class GameMaker {
      */
     public byte[] toBytes() {
         if (finishedGame == null) {
-            assertState(State.DONE);
-
-            int events = GameWrapper.createEventsVector(fileBuilder, this.events.toArray());
-            int matchHeaders = GameWrapper.createMatchHeadersVector(fileBuilder, this.matchHeaders.toArray());
-            int matchFooters = GameWrapper.createMatchFootersVector(fileBuilder, this.matchFooters.toArray());
-
-            GameWrapper.startGameWrapper(fileBuilder);
-            GameWrapper.addEvents(fileBuilder, events);
-            GameWrapper.addMatchHeaders(fileBuilder, matchHeaders);
-            GameWrapper.addMatchFooters(fileBuilder, matchFooters);
-
-            fileBuilder.finish(GameWrapper.endGameWrapper(fileBuilder));
-
-            byte[] rawBytes = fileBuilder.sizedByteArray();
-
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
             try {
-                ByteArrayOutputStream result = new ByteArrayOutputStream();
-                GZIPOutputStream zipper = new GZIPOutputStream(result);
-                IOUtils.copy(new ByteArrayInputStream(rawBytes), zipper);
-                zipper.close();
-                zipper.flush();
-                result.flush();
-                finishedGame = result.toByteArray();
+                writeReplay(result);
             } catch (IOException e) {
                 throw new RuntimeException("Gzipping failed?", e);
             }
+            finishedGame = result.toByteArray();
         }
         return finishedGame;
     }
 
     /**
-     * Write a match out to a file.
+     * Write a match out to a file, straight from where its events are
+     * spooled. After this, the game can't be written again (unless
+     * toBytes was called first).
+     *
+     * If bc.server.replay-index is set, also write an index of where each
+     * event is in the file to [save file].idx; see ReplaySpool. If not,
+     * delete any index left there by an earlier game.
      *
      * @param saveFile the file to save to
      */
@@ -202,31 +210,104 @@ public strictfp class GameMaker {
         }
 
         try {
-            FileUtils.writeByteArrayToFile(saveFile, toBytes());
+            if (finishedGame != null) {
+                FileUtils.writeByteArrayToFile(saveFile, finishedGame);
+            } else {
+                try (OutputStream out = FileUtils.openOutputStream(saveFile)) {
+                    writeReplay(out);
+                }
+            }
+            final File indexFile = new File(saveFile.getPath() + ".idx");
+            if (Config.getGlobalConfig().getBoolean("bc.server.replay-index")) {
+                try (OutputStream out = FileUtils.openOutputStream(indexFile)) {
+                    spool.writeIndex(new BufferedOutputStream(out));
+                }
+            } else if (indexFile.exists() && !indexFile.delete()) {
+                throw new IOException("Can't delete stale index " + indexFile);
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            closeSpool();
+        }
+    }
+
+    /**
+     * Throw away the game's spooled events, and stop compressing them, if it
+     * hasn't been written out; e.g. because a match failed. The game can't be
+     * written after this. Does nothing if it's already been written.
+     */
+    public void close() {
+        closeSpool();
+    }
+
+    /**
+     * Write the gzipped replay.
+     */
+    private void writeReplay(OutputStream out) throws IOException {
+        assertState(State.DONE);
+        if (spool == null) {
+            throw new IllegalStateException("Game has already been written out");
+        }
+        final long start = PhaseTimer.start();
+
+        BufferedOutputStream buffered = new BufferedOutputStream(out, 1 << 16);
+        spool.writeReplay(buffered, matchHeaders.toArray(), matchFooters.toArray());
+        buffered.flush();
+
+        PhaseTimer.end(PhaseTimer.Phase.WRITE_REPLAY, start, -1, 0, null);
+    }
+
+    private void closeSpool() {
+        if (spool != null) {
+            try {
+                spool.close();
+            } catch (IOException e) {
+                ErrorReporter.report(e, "Can't delete replay spool file.", false);
+            }
+            spool = null;
         }
     }
 
     /**
-     * Run the same logic for both builders.
+     * Make an event, for the file and the client.
      *
-     * @param perBuilder called with each builder; return event id. Should not mutate state.
+     * @param perBuilder called with the builder; return event id. Should not mutate state.
      */
     private void createEvent(ToIntFunction<FlatBufferBuilder> perBuilder) {
-        // make file event and add its offset to the list
-        int eventAP = perBuilder.applyAsInt(fileBuilder);
-        events.add(eventAP);
+        createEvent(-1, perBuilder);
+    }
 
-        if (packetSink != null) {
-            // make packet event and package it up
-            int eventBP = perBuilder.applyAsInt(packetBuilder);
-            packetBuilder.finish(eventBP);
-            packetSink.addEvent(packetBuilder.sizedByteArray());
+    /**
+     * Make an event, for the file and the client.
+     *
+     * @param round the round the event is for, or -1, for timing
+     * @param perBuilder called with the builder; return event id. Should not mutate state.
+     */
+    private void createEvent(int round, ToIntFunction<FlatBufferBuilder> perBuilder) {
+        final long start = PhaseTimer.start();
+
+        // make the event once
+        int event = perBuilder.applyAsInt(eventBuilder);
+        eventBuilder.finish(event);
+
+        // spool it for the file
+        try {
+            spool.append(eventBuilder.dataBuffer(), currentMatch, round);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't spool replay event", e);
+        }
 
-            // reset packet builder
-            packetBuilder = new FlatBufferBuilder(packetBuilder.dataBuffer());
+        // and send the same bytes to the client, which needs its own copy
+        // since it sends them from another thread
+        if (packetSink != null) {
+            packetSink.addEvent(eventBuilder.sizedByteArray());
         }
+
+        // reset event builder
+        eventBuilder = new FlatBufferBuilder(eventBuilder.dataBuffer());
+
+        PhaseTimer.end(PhaseTimer.Phase.SERIALIZE_EVENT, start, round, 0, null);
     }
 
     /**
@@ -267,6 +348,7 @@ public strictfp class GameMaker {
             GameHeader.addSpecVersion(builder, specVersionOffset);
             GameHeader.addTeams(builder, teamsOffset);
             GameHeader.addBodyTypeMetadata(builder, bodyTypeMetadataOffset);
+            GameHeader.addRoundEncoding(builder, compactRounds ? RoundEncoding.COMPACT : RoundEncoding.PLAIN);
             int gameHeaderOffset = GameHeader.endGameHeader(builder);
 
             return EventWrapper.createEventWrapper(builder, Event.GameHeader, gameHeaderOffset);
@@ -368,6 +450,16 @@ public strictfp class GameMaker {
         // Used to write logs.
         private final ByteArrayOutputStream logger;
 
+        // The spawn index of each robot in the match, and where it was at the
+        // end of the last round, for RoundEncoding.COMPACT
+        private final TIntIntHashMap spawnIndices;
+        private final TIntArrayList spawnLocsXs;
+        private final TIntArrayList spawnLocsYs;
+
+        // Keeps the indicators and logs in each match within a budget
+        private final ReplayBudget budget;
+        private final OutputStream[] teamOut;
+
         public MatchMaker() {
             this.movedIDs = new TIntArrayList();
             this.movedLocsXs = new TIntArrayList();
@@ -403,11 +495,36 @@ public strictfp class GameMaker {
             this.bytecodeIDs = new TIntArrayList();
             this.bytecodesUsed = new TIntArrayList();
             this.logger = new ByteArrayOutputStream();
+            this.spawnIndices = new TIntIntHashMap(64, 0.5f, -1, -1);
+            this.spawnLocsXs = new TIntArrayList();
+            this.spawnLocsYs = new TIntArrayList();
+            Config config = Config.getGlobalConfig();
+            this.budget = new ReplayBudget(config.getLong("bc.server.replay-indicator-budget-bytes"),
+                    config.getLong("bc.server.replay-log-budget-bytes"),
+                    config.getInt("bc.server.replay-indicators-per-robot"));
+            this.teamOut = new OutputStream[] {new TeamLogStream(Team.A), new TeamLogStream(Team.B)};
         }
 
         public void makeMatchHeader(LiveMap gameMap) {
             changeState(State.IN_GAME, State.IN_MATCH);
 
+            // Each match starts a new compressed block, so it can be read on its own
+            try {
+                spool.breakBlock();
+            } catch (IOException e) {
+                throw new RuntimeException("Can't spool replay event", e);
+            }
+            currentMatch = matchHeaders.size();
+            budget.startMatch();
+
+            // The map's bodies are spawned first, in the order the header lists them
+            spawnIndices.clear();
+            spawnLocsXs.clear();
+            spawnLocsYs.clear();
+            for (RobotInfo body : gameMap.getInitialBodies()) {
+                addSpawnIndex(body.getID(), body.getLocation());
+            }
+
             createEvent((builder) -> {
                 int map = GameMapIO.Serial.serialize(builder, gameMap);
 
@@ -415,7 +532,7 @@ public strictfp class GameMaker {
                         MatchHeader.createMatchHeader(builder, map, gameMap.getRounds()));
             });
 
-            matchHeaders.add(events.size() - 1);
+            matchHeaders.add(spool.getEventCount() - 1);
 
             clearData();
         }
@@ -423,6 +540,21 @@ public strictfp class GameMaker {
         public void makeMatchFooter(Team winTeam, int totalRounds, List<ProfilerCollection> profilerCollections) {
             changeState(State.IN_MATCH, State.IN_GAME);
 
+            for (Team team : new Team[] {Team.A, Team.B}) {
+                if (budget.getDroppedIndicators(team) > 0 || budget.getDroppedLogBytes(team) > 0) {
+                    Server.warn("Team " + team + " went over its replay budget: kept "
+                            + budget.getIndicatorBytes(team) + " bytes of indicators and "
+                            + budget.getLogBytes(team) + " of logs, and dropped "
+                            + budget.getDroppedIndicators(team) + " indicators and "
+                            + budget.getDroppedLogBytes(team) + " bytes of logs");
+                }
+            }
+
+            // Sampled and aggregated profiles don't fit in the replay, so they go next to it
+            for (int i = 0; i < profilerCollections.size(); i++) {
+                writeProfileSidecars(i == 0 ? Team.A : Team.B, profilerCollections.get(i));
+            }
+
             createEvent((builder) -> {
                 TIntArrayList profilerFiles = new TIntArrayList();
 
@@ -435,18 +567,18 @@ public strictfp class GameMaker {
                     }
 
                     for (Profiler profiler : profilerCollection.getProfilers()) {
-                        TIntArrayList events = new TIntArrayList();
-
-                        for (battlecode.instrumenter.profiler.ProfilerEvent event : profiler.getEvents()) {
-                            ProfilerEvent.startProfilerEvent(builder);
-                            ProfilerEvent.addIsOpen(builder, event.getType() == ProfilerEventType.OPEN);
-                            ProfilerEvent.addAt(builder, event.getAt());
-                            ProfilerEvent.addFrame(builder, event.getFrameId());
-                            events.add(ProfilerEvent.endProfilerEvent(builder));
+                        // Straight from the profiler's packed events into the builder
+                        int eventCount = profiler.getEventCount();
+                        int[] events = new int[eventCount];
+                        for (int i = 0; i < eventCount; i++) {
+                            events[i] = ProfilerEvent.createProfilerEvent(builder,
+                                    profiler.isOpenEvent(i),
+                                    profiler.getEventAt(i),
+                                    profiler.getEventFrameId(i));
                         }
 
                         int nameOffset = builder.createString(profiler.getName());
-                        int eventsOffset = ProfilerProfile.createEventsVector(builder, events.toArray());
+                        int eventsOffset = ProfilerProfile.createEventsVector(builder, events);
 
                         ProfilerProfile.startProfilerProfile(builder);
                         ProfilerProfile.addName(builder, nameOffset);
@@ -466,7 +598,37 @@ public strictfp class GameMaker {
                     MatchFooter.createMatchFooter(builder, TeamMapping.id(winTeam), totalRounds, profilerFilesOffset));
             });
 
-            matchFooters.add(events.size() - 1);
+            matchFooters.add(spool.getEventCount() - 1);
+            currentMatch = -1;
+        }
+
+        /**
+         * Write a team's sampled stacks or call trees for this match to
+         * [save file].[match number].[team].collapsed (and .calltree.json),
+         * if there are any.
+         */
+        private void writeProfileSidecars(Team team, ProfilerCollection profilerCollection) {
+            if (gameInfo == null || gameInfo.getSaveFile() == null) {
+                return;
+            }
+
+            String prefix = gameInfo.getSaveFile().getPath() + "." + (matchFooters.size() + 1) + "." + team;
+            if (profilerCollection.hasCollapsedStacks()) {
+                File file = new File(prefix + ".collapsed");
+                try (Writer out = new OutputStreamWriter(FileUtils.openOutputStream(file), "UTF-8")) {
+                    profilerCollection.writeCollapsedStacks(out);
+                } catch (IOException e) {
+                    ErrorReporter.report(e, "Can't write profile to " + file + ".", false);
+                }
+            }
+            if (profilerCollection.hasCallTrees()) {
+                File file = new File(prefix + ".calltree.json");
+                try (Writer out = new OutputStreamWriter(FileUtils.openOutputStream(file), "UTF-8")) {
+                    profilerCollection.writeCallTrees(out);
+                } catch (IOException e) {
+                    ErrorReporter.report(e, "Can't write profile to " + file + ".", false);
+                }
+            }
         }
 
         public void makeRound(int roundNum) {
@@ -480,7 +642,23 @@ public strictfp class GameMaker {
             byte[] logs = this.logger.toByteArray();
             this.logger.reset();
 
-            createEvent((builder) -> {
+            CompactRound compact = compactRounds ? encodeCompactRound() : null;
+
+            // What each team went over its budget by, in the order of teamIDs
+            int[] droppedIndicators = null;
+            int[] droppedLogBytes = null;
+            if (budget.isLimited()) {
+                droppedIndicators = new int[teamIDs.size()];
+                droppedLogBytes = new int[teamIDs.size()];
+                for (int i = 0; i < teamIDs.size(); i++) {
+                    droppedIndicators[i] = budget.getRoundDroppedIndicators((byte) teamIDs.get(i));
+                    droppedLogBytes[i] = budget.getRoundDroppedLogBytes((byte) teamIDs.get(i));
+                }
+            }
+            final int[] teamDroppedIndicators = droppedIndicators;
+            final int[] teamDroppedLogBytes = droppedLogBytes;
+
+            createEvent(roundNum, (builder) -> {
                 // The bodies that spawned
                 int spawnedBodiesLocsP = createVecTable(builder, spawnedBodiesLocsXs, spawnedBodiesLocsYs);
                 int spawnedBodiesRobotIDsP = SpawnedBodyTable.createRobotIDsVector(builder, spawnedBodiesRobotIDs.toArray());
@@ -500,18 +678,23 @@ public strictfp class GameMaker {
                 int teamVotesP = Round.createTeamVotesVector(builder, teamVotes.toArray());
                 int teamBidderIDsP = Round.createTeamBidderIDsVector(builder, teamBidderIDs.toArray());
                 int teamNumBuffsP = Round.createTeamNumBuffsVector(builder, teamNumBuffs.toArray());
+                int teamDroppedIndicatorsP = teamDroppedIndicators == null ? 0
+                        : Round.createTeamDroppedIndicatorsVector(builder, teamDroppedIndicators);
+                int teamDroppedLogBytesP = teamDroppedLogBytes == null ? 0
+                        : Round.createTeamDroppedLogBytesVector(builder, teamDroppedLogBytes);
 
                 // The bodies that moved
-                int movedIDsP = Round.createMovedIDsVector(builder, movedIDs.toArray());
-                int movedLocsP = createVecTable(builder, movedLocsXs, movedLocsYs);
+                int movedIDsP = compact == null ? Round.createMovedIDsVector(builder, movedIDs.toArray()) : 0;
+                int movedLocsP = compact == null ? createVecTable(builder, movedLocsXs, movedLocsYs)
+                        : createVecTable(builder, compact.movedLocsXs, compact.movedLocsYs);
 
                 // The bodies that died
                 int diedIDsP = Round.createDiedIDsVector(builder, diedIDs.toArray());
 
                 // The actions that happened
-                int actionIDsP = Round.createActionIDsVector(builder, actionIDs.toArray());
+                int actionIDsP = compact == null ? Round.createActionIDsVector(builder, actionIDs.toArray()) : 0;
                 int actionsP = Round.createActionsVector(builder, actions.toArray());
-                int actionTargetsP = Round.createActionTargetsVector(builder, actionTargets.toArray());
+                int actionTargetsP = compact == null ? Round.createActionTargetsVector(builder, actionTargets.toArray()) : 0;
 
                 // The indicator dots that were set
                 int indicatorDotIDsP = Round.createIndicatorDotIDsVector(builder, indicatorDotIDs.toArray());
@@ -525,8 +708,20 @@ public strictfp class GameMaker {
                 int indicatorLineRGBsP = createRGBTable(builder, indicatorLineRGBsRed, indicatorLineRGBsGreen, indicatorLineRGBsBlue);
 
                 // The bytecode usage
-                int bytecodeIDsP = Round.createBytecodeIDsVector(builder, bytecodeIDs.toArray());
-                int bytecodesUsedP = Round.createBytecodesUsedVector(builder, bytecodesUsed.toArray());
+                int bytecodeIDsP = compact == null ? Round.createBytecodeIDsVector(builder, bytecodeIDs.toArray()) : 0;
+                int bytecodesUsedP = compact == null ? Round.createBytecodesUsedVector(builder, bytecodesUsed.toArray()) : 0;
+
+                // The same, compactly
+                int compactMovedIndicesP = 0, compactMovedDirectionsP = 0, compactActionIndicesP = 0;
+                int compactActionTargetsP = 0, compactBytecodeIndicesP = 0, compactBytecodesUsedP = 0;
+                if (compact != null) {
+                    compactMovedIndicesP = Round.createCompactMovedIndicesVector(builder, compact.movedIndices.toArray());
+                    compactMovedDirectionsP = Round.createCompactMovedDirectionsVector(builder, compact.movedDirections.toArray());
+                    compactActionIndicesP = Round.createCompactActionIndicesVector(builder, compact.actionIndices.toArray());
+                    compactActionTargetsP = Round.createCompactActionTargetsVector(builder, compact.actionTargets.toArray());
+                    compactBytecodeIndicesP = Round.createCompactBytecodeIndicesVector(builder, compact.bytecodeIndices.toArray());
+                    compactBytecodesUsedP = Round.createCompactBytecodesUsedVector(builder, compact.bytecodesUsed.toArray());
+                }
 
                 int logsP = builder.createString(ByteBuffer.wrap(logs));
 
@@ -535,13 +730,19 @@ public strictfp class GameMaker {
                 Round.addTeamVotes(builder, teamVotesP);
                 Round.addTeamBidderIDs(builder, teamBidderIDsP);
                 Round.addTeamNumBuffs(builder, teamNumBuffsP);
-                Round.addMovedIDs(builder, movedIDsP);
+                if (compact == null) {
+                    Round.addMovedIDs(builder, movedIDsP);
+                }
                 Round.addMovedLocs(builder, movedLocsP);
                 Round.addSpawnedBodies(builder, spawnedBodiesP);
                 Round.addDiedIDs(builder, diedIDsP);
-                Round.addActionIDs(builder, actionIDsP);
+                if (compact == null) {
+                    Round.addActionIDs(builder, actionIDsP);
+                }
                 Round.addActions(builder, actionsP);
-                Round.addActionTargets(builder, actionTargetsP);
+                if (compact == null) {
+                    Round.addActionTargets(builder, actionTargetsP);
+                }
                 Round.addIndicatorDotIDs(builder, indicatorDotIDsP);
                 Round.addIndicatorDotLocs(builder, indicatorDotLocsP);
                 Round.addIndicatorDotRGBs(builder, indicatorDotRGBsP);
@@ -550,21 +751,183 @@ public strictfp class GameMaker {
                 Round.addIndicatorLineEndLocs(builder, indicatorLineEndLocsP);
                 Round.addIndicatorLineRGBs(builder, indicatorLineRGBsP);
                 Round.addRoundID(builder, roundNum);
-                Round.addBytecodeIDs(builder, bytecodeIDsP);
-                Round.addBytecodesUsed(builder, bytecodesUsedP);
+                if (compact == null) {
+                    Round.addBytecodeIDs(builder, bytecodeIDsP);
+                    Round.addBytecodesUsed(builder, bytecodesUsedP);
+                } else {
+                    Round.addCompactMovedIndices(builder, compactMovedIndicesP);
+                    Round.addCompactMovedDirections(builder, compactMovedDirectionsP);
+                    Round.addCompactActionIndices(builder, compactActionIndicesP);
+                    Round.addCompactActionTargets(builder, compactActionTargetsP);
+                    Round.addCompactBytecodeIndices(builder, compactBytecodeIndicesP);
+                    Round.addCompactBytecodesUsed(builder, compactBytecodesUsedP);
+                }
                 Round.addLogs(builder, logsP);
+                if (teamDroppedIndicators != null) {
+                    Round.addTeamDroppedIndicators(builder, teamDroppedIndicatorsP);
+                    Round.addTeamDroppedLogBytes(builder, teamDroppedLogBytesP);
+                }
                 int round = Round.endRound(builder);
                 return EventWrapper.createEventWrapper(builder, Event.Round, round);
             });
 
             clearData();
+            budget.startRound(roundNum + 1);
         }
 
         /**
-         * @return an outputstream that will be baked into the output file
+         * The parts of a Round that RoundEncoding.COMPACT writes differently.
          */
-        public OutputStream getOut() {
-            return logger;
+        private class CompactRound {
+            private final TByteArrayList movedIndices = new TByteArrayList();
+            private final TByteArrayList movedDirections = new TByteArrayList();
+            private final TIntArrayList movedLocsXs = new TIntArrayList();
+            private final TIntArrayList movedLocsYs = new TIntArrayList();
+            private final TByteArrayList actionIndices = new TByteArrayList();
+            private final TByteArrayList actionTargets = new TByteArrayList();
+            private final TByteArrayList bytecodeIndices = new TByteArrayList();
+            private final TByteArrayList bytecodesUsed = new TByteArrayList();
+        }
+
+        /**
+         * Encode this round's moves, actions and bytecodes with spawn
+         * indices, and update the spawn table for the next round.
+         */
+        private CompactRound encodeCompactRound() {
+            CompactRound compact = new CompactRound();
+
+            for (int i = 0; i < spawnedBodiesRobotIDs.size(); i++) {
+                addSpawnIndex(spawnedBodiesRobotIDs.get(i),
+                        new MapLocation(spawnedBodiesLocsXs.get(i), spawnedBodiesLocsYs.get(i)));
+            }
+
+            Direction[] directions = Direction.allDirections();
+            for (int i = 0; i < movedIDs.size(); i++) {
+                int index = getSpawnIndex(movedIDs.get(i));
+                int x = movedLocsXs.get(i);
+                int y = movedLocsYs.get(i);
+                int dx = x - spawnLocsXs.get(index);
+                int dy = y - spawnLocsYs.get(index);
+                byte direction = -1;
+                for (int d = 0; d < directions.length; d++) {
+                    if (directions[d].getDeltaX() == dx && directions[d].getDeltaY() == dy) {
+                        direction = (byte) d;
+                        break;
+                    }
+                }
+                addVarint(compact.movedIndices, index);
+                compact.movedDirections.add(direction);
+                if (direction == -1) {
+                    compact.movedLocsXs.add(x);
+                    compact.movedLocsYs.add(y);
+                }
+                spawnLocsXs.set(index, x);
+                spawnLocsYs.set(index, y);
+            }
+
+            for (int i = 0; i < actionIDs.size(); i++) {
+                addVarint(compact.actionIndices, getSpawnIndex(actionIDs.get(i)));
+                int target = actionTargets.get(i);
+                if (isBodyTarget(actions.get(i))) {
+                    int index = spawnIndices.get(target);
+                    target = index != -1 ? index : -1 - target;
+                }
+                addZigzagVarint(compact.actionTargets, target);
+            }
+
+            for (int i = 0; i < bytecodeIDs.size(); i++) {
+                addVarint(compact.bytecodeIndices, getSpawnIndex(bytecodeIDs.get(i)));
+                addVarint(compact.bytecodesUsed, bytecodesUsed.get(i));
+            }
+
+            for (int i = 0; i < diedIDs.size(); i++) {
+                spawnIndices.remove(diedIDs.get(i));
+            }
+            return compact;
+        }
+
+        private void addSpawnIndex(int id, MapLocation location) {
+            spawnIndices.put(id, spawnLocsXs.size());
+            spawnLocsXs.add(location.x);
+            spawnLocsYs.add(location.y);
+        }
+
+        private int getSpawnIndex(int id) {
+            int index = spawnIndices.get(id);
+            if (index == -1) {
+                throw new IllegalStateException("Robot " + id + " wasn't spawned in this match");
+            }
+            return index;
+        }
+
+        /**
+         * @param roundNum a round that just ended
+         * @return whether its Round should be followed by a keyframe
+         */
+        public boolean isKeyframeRound(int roundNum) {
+            return keyframeInterval > 0 && roundNum % keyframeInterval == 0;
+        }
+
+        /**
+         * Write out the state of every robot at the end of a round, so
+         * readers don't have to apply every Round before it to know it.
+         * Should come right after the round's Round.
+         *
+         * @param roundNum the round that just ended
+         * @param robots every robot in the world; sorted by ID in place
+         */
+        public void makeKeyframe(int roundNum, InternalRobot[] robots) {
+            assertState(State.IN_MATCH);
+
+            Arrays.sort(robots, Comparator.comparingInt(InternalRobot::getID));
+            int[] robotIDs = new int[robots.length];
+            byte[] teamIDs = new byte[robots.length];
+            byte[] types = new byte[robots.length];
+            int[] locsXs = new int[robots.length];
+            int[] locsYs = new int[robots.length];
+            int[] influences = new int[robots.length];
+            int[] convictions = new int[robots.length];
+            int[] flags = new int[robots.length];
+            int[] robotSpawnIndices = compactRounds ? new int[robots.length] : null;
+            int spawnCount = compactRounds ? spawnLocsXs.size() : 0;
+            for (int i = 0; i < robots.length; i++) {
+                InternalRobot robot = robots[i];
+                robotIDs[i] = robot.getID();
+                teamIDs[i] = TeamMapping.id(robot.getTeam());
+                types[i] = FlatHelpers.getBodyTypeFromRobotType(robot.getType());
+                locsXs[i] = robot.getLocation().x;
+                locsYs[i] = robot.getLocation().y;
+                influences[i] = robot.getInfluence();
+                convictions[i] = robot.getConviction();
+                flags[i] = robot.getFlag();
+                if (compactRounds) {
+                    robotSpawnIndices[i] = getSpawnIndex(robot.getID());
+                }
+            }
+
+            createEvent(roundNum, (builder) -> {
+                int robotIDsP = Keyframe.createRobotIDsVector(builder, robotIDs);
+                int teamIDsP = Keyframe.createTeamIDsVector(builder, teamIDs);
+                int typesP = Keyframe.createTypesVector(builder, types);
+                int locsP = createVecTable(builder, TIntArrayList.wrap(locsXs), TIntArrayList.wrap(locsYs));
+                int influencesP = Keyframe.createInfluencesVector(builder, influences);
+                int convictionsP = Keyframe.createConvictionsVector(builder, convictions);
+                int flagsP = Keyframe.createFlagsVector(builder, flags);
+                int spawnIndicesP = compactRounds ? Keyframe.createSpawnIndicesVector(builder, robotSpawnIndices) : 0;
+
+                int keyframe = Keyframe.createKeyframe(builder, roundNum, robotIDsP, teamIDsP, typesP,
+                        locsP, influencesP, convictionsP, flagsP, spawnIndicesP, spawnCount);
+                return EventWrapper.createEventWrapper(builder, Event.Keyframe, keyframe);
+            });
+        }
+
+        /**
+         * @param team a team
+         * @return an outputstream for the team's robots that will be baked
+         *         into the output file, within the team's log budget
+         */
+        public OutputStream getOut(Team team) {
+            return teamOut[team.ordinal()];
         }
 
         public void addMoved(int id, MapLocation newLocation) {
@@ -590,8 +953,8 @@ public strictfp class GameMaker {
             teamNumBuffs.add(numBuffs);
         }
 
-        public void addIndicatorDot(int id, MapLocation loc, int red, int green, int blue) {
-            if (!showIndicators) {
+        public void addIndicatorDot(Team team, int id, MapLocation loc, int red, int green, int blue) {
+            if (!showIndicators || !budget.addDot(team, id)) {
                 return;
             }
             indicatorDotIDs.add(id);
@@ -602,8 +965,9 @@ public strictfp class GameMaker {
             indicatorDotRGBsBlue.add(blue);
         }
 
-        public void addIndicatorLine(int id, MapLocation startLoc, MapLocation endLoc, int red, int green, int blue) {
-            if (!showIndicators) {
+        public void addIndicatorLine(Team team, int id, MapLocation startLoc, MapLocation endLoc,
+                                     int red, int green, int blue) {
+            if (!showIndicators || !budget.addLine(team, id)) {
                 return;
             }
             indicatorLineIDs.add(id);
@@ -630,6 +994,35 @@ public strictfp class GameMaker {
             spawnedBodiesInfluences.add(robot.getInfluence());
         }
 
+        /**
+         * Writes a team's logs to the logger until the team's log budget
+         * is used up, and then says they were cut off.
+         */
+        private class TeamLogStream extends OutputStream {
+            private final Team team;
+
+            TeamLogStream(Team team) {
+                this.team = team;
+            }
+
+            @Override
+            public void write(int b) {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                boolean truncated = budget.getDroppedLogBytes(team) > 0;
+                int keep = budget.addLog(team, b, off, len);
+                logger.write(b, off, keep);
+                if (keep < len && !truncated) {
+                    byte[] message = ("\n[" + team + " output truncated due to replay budget]\n")
+                            .getBytes(StandardCharsets.UTF_8);
+                    logger.write(message, 0, message.length);
+                }
+            }
+        }
+
         private void clearData() {
             movedIDs.clear();
             movedLocsXs.clear();
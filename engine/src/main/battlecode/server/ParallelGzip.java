@@ -0,0 +1,172 @@
+package battlecode.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Pieces for writing one gzip stream out of blocks compressed separately,
+ * possibly in parallel, like pigz does.
+ * <p>
+ * Each block is compressed on its own, with no dictionary from the blocks
+ * before it, and ends in a sync flush, which leaves it on a byte boundary
+ * without ending the stream. So a stream is just the gzip header, the
+ * blocks in order, an empty final block, and a trailer with the CRC of
+ * everything (combined from the blocks' CRCs) and its length. It's one
+ * ordinary gzip member, which gunzip and the client can read like any
+ * other; and a reader that knows where a block starts can inflate it
+ * (as raw deflate) without reading anything before it.
+ */
+final class ParallelGzip {
+
+    /**
+     * Magic, deflate, no flags, no time, no extra flags, unknown OS;
+     * the same as GZIPOutputStream writes, apart from the OS.
+     */
+    static final byte[] HEADER = {
+            0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    /**
+     * An empty, final, fixed Huffman block: just the final bit, the block
+     * type, and an end of block code.
+     */
+    private static final byte[] LAST_BLOCK = {0x03, 0x00};
+
+    /**
+     * The bytes finish writes: the last block, the CRC and the length.
+     */
+    static final int TRAILER_LENGTH = LAST_BLOCK.length + 8;
+
+    private ParallelGzip() {}
+
+    /**
+     * A compressed block.
+     */
+    static final class Block {
+        final byte[] compressed;
+        final int rawLength;
+        final int crc;
+
+        Block(byte[] compressed, int rawLength, int crc) {
+            this.compressed = compressed;
+            this.rawLength = rawLength;
+            this.crc = crc;
+        }
+    }
+
+    /**
+     * Compress a block, so it can go anywhere in a stream.
+     *
+     * @param raw the bytes to compress
+     * @param length how many of them
+     * @return the block
+     */
+    static Block compress(byte[] raw, int length) {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 4 + 64);
+        final byte[] buffer = new byte[1 << 16];
+        try {
+            deflater.setInput(raw, 0, length);
+            int written;
+            do {
+                written = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                compressed.write(buffer, 0, written);
+            } while (written == buffer.length);
+        } finally {
+            deflater.end();
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(raw, 0, length);
+        return new Block(compressed.toByteArray(), length, (int) crc.getValue());
+    }
+
+    /**
+     * End a stream.
+     *
+     * @param out where the stream is being written
+     * @param crc the CRC of everything in the stream
+     * @param length the length of everything in the stream
+     * @throws IOException if out does
+     */
+    static void finish(OutputStream out, int crc, long length) throws IOException {
+        out.write(LAST_BLOCK);
+        writeInt(out, crc);
+        writeInt(out, (int) length);
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    /**
+     * Work out the CRC of two pieces of data one after the other, from
+     * their CRCs. This is zlib's crc32_combine, which Java doesn't expose.
+     *
+     * @param crc1 the CRC of the first piece
+     * @param crc2 the CRC of the second piece
+     * @param length2 the length of the second piece
+     * @return the CRC of both
+     */
+    static int combineCrc(int crc1, int crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+
+        // The operator for one zero bit, then two, then four
+        final int[] even = new int[32];
+        final int[] odd = new int[32];
+        odd[0] = 0xedb88320;
+        int row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+
+        // Apply length2 zero bytes to crc1, a power of two at a time
+        long length = length2;
+        int crc = crc1;
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length & 1) != 0) {
+                crc = gf2MatrixTimes(even, crc);
+            }
+            length >>>= 1;
+            if (length == 0) {
+                break;
+            }
+
+            gf2MatrixSquare(odd, even);
+            if ((length & 1) != 0) {
+                crc = gf2MatrixTimes(odd, crc);
+            }
+            length >>>= 1;
+        } while (length != 0);
+
+        return crc ^ crc2;
+    }
+
+    private static int gf2MatrixTimes(int[] matrix, int vector) {
+        int sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(int[] square, int[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package battlecode.server;
+
+import battlecode.common.Team;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Times the phases of running a game, to see where the engine's own time
+ * goes: each phase of a round, each robot's turn, each empower, serializing
+ * each event, and building the final replay.
+ * <p>
+ * Off unless bc.engine.phase-timer is set, in which case the time spent in
+ * each phase is summed up and printed at the end of each game. If
+ * bc.engine.phase-timer-csv names a file, every timed phase is also
+ * written to it, as "phase,round,robots,team,nanos".
+ * <p>
+ * When off, timing a phase costs a read of one static field.
+ */
+public final class PhaseTimer {
+
+    public enum Phase {
+        /** GameWorld.processBeginningOfRound. */
+        BEGIN_ROUND,
+        /** Running every robot's turn, in GameWorld.runRound. */
+        ROBOT_TURNS,
+        /** GameWorld.processEndOfRound, mostly bidding. */
+        END_ROUND,
+        /** One robot's turn, in SandboxedRobotPlayer.step. */
+        ROBOT_STEP,
+        /** One politician's empower, with everything it affects. */
+        EMPOWER,
+        /** Serializing one event, for the file and the client, in GameMaker.createEvent. */
+        SERIALIZE_EVENT,
+        /** Building and gzipping the whole replay, in GameMaker.toBytes. */
+        WRITE_REPLAY
+    }
+
+    private static volatile boolean enabled = false;
+
+    private static Writer csv;
+
+    private static final Map<Phase, long[]> totals = new EnumMap<>(Phase.class);
+
+    private PhaseTimer() {}
+
+    /**
+     * Turn the timer on or off as configured. Closes any CSV file the
+     * timer was writing to before.
+     *
+     * @param config the config to read
+     */
+    public static synchronized void configure(Config config) {
+        close();
+        totals.clear();
+        enabled = config.getBoolean("bc.engine.phase-timer");
+        final String csvPath = config.get("bc.engine.phase-timer-csv");
+        if (enabled && csvPath != null && !csvPath.isEmpty()) {
+            try {
+                csv = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(csvPath), StandardCharsets.UTF_8));
+                csv.write("phase,round,robots,team,nanos\n");
+            } catch (IOException e) {
+                ErrorReporter.report(e, "Can't write phase timings to " + csvPath + ".", false);
+                csv = null;
+            }
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the time to pass to end, or 0 if the timer's off
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record that a phase has ended.
+     *
+     * @param phase the phase
+     * @param start what start returned when the phase started
+     * @param round the round the phase was in, or -1 if none
+     * @param robots the number of robots involved
+     * @param team the team involved, or null for both
+     */
+    public static void end(Phase phase, long start, int round, int robots, Team team) {
+        if (!enabled) {
+            return;
+        }
+        record(phase, System.nanoTime() - start, round, robots, team);
+    }
+
+    private static synchronized void record(Phase phase, long nanos, int round, int robots, Team team) {
+        long[] total = totals.get(phase);
+        if (total == null) {
+            // count, total nanos, max nanos
+            total = new long[3];
+            totals.put(phase, total);
+        }
+        total[0]++;
+        total[1] += nanos;
+        total[2] = Math.max(total[2], nanos);
+
+        if (csv != null) {
+            try {
+                csv.write(phase + "," + round + "," + robots + "," + (team == null ? "" : team) + "," + nanos + "\n");
+            } catch (IOException e) {
+                ErrorReporter.report(e, "Can't write phase timings; no longer writing them.", false);
+                close();
+            }
+        }
+    }
+
+    /**
+     * Print the time spent in each phase since the last summary, and flush
+     * the CSV file.
+     */
+    public static synchronized void printSummary() {
+        if (!enabled) {
+            return;
+        }
+        StringBuilder summary = new StringBuilder("Engine time by phase:");
+        for (Map.Entry<Phase, long[]> entry : totals.entrySet()) {
+            long[] total = entry.getValue();
+            summary.append(String.format("\n  %-16s %10d times, %10.1f ms total, %10.3f ms mean, %10.3f ms max",
+                    entry.getKey(), total[0], total[1] / 1e6, total[1] / 1e6 / total[0], total[2] / 1e6));
+        }
+        Server.say(summary.toString());
+        totals.clear();
+
+        if (csv != null) {
+            try {
+                csv.flush();
+            } catch (IOException e) {
+                ErrorReporter.report(e, "Can't write phase timings; no longer writing them.", false);
+                close();
+            }
+        }
+    }
+
+    private static void close() {
+        if (csv != null) {
+            try {
+                csv.close();
+            } catch (IOException e) {
+                // Nothing more to write to it anyway
+            }
+            csv = null;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package battlecode.server;
+
+import battlecode.common.Team;
+import battlecode.util.TeamMapping;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+/**
+ * Keeps the indicators and logs each team puts in a match's replay within
+ * a budget of bytes, so that replays stay a predictable size however much
+ * players draw and print.
+ * <p>
+ * Indicators degrade in steps. Until a team has used half of its indicator
+ * budget, all of its indicators are kept. After that, each robot's
+ * indicators are only kept every SAMPLE_INTERVAL rounds (different robots
+ * in different rounds), and only the first few dots and lines a robot sets
+ * in a round. Once the budget is used up, they're all dropped. Logs are
+ * kept until the team's log budget is used up, and then cut off after the
+ * last whole line that fits.
+ * <p>
+ * What was dropped is counted by team and by round, for the Round, and
+ * for the whole match.
+ */
+final class ReplayBudget {
+
+    /**
+     * The bytes an indicator dot or line takes in a Round: an ID, one or
+     * two locations, and a color.
+     */
+    static final int DOT_BYTES = 4 + 2 * 4 + 3 * 4;
+    static final int LINE_BYTES = 4 + 4 * 4 + 3 * 4;
+
+    /**
+     * How many rounds apart each robot's indicators are kept once a team
+     * has used half its indicator budget.
+     */
+    static final int SAMPLE_INTERVAL = 4;
+
+    private final long indicatorBudget;
+    private final long logBudget;
+    private final int indicatorsPerRobot;
+
+    // By team ID, for the match
+    private final long[] indicatorBytes = new long[3];
+    private final long[] logBytes = new long[3];
+    private final long[] droppedIndicators = new long[3];
+    private final long[] droppedLogBytes = new long[3];
+
+    // By team ID, for the round
+    private final int[] roundDroppedIndicators = new int[3];
+    private final int[] roundDroppedLogBytes = new int[3];
+
+    // The dots and lines each robot has set this round
+    private final TIntIntHashMap robotDots = new TIntIntHashMap();
+    private final TIntIntHashMap robotLines = new TIntIntHashMap();
+
+    private int round;
+
+    /**
+     * @param indicatorBudget the bytes of indicators each team can have in a match, or -1 for no limit
+     * @param logBudget the bytes of logs each team can have in a match, or -1 for no limit
+     * @param indicatorsPerRobot the dots, and the lines, a robot can set in a round once its
+     *                           team has used half its indicator budget
+     */
+    ReplayBudget(long indicatorBudget, long logBudget, int indicatorsPerRobot) {
+        this.indicatorBudget = indicatorBudget;
+        this.logBudget = logBudget;
+        this.indicatorsPerRobot = indicatorsPerRobot;
+    }
+
+    /**
+     * @return whether there's a budget for indicators or logs at all
+     */
+    boolean isLimited() {
+        return indicatorBudget >= 0 || logBudget >= 0;
+    }
+
+    /**
+     * Start a match, with all of its budget.
+     */
+    void startMatch() {
+        for (int i = 0; i < 3; i++) {
+            indicatorBytes[i] = 0;
+            logBytes[i] = 0;
+            droppedIndicators[i] = 0;
+            droppedLogBytes[i] = 0;
+        }
+        startRound(1);
+    }
+
+    /**
+     * @param round the round that's about to be played
+     */
+    void startRound(int round) {
+        this.round = round;
+        for (int i = 0; i < 3; i++) {
+            roundDroppedIndicators[i] = 0;
+            roundDroppedLogBytes[i] = 0;
+        }
+        robotDots.clear();
+        robotLines.clear();
+    }
+
+    /**
+     * @param team the team of the robot setting the dot
+     * @param id the robot's ID
+     * @return whether to keep the dot
+     */
+    boolean addDot(Team team, int id) {
+        return addIndicator(team, id, robotDots, DOT_BYTES);
+    }
+
+    /**
+     * @param team the team of the robot setting the line
+     * @param id the robot's ID
+     * @return whether to keep the line
+     */
+    boolean addLine(Team team, int id) {
+        return addIndicator(team, id, robotLines, LINE_BYTES);
+    }
+
+    private boolean addIndicator(Team team, int id, TIntIntHashMap perRobot, int bytes) {
+        final int t = TeamMapping.id(team);
+        boolean keep = true;
+        if (indicatorBudget >= 0) {
+            final long used = indicatorBytes[t];
+            if (used + bytes > indicatorBudget) {
+                keep = false;
+            } else if (used >= indicatorBudget / 2) {
+                keep = Math.floorMod(round + id, SAMPLE_INTERVAL) == 0
+                        && perRobot.adjustOrPutValue(id, 1, 1) <= indicatorsPerRobot;
+            }
+        }
+
+        if (keep) {
+            indicatorBytes[t] += bytes;
+        } else {
+            droppedIndicators[t]++;
+            roundDroppedIndicators[t]++;
+        }
+        return keep;
+    }
+
+    /**
+     * Once some of a team's logs don't fit, the rest of them are dropped, so
+     * the replay doesn't have gaps.
+     *
+     * @param team the team whose robot is printing
+     * @param b the bytes it's printing
+     * @param off where they start in b
+     * @param len how many there are
+     * @return how many of them to keep, from the start
+     */
+    int addLog(Team team, byte[] b, int off, int len) {
+        final int t = TeamMapping.id(team);
+        int keep = len;
+        if (logBudget >= 0 && droppedLogBytes[t] > 0) {
+            keep = 0;
+        } else if (logBudget >= 0 && len > logBudget - logBytes[t]) {
+            // Only keep whole lines, so the client never sees half a line or half a character
+            keep = (int) Math.max(0, logBudget - logBytes[t]);
+            while (keep > 0 && b[off + keep - 1] != '\n') {
+                keep--;
+            }
+        }
+
+        logBytes[t] += keep;
+        droppedLogBytes[t] += len - keep;
+        roundDroppedLogBytes[t] += len - keep;
+        return keep;
+    }
+
+    /**
+     * @return the bytes of indicators a team has in the match's replay
+     */
+    long getIndicatorBytes(Team team) {
+        return indicatorBytes[TeamMapping.id(team)];
+    }
+
+    /**
+     * @return the bytes of logs a team has in the match's replay
+     */
+    long getLogBytes(Team team) {
+        return logBytes[TeamMapping.id(team)];
+    }
+
+    /**
+     * @return the dots and lines of a team's that were dropped in the match
+     */
+    long getDroppedIndicators(Team team) {
+        return droppedIndicators[TeamMapping.id(team)];
+    }
+
+    /**
+     * @return the bytes of a team's logs dropped in the match
+     */
+    long getDroppedLogBytes(Team team) {
+        return droppedLogBytes[TeamMapping.id(team)];
+    }
+
+    /**
+     * @return the dots and lines of a team's that were dropped this round
+     */
+    int getRoundDroppedIndicators(byte teamID) {
+        return roundDroppedIndicators[teamID];
+    }
+
+    /**
+     * @return the bytes of a team's logs dropped this round
+     */
+    int getRoundDroppedLogBytes(byte teamID) {
+        return roundDroppedLogBytes[teamID];
+    }
+}
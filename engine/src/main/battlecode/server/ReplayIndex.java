@@ -0,0 +1,72 @@
+package battlecode.server;
+
+import java.util.Arrays;
+
+/**
+ * The format of the index written next to a replay (see ReplaySpool), so
+ * that readers can jump straight to some round without inflating
+ * everything before it. It's little-endian binary:
+ * <pre>
+ * "BC21IDX2"
+ * long replayLength, int replayCrc
+ * int blockCount, int eventCount
+ * blockCount times:
+ *     long compressedStart, int compressedLength, long rawStart, int rawLength
+ * eventCount times:
+ *     int match, int round, int block, int offset
+ * </pre>
+ * replayLength is the length of the replay file, and replayCrc the CRC in
+ * its gzip trailer, so that readers can tell an index from some other
+ * replay. compressedStart is where the block starts in the replay file, as raw
+ * deflate; rawStart is where its contents start in the uncompressed
+ * replay. Block 0 holds just the GameWrapper, at offset 0. match is the
+ * index of the event's match, or -1 if it's not in one; round is the
+ * round a Round or Keyframe event is for, or -1; and offset is where the event's
+ * EventWrapper is in its block's contents.
+ */
+public final class ReplayIndex {
+
+    private static final byte[] MAGIC = {'B', 'C', '2', '1', 'I', 'D', 'X', '2'};
+
+    /**
+     * The size of everything before the blocks: magic, replayLength,
+     * replayCrc, blockCount and eventCount.
+     */
+    public static final int HEADER_BYTES = MAGIC.length + 8 + 4 + 4 + 4;
+
+    /**
+     * The size of each block's record.
+     */
+    public static final int BLOCK_BYTES = 8 + 4 + 8 + 4;
+
+    /**
+     * The size of each event's record.
+     */
+    public static final int EVENT_BYTES = 4 * 4;
+
+    private ReplayIndex() {}
+
+    /**
+     * @return the bytes every index starts with
+     */
+    public static byte[] magic() {
+        return MAGIC.clone();
+    }
+
+    /**
+     * @param magic the first bytes of a file
+     * @return whether they're the ones an index starts with
+     */
+    public static boolean isMagic(byte[] magic) {
+        return Arrays.equals(magic, MAGIC);
+    }
+
+    /**
+     * @param blockCount how many blocks the replay has
+     * @param eventCount how many events the replay has
+     * @return how long the replay's index is
+     */
+    public static long size(int blockCount, int eventCount) {
+        return HEADER_BYTES + (long) BLOCK_BYTES * blockCount + (long) EVENT_BYTES * eventCount;
+    }
+}
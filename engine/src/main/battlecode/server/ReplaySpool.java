@@ -0,0 +1,380 @@
+package battlecode.server;
+
+import battlecode.schema.GameWrapper;
+import com.google.flatbuffers.FlatBufferBuilder;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+/**
+ * Keeps a game's events on disk as they're made, instead of in one big
+ * FlatBufferBuilder, so writing a replay takes the same memory however
+ * long the game is.
+ * <p>
+ * Each event is a separately finished flatbuffer, padded to a multiple of
+ * 8 bytes. A replay is a GameWrapper header followed by the events as
+ * they are: the header's events vector points into them. Flatbuffer
+ * offsets only point forwards, so the header (which has to come first)
+ * can only be made once every event has been, but it's small; and
+ * relative offsets inside each event still hold wherever it ends up, as
+ * long as its alignment is kept.
+ * <p>
+ * Events are gathered into blocks of about blockBytes, which are
+ * compressed on a few threads while the game goes on (see ParallelGzip),
+ * and spooled compressed. Writing the replay out then only has to
+ * compress the header and copy the blocks. Blocks only ever end between
+ * events.
+ * <p>
+ * Since each block can be inflated on its own, we can also write an index
+ * of where each block and event ends up, for readers that want to jump
+ * straight to some round without inflating everything before it. See
+ * ReplayIndex for its format.
+ */
+final class ReplaySpool implements Closeable {
+
+    private static final int ALIGNMENT = 8;
+
+    /**
+     * The most blocks we let wait to be compressed before making the game
+     * wait for them, per thread.
+     */
+    private static final int MAX_PENDING_PER_THREAD = 2;
+
+    private final Path file;
+
+    private final FileChannel channel;
+
+    private final int blockBytes;
+
+    /**
+     * Compresses blocks; null to compress them on the thread making events.
+     */
+    private final ExecutorService compressor;
+
+    private final int maxPending;
+
+    /**
+     * The block being filled, and how much of it is.
+     */
+    private byte[] block;
+    private int blockSize = 0;
+
+    /**
+     * Blocks being compressed, in order.
+     */
+    private final ArrayDeque<Future<ParallelGzip.Block>> pending = new ArrayDeque<>();
+
+    /**
+     * The number of (uncompressed) bytes spooled so far, including the
+     * block being filled.
+     */
+    private long size = 0;
+
+    /**
+     * The number of compressed bytes written to the file so far.
+     */
+    private long compressedSize = 0;
+
+    /**
+     * The CRC of the blocks written to the file so far.
+     */
+    private int crc = 0;
+
+    /**
+     * The position of each event's EventWrapper table in the spooled bytes.
+     */
+    private final TIntArrayList tables = new TIntArrayList();
+
+    /**
+     * For the index: the match and round of each event, and the block it's
+     * in (not counting the header's) and its table's offset in the block.
+     */
+    private final TIntArrayList eventMatches = new TIntArrayList();
+    private final TIntArrayList eventRounds = new TIntArrayList();
+    private final TIntArrayList eventBlocks = new TIntArrayList();
+    private final TIntArrayList eventOffsets = new TIntArrayList();
+
+    /**
+     * For each block written to the file: where it starts in the spooled
+     * bytes, and where it starts in the file.
+     */
+    private final TLongArrayList blockStarts = new TLongArrayList();
+    private final TLongArrayList blockFileStarts = new TLongArrayList();
+
+    /**
+     * The sizes of the header in the last replay written, uncompressed and
+     * compressed; -1 if none has been.
+     */
+    private int headerSize = -1;
+    private int compressedHeaderSize = -1;
+
+    /**
+     * The length of the last replay written, and the CRC in its trailer.
+     */
+    private long replayLength;
+    private int replayCrc;
+
+    /**
+     * Spool to a new temporary file, deleted on close.
+     *
+     * @param blockBytes roughly how many bytes of events to compress together
+     * @param threads how many threads to compress on; 0 to compress on the
+     *                thread that makes the events
+     * @throws IOException if the file can't be made
+     */
+    ReplaySpool(int blockBytes, int threads) throws IOException {
+        if (blockBytes <= 0) {
+            throw new IllegalArgumentException("Block size must be positive, not " + blockBytes);
+        }
+        this.blockBytes = blockBytes;
+        this.block = new byte[blockBytes];
+        if (threads > 0) {
+            this.compressor = Executors.newFixedThreadPool(threads, runnable -> {
+                final Thread thread = new Thread(runnable, "replay-compressor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.compressor = null;
+        }
+        this.maxPending = Math.max(1, threads * MAX_PENDING_PER_THREAD);
+
+        this.file = Files.createTempFile("battlecode-replay", ".spool");
+        this.file.toFile().deleteOnExit();
+        this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * @return the number of events spooled
+     */
+    int getEventCount() {
+        return tables.size();
+    }
+
+    /**
+     * Spool an event.
+     *
+     * @param finishedEvent a finished flatbuffer with an EventWrapper as its
+     *                      root, from its position to its limit; not changed
+     * @param match the index of the event's match, or -1
+     * @param round the round of a Round or Keyframe event, or -1
+     * @throws IOException if writing fails
+     */
+    void append(ByteBuffer finishedEvent, int match, int round) throws IOException {
+        final ByteBuffer event = finishedEvent.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final int length = event.remaining();
+        final int padded = (length + ALIGNMENT - 1) & -ALIGNMENT;
+        if (size + padded > Integer.MAX_VALUE) {
+            throw new IOException("Replay is too large for a flatbuffer");
+        }
+        final int table = event.getInt(event.position());
+        tables.add((int) size + table);
+        eventMatches.add(match);
+        eventRounds.add(round);
+        eventBlocks.add(blockStarts.size());
+        eventOffsets.add(blockSize + table);
+
+        if (blockSize + padded > block.length) {
+            // Only an event bigger than a whole block gets here with an empty one
+            block = Arrays.copyOf(block, Math.max(block.length * 2, blockSize + padded));
+        }
+        event.get(block, blockSize, length);
+        Arrays.fill(block, blockSize + length, blockSize + padded, (byte) 0);
+        blockSize += padded;
+        size += padded;
+
+        if (blockSize >= blockBytes) {
+            endBlock();
+        }
+    }
+
+    /**
+     * Start a new block with the next event, so it can be read without
+     * inflating anything before it.
+     *
+     * @throws IOException if writing fails
+     */
+    void breakBlock() throws IOException {
+        endBlock();
+    }
+
+    /**
+     * Send the block being filled off to be compressed, if there's anything in it.
+     */
+    private void endBlock() throws IOException {
+        if (blockSize == 0) {
+            return;
+        }
+
+        final byte[] raw = block;
+        final int rawSize = blockSize;
+        blockStarts.add(size - rawSize);
+        block = new byte[blockBytes];
+        blockSize = 0;
+
+        if (compressor == null) {
+            writeBlock(ParallelGzip.compress(raw, rawSize));
+            return;
+        }
+
+        pending.add(compressor.submit(() -> ParallelGzip.compress(raw, rawSize)));
+        // Write whatever's done, and wait if too much isn't
+        while (!pending.isEmpty() && (pending.peek().isDone() || pending.size() > maxPending)) {
+            writeBlock(await(pending.remove()));
+        }
+    }
+
+    private void writeBlock(ParallelGzip.Block compressed) throws IOException {
+        blockFileStarts.add(compressedSize);
+        final ByteBuffer data = ByteBuffer.wrap(compressed.compressed);
+        while (data.hasRemaining()) {
+            compressedSize += channel.write(data, compressedSize);
+        }
+        crc = ParallelGzip.combineCrc(crc, compressed.crc, compressed.rawLength);
+    }
+
+    private static ParallelGzip.Block await(Future<ParallelGzip.Block> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing replay");
+        } catch (ExecutionException e) {
+            throw new IOException("Can't compress replay", e.getCause());
+        }
+    }
+
+    /**
+     * Write out the whole replay, gzipped. Events may still be spooled
+     * afterwards.
+     *
+     * @param out where to write it
+     * @param matchHeaders the indices of the match headers among the events
+     * @param matchFooters the indices of the match footers among the events
+     * @throws IOException if reading the spool or writing out does
+     */
+    void writeReplay(OutputStream out, int[] matchHeaders, int[] matchFooters) throws IOException {
+        endBlock();
+        while (!pending.isEmpty()) {
+            writeBlock(await(pending.remove()));
+        }
+
+        final byte[] header = makeHeader(matchHeaders, matchFooters);
+        final ParallelGzip.Block compressedHeader = ParallelGzip.compress(header, header.length);
+
+        out.write(ParallelGzip.HEADER);
+        out.write(compressedHeader.compressed);
+        final WritableByteChannel outChannel = Channels.newChannel(out);
+        long position = 0;
+        while (position < compressedSize) {
+            position += channel.transferTo(position, compressedSize - position, outChannel);
+        }
+        final int replayCrc = ParallelGzip.combineCrc(compressedHeader.crc, crc, size);
+        ParallelGzip.finish(out, replayCrc, header.length + size);
+        out.flush();
+
+        headerSize = header.length;
+        compressedHeaderSize = compressedHeader.compressed.length;
+        this.replayCrc = replayCrc;
+        replayLength = ParallelGzip.HEADER.length + compressedHeaderSize + compressedSize + ParallelGzip.TRAILER_LENGTH;
+    }
+
+    /**
+     * Write the index of the replay last written by writeReplay, if no
+     * events have been spooled since.
+     *
+     * @param out where to write it
+     * @throws IOException if out does
+     */
+    void writeIndex(OutputStream out) throws IOException {
+        if (headerSize < 0 || blockSize != 0) {
+            throw new IllegalStateException("Can only index the replay just written");
+        }
+
+        final int blockCount = blockStarts.size() + 1;
+        final int eventCount = tables.size();
+        final ByteBuffer index = ByteBuffer.allocate((int) ReplayIndex.size(blockCount, eventCount))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        index.put(ReplayIndex.magic());
+        index.putLong(replayLength);
+        index.putInt(replayCrc);
+        index.putInt(blockCount);
+        index.putInt(eventCount);
+
+        final long firstBlock = ParallelGzip.HEADER.length + compressedHeaderSize;
+        index.putLong(ParallelGzip.HEADER.length).putInt(compressedHeaderSize).putLong(0).putInt(headerSize);
+        for (int i = 0; i < blockStarts.size(); i++) {
+            final boolean last = i == blockStarts.size() - 1;
+            index.putLong(firstBlock + blockFileStarts.get(i));
+            index.putInt((int) ((last ? compressedSize : blockFileStarts.get(i + 1)) - blockFileStarts.get(i)));
+            index.putLong(headerSize + blockStarts.get(i));
+            index.putInt((int) ((last ? size : blockStarts.get(i + 1)) - blockStarts.get(i)));
+        }
+
+        for (int i = 0; i < eventCount; i++) {
+            index.putInt(eventMatches.get(i));
+            index.putInt(eventRounds.get(i));
+            index.putInt(eventBlocks.get(i) + 1);
+            index.putInt(eventOffsets.get(i));
+        }
+
+        out.write(index.array());
+        out.flush();
+    }
+
+    /**
+     * Make the GameWrapper that goes in front of the spooled events.
+     */
+    private byte[] makeHeader(int[] matchHeaders, int[] matchFooters) throws IOException {
+        final FlatBufferBuilder builder = new FlatBufferBuilder(1024 + 4 * tables.size());
+
+        // The events vector is filled in once we know where it and the
+        // events end up; offsets in it are relative to where they're stored
+        GameWrapper.startEventsVector(builder, tables.size());
+        for (int i = 0; i < tables.size(); i++) {
+            builder.addInt(0);
+        }
+        final int events = builder.endVector();
+        final int headers = GameWrapper.createMatchHeadersVector(builder, matchHeaders);
+        final int footers = GameWrapper.createMatchFootersVector(builder, matchFooters);
+        builder.finish(GameWrapper.createGameWrapper(builder, events, headers, footers));
+
+        final byte[] finished = builder.sizedByteArray();
+        final int headerSize = (finished.length + ALIGNMENT - 1) & -ALIGNMENT;
+        if ((long) headerSize + size > Integer.MAX_VALUE) {
+            throw new IOException("Replay is too large for a flatbuffer");
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(finished);
+        // Offsets from the builder count back from the end of what it built
+        final int vectorStart = finished.length - events + 4;
+        for (int i = 0; i < tables.size(); i++) {
+            final int element = vectorStart + 4 * i;
+            header.putInt(element, headerSize + tables.get(i) - element);
+        }
+        return header.array();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (compressor != null) {
+            compressor.shutdownNow();
+        }
+        pending.clear();
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+}
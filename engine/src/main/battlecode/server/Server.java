@@ -116,6 +116,8 @@ public strictfp class Server implements Runnable {
      * matches.
      */
     public void run() {
+        PhaseTimer.configure(options);
+
         final NetServer netServer;
         if (options.getBoolean("bc.server.websocket")) {
             netServer = new NetServer(options.getInt("bc.server.port"),
@@ -147,51 +149,57 @@ public strictfp class Server implements Runnable {
             }
 
             GameMaker gameMaker = new GameMaker(currentGame, netServer, options.getBoolean("bc.engine.show-indicators"));
-            gameMaker.makeGameHeader();
+            try {
+                gameMaker.makeGameHeader();
 
-            debug("Running: "+currentGame);
+                debug("Running: "+currentGame);
 
-            // Set up our control provider
-            final boolean profilingEnabled = options.getBoolean("bc.engine.enable-profiler");
-            final RobotControlProvider prov = createControlProvider(currentGame, gameMaker, profilingEnabled);
+                // Set up our control provider
+                final boolean profilingEnabled = options.getBoolean("bc.engine.enable-profiler");
+                final RobotControlProvider prov = createControlProvider(currentGame, gameMaker, profilingEnabled);
 
-            // Count wins
-            int aWins = 0, bWins = 0;
+                // Count wins
+                int aWins = 0, bWins = 0;
 
-            // Loop through the maps in the current game
-            for (int matchIndex = 0; matchIndex < currentGame.getMaps().length; matchIndex++) {
+                // Loop through the maps in the current game
+                for (int matchIndex = 0; matchIndex < currentGame.getMaps().length; matchIndex++) {
 
-                Team winner;
-                try {
-                    winner = runMatch(currentGame, matchIndex, prov, gameMaker);
-                } catch (Exception e) {
-                    ErrorReporter.report(e);
-                    this.state = ServerState.ERROR;
-                    return;
-                }
+                    Team winner;
+                    try {
+                        winner = runMatch(currentGame, matchIndex, prov, gameMaker);
+                    } catch (Exception e) {
+                        ErrorReporter.report(e);
+                        this.state = ServerState.ERROR;
+                        return;
+                    }
 
-                switch (winner) {
-                    case A:
-                        aWins++;
-                        break;
-                    case B:
-                        bWins++;
-                        break;
-                    default:
-                        warn("Team "+winner+" won???");
-                }
+                    switch (winner) {
+                        case A:
+                            aWins++;
+                            break;
+                        case B:
+                            bWins++;
+                            break;
+                        default:
+                            warn("Team "+winner+" won???");
+                    }
 
-                currentWorld = null;
+                    currentWorld = null;
 
-                if (currentGame.isBestOfThree()) {
-                    if (aWins == 2 || bWins == 2) {
-                        break;
+                    if (currentGame.isBestOfThree()) {
+                        if (aWins == 2 || bWins == 2) {
+                            break;
+                        }
                     }
                 }
+                Team winner = aWins >= bWins ? Team.A : Team.B;
+                gameMaker.makeGameFooter(winner);
+                gameMaker.writeGame(currentGame.getSaveFile());
+                PhaseTimer.printSummary();
+            } finally {
+                // Throws away the spooled replay if the game wasn't written
+                gameMaker.close();
             }
-            Team winner = aWins >= bWins ? Team.A : Team.B;
-            gameMaker.makeGameFooter(winner);
-            gameMaker.writeGame(currentGame.getSaveFile());
         }
     }
 
@@ -295,7 +303,9 @@ public strictfp class Server implements Runnable {
                     Team.A,
                     game.getTeamAPackage(),
                     game.getTeamAURL(),
-                    gameMaker.getMatchMaker().getOut(),
+                    options.get("bc.game.team-a.instrumented-url"),
+                    options.get("bc.game.team-a.instrumented-sha256"),
+                    gameMaker.getMatchMaker().getOut(Team.A),
                     profilingEnabled
                 )
         );
@@ -305,7 +315,9 @@ public strictfp class Server implements Runnable {
                     Team.B,
                     game.getTeamBPackage(),
                     game.getTeamBURL(),
-                    gameMaker.getMatchMaker().getOut(),
+                    options.get("bc.game.team-b.instrumented-url"),
+                    options.get("bc.game.team-b.instrumented-sha256"),
+                    gameMaker.getMatchMaker().getOut(Team.B),
                     profilingEnabled
                 )
         );
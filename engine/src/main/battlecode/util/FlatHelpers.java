@@ -1,6 +1,7 @@
 package battlecode.util;
 
 import battlecode.common.RobotType;
+import battlecode.schema.Action;
 import battlecode.schema.BodyType;
 import battlecode.schema.VecTable;
 import battlecode.schema.RGBTable;
@@ -12,6 +13,7 @@ import gnu.trove.list.TIntList;
 import gnu.trove.list.TCharList;
 import gnu.trove.list.array.TByteArrayList;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.function.ObjIntConsumer;
 
@@ -154,4 +156,61 @@ public class FlatHelpers {
         int blueP = RGBTable.createGreenVector(builder, blue.toArray());
         return RGBTable.createRGBTable(builder, redP, greenP, blueP);
     }
+
+    /**
+     * Add an int to a list of bytes as a varint (unsigned LEB128), as in
+     * RoundEncoding.COMPACT.
+     */
+    public static void addVarint(TByteList out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.add((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.add((byte) value);
+    }
+
+    /**
+     * Add an int to a list of bytes as a zigzag varint, as in
+     * RoundEncoding.COMPACT.
+     */
+    public static void addZigzagVarint(TByteList out, int value) {
+        addVarint(out, (value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * @return whether an Action's target is a body, rather than a value
+     */
+    public static boolean isBodyTarget(byte action) {
+        switch (action) {
+            case Action.EMBEZZLE:
+            case Action.EXPOSE:
+            case Action.SPAWN_UNIT:
+            case Action.CHANGE_TEAM:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Read a varint from a buffer, moving its position past it.
+     */
+    public static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Read a zigzag varint from a buffer, moving its position past it.
+     */
+    public static int readZigzagVarint(ByteBuffer in) {
+        final int value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
 }
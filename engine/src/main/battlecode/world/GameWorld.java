@@ -6,6 +6,7 @@ import battlecode.schema.Action;
 import battlecode.server.ErrorReporter;
 import battlecode.server.GameMaker;
 import battlecode.server.GameState;
+import battlecode.server.PhaseTimer;
 import battlecode.world.control.RobotControlProvider;
 
 import java.util.*;
@@ -96,13 +97,17 @@ public strictfp class GameWorld {
         }
 
         try {
+            long start = PhaseTimer.start();
             this.processBeginningOfRound();
             this.controlProvider.roundStarted();
+            start = endPhase(PhaseTimer.Phase.BEGIN_ROUND, start);
 
             updateDynamicBodies();
+            start = endPhase(PhaseTimer.Phase.ROBOT_TURNS, start);
 
             this.controlProvider.roundEnded();
             this.processEndOfRound();
+            endPhase(PhaseTimer.Phase.END_ROUND, start);
 
             if (!this.isRunning()) {
                 this.controlProvider.matchEnded();
@@ -115,9 +120,24 @@ public strictfp class GameWorld {
         }
         // Write out round data
         matchMaker.makeRound(currentRound);
+        if (matchMaker.isKeyframeRound(currentRound)) {
+            matchMaker.makeKeyframe(currentRound, objectInfo.robotsArray());
+        }
         return GameState.RUNNING;
     }
 
+    /**
+     * @return when the next phase starts
+     */
+    private long endPhase(PhaseTimer.Phase phase, long start) {
+        if (!PhaseTimer.isEnabled()) {
+            return 0;
+        }
+        PhaseTimer.end(phase, start, currentRound,
+                objectInfo.getRobotCount(Team.A) + objectInfo.getRobotCount(Team.B), null);
+        return PhaseTimer.start();
+    }
+
     private void updateDynamicBodies(){
         objectInfo.eachDynamicBodyByExecOrder((body) -> {
             if (body instanceof InternalRobot) {
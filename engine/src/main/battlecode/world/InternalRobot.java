@@ -3,6 +3,7 @@ package battlecode.world;
 import java.util.ArrayList;
 import battlecode.common.*;
 import battlecode.schema.Action;
+import battlecode.server.PhaseTimer;
 
 /**
  * The representation of a robot used by the server.
@@ -360,7 +361,13 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
      * @param radiusSquared the empower range
      */
     public void empower(int radiusSquared) {
+        final long start = PhaseTimer.start();
         InternalRobot[] robots = gameWorld.getAllRobotsWithinRadiusSquared(this.location, radiusSquared);
+        empower(robots);
+        PhaseTimer.end(PhaseTimer.Phase.EMPOWER, start, gameWorld.getCurrentRound(), robots.length - 1, this.team);
+    }
+
+    private void empower(InternalRobot[] robots) {
         int numBots = robots.length - 1; // excluding self
         if (numBots == 0)
             return;
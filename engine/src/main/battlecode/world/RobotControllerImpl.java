@@ -657,14 +657,14 @@ public final strictfp class RobotControllerImpl implements RobotController {
     @Override
     public void setIndicatorDot(MapLocation loc, int red, int green, int blue) {
         assertNotNull(loc);
-        gameWorld.getMatchMaker().addIndicatorDot(getID(), loc, red, green, blue);
+        gameWorld.getMatchMaker().addIndicatorDot(getTeam(), getID(), loc, red, green, blue);
     }
 
     @Override
     public void setIndicatorLine(MapLocation startLoc, MapLocation endLoc, int red, int green, int blue) {
         assertNotNull(startLoc);
         assertNotNull(endLoc);
-        gameWorld.getMatchMaker().addIndicatorLine(getID(), startLoc, endLoc, red, green, blue);
+        gameWorld.getMatchMaker().addIndicatorLine(getTeam(), getID(), startLoc, endLoc, red, green, blue);
     }
 
 }
@@ -6,6 +6,7 @@ import battlecode.instrumenter.TeamClassLoaderFactory;
 import battlecode.instrumenter.SandboxedRobotPlayer;
 import battlecode.instrumenter.profiler.Profiler;
 import battlecode.instrumenter.profiler.ProfilerCollection;
+import battlecode.server.Config;
 import battlecode.server.ErrorReporter;
 import battlecode.world.GameWorld;
 import battlecode.world.InternalRobot;
@@ -84,14 +85,49 @@ public class PlayerControlProvider implements RobotControlProvider {
                                  String teamURL,
                                  OutputStream robotOut,
                                  boolean profilingEnabled) {
+        this(team, teamPackage, teamURL, null, null, robotOut, profilingEnabled);
+    }
+
+    /**
+     * Create a new PlayerControlProvider.
+     *
+     * @param team             the team we're loading
+     * @param teamPackage      the name / package of the team we're loading
+     * @param teamURL          the url of the classes for the team;
+     * @param instrumentedURL  the url of a jar of the team's classes made by
+     *                         InstrumentedJar, to use instead of teamURL; or null
+     * @param instrumentedDigest the digest instrumentedURL must have; without
+     *                         it, instrumentedURL is refused
+     * @param robotOut         the output that robots should write to
+     * @param profilingEnabled whether profiling is enabled or not
+     */
+    public PlayerControlProvider(Team team,
+                                 String teamPackage,
+                                 String teamURL,
+                                 String instrumentedURL,
+                                 String instrumentedDigest,
+                                 OutputStream robotOut,
+                                 boolean profilingEnabled) {
         this.teamPackage = teamPackage;
         this.sandboxes = new HashMap<>(); // GameWorld maintains order for us
-        this.factory = new TeamClassLoaderFactory(teamURL);
+        if (instrumentedURL != null) {
+            this.factory = TeamClassLoaderFactory.fromInstrumentedJar(instrumentedURL, instrumentedDigest);
+        } else {
+            this.factory = new TeamClassLoaderFactory(teamURL);
+        }
         this.robotOut = robotOut;
         this.team = team;
 
         if (profilingEnabled) {
-            profilerCollection = new ProfilerCollection();
+            profilerCollection = ProfilerCollection.fromConfig(Config.getGlobalConfig());
+        }
+
+        // Instrument the whole team now, rather than while the first robots run.
+        if (Config.getGlobalConfig().getBoolean("bc.engine.eager-instrumentation")
+                && !factory.getError() && !factory.isPrebuilt()) {
+            for (InstrumentationException e : factory.precompile(profilingEnabled)) {
+                ErrorReporter.report("Error while instrumenting player " + teamPackage + ": " + e.getMessage(), false);
+            }
         }
     }
 
@@ -105,7 +141,7 @@ public class PlayerControlProvider implements RobotControlProvider {
     public void matchEnded() {
         if (profilerCollection != null) {
             gameWorld.setProfilerCollection(team, profilerCollection);
-            profilerCollection = new ProfilerCollection();
+            profilerCollection = ProfilerCollection.fromConfig(Config.getGlobalConfig());
         }
 
         for (final SandboxedRobotPlayer player : this.sandboxes.values()) {
@@ -122,7 +158,8 @@ public class PlayerControlProvider implements RobotControlProvider {
     public void robotSpawned(InternalRobot robot) {
         try {
             Profiler profiler = null;
-            if (profilerCollection != null && robot.getTeam() == team) {
+            if (profilerCollection != null && robot.getTeam() == team
+                    && profilerCollection.shouldProfile(robot.getType(), gameWorld.getCurrentRound())) {
                 profiler = profilerCollection.createProfiler(robot.getID(), robot.getType());
             }
 
@@ -130,7 +167,7 @@ public class PlayerControlProvider implements RobotControlProvider {
                     teamPackage,
                     robot.getController(),
                     robot.getID(),
-                    factory.createLoader(profiler != null),
+                    factory.createLoader(profilerCollection != null, profiler != null),
                     robotOut,
                     profiler
             );
@@ -160,10 +197,18 @@ public class PlayerControlProvider implements RobotControlProvider {
     }
 
     @Override
-    public void roundStarted() {}
+    public void roundStarted() {
+        if (profilerCollection != null) {
+            profilerCollection.roundStarted(gameWorld.getCurrentRound());
+        }
+    }
 
     @Override
-    public void roundEnded() {}
+    public void roundEnded() {
+        if (profilerCollection != null) {
+            profilerCollection.roundEnded();
+        }
+    }
 
     @Override
     public void runRobot(InternalRobot robot) {
@@ -0,0 +1,53 @@
+package battlecode.instrumenter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CostAnalyzerTest {
+    @Test
+    public void testCosts() throws Exception {
+        String folder = URLUtils.toTempFolder(
+                "instrumentertest/CallsRobotController.class",
+                "instrumentertest/StraightLineCode.class"
+        );
+
+        List<CostAnalyzer.MethodCosts> methods = CostAnalyzer.analyze(folder, 10);
+
+        CostAnalyzer.MethodCosts run = null;
+        for (CostAnalyzer.MethodCosts method : methods) {
+            if (method.className.equals("instrumentertest.CallsRobotController") && method.method.startsWith("run(")) {
+                run = method;
+            }
+        }
+        assertTrue("CallsRobotController.run wasn't analyzed", run != null);
+
+        // canMove and senseNearbyRobots are both worth reporting.
+        assertEquals(2, run.callouts.size());
+        assertEquals("canMove", run.callouts.get(0).method);
+        assertEquals(10, run.callouts.get(0).cost);
+
+        // The loop includes the call to canMove.
+        assertEquals(1, run.loops.size());
+        assertTrue(run.loops.get(0).perIterationCost > 10);
+        assertTrue(run.staticCost >= run.loops.get(0).perIterationCost);
+
+        // Most expensive first.
+        for (int i = 1; i < methods.size(); i++) {
+            assertTrue(methods.get(i - 1).staticCost >= methods.get(i).staticCost);
+        }
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        CostAnalyzer.writeCsv(methods, new PrintStream(csv, true));
+        assertTrue(csv.toString().contains("callout,instrumentertest.CallsRobotController,"));
+
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        CostAnalyzer.writeJson(methods, new PrintStream(json, true));
+        assertTrue(json.toString().contains("\"perIterationCost\": " + run.loops.get(0).perIterationCost));
+    }
+}
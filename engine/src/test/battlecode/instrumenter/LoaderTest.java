@@ -1,19 +1,40 @@
 package battlecode.instrumenter;
 
+import battlecode.common.RobotType;
 import battlecode.instrumenter.profiler.Profiler;
+import battlecode.instrumenter.profiler.ProfilerCollection;
+import battlecode.server.Config;
+import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 
 import static battlecode.instrumenter.InstrumentationException.Type.ILLEGAL;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
 
 /**
  * @author james
@@ -24,6 +45,9 @@ public class LoaderTest {
     private TeamClassLoaderFactory.Loader l1;
     private TeamClassLoaderFactory.Loader l2;
 
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
     @BeforeClass
     public static void writeCache() throws Exception {
         tempClassFolder = URLUtils.toTempFolder(
@@ -44,6 +68,7 @@ public class LoaderTest {
             "instrumentertest/OverridesHashCode.class",
             "instrumentertest/OverridesToString.class",
             "instrumentertest/Reflection.class",
+            "instrumentertest/StraightLineCode.class",
             "instrumentertest/StringFormat.class",
             "instrumentertest/UsesEnumMap.class",
             "instrumentertest/UsesLambda.class",
@@ -324,6 +349,280 @@ public class LoaderTest {
         assertTrue(jarClassLocation.toString().contains(new File(jar).toURI().toURL().toString()));
     }
 
+    @Test
+    public void testPersistentCache() throws Exception {
+        Path cacheDir = temp.newFolder("battlecode-instrument-cache").toPath();
+        InstrumentationCache cache = new InstrumentationCache(cacheDir, Long.MAX_VALUE);
+
+        TeamClassLoaderFactory first = new TeamClassLoaderFactory(tempClassFolder, cache);
+        setupLoader(first).loadClass("instrumentertest.Outer");
+        byte[] instrumented = first.getCached("instrumentertest.Outer");
+
+        long entries;
+        try (Stream<Path> files = Files.walk(cacheDir)) {
+            entries = files.filter(f -> f.toString().endsWith(".class")).count();
+        }
+        assertTrue("Nothing was written to the cache", entries > 0);
+
+        // A fresh factory for the same submission should reuse the cached bytes.
+        TeamClassLoaderFactory second = new TeamClassLoaderFactory(tempClassFolder, cache);
+        setupLoader(second).loadClass("instrumentertest.Outer");
+        assertArrayEquals(instrumented, second.getCached("instrumentertest.Outer"));
+    }
+
+    @Test
+    public void testTeamClassNames() throws Exception {
+        URL nothing = LoaderTest.class.getClassLoader().getResource("instrumentertest/Nothing.class");
+        String jar = URLUtils.toTempJar(
+                new String[] {
+                        "instrumentertest/Nothing.class",
+                        "META-INF/versions/9/instrumentertest/Nothing.class",
+                        "module-info.class",
+                        "instrumentertest/package-info.class"
+                },
+                new URL[] {nothing, nothing, nothing, nothing}
+        );
+
+        TeamClassLoaderFactory factory = new TeamClassLoaderFactory(jar);
+        List<String> expected = new ArrayList<>();
+        expected.add("instrumentertest/Nothing");
+        assertEquals(expected, factory.getTeamClassNames());
+    }
+
+    @Test
+    public void testPrecompile() throws Exception {
+        TeamClassLoaderFactory factory = new TeamClassLoaderFactory(tempClassFolder);
+        List<InstrumentationException> errors = factory.precompile(false);
+
+        assertTrue(factory.hasCached("instrumentertest.Outer"));
+        assertTrue(factory.hasCached("instrumentertest.Outer$Inner"));
+        assertFalse(factory.hasCached("instrumentertest.IllegalMethodReference"));
+        assertFalse(factory.getError());
+
+        // The illegal classes are reported up front.
+        boolean reported = false;
+        for (InstrumentationException e : errors) {
+            assertEquals(ILLEGAL, e.type);
+            reported |= e.getMessage().contains("IllegalMethodReference");
+        }
+        assertTrue("IllegalMethodReference wasn't reported", reported);
+
+        // Precompiled classes work the same as lazily instrumented ones.
+        setupLoader(factory).loadClass("instrumentertest.Outer");
+    }
+
+    @Test
+    public void testInstrumentedJar() throws Exception {
+        String folder = URLUtils.toTempFolder(
+                "instrumentertest/Outer.class",
+                "instrumentertest/Outer$Inner.class"
+        );
+        Path jar = temp.newFile("battlecode-test.jar").toPath();
+
+        TeamClassLoaderFactory original = new TeamClassLoaderFactory(folder, null);
+        String digest = InstrumentedJar.write(original, false, jar);
+
+        TeamClassLoaderFactory prebuilt = TeamClassLoaderFactory.fromInstrumentedJar(jar.toString(), digest);
+        assertFalse(prebuilt.getError());
+        assertTrue(prebuilt.isPrebuilt());
+        assertArrayEquals(original.getCached("instrumentertest.Outer"), prebuilt.getCached("instrumentertest.Outer"));
+        setupLoader(prebuilt).loadClass("instrumentertest.Outer");
+
+        // The classes were instrumented without the profiler.
+        try {
+            prebuilt.createLoader(true);
+            fail("Loaded a jar instrumented without the profiler for a profiled robot");
+        } catch (InstrumentationException e) {
+            assertEquals(ILLEGAL, e.type);
+        }
+
+        // Don't trust a jar that isn't the one we were promised.
+        String wrongDigest = digest.substring(1) + (digest.charAt(0) == '0' ? '1' : '0');
+        assertTrue(TeamClassLoaderFactory.fromInstrumentedJar(jar.toString(), wrongDigest).getError());
+        assertTrue(TeamClassLoaderFactory.fromInstrumentedJar(jar.toString(), null).getError());
+    }
+
+    @Test
+    public void testInstrumentedJarWithRewrittenManifest() throws Exception {
+        String folder = URLUtils.toTempFolder(
+                "instrumentertest/Outer.class",
+                "instrumentertest/Outer$Inner.class"
+        );
+        Path jar = temp.newFile("battlecode-test.jar").toPath();
+        String digest = InstrumentedJar.write(new TeamClassLoaderFactory(folder, null), false, jar);
+
+        // Drop a class, and rewrite the manifest so the jar is consistent with itself.
+        Path forged = temp.newFile("battlecode-forged.jar").toPath();
+        Map<String, byte[]> classes = new HashMap<>();
+        try (JarFile in = new JarFile(jar.toFile());
+             JarOutputStream out = new JarOutputStream(Files.newOutputStream(forged))) {
+            Manifest manifest = in.getManifest();
+            manifest.getEntries().remove("instrumentertest/Outer$Inner.class");
+            for (JarEntry entry : Collections.list(in.entries())) {
+                String name = entry.getName();
+                if (!name.endsWith(".class") || name.equals("instrumentertest/Outer$Inner.class")) {
+                    continue;
+                }
+                byte[] bytes;
+                try (InputStream classIn = in.getInputStream(entry)) {
+                    bytes = IOUtils.toByteArray(classIn);
+                }
+                classes.put(name.substring(0, name.length() - 6).replace('/', '.'), bytes);
+            }
+            String forgedDigest = InstrumentedJar.digest(classes);
+            assertNotEquals(digest, forgedDigest);
+            manifest.getMainAttributes().put(InstrumentedJar.DIGEST, forgedDigest);
+
+            out.putNextEntry(new JarEntry(JarFile.MANIFEST_NAME));
+            manifest.write(out);
+            out.closeEntry();
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                out.putNextEntry(new JarEntry(entry.getKey().replace('.', '/') + ".class"));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+
+        // Without a digest to check against, the forgery can't be told apart; refuse it.
+        assertTrue(TeamClassLoaderFactory.fromInstrumentedJar(forged.toString(), null).getError());
+        assertTrue(TeamClassLoaderFactory.fromInstrumentedJar(forged.toString(), digest).getError());
+    }
+
+    @Test
+    public void testAccountingModesChargeTheSame() throws Exception {
+        final Config config = Config.getGlobalConfig();
+        final boolean oldMerge = config.getBoolean("bc.engine.merge-basic-blocks");
+        final boolean oldInline = config.getBoolean("bc.engine.inline-bytecode-counter");
+
+        try {
+            for (int limit : new int[] {Integer.MAX_VALUE, 7}) {
+                long[] expected = null;
+                int[] callSites = new int[2];
+                for (int mode = 0; mode < 4; mode++) {
+                    boolean merge = (mode & 1) != 0;
+                    boolean inline = (mode & 2) != 0;
+                    config.setBoolean("bc.engine.merge-basic-blocks", merge);
+                    config.setBoolean("bc.engine.inline-bytecode-counter", inline);
+
+                    TeamClassLoaderFactory factory = new TeamClassLoaderFactory(tempClassFolder);
+                    long[] charged = runStraightLineCode(factory, limit);
+                    if (expected == null) {
+                        expected = charged;
+                    } else {
+                        assertArrayEquals("merge=" + merge + ", inline=" + inline + ", limit=" + limit,
+                                expected, charged);
+                    }
+                    int calls = countIncrementBytecodesCalls(factory.getCached("instrumentertest.StraightLineCode"));
+                    if (inline) {
+                        assertEquals(0, calls);
+                    } else {
+                        callSites[mode] = calls;
+                    }
+                }
+                assertTrue("Merging didn't remove any calls", callSites[1] < callSites[0]);
+            }
+        } finally {
+            config.setBoolean("bc.engine.merge-basic-blocks", oldMerge);
+            config.setBoolean("bc.engine.inline-bytecode-counter", oldInline);
+        }
+    }
+
+    /**
+     * @return the result of StraightLineCode.run, the bytecode number it finished
+     *         on, and the bytecode number it was on every time the robot paused
+     */
+    private static long[] runStraightLineCode(TeamClassLoaderFactory factory, int limit) throws Exception {
+        return runStraightLineCode(factory.createLoader(false), limit, null);
+    }
+
+    private static long[] runStraightLineCode(TeamClassLoaderFactory.Loader loader, int limit,
+                                              Profiler profiler) throws Exception {
+        Class<?> monitor = loader.loadClass("battlecode.instrumenter.inject.RobotMonitor");
+        Method getBytecodeNum = monitor.getMethod("getBytecodeNum");
+
+        final List<Long> rounds = new ArrayList<>();
+        SandboxedRobotPlayer.Pauser pauser = () -> {
+            try {
+                rounds.add((long) (Integer) getBytecodeNum.invoke(null));
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException(e);
+            }
+        };
+        SandboxedRobotPlayer.Killer killer = () -> {};
+
+        monitor.getMethod("init",
+                SandboxedRobotPlayer.Pauser.class,
+                SandboxedRobotPlayer.Killer.class,
+                int.class,
+                Profiler.class)
+                .invoke(null, pauser, killer, 0, profiler);
+        monitor.getMethod("setBytecodeLimit", int.class).invoke(null, limit);
+
+        Class<?> c = loader.loadClass("instrumentertest.StraightLineCode");
+        int result = (Integer) c.getMethod("run").invoke(null);
+        rounds.add(0, (long) result);
+        rounds.add(1, (long) (Integer) getBytecodeNum.invoke(null));
+        return rounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static int countIncrementBytecodesCalls(byte[] classBytes) {
+        final int[] count = {0};
+        new ClassReader(classBytes).accept(new ClassVisitor(Opcodes.ASM5) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM5) {
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                        if (name.equals("incrementBytecodes")) {
+                            count[0]++;
+                        }
+                    }
+                };
+            }
+        }, 0);
+        return count[0];
+    }
+
+    @Test
+    public void testProfiledAfterUnprofiled() throws Exception {
+        String folder = URLUtils.toTempFolder("instrumentertest/StraightLineCode.class");
+        TeamClassLoaderFactory factory = new TeamClassLoaderFactory(folder, null);
+        ProfilerCollection collection = new ProfilerCollection();
+
+        // A robot that isn't profiled loads the team's classes first.
+        long[] expected = runStraightLineCode(factory.createLoader(true, false), Integer.MAX_VALUE, null);
+
+        Profiler profiler = collection.createProfiler(2, RobotType.POLITICIAN);
+        long[] profiled = runStraightLineCode(factory.createLoader(true, true), Integer.MAX_VALUE, profiler);
+        assertArrayEquals(expected, profiled);
+        int events = profiler.getEventCount();
+        assertTrue("The profiled robot recorded nothing", events > 0);
+
+        // Prebuilt jars with profiler calls work for both.
+        Path jar = temp.newFile("profiled.jar").toPath();
+        String digest = InstrumentedJar.write(factory, true, jar);
+        TeamClassLoaderFactory prebuilt = TeamClassLoaderFactory.fromInstrumentedJar(jar.toString(), digest);
+        assertArrayEquals(expected,
+                runStraightLineCode(prebuilt.createLoader(true, false), Integer.MAX_VALUE, null));
+        profiler = collection.createProfiler(3, RobotType.POLITICIAN);
+        runStraightLineCode(prebuilt.createLoader(true, true), Integer.MAX_VALUE, profiler);
+        assertEquals(events, profiler.getEventCount());
+    }
+
+    @Test
+    public void testMonitorWithoutProfiler() throws Exception {
+        Class<?> plain = sharedCache.createLoader(false)
+                .loadClass("battlecode.instrumenter.inject.RobotMonitor");
+        Class<?> profiled = sharedCache.createLoader(true)
+                .loadClass("battlecode.instrumenter.inject.RobotMonitor");
+
+        profiled.getDeclaredField("profiler");
+        try {
+            plain.getDeclaredField("profiler");
+            fail("Non-profiling RobotMonitor still has a profiler");
+        } catch (NoSuchFieldException e) {}
+    }
+
     @Test
     public void testOverrideLangClass() throws Exception {
         String folder = URLUtils.toTempFolder(
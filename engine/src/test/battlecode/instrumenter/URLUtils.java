@@ -1,5 +1,6 @@
 package battlecode.instrumenter;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.Ignore;
 
@@ -68,7 +69,8 @@ public class URLUtils {
      */
     public static String toTempFolder(String[] paths, URL[] resources) throws IOException {
         File folder = Files.createTempDirectory("battlecode-test").toFile();
-        folder.deleteOnExit();
+        // deleteOnExit() won't delete a folder that isn't empty
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> FileUtils.deleteQuietly(folder)));
 
         assert paths.length == resources.length;
 
@@ -1,10 +1,17 @@
 package battlecode.instrumenter;
 
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.Ignore;
+import org.junit.rules.TemporaryFolder;
 
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -12,6 +19,9 @@ import static org.junit.Assert.assertTrue;
  * @author james
  */
 public class VerifierTest {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
     @Ignore
     @Test
     public void verifyGood() throws Exception {
@@ -61,4 +71,46 @@ public class VerifierTest {
 
         assertFalse("Should fail to verify", Verifier.verify("testplayeractions", jar));
     }
+
+    @Test
+    public void verifyBatch() throws Exception {
+        String good = URLUtils.toTempFolder("testplayerempty/RobotPlayer.class");
+        String bad = URLUtils.toTempFolder(
+                "instrumentertest/IllegalMethodReference.class",
+                "instrumentertest/Outer.class",
+                "instrumentertest/Outer$Inner.class"
+        );
+
+        Path manifest = temp.newFile("manifest.txt").toPath();
+        Files.write(manifest, Arrays.asList(
+                "# team url",
+                "testplayerempty " + good,
+                "",
+                "instrumentertest " + bad
+        ), StandardCharsets.UTF_8);
+        Path reportDir = temp.newFolder("reports").toPath();
+
+        assertFalse("Should fail to verify", Verifier.verifyBatch(manifest, reportDir));
+
+        String goodReport = new String(Files.readAllBytes(reportDir.resolve("testplayerempty.json")),
+                StandardCharsets.UTF_8);
+        assertTrue(goodReport, goodReport.contains("\"passed\": true"));
+        assertTrue(goodReport, goodReport.contains("\"accountingPoints\": "));
+        assertTrue(goodReport, goodReport.contains("\"classReferences\": {\"hits\": "));
+
+        String badReport = new String(Files.readAllBytes(reportDir.resolve("instrumentertest.json")),
+                StandardCharsets.UTF_8);
+        assertTrue(badReport, badReport.contains("\"passed\": false"));
+        assertTrue(badReport, badReport.contains("IllegalMethodReference"));
+
+        Verifier.SubmissionReport report = Verifier.verifySubmission("instrumentertest", bad);
+        assertEquals(1, report.errors.size()); // no RobotPlayer
+        assertEquals(3, report.classes.size());
+        assertTrue(report.classes.get(0).disallowed);
+        assertEquals(null, report.classes.get(1).error);
+        assertTrue(report.classes.get(1).accountingPoints > 0);
+        // Outer and Outer$Inner reference the same library classes
+        assertTrue(report.referenceMisses > 0);
+        assertTrue(report.referenceHits > 0);
+    }
 }
@@ -0,0 +1,36 @@
+package battlecode.instrumenter.bytecode;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PackageTrieTest {
+    @Test
+    public void testMostSpecificRuleWins() {
+        PackageTrie<String> trie = new PackageTrie<>("default")
+                .addSubtree("java", "java")
+                .addSubtree("java/util", "util")
+                .addPackageMembers("java/util", "util members")
+                .addClass("java/util/Iterator", "iterator");
+
+        assertEquals("default", trie.lookup("Nothing"));
+        assertEquals("default", trie.lookup("javax/swing/JFrame"));
+        assertEquals("java", trie.lookup("java/lang/String"));
+        assertEquals("util members", trie.lookup("java/util/ArrayList"));
+        assertEquals("util", trie.lookup("java/util/function/Function"));
+        assertEquals("iterator", trie.lookup("java/util/Iterator"));
+        // A package name by itself isn't inside the package.
+        assertEquals("java", trie.lookup("java/util"));
+        assertEquals("default", trie.lookup("java"));
+    }
+
+    @Test
+    public void testSeparator() {
+        PackageTrie<Boolean> trie = new PackageTrie<>(false)
+                .addSubtree("com/sun", true);
+
+        assertEquals(true, trie.lookup("com.sun.Foo", '.'));
+        assertEquals(false, trie.lookup("com.sunny.Foo", '.'));
+        assertEquals(false, trie.lookup("com/sun/Foo", '.'));
+    }
+}
@@ -0,0 +1,321 @@
+package battlecode.instrumenter.profiler;
+
+import battlecode.common.RobotType;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProfilerTest {
+    @Test
+    public void testEvents() {
+        ProfilerCollection collection = new ProfilerCollection();
+        Profiler profiler = collection.createProfiler(1, RobotType.POLITICIAN);
+
+        profiler.enterMethod("team.RobotPlayer.run");
+        profiler.incrementBytecodes(5);
+        profiler.enterMethod("instrumented.java.util.ArrayList.add");
+        profiler.enterMethod("team.RobotPlayer.helper");
+        profiler.incrementBytecodes(Integer.MAX_VALUE);
+        profiler.exitMethod("team.RobotPlayer.helper");
+        profiler.exitMethod("instrumented.java.util.ArrayList.add");
+        profiler.exitOpenMethods();
+
+        assertEquals(4, profiler.getEventCount());
+        int run = collection.getFrameId("team.RobotPlayer.run");
+        int helper = collection.getFrameId("team.RobotPlayer.helper");
+
+        assertTrue(profiler.isOpenEvent(0));
+        assertEquals(0, profiler.getEventAt(0));
+        assertEquals(run, profiler.getEventFrameId(0));
+
+        assertTrue(profiler.isOpenEvent(1));
+        assertEquals(5, profiler.getEventAt(1));
+        assertEquals(helper, profiler.getEventFrameId(1));
+
+        assertFalse(profiler.isOpenEvent(2));
+        assertEquals(Integer.MAX_VALUE, profiler.getEventAt(2));
+        assertEquals(helper, profiler.getEventFrameId(2));
+
+        assertFalse(profiler.isOpenEvent(3));
+        assertEquals(run, profiler.getEventFrameId(3));
+    }
+
+    @Test
+    public void testManyEvents() {
+        ProfilerCollection collection = new ProfilerCollection();
+        Profiler profiler = collection.createProfiler(1, RobotType.MUCKRAKER);
+
+        // Enough to need several chunks
+        for (int i = 0; i < 10000; i++) {
+            profiler.enterMethod("team.RobotPlayer.m" + (i % 100));
+            profiler.incrementBytecodes(1);
+            profiler.exitMethod("team.RobotPlayer.m" + (i % 100));
+        }
+
+        assertEquals(20000, profiler.getEventCount());
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(profiler.isOpenEvent(2 * i));
+            assertFalse(profiler.isOpenEvent(2 * i + 1));
+            assertEquals(i, profiler.getEventAt(2 * i));
+            assertEquals(i + 1, profiler.getEventAt(2 * i + 1));
+            assertEquals(i % 100, profiler.getEventFrameId(2 * i + 1));
+        }
+    }
+
+    @Test
+    public void testSampling() throws IOException {
+        ProfilerCollection collection = new ProfilerCollection(100);
+        Profiler soldier = collection.createProfiler(1, RobotType.POLITICIAN);
+        Profiler other = collection.createProfiler(2, RobotType.POLITICIAN);
+        Profiler center = collection.createProfiler(3, RobotType.ENLIGHTENMENT_CENTER);
+
+        soldier.enterMethod("team.RobotPlayer.run");
+        soldier.incrementBytecodes(150);
+        soldier.enterMethod("instrumented.java.util.ArrayList.add");
+        soldier.enterMethod("team.RobotPlayer.helper");
+        soldier.incrementBytecodes(250);
+        soldier.exitMethod("team.RobotPlayer.helper");
+        soldier.exitMethod("instrumented.java.util.ArrayList.add");
+        soldier.incrementBytecodes(99);
+        soldier.exitOpenMethods();
+
+        other.enterMethod("team.RobotPlayer.run");
+        other.incrementBytecodes(100);
+
+        center.incrementBytecodes(Integer.MAX_VALUE);
+
+        assertEquals(0, soldier.getEventCount());
+        assertTrue(collection.hasCollapsedStacks());
+
+        StringWriter out = new StringWriter();
+        collection.writeCollapsedStacks(out);
+        // Robot types in declaration order
+        assertEquals("ENLIGHTENMENT_CENTER " + (Integer.MAX_VALUE / 100 * 100) + "\n"
+                + "POLITICIAN;team.RobotPlayer.run 200\n"
+                + "POLITICIAN;team.RobotPlayer.run;team.RobotPlayer.helper 300\n",
+                out.toString());
+    }
+
+    @Test
+    public void testAggregating() throws IOException {
+        ProfilerCollection collection = new ProfilerCollection(ProfilerCollection.Mode.AGGREGATE);
+        Profiler first = collection.createProfiler(1, RobotType.SLANDERER);
+        Profiler second = collection.createProfiler(2, RobotType.SLANDERER);
+
+        // Round 1: run uses 10 itself, helper 20 in two calls
+        first.incrementBytecodes(3);
+        first.enterMethod("team.RobotPlayer.run");
+        first.incrementBytecodes(4);
+        first.enterMethod("team.RobotPlayer.helper");
+        first.incrementBytecodes(15);
+        first.exitMethod("team.RobotPlayer.helper");
+        first.enterMethod("instrumented.java.util.ArrayList.add");
+        first.incrementBytecodes(6);
+        first.exitMethod("instrumented.java.util.ArrayList.add");
+        first.enterMethod("team.RobotPlayer.helper");
+        first.incrementBytecodes(5);
+        first.exitMethod("team.RobotPlayer.helper");
+        collection.roundEnded();
+
+        // Round 2: both robots use 1000 in run
+        first.incrementBytecodes(1000);
+        second.enterMethod("team.RobotPlayer.run");
+        second.incrementBytecodes(1000);
+        collection.roundEnded();
+
+        first.exitOpenMethods();
+        second.exitOpenMethods();
+
+        assertEquals(0, first.getEventCount());
+        assertTrue(collection.hasCallTrees());
+
+        StringWriter collapsed = new StringWriter();
+        collection.writeCollapsedStacks(collapsed);
+        assertEquals("SLANDERER 3\n"
+                + "SLANDERER;team.RobotPlayer.run 2010\n"
+                + "SLANDERER;team.RobotPlayer.run;team.RobotPlayer.helper 20\n",
+                collapsed.toString());
+
+        StringWriter trees = new StringWriter();
+        collection.writeCallTrees(trees);
+        assertEquals("{\"frames\":[\"team.RobotPlayer.run\",\"team.RobotPlayer.helper\"],\"trees\":{\"SLANDERER\":"
+                + "{\"frame\":-1,\"calls\":0,\"exclusive\":3,\"rounds\":2,\"p50\":35,\"p90\":2000,\"p99\":2000,\"max\":2000,\"children\":["
+                + "{\"frame\":0,\"calls\":2,\"exclusive\":2010,\"rounds\":2,\"p50\":31,\"p90\":2000,\"p99\":2000,\"max\":2000,\"children\":["
+                + "{\"frame\":1,\"calls\":2,\"exclusive\":20,\"rounds\":1,\"p50\":20,\"p90\":20,\"p99\":20,\"max\":20,\"children\":[],"
+                + "\"inclusive\":20}],\"inclusive\":2030}],\"inclusive\":2033}}}\n",
+                trees.toString());
+    }
+
+    @Test
+    public void testBuckets() {
+        for (long value = 0; value < 100000; value++) {
+            int bucket = ProfilerCollection.CallNode.bucket(value);
+            assertTrue(value <= ProfilerCollection.CallNode.bucketMax(bucket));
+            assertTrue(bucket == 0 || value > ProfilerCollection.CallNode.bucketMax(bucket - 1));
+            assertTrue(ProfilerCollection.CallNode.bucketMax(bucket) <= value + value / 8);
+        }
+    }
+
+    @Test
+    public void testBudgets() {
+        ProfilerCollection collection = new ProfilerCollection();
+        collection.setBudget(new ProfilerBudget()
+                .setMaxEventsPerRobot(3)
+                .setMaxEventsPerType(5)
+                .setMaxEventsPerWindow(4, 10)
+                .setRounds(10, 29));
+        Profiler first = collection.createProfiler(1, RobotType.POLITICIAN);
+        Profiler second = collection.createProfiler(2, RobotType.POLITICIAN);
+        Profiler third = collection.createProfiler(3, RobotType.MUCKRAKER);
+
+        collection.roundStarted(9);
+        callMethods(first, 2);
+        assertEquals(0, first.getEventCount());
+
+        // The window allows 4, then the robot's budget allows 3
+        collection.roundStarted(10);
+        callMethods(first, 10);
+        assertEquals(6, first.getEventCount());
+        callMethods(second, 10);
+        assertEquals(2, second.getEventCount());
+
+        // A new window, but only 1 left for politicians
+        collection.roundStarted(20);
+        callMethods(second, 10);
+        callMethods(third, 10);
+        assertEquals(4, second.getEventCount());
+        assertEquals(6, third.getEventCount());
+
+        collection.roundStarted(30);
+        callMethods(third, 10);
+        assertEquals(6, third.getEventCount());
+    }
+
+    @Test
+    public void testNestedCallsAcrossBudgets() {
+        ProfilerCollection collection = new ProfilerCollection();
+        collection.setBudget(new ProfilerBudget().setRounds(800, 900));
+        Profiler profiler = collection.createProfiler(1, RobotType.SLANDERER);
+
+        // Spawned before the rounds we record, and still running in them
+        collection.roundStarted(100);
+        profiler.enterMethod("team.RobotPlayer.run");
+        collection.roundStarted(800);
+        profiler.enterMethod("team.RobotPlayer.move");
+        profiler.exitMethod("team.RobotPlayer.move");
+        profiler.enterMethod("team.RobotPlayer.sense");
+        profiler.exitMethod("team.RobotPlayer.sense");
+        profiler.exitMethod("team.RobotPlayer.run");
+        profiler.exitOpenMethods();
+        assertEquals("+move -move +sense -sense", events(collection, profiler));
+
+        collection = new ProfilerCollection();
+        collection.setBudget(new ProfilerBudget().setMaxEventsPerWindow(2, 10));
+        profiler = collection.createProfiler(1, RobotType.SLANDERER);
+
+        // Entered when the window is used up, exited in the next
+        collection.roundStarted(0);
+        profiler.enterMethod("team.RobotPlayer.run");
+        profiler.enterMethod("team.RobotPlayer.move");
+        profiler.enterMethod("team.RobotPlayer.sense");
+        profiler.enterMethod("team.RobotPlayer.helper");
+        collection.roundStarted(10);
+        profiler.exitMethod("team.RobotPlayer.helper");
+        profiler.enterMethod("team.RobotPlayer.helper");
+        profiler.exitMethod("team.RobotPlayer.helper");
+        profiler.exitMethod("team.RobotPlayer.sense");
+        profiler.enterMethod("team.RobotPlayer.sense");
+        profiler.exitMethod("team.RobotPlayer.sense");
+        profiler.exitMethod("team.RobotPlayer.move");
+        profiler.exitOpenMethods();
+        assertEquals("+run +move +helper -helper +sense -sense -move -run", events(collection, profiler));
+    }
+
+    @Test
+    public void testRoundsWhenNotTracing() throws IOException {
+        ProfilerCollection sampling = new ProfilerCollection(100);
+        sampling.setBudget(new ProfilerBudget().setRounds(10, 19));
+        Profiler sampled = sampling.createProfiler(1, RobotType.POLITICIAN);
+
+        sampling.roundStarted(5);
+        sampled.enterMethod("team.RobotPlayer.run");
+        sampled.incrementBytecodes(300);
+        sampling.roundStarted(10);
+        sampled.incrementBytecodes(200);
+        sampling.roundStarted(20);
+        sampled.incrementBytecodes(500);
+
+        StringWriter out = new StringWriter();
+        sampling.writeCollapsedStacks(out);
+        assertEquals("POLITICIAN;team.RobotPlayer.run 200\n", out.toString());
+
+        ProfilerCollection aggregating = new ProfilerCollection(ProfilerCollection.Mode.AGGREGATE);
+        aggregating.setBudget(new ProfilerBudget().setRounds(10, 19));
+        Profiler aggregated = aggregating.createProfiler(1, RobotType.POLITICIAN);
+
+        aggregating.roundStarted(5);
+        aggregated.enterMethod("team.RobotPlayer.run");
+        aggregated.incrementBytecodes(300);
+        aggregating.roundEnded();
+        aggregating.roundStarted(10);
+        aggregated.incrementBytecodes(7);
+        aggregated.enterMethod("team.RobotPlayer.helper");
+        aggregated.incrementBytecodes(5);
+        aggregated.exitMethod("team.RobotPlayer.helper");
+        aggregating.roundEnded();
+        aggregating.roundStarted(20);
+        aggregated.incrementBytecodes(1000);
+        aggregating.roundEnded();
+
+        out = new StringWriter();
+        aggregating.writeCollapsedStacks(out);
+        assertEquals("POLITICIAN;team.RobotPlayer.run 7\n"
+                + "POLITICIAN;team.RobotPlayer.run;team.RobotPlayer.helper 5\n",
+                out.toString());
+    }
+
+    @Test
+    public void testSelectors() {
+        ProfilerCollection collection = new ProfilerCollection();
+        collection.setBudget(new ProfilerBudget()
+                .setRobotTypes(EnumSet.of(RobotType.SLANDERER))
+                .setRounds(800, 900)
+                .setSpawnInterval(3));
+
+        assertFalse(collection.shouldProfile(RobotType.POLITICIAN, 0));
+        assertFalse(collection.shouldProfile(RobotType.SLANDERER, 901));
+        // Robots spawned early might still be alive in the rounds we want
+        assertTrue(collection.shouldProfile(RobotType.SLANDERER, 100));
+        assertFalse(collection.shouldProfile(RobotType.SLANDERER, 800));
+        assertFalse(collection.shouldProfile(RobotType.SLANDERER, 850));
+        assertTrue(collection.shouldProfile(RobotType.SLANDERER, 900));
+    }
+
+    /**
+     * @return the profiler's events, as +method for entries and -method for exits
+     */
+    private static String events(ProfilerCollection collection, Profiler profiler) {
+        StringBuilder events = new StringBuilder();
+        for (int i = 0; i < profiler.getEventCount(); i++) {
+            String frame = collection.getFrames().get(profiler.getEventFrameId(i));
+            events.append(i == 0 ? "" : " ")
+                    .append(profiler.isOpenEvent(i) ? '+' : '-')
+                    .append(frame.substring(frame.lastIndexOf('.') + 1));
+        }
+        return events.toString();
+    }
+
+    private static void callMethods(Profiler profiler, int count) {
+        for (int i = 0; i < count; i++) {
+            profiler.enterMethod("team.RobotPlayer.run");
+            profiler.incrementBytecodes(1);
+            profiler.exitMethod("team.RobotPlayer.run");
+        }
+    }
+}
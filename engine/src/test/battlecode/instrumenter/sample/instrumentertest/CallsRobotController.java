@@ -0,0 +1,19 @@
+package instrumentertest;
+
+import battlecode.common.*;
+
+/**
+ * Loops over expensive RobotController calls, for checking the cost report.
+ */
+@SuppressWarnings("unused")
+public class CallsRobotController {
+    public static int run(RobotController rc) throws GameActionException {
+        int moves = 0;
+        for (Direction dir : Direction.allDirections()) {
+            if (rc.canMove(dir)) {
+                moves++;
+            }
+        }
+        return moves + rc.senseNearbyRobots().length;
+    }
+}
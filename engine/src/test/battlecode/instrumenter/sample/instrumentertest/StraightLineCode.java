@@ -0,0 +1,59 @@
+package instrumentertest;
+
+/**
+ * Code with lots of short basic blocks, for checking that merging their
+ * bytecode accounting doesn't change what they're charged.
+ */
+@SuppressWarnings("unused")
+public class StraightLineCode {
+    public static int run() {
+        int a = 3;
+        int b = a * 7;
+        long c = b + 11L;
+        double d = c / 2.0;
+        int total = 0;
+
+        for (int i = 0; i < 10; i++) {
+            int x = i * i;
+            int y = x + a;
+            total += y;
+            if (y % 3 == 0) {
+                total -= 1;
+            }
+        }
+
+        switch (total % 4) {
+            case 0:
+                total += 1;
+            case 1:
+                total += 2;
+                break;
+            default:
+                total += 3;
+        }
+
+        int[] array = new int[5];
+        array[2] = total;
+        total += array[2];
+
+        try {
+            total += divide(total, a - 3);
+        } catch (ArithmeticException e) {
+            total += 100;
+        }
+
+        int e = (int) d;
+        int f = e << 2;
+        return total + f + helper(f);
+    }
+
+    private static int divide(int x, int y) {
+        return x / y;
+    }
+
+    private static int helper(int x) {
+        int y = x + 1;
+        int z = y * 2;
+        return z - x;
+    }
+}
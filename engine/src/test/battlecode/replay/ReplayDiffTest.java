@@ -0,0 +1,98 @@
+package battlecode.replay;
+
+import battlecode.common.Team;
+import battlecode.schema.Round;
+import battlecode.world.InternalRobot;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReplayDiffTest {
+    private File dir;
+
+    @Before
+    public void makeDir() throws IOException {
+        dir = Files.createTempDirectory("battlecode-test").toFile();
+    }
+
+    @After
+    public void deleteDir() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testSameGame() throws Exception {
+        File first = new File(dir, "first.bc21");
+        File second = new File(dir, "second.bc21");
+        ReplayReaderTest.writeGame(first);
+        ReplayReaderTest.writeGame(second);
+
+        try (ReplayReader expected = ReplayReader.open(first);
+             ReplayReader actual = ReplayReader.open(second)) {
+            assertNull(ReplayDiff.diff(expected, actual, false));
+            assertNull(ReplayDiff.diff(expected, actual, true));
+        }
+        assertEquals(hashes(first), hashes(second));
+        assertEquals(ReplayReaderTest.ROUNDS, hashes(first).size());
+    }
+
+    @Test
+    public void testDivergentGame() throws Exception {
+        File first = new File(dir, "first.bc21");
+        File second = new File(dir, "second.bc21");
+        ReplayReaderTest.writeGame(first);
+        ReplayReaderTest.writeGame(second, new ReplayReaderTest.BusyControlProvider() {
+            @Override
+            public int getBytecodesUsed(InternalRobot robot) {
+                return robot.getController().getRoundNum() >= 30 ? 101 : 100;
+            }
+        });
+
+        try (ReplayReader expected = ReplayReader.open(first);
+             ReplayReader actual = ReplayReader.open(second)) {
+            assertEquals("Match 0, round 30, bytecodesUsed[0]: expected 100 but was 101",
+                    ReplayDiff.diff(expected, actual, true));
+        }
+        List<Long> expectedHashes = hashes(first);
+        List<Long> actualHashes = hashes(second);
+        assertEquals(expectedHashes.subList(0, 29), actualHashes.subList(0, 29));
+        assertNotEquals(expectedHashes.get(29), actualHashes.get(29));
+    }
+
+    @Test
+    public void testArbitraryWinner() throws Exception {
+        // The same game, won on a coin flip by each team
+        File first = new File(dir, "first.bc21");
+        File second = new File(dir, "second.bc21");
+        ReplayReaderTest.writeGame(first, new ReplayReaderTest.BusyControlProvider(), Team.A);
+        ReplayReaderTest.writeGame(second, new ReplayReaderTest.BusyControlProvider(), Team.B);
+
+        try (ReplayReader expected = ReplayReader.open(first);
+             ReplayReader actual = ReplayReader.open(second)) {
+            List<Integer> arbitraryWinners = new ArrayList<>();
+            assertNull(ReplayDiff.diff(expected, actual, false, arbitraryWinners));
+            assertEquals(Collections.singletonList(0), arbitraryWinners);
+        }
+    }
+
+    private static List<Long> hashes(File file) throws IOException {
+        List<Long> hashes = new ArrayList<>();
+        CanonicalRound canonical = new CanonicalRound(false);
+        try (ReplayReader reader = ReplayReader.open(file)) {
+            for (Round round : reader.getMatches().get(0).rounds()) {
+                hashes.add(canonical.load(round).hash());
+            }
+        }
+        return hashes;
+    }
+}
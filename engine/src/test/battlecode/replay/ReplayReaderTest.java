@@ -0,0 +1,345 @@
+package battlecode.replay;
+
+import battlecode.common.*;
+import battlecode.schema.Event;
+import battlecode.schema.EventWrapper;
+import battlecode.schema.MatchHeader;
+import battlecode.schema.Round;
+import battlecode.schema.RoundEncoding;
+import battlecode.server.Config;
+import battlecode.server.GameInfo;
+import battlecode.server.GameMaker;
+import battlecode.server.GameState;
+import battlecode.world.DominationFactor;
+import battlecode.world.GameWorld;
+import battlecode.world.InternalRobot;
+import battlecode.world.TestMapBuilder;
+import battlecode.world.control.RobotControlProvider;
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ReplayReaderTest {
+    static final int ROUNDS = 60;
+    private static final int KEYFRAME_INTERVAL = 10;
+
+    private static File indexed;
+    private static File gzipped;
+    private static File uncompressed;
+    private static File compact;
+
+    /**
+     * Play a game where robots build, move, set flags and empower, and
+     * write it out three ways; and again with compact rounds.
+     */
+    @BeforeClass
+    public static void writeReplays() throws Exception {
+        indexed = File.createTempFile("battlecode-test", ".bc21");
+        writeGame(indexed);
+
+        gzipped = File.createTempFile("battlecode-test", ".bc21");
+        FileUtils.copyFile(indexed, gzipped);
+
+        uncompressed = File.createTempFile("battlecode-test", ".bc21");
+        try (GZIPInputStream in = new GZIPInputStream(new FileInputStream(indexed))) {
+            FileUtils.copyInputStreamToFile(in, uncompressed);
+        }
+
+        compact = File.createTempFile("battlecode-test", ".bc21");
+        Config config = Config.getGlobalConfig();
+        String compactRounds = config.get("bc.server.compact-rounds");
+        try {
+            config.set("bc.server.compact-rounds", "true");
+            writeGame(compact);
+        } finally {
+            config.set("bc.server.compact-rounds", compactRounds);
+        }
+    }
+
+    /**
+     * Play a game of ROUNDS rounds where robots build, move, set flags and
+     * empower, and write it, with an index and keyframes.
+     *
+     * @param file the file to write the replay to
+     */
+    static void writeGame(File file) throws Exception {
+        writeGame(file, new BusyControlProvider());
+    }
+
+    /**
+     * @param file the file to write the replay to
+     * @param provider the provider to play the game with
+     */
+    static void writeGame(File file, RobotControlProvider provider) throws Exception {
+        writeGame(file, provider, Team.A);
+    }
+
+    /**
+     * @param file the file to write the replay to
+     * @param provider the provider to play the game with
+     * @param winner the team that wins the match at the end of its last round
+     */
+    static void writeGame(File file, RobotControlProvider provider, Team winner) throws Exception {
+        Config config = Config.getGlobalConfig();
+        String blockBytes = config.get("bc.server.replay-block-bytes");
+        String index = config.get("bc.server.replay-index");
+        String keyframes = config.get("bc.server.keyframe-interval");
+        try {
+            config.set("bc.server.replay-block-bytes", "4000");
+            config.set("bc.server.replay-index", "true");
+            config.set("bc.server.keyframe-interval", String.valueOf(KEYFRAME_INTERVAL));
+
+            GameMaker gm = new GameMaker(new GameInfo(
+                    "bananas", "org.bananas", null,
+                    "yellow", "org.yellow", null,
+                    new String[] {"honolulu"}, null, false), null, true);
+            gm.makeGameHeader();
+            GameWorld world = new GameWorld(new TestMapBuilder("honolulu", 2, -3, 30, 30, 1337, ROUNDS)
+                    .addEnlightenmentCenter(0, Team.A, GameConstants.INITIAL_ENLIGHTENMENT_CENTER_INFLUENCE, new MapLocation(5, 5))
+                    .addEnlightenmentCenter(1, Team.B, GameConstants.INITIAL_ENLIGHTENMENT_CENTER_INFLUENCE, new MapLocation(15, 15))
+                    .setPassability()
+                    .build(), provider, gm.getMatchMaker());
+            for (int round = 1; round <= ROUNDS; round++) {
+                if (round == ROUNDS) {
+                    // Ends the match at the end of the round
+                    world.setWinner(winner, DominationFactor.MORE_VOTES);
+                }
+                assertEquals(GameState.RUNNING, world.runRound());
+            }
+            assertEquals(GameState.DONE, world.runRound());
+            gm.makeGameFooter(winner);
+            gm.writeGame(file);
+        } finally {
+            config.set("bc.server.replay-block-bytes", blockBytes);
+            config.set("bc.server.replay-index", index);
+            config.set("bc.server.keyframe-interval", keyframes);
+        }
+    }
+
+    @AfterClass
+    public static void deleteReplays() {
+        for (File file : new File[] {indexed, gzipped, uncompressed, compact}) {
+            if (file != null) {
+                file.delete();
+                new File(file.getPath() + ".idx").delete();
+            }
+        }
+    }
+
+    @Test
+    public void testIndexed() throws IOException {
+        File index = new File(indexed.getPath() + ".idx");
+        assertTrue(index.isFile());
+        try (EventSource source = new BlockEventSource(indexed, index)) {
+            assertEquals(4 + ROUNDS + ROUNDS / KEYFRAME_INTERVAL, source.getWrapper().eventsLength());
+        }
+        checkReplay(indexed);
+    }
+
+    @Test
+    public void testStaleIndex() throws IOException {
+        // The same game compressed differently, with the index left from before
+        File regzipped = File.createTempFile("battlecode-test", ".bc21");
+        File stale = new File(regzipped.getPath() + ".idx");
+        try {
+            try (OutputStream out = new GZIPOutputStream(new FileOutputStream(regzipped))) {
+                FileUtils.copyFile(uncompressed, out);
+            }
+            FileUtils.copyFile(new File(indexed.getPath() + ".idx"), stale);
+            try (EventSource source = new BlockEventSource(regzipped, stale)) {
+                fail("Read " + regzipped + " with the index of " + indexed);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("doesn't match"));
+            }
+            assertEquals(states(indexed), states(regzipped));
+        } finally {
+            regzipped.delete();
+            stale.delete();
+        }
+    }
+
+    @Test
+    public void testGzipped() throws IOException {
+        checkReplay(gzipped);
+    }
+
+    @Test
+    public void testUncompressed() throws IOException {
+        checkReplay(uncompressed);
+    }
+
+    @Test
+    public void testSameStates() throws IOException {
+        assertEquals(states(indexed), states(gzipped));
+        assertEquals(states(indexed), states(uncompressed));
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        checkReplay(compact);
+        try (ReplayReader expected = ReplayReader.open(indexed);
+             ReplayReader actual = ReplayReader.open(compact)) {
+            assertEquals(RoundEncoding.PLAIN, expected.getGameHeader().roundEncoding());
+            assertEquals(RoundEncoding.COMPACT, actual.getGameHeader().roundEncoding());
+            assertNull(ReplayDiff.diff(expected, actual, false));
+        }
+        assertEquals(states(indexed), states(compact));
+        assertTrue(compact.length() < indexed.length());
+    }
+
+    private void checkReplay(File file) throws IOException {
+        try (ReplayReader reader = ReplayReader.open(file)) {
+            // Game and match headers, rounds and keyframes, and footers
+            assertEquals(4 + ROUNDS + ROUNDS / KEYFRAME_INTERVAL, reader.getEventCount());
+            assertEquals("bananas", reader.getGameHeader().teams(0).name());
+            assertEquals(1, reader.getGameFooter().winner());
+            assertEquals(1, reader.getMatches().size());
+
+            ReplayMatch match = reader.getMatches().get(0);
+            assertEquals(1, match.getHeaderEvent());
+            assertEquals("honolulu", match.getHeader(new MatchHeader()).map().name());
+            assertEquals(ROUNDS, match.getLastRound());
+            assertEquals(ROUNDS, match.getFooter(new battlecode.schema.MatchFooter()).totalRounds());
+            assertEquals(-1, match.findRound(ROUNDS + 1));
+            EventWrapper event = reader.getEvent(match.findRound(25), new EventWrapper());
+            assertEquals(Event.Round, event.eType());
+            assertEquals(25, ((Round) event.e(new Round())).roundID());
+
+            // Play it forward, checking against every keyframe
+            WorldState forward = new WorldState(reader.getGameHeader());
+            WorldState seeked = new WorldState(reader.getGameHeader());
+            forward.reset(match.getHeader(new MatchHeader()));
+            assertEquals(2, forward.size());
+            int expectedRound = 1;
+            for (Round round : match.rounds()) {
+                assertEquals(expectedRound++, round.roundID());
+                forward.apply(round);
+                if (round.roundID() % 5 == 0) {
+                    match.reconstruct(seeked, round.roundID());
+                    assertSameRobots(forward, seeked);
+                }
+            }
+            assertEquals(ROUNDS + 1, expectedRound);
+            assertTrue(forward.size() > 2);
+
+            match.reconstruct(seeked, 0);
+            assertEquals(0, seeked.getRound());
+            assertEquals(2, seeked.size());
+        }
+    }
+
+    private static void assertSameRobots(WorldState expected, WorldState actual) {
+        assertEquals(expected.getRound(), actual.getRound());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            int id = expected.getID(i);
+            int j = actual.indexOf(id);
+            String robot = "robot " + id + " in round " + expected.getRound();
+            assertNotEquals(robot, -1, j);
+            assertEquals(robot, expected.getTeam(i), actual.getTeam(j));
+            assertEquals(robot, expected.getType(i), actual.getType(j));
+            assertEquals(robot, expected.getX(i), actual.getX(j));
+            assertEquals(robot, expected.getY(i), actual.getY(j));
+            assertEquals(robot, expected.getInfluence(i), actual.getInfluence(j));
+            assertEquals(robot, expected.getConviction(i), actual.getConviction(j));
+            assertEquals(robot, expected.getFlag(i), actual.getFlag(j));
+        }
+    }
+
+    /**
+     * @return a line per robot per round
+     */
+    private static List<String> states(File file) throws IOException {
+        List<String> states = new ArrayList<>();
+        try (ReplayReader reader = ReplayReader.open(file)) {
+            ReplayMatch match = reader.getMatches().get(0);
+            WorldState state = new WorldState(reader.getGameHeader());
+            state.reset(match.getHeader(new MatchHeader()));
+            for (Round round : match.rounds()) {
+                state.apply(round);
+                for (int i = 0; i < state.size(); i++) {
+                    states.add(state.getRound() + ": " + state.getID(i) + " " + state.getType(i)
+                            + " " + state.getX(i) + "," + state.getY(i) + " " + state.getInfluence(i)
+                            + " " + state.getConviction(i) + " " + state.getFlag(i)
+                            + " " + state.getBytecodesUsed(i));
+                }
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Enlightenment centers build politicians; politicians wander, and
+     * some of them empower. Everyone sets their flag every round.
+     */
+    static class BusyControlProvider implements RobotControlProvider {
+        @Override
+        public void matchStarted(GameWorld world) {}
+
+        @Override
+        public void matchEnded() {}
+
+        @Override
+        public void roundStarted() {}
+
+        @Override
+        public void roundEnded() {}
+
+        @Override
+        public void robotSpawned(InternalRobot robot) {}
+
+        @Override
+        public void robotKilled(InternalRobot robot) {}
+
+        @Override
+        public void runRobot(InternalRobot robot) {
+            RobotController rc = robot.getController();
+            int round = rc.getRoundNum();
+            try {
+                rc.setFlag(round * 100 + robot.getID() % 100);
+                if (rc.getType() == RobotType.ENLIGHTENMENT_CENTER) {
+                    for (Direction dir : Direction.allDirections()) {
+                        if (rc.canBuildRobot(RobotType.POLITICIAN, dir, 20)) {
+                            rc.buildRobot(RobotType.POLITICIAN, dir, 20);
+                            break;
+                        }
+                    }
+                } else {
+                    if ((round + robot.getID()) % 13 == 0 && rc.canEmpower(2)) {
+                        rc.empower(2);
+                        return;
+                    }
+                    Direction dir = Direction.allDirections()[(round + robot.getID()) % 8];
+                    if (rc.canMove(dir)) {
+                        rc.move(dir);
+                    }
+                }
+            } catch (GameActionException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public int getBytecodesUsed(InternalRobot robot) {
+            return 100;
+        }
+
+        @Override
+        public boolean getTerminated(InternalRobot robot) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package battlecode.replay;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReplayStatsTest {
+    private File dir;
+    private File replay;
+
+    @Before
+    public void writeReplay() throws Exception {
+        dir = Files.createTempDirectory("battlecode-test").toFile();
+        replay = new File(dir, "game.bc21");
+        ReplayReaderTest.writeGame(replay);
+    }
+
+    @After
+    public void deleteReplay() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testExport() throws IOException {
+        File out = new File(dir, "out");
+        assertEquals(0, ReplayStats.export(Collections.singletonList(replay), out, true, true, 2));
+
+        List<String> lines = FileUtils.readLines(new File(out, "game.csv"), StandardCharsets.UTF_8);
+        assertEquals(String.join(",", ReplayStats.COLUMNS), lines.get(0));
+        int rows = 2 * ReplayReaderTest.ROUNDS;
+        assertEquals(1 + rows, lines.size());
+
+        // The columns hold the same values as the CSV
+        int[][] columns = new int[ReplayStats.COLUMNS.length][];
+        for (int c = 0; c < columns.length; c++) {
+            byte[] bytes = FileUtils.readFileToByteArray(new File(out, "game/" + ReplayStats.COLUMNS[c] + ".i32"));
+            assertEquals(rows * 4, bytes.length);
+            columns[c] = new int[rows];
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(columns[c]);
+        }
+        int bytecodes = 0;
+        for (int r = 0; r < rows; r++) {
+            int[] row = Arrays.stream(lines.get(1 + r).split(",")).mapToInt(Integer::parseInt).toArray();
+            for (int c = 0; c < columns.length; c++) {
+                assertEquals(row[c], columns[c][r]);
+            }
+            assertEquals(0, row[0]);
+            assertEquals(1 + r / 2, row[1]);
+            assertEquals(1 + r % 2, row[2]);
+            assertEquals(row[3], row[4] + row[5] + row[6] + row[7]);
+            bytecodes += row[13];
+        }
+
+        // Each team has an enlightenment center, which builds a politician in round 1
+        for (int r = 0; r < 2; r++) {
+            assertEquals(1, columns[4][r]);
+            assertEquals(1, columns[5][r]);
+            assertEquals(100, columns[13][r]);
+        }
+        assertTrue(bytecodes > rows * 100);
+    }
+
+    @Test
+    public void testBadReplay() throws IOException {
+        File bad = new File(dir, "bad.bc21");
+        FileUtils.writeStringToFile(bad, "bananas", StandardCharsets.UTF_8);
+        File out = new File(dir, "out");
+        assertEquals(1, ReplayStats.export(Arrays.asList(replay, bad), out, true, false, 2));
+        assertTrue(new File(out, "game.csv").isFile());
+        assertFalse(new File(out, "game").exists());
+    }
+}
@@ -4,13 +4,22 @@ import battlecode.common.GameConstants;
 import battlecode.common.MapLocation;
 import battlecode.common.RobotType;
 import battlecode.common.Team;
+import battlecode.schema.BodyType;
 import battlecode.schema.Event;
+import battlecode.schema.EventWrapper;
 import battlecode.schema.GameHeader;
 import battlecode.schema.GameWrapper;
+import battlecode.schema.Keyframe;
+import battlecode.schema.Round;
 import battlecode.util.TeamMapping;
+import battlecode.world.GameWorld;
+import battlecode.world.InternalRobot;
 import battlecode.world.TestMapBuilder;
+import battlecode.world.control.RobotControlProvider;
 
 import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -18,8 +27,14 @@ import org.mockito.Mockito;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
 import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.*;
@@ -114,6 +129,409 @@ public class GameMakerTest {
     //     verify(mockServer, times(9)).addEvent(any(byte[].class));
     // }
 
+    @Test
+    public void testReplay() throws Exception {
+        Config config = Config.getGlobalConfig();
+        String blockBytes = config.get("bc.server.replay-block-bytes");
+        String threads = config.get("bc.server.replay-compression-threads");
+        try {
+            byte[] oneBlock = checkReplay();
+
+            // Lots of blocks, compressed in parallel, or not
+            config.set("bc.server.replay-block-bytes", "1000");
+            assertArrayEquals(oneBlock, checkReplay());
+            config.set("bc.server.replay-compression-threads", "0");
+            assertArrayEquals(oneBlock, checkReplay());
+        } finally {
+            config.set("bc.server.replay-block-bytes", blockBytes);
+            config.set("bc.server.replay-compression-threads", threads);
+        }
+    }
+
+    /**
+     * Make a game, and check what's written and sent.
+     *
+     * @return the game, uncompressed
+     */
+    private byte[] checkReplay() throws Exception {
+        List<byte[]> packets = new ArrayList<>();
+        NetServer server = new NetServer(0, false) {
+            @Override
+            public void addEvent(byte[] event) {
+                packets.add(event);
+            }
+        };
+        GameMaker gm = makeGame(server);
+
+        byte[] gameBytes = ungzip(gm.toBytes());
+
+        File saveFile = File.createTempFile("battlecode-test", ".bc21");
+        saveFile.deleteOnExit();
+        gm.writeGame(saveFile);
+        assertArrayEquals(gameBytes, ungzip(FileUtils.readFileToByteArray(saveFile)));
+
+        GameWrapper output = GameWrapper.getRootAsGameWrapper(ByteBuffer.wrap(gameBytes));
+
+        assertEquals(206, output.eventsLength());
+        assertEquals(2, output.matchHeadersLength());
+        assertEquals(2, output.matchFootersLength());
+        assertEquals(1, output.matchHeaders(0));
+        assertEquals(102, output.matchFooters(0));
+        assertEquals(103, output.matchHeaders(1));
+        assertEquals(204, output.matchFooters(1));
+
+        assertEquals(Event.GameHeader, output.events(0).eType());
+        GameHeader h = (GameHeader) output.events(0).e(new GameHeader());
+        assertEquals(GameConstants.SPEC_VERSION, h.specVersion());
+        assertEquals("bananas", h.teams(0).name());
+        assertEquals("org.yellow", h.teams(1).packageName());
+
+        for (int match = 0; match < 2; match++) {
+            assertEquals(Event.MatchHeader, output.events(output.matchHeaders(match)).eType());
+            for (int round = 1; round <= 100; round++) {
+                EventWrapper event = output.events(output.matchHeaders(match) + round);
+                assertEquals(Event.Round, event.eType());
+                Round r = (Round) event.e(new Round());
+                assertEquals(round, r.roundID());
+                assertEquals(round % 50, r.movedLocs().xs(0));
+                assertEquals(match, r.movedLocs().ys(0));
+            }
+            assertEquals(Event.MatchFooter, output.events(output.matchFooters(match)).eType());
+        }
+        assertEquals(Event.GameFooter, output.events(205).eType());
+
+        // The client gets the same events
+        assertEquals(206, packets.size());
+        for (int i = 0; i < packets.size(); i++) {
+            EventWrapper packet = EventWrapper.getRootAsEventWrapper(ByteBuffer.wrap(packets.get(i)));
+            assertEquals(output.events(i).eType(), packet.eType());
+        }
+        Round r = (Round) EventWrapper.getRootAsEventWrapper(ByteBuffer.wrap(packets.get(50))).e(new Round());
+        assertEquals(49, r.roundID());
+
+        return gameBytes;
+    }
+
+    @Test
+    public void testKeyframes() throws Exception {
+        Config config = Config.getGlobalConfig();
+        String interval = config.get("bc.server.keyframe-interval");
+        try {
+            config.set("bc.server.keyframe-interval", "10");
+            GameMaker gm = new GameMaker(info, null, true);
+            gm.makeGameHeader();
+            GameMaker.MatchMaker mm = gm.getMatchMaker();
+            // Robots need a world, which makes the match header
+            GameWorld world = new GameWorld(new TestMapBuilder("honolulu", 2, -3, 50, 50, 1337, 50)
+                    .addEnlightenmentCenter(0, Team.A, GameConstants.INITIAL_ENLIGHTENMENT_CENTER_INFLUENCE, new MapLocation(0, 0))
+                    .setPassability()
+                    .build(), new IdleControlProvider(), mm);
+            for (int round = 1; round <= 25; round++) {
+                mm.makeRound(round);
+                if (mm.isKeyframeRound(round)) {
+                    InternalRobot politician = new InternalRobot(world, null, 7, RobotType.POLITICIAN,
+                            new MapLocation(round, 3), Team.B, 20);
+                    politician.setFlag(round);
+                    InternalRobot center = new InternalRobot(world, null, 2, RobotType.ENLIGHTENMENT_CENTER,
+                            new MapLocation(0, 0), Team.A, 150);
+                    mm.makeKeyframe(round, new InternalRobot[] {politician, center});
+                }
+            }
+            mm.makeMatchFooter(Team.A, 25, new ArrayList<>());
+            gm.makeGameFooter(Team.A);
+
+            GameWrapper output = GameWrapper.getRootAsGameWrapper(ByteBuffer.wrap(ungzip(gm.toBytes())));
+            // Game and match headers, 25 rounds and 2 keyframes, and footers
+            assertEquals(31, output.eventsLength());
+            for (int round : new int[] {10, 20}) {
+                // Right after their rounds
+                int index = output.matchHeaders(0) + round + round / 10;
+                assertEquals(Event.Round, output.events(index - 1).eType());
+                assertEquals(round, ((Round) output.events(index - 1).e(new Round())).roundID());
+
+                EventWrapper event = output.events(index);
+                assertEquals(Event.Keyframe, event.eType());
+                Keyframe keyframe = (Keyframe) event.e(new Keyframe());
+                assertEquals(round, keyframe.roundID());
+                assertEquals(2, keyframe.robotIDsLength());
+                assertEquals(2, keyframe.robotIDs(0));
+                assertEquals(7, keyframe.robotIDs(1));
+                assertEquals(TeamMapping.id(Team.A), keyframe.teamIDs(0));
+                assertEquals(TeamMapping.id(Team.B), keyframe.teamIDs(1));
+                assertEquals(BodyType.ENLIGHTENMENT_CENTER, keyframe.types(0));
+                assertEquals(BodyType.POLITICIAN, keyframe.types(1));
+                assertEquals(round, keyframe.locs().xs(1));
+                assertEquals(3, keyframe.locs().ys(1));
+                assertEquals(150, keyframe.influences(0));
+                assertEquals(20, keyframe.influences(1));
+                assertEquals(20, keyframe.convictions(1));
+                assertEquals(0, keyframe.flags(0));
+                assertEquals(round, keyframe.flags(1));
+            }
+        } finally {
+            config.set("bc.server.keyframe-interval", interval);
+        }
+    }
+
+    @Test
+    public void testReplayBudget() throws Exception {
+        Config config = Config.getGlobalConfig();
+        String indicatorBudget = config.get("bc.server.replay-indicator-budget-bytes");
+        String logBudget = config.get("bc.server.replay-log-budget-bytes");
+        String perRobot = config.get("bc.server.replay-indicators-per-robot");
+        try {
+            config.set("bc.server.replay-indicator-budget-bytes", "1000");
+            config.set("bc.server.replay-log-budget-bytes", "100");
+            config.set("bc.server.replay-indicators-per-robot", "2");
+            GameMaker gm = new GameMaker(info, null, true);
+            gm.makeGameHeader();
+            GameMaker.MatchMaker mm = gm.getMatchMaker();
+            mm.makeMatchHeader(new TestMapBuilder("honolulu", 2, -3, 50, 50, 1337, 50)
+                    .addEnlightenmentCenter(0, Team.A, GameConstants.INITIAL_ENLIGHTENMENT_CENTER_INFLUENCE, new MapLocation(0, 0))
+                    .setPassability()
+                    .build());
+            for (int round = 1; round <= 50; round++) {
+                // Robot 5 sets 20 dots and prints 30 bytes a round; robot 6 sets a dot and prints 10 bytes
+                for (int i = 0; i < 20; i++) {
+                    mm.addIndicatorDot(Team.A, 5, new MapLocation(i, round), 255, 0, 0);
+                }
+                mm.addIndicatorDot(Team.B, 6, new MapLocation(0, round), 0, 0, 255);
+                mm.getOut(Team.A).write("[A:POLITICIAN#5] aaaaaaaaaaaa\n".getBytes(StandardCharsets.US_ASCII));
+                mm.getOut(Team.B).write("[B] bbbbb\n".getBytes(StandardCharsets.US_ASCII));
+                mm.addTeamInfo(Team.A, 0, 0, 0);
+                mm.addTeamInfo(Team.B, 0, 0, 0);
+                mm.makeRound(round);
+            }
+            mm.makeMatchFooter(Team.A, 50, new ArrayList<>());
+            gm.makeGameFooter(Team.A);
+
+            GameWrapper output = GameWrapper.getRootAsGameWrapper(ByteBuffer.wrap(ungzip(gm.toBytes())));
+            int keptA = 0;
+            for (int round = 1; round <= 50; round++) {
+                Round r = (Round) output.events(output.matchHeaders(0) + round).e(new Round());
+                int dotsA = 0;
+                for (int i = 0; i < r.indicatorDotIDsLength(); i++) {
+                    dotsA += r.indicatorDotIDs(i) == 5 ? 1 : 0;
+                }
+                keptA += dotsA;
+
+                // Everything until half the budget is used (in round 2), then every 4th
+                // round, 2 dots at a time, until the budget runs out (after round 39)
+                int expected = round == 1 ? 20 : round == 2 ? 1 : round % 4 == 3 && round <= 39 ? 2 : 0;
+                assertEquals("round " + round, expected, dotsA);
+                assertEquals(2, r.teamDroppedIndicatorsLength());
+                assertEquals(20 - dotsA, r.teamDroppedIndicators(0));
+
+                // Team B uses half its budget in round 21, and is sampled from then on
+                int dotsB = round <= 21 || round % 4 == 2 ? 1 : 0;
+                assertEquals(dotsB, r.indicatorDotIDsLength() - dotsA);
+                assertEquals(1 - dotsB, r.teamDroppedIndicators(1));
+
+                // Logs are kept until they run out, and then cut after the last whole line
+                String logs = new String(r.logsAsByteBuffer().array(), r.logsAsByteBuffer().position(),
+                        r.logsAsByteBuffer().remaining(), StandardCharsets.US_ASCII);
+                assertEquals(round < 4 ? 0 : 30, r.teamDroppedLogBytes(0));
+                assertEquals(round <= 10 ? 0 : 10, r.teamDroppedLogBytes(1));
+                assertEquals(round < 4, logs.contains("[A:POLITICIAN#5]"));
+                assertEquals(round == 4, logs.contains("[A output truncated due to replay budget]"));
+                assertEquals(round <= 10, logs.contains("bbbbb"));
+            }
+            assertTrue(keptA * ReplayBudget.DOT_BYTES <= 1000);
+        } finally {
+            config.set("bc.server.replay-indicator-budget-bytes", indicatorBudget);
+            config.set("bc.server.replay-log-budget-bytes", logBudget);
+            config.set("bc.server.replay-indicators-per-robot", perRobot);
+        }
+    }
+
+    /**
+     * Make a game of two matches of 100 rounds, where robot 0 moves to
+     * (round % 50, match) each round.
+     */
+    private GameMaker makeGame(NetServer server) {
+        GameMaker gm = new GameMaker(info, server, true);
+
+        gm.makeGameHeader();
+        GameMaker.MatchMaker mm = gm.getMatchMaker();
+        for (int match = 0; match < 2; match++) {
+            mm.makeMatchHeader(new TestMapBuilder("honolulu", 2, -3, 50, 50, 1337, 50)
+                    .addEnlightenmentCenter(0, Team.A, GameConstants.INITIAL_ENLIGHTENMENT_CENTER_INFLUENCE, new MapLocation(0, 0))
+                    .addEnlightenmentCenter(1, Team.B, GameConstants.INITIAL_ENLIGHTENMENT_CENTER_INFLUENCE, new MapLocation(25, 25))
+                    .setPassability()
+                    .build());
+            for (int round = 1; round <= 100; round++) {
+                mm.addMoved(0, new MapLocation(round % 50, match));
+                mm.makeRound(round);
+            }
+            mm.makeMatchFooter(Team.B, 100, new ArrayList<>());
+        }
+        gm.makeGameFooter(Team.A);
+        return gm;
+    }
+
+    @Test
+    public void testClose() {
+        File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        int spools = countSpools(tempDir);
+        GameMaker gm = new GameMaker(info, null, true);
+        gm.makeGameHeader();
+        assertEquals(spools + 1, countSpools(tempDir));
+
+        // A game that failed partway through is thrown away
+        gm.close();
+        assertEquals(spools, countSpools(tempDir));
+        gm.close();
+    }
+
+    private static int countSpools(File dir) {
+        File[] spools = dir.listFiles((d, name) -> name.startsWith("battlecode-replay") && name.endsWith(".spool"));
+        return spools == null ? 0 : spools.length;
+    }
+
+    @Test
+    public void testReplayIndex() throws Exception {
+        Config config = Config.getGlobalConfig();
+        String blockBytes = config.get("bc.server.replay-block-bytes");
+        String index = config.get("bc.server.replay-index");
+        try {
+            config.set("bc.server.replay-block-bytes", "1000");
+            config.set("bc.server.replay-index", "true");
+            GameMaker gm = makeGame(null);
+            File saveFile = File.createTempFile("battlecode-test", ".bc21");
+            saveFile.deleteOnExit();
+            File indexFile = new File(saveFile.getPath() + ".idx");
+            indexFile.deleteOnExit();
+            gm.writeGame(saveFile);
+
+            byte[] replay = FileUtils.readFileToByteArray(saveFile);
+            byte[] gameBytes = ungzip(replay);
+            ByteBuffer idx = ByteBuffer.wrap(FileUtils.readFileToByteArray(indexFile)).order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[8];
+            idx.get(magic);
+            assertArrayEquals("BC21IDX2".getBytes(StandardCharsets.US_ASCII), magic);
+            assertEquals(replay.length, idx.getLong());
+            CRC32 crc = new CRC32();
+            crc.update(gameBytes);
+            assertEquals((int) crc.getValue(), idx.getInt());
+            int blockCount = idx.getInt();
+            int eventCount = idx.getInt();
+            assertEquals(206, eventCount);
+            assertTrue(blockCount > 3);
+
+            // Every block inflates on its own, to the bytes it says it holds
+            long[] compressedStarts = new long[blockCount];
+            int[] compressedLengths = new int[blockCount];
+            byte[][] blocks = new byte[blockCount][];
+            long rawEnd = 0;
+            for (int b = 0; b < blockCount; b++) {
+                compressedStarts[b] = idx.getLong();
+                compressedLengths[b] = idx.getInt();
+                long rawStart = idx.getLong();
+                int rawLength = idx.getInt();
+                assertEquals(rawEnd, rawStart);
+                rawEnd = rawStart + rawLength;
+
+                Inflater inflater = new Inflater(true);
+                inflater.setInput(replay, (int) compressedStarts[b], compressedLengths[b]);
+                blocks[b] = new byte[rawLength];
+                assertEquals(rawLength, inflater.inflate(blocks[b]));
+                inflater.end();
+                assertArrayEquals(Arrays.copyOfRange(gameBytes, (int) rawStart, (int) rawEnd), blocks[b]);
+            }
+            assertEquals(gameBytes.length, rawEnd);
+
+            // And every event can be read from its block alone
+            int previousBlock = 0;
+            for (int i = 0; i < eventCount; i++) {
+                int match = idx.getInt();
+                int round = idx.getInt();
+                int block = idx.getInt();
+                int offset = idx.getInt();
+                assertTrue(block > 0 && block >= previousBlock);
+
+                EventWrapper event = new EventWrapper();
+                event.__init(offset, ByteBuffer.wrap(blocks[block]).order(ByteOrder.LITTLE_ENDIAN));
+                if (i == 0 || i == 205) {
+                    assertEquals(-1, match);
+                    assertEquals(-1, round);
+                } else {
+                    assertEquals(i < 103 ? 0 : 1, match);
+                }
+                if (event.eType() == Event.Round) {
+                    Round r = (Round) event.e(new Round());
+                    assertEquals(round, r.roundID());
+                    assertEquals(round % 50, r.movedLocs().xs(0));
+                    assertEquals(match, r.movedLocs().ys(0));
+                } else {
+                    assertEquals(-1, round);
+                }
+                if (event.eType() == Event.MatchHeader) {
+                    // Matches start new blocks
+                    assertTrue(block > previousBlock);
+                }
+                previousBlock = block;
+            }
+        } finally {
+            config.set("bc.server.replay-block-bytes", blockBytes);
+            config.set("bc.server.replay-index", index);
+        }
+    }
+
+    @Test
+    public void testStaleIndexDeleted() throws Exception {
+        Config config = Config.getGlobalConfig();
+        String index = config.get("bc.server.replay-index");
+        try {
+            File saveFile = File.createTempFile("battlecode-test", ".bc21");
+            saveFile.deleteOnExit();
+            File indexFile = new File(saveFile.getPath() + ".idx");
+            indexFile.deleteOnExit();
+            config.set("bc.server.replay-index", "true");
+            makeGame(null).writeGame(saveFile);
+            assertTrue(indexFile.isFile());
+
+            // The next game saved there isn't indexed, so the old index has to go
+            config.set("bc.server.replay-index", "false");
+            makeGame(null).writeGame(saveFile);
+            assertFalse(indexFile.exists());
+        } finally {
+            config.set("bc.server.replay-index", index);
+        }
+    }
+
+    private static class IdleControlProvider implements RobotControlProvider {
+        @Override
+        public void matchStarted(GameWorld world) {}
+
+        @Override
+        public void matchEnded() {}
+
+        @Override
+        public void roundStarted() {}
+
+        @Override
+        public void roundEnded() {}
+
+        @Override
+        public void robotSpawned(InternalRobot robot) {}
+
+        @Override
+        public void robotKilled(InternalRobot robot) {}
+
+        @Override
+        public void runRobot(InternalRobot robot) {}
+
+        @Override
+        public int getBytecodesUsed(InternalRobot robot) {
+            return 0;
+        }
+
+        @Override
+        public boolean getTerminated(InternalRobot robot) {
+            return false;
+        }
+    }
+
     public byte[] ungzip(byte[] in) throws IOException {
         ByteArrayOutputStream result = new ByteArrayOutputStream();
         IOUtils.copy(new GZIPInputStream(new ByteArrayInputStream(in)), result);
@@ -36,8 +36,13 @@ public final class Event {
    * There should only be one GameFooter, at the end of the stream.
    */
   public static final byte GameFooter = 5;
+  /**
+   * The state of a match at the end of a round, after that round's Round.
+   * Optional; readers that don't need it can skip it.
+   */
+  public static final byte Keyframe = 6;
 
-  public static final String[] names = { "NONE", "GameHeader", "MatchHeader", "Round", "MatchFooter", "GameFooter", };
+  public static final String[] names = { "NONE", "GameHeader", "MatchHeader", "Round", "MatchFooter", "GameFooter", "Keyframe", };
 
   public static String name(int e) { return names[e]; }
 }
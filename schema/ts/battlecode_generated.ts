@@ -153,7 +153,43 @@ export enum Event{
   /**
    * There should only be one GameFooter, at the end of the stream.
    */
-  GameFooter= 5
+  GameFooter= 5,
+
+  /**
+   * The state of a match at the end of a round, after that round's Round.
+   * Optional; readers that don't need it can skip it.
+   */
+  Keyframe= 6
+}};
+
+/**
+ * How the Rounds in a game are encoded.
+ *
+ * @enum {number}
+ */
+export namespace battlecode.schema{
+export enum RoundEncoding{
+  /**
+   * Every field of a Round is written as it's documented.
+   */
+  PLAIN= 0,
+
+  /**
+   * movedIDs, actionIDs, actionTargets, bytecodeIDs and bytecodesUsed
+   * are left out of Rounds, and written to the compact fields instead;
+   * movedLocs only has the moves the compact fields can't encode.
+   *
+   * Robots are referred to by their spawn index: their place in the
+   * order the bodies in a match were spawned in, starting with the
+   * MatchHeader's map's bodies, and then each Round's spawnedBodies.
+   * Keyframes have the spawn index of each body, so that reading can
+   * start from one.
+   *
+   * Varints are unsigned LEB128: 7 bits at a time, lowest first, with the
+   * top bit set on every byte but the last. Zigzag varints are varints of
+   * (n << 1) ^ (n >> 31), so that small negative numbers are short too.
+   */
+  COMPACT= 1
 }};
 
 /**
@@ -1896,11 +1932,21 @@ bodyTypeMetadataLength():number {
   return offset ? this.bb!.__vector_len(this.bb_pos + offset) : 0;
 };
 
+/**
+ * How the game's Rounds are encoded. Added at end for backwards compatability.
+ *
+ * @returns battlecode.schema.RoundEncoding
+ */
+roundEncoding():battlecode.schema.RoundEncoding {
+  var offset = this.bb!.__offset(this.bb_pos, 10);
+  return offset ? /**  */ (this.bb!.readInt8(this.bb_pos + offset)) : battlecode.schema.RoundEncoding.PLAIN;
+};
+
 /**
  * @param flatbuffers.Builder builder
  */
 static startGameHeader(builder:flatbuffers.Builder) {
-  builder.startObject(3);
+  builder.startObject(4);
 };
 
 /**
@@ -1969,6 +2015,14 @@ static startBodyTypeMetadataVector(builder:flatbuffers.Builder, numElems:number)
   builder.startVector(4, numElems, 4);
 };
 
+/**
+ * @param flatbuffers.Builder builder
+ * @param battlecode.schema.RoundEncoding roundEncoding
+ */
+static addRoundEncoding(builder:flatbuffers.Builder, roundEncoding:battlecode.schema.RoundEncoding) {
+  builder.addFieldInt8(3, roundEncoding, battlecode.schema.RoundEncoding.PLAIN);
+};
+
 /**
  * @param flatbuffers.Builder builder
  * @returns flatbuffers.Offset
@@ -1978,11 +2032,12 @@ static endGameHeader(builder:flatbuffers.Builder):flatbuffers.Offset {
   return offset;
 };
 
-static createGameHeader(builder:flatbuffers.Builder, specVersionOffset:flatbuffers.Offset, teamsOffset:flatbuffers.Offset, bodyTypeMetadataOffset:flatbuffers.Offset):flatbuffers.Offset {
+static createGameHeader(builder:flatbuffers.Builder, specVersionOffset:flatbuffers.Offset, teamsOffset:flatbuffers.Offset, bodyTypeMetadataOffset:flatbuffers.Offset, roundEncoding:battlecode.schema.RoundEncoding):flatbuffers.Offset {
   GameHeader.startGameHeader(builder);
   GameHeader.addSpecVersion(builder, specVersionOffset);
   GameHeader.addTeams(builder, teamsOffset);
   GameHeader.addBodyTypeMetadata(builder, bodyTypeMetadataOffset);
+  GameHeader.addRoundEncoding(builder, roundEncoding);
   return GameHeader.endGameHeader(builder);
 }
 }
@@ -2793,11 +2848,243 @@ teamNumBuffsArray():Int32Array|null {
   return offset ? new Int32Array(this.bb!.bytes().buffer, this.bb!.bytes().byteOffset + this.bb!.__vector(this.bb_pos + offset), this.bb!.__vector_len(this.bb_pos + offset)) : null;
 };
 
+/**
+ * With RoundEncoding.COMPACT: the spawn indices of bodies that moved,
+ * as varints.
+ *
+ * @param number index
+ * @returns number
+ */
+compactMovedIndices(index: number):number|null {
+  var offset = this.bb!.__offset(this.bb_pos, 48);
+  return offset ? this.bb!.readUint8(this.bb!.__vector(this.bb_pos + offset) + index) : 0;
+};
+
+/**
+ * @returns number
+ */
+compactMovedIndicesLength():number {
+  var offset = this.bb!.__offset(this.bb_pos, 48);
+  return offset ? this.bb!.__vector_len(this.bb_pos + offset) : 0;
+};
+
+/**
+ * @returns Uint8Array
+ */
+compactMovedIndicesArray():Uint8Array|null {
+  var offset = this.bb!.__offset(this.bb_pos, 48);
+  return offset ? new Uint8Array(this.bb!.bytes().buffer, this.bb!.bytes().byteOffset + this.bb!.__vector(this.bb_pos + offset), this.bb!.__vector_len(this.bb_pos + offset)) : null;
+};
+
+/**
+ * With RoundEncoding.COMPACT: the direction each body moved in, from
+ * where it was before; the ordinal of a battlecode.common.Direction
+ * (NORTH = 0, going clockwise, to NORTHWEST = 7). -1 means the move
+ * wasn't to an adjacent location, and the body's new location is the
+ * next one in movedLocs.
+ *
+ * @param number index
+ * @returns number
+ */
+compactMovedDirections(index: number):number|null {
+  var offset = this.bb!.__offset(this.bb_pos, 50);
+  return offset ? this.bb!.readInt8(this.bb!.__vector(this.bb_pos + offset) + index) : 0;
+};
+
+/**
+ * @returns number
+ */
+compactMovedDirectionsLength():number {
+  var offset = this.bb!.__offset(this.bb_pos, 50);
+  return offset ? this.bb!.__vector_len(this.bb_pos + offset) : 0;
+};
+
+/**
+ * @returns Int8Array
+ */
+compactMovedDirectionsArray():Int8Array|null {
+  var offset = this.bb!.__offset(this.bb_pos, 50);
+  return offset ? new Int8Array(this.bb!.bytes().buffer, this.bb!.bytes().byteOffset + this.bb!.__vector(this.bb_pos + offset), this.bb!.__vector_len(this.bb_pos + offset)) : null;
+};
+
+/**
+ * With RoundEncoding.COMPACT: the spawn indices of bodies that
+ * performed actions, as varints.
+ *
+ * @param number index
+ * @returns number
+ */
+compactActionIndices(index: number):number|null {
+  var offset = this.bb!.__offset(this.bb_pos, 52);
+  return offset ? this.bb!.readUint8(this.bb!.__vector(this.bb_pos + offset) + index) : 0;
+};
+
+/**
+ * @returns number
+ */
+compactActionIndicesLength():number {
+  var offset = this.bb!.__offset(this.bb_pos, 52);
+  return offset ? this.bb!.__vector_len(this.bb_pos + offset) : 0;
+};
+
+/**
+ * @returns Uint8Array
+ */
+compactActionIndicesArray():Uint8Array|null {
+  var offset = this.bb!.__offset(this.bb_pos, 52);
+  return offset ? new Uint8Array(this.bb!.bytes().buffer, this.bb!.bytes().byteOffset + this.bb!.__vector(this.bb_pos + offset), this.bb!.__vector_len(this.bb_pos + offset)) : null;
+};
+
+/**
+ * With RoundEncoding.COMPACT: the targets of the actions, as zigzag
+ * varints. The targets of EMBEZZLE, EXPOSE, SPAWN_UNIT and CHANGE_TEAM
+ * are bodies, and are written as their spawn index, or as -1 minus
+ * their ID if they weren't spawned in the match.
+ *
+ * @param number index
+ * @returns number
+ */
+compactActionTargets(index: number):number|null {
+  var offset = this.bb!.__offset(this.bb_pos, 54);
+  return offset ? this.bb!.readUint8(this.bb!.__vector(this.bb_pos + offset) + index) : 0;
+};
+
+/**
+ * @returns number
+ */
+compactActionTargetsLength():number {
+  var offset = this.bb!.__offset(this.bb_pos, 54);
+  return offset ? this.bb!.__vector_len(this.bb_pos + offset) : 0;
+};
+
+/**
+ * @returns Uint8Array
+ */
+compactActionTargetsArray():Uint8Array|null {
+  var offset = this.bb!.__offset(this.bb_pos, 54);
+  return offset ? new Uint8Array(this.bb!.bytes().buffer, this.bb!.bytes().byteOffset + this.bb!.__vector(this.bb_pos + offset), this.bb!.__vector_len(this.bb_pos + offset)) : null;
+};
+
+/**
+ * With RoundEncoding.COMPACT: the spawn indices of player bodies, as
+ * varints.
+ *
+ * @param number index
+ * @returns number
+ */
+compactBytecodeIndices(index: number):number|null {
+  var offset = this.bb!.__offset(this.bb_pos, 56);
+  return offset ? this.bb!.readUint8(this.bb!.__vector(this.bb_pos + offset) + index) : 0;
+};
+
+/**
+ * @returns number
+ */
+compactBytecodeIndicesLength():number {
+  var offset = this.bb!.__offset(this.bb_pos, 56);
+  return offset ? this.bb!.__vector_len(this.bb_pos + offset) : 0;
+};
+
+/**
+ * @returns Uint8Array
+ */
+compactBytecodeIndicesArray():Uint8Array|null {
+  var offset = this.bb!.__offset(this.bb_pos, 56);
+  return offset ? new Uint8Array(this.bb!.bytes().buffer, this.bb!.bytes().byteOffset + this.bb!.__vector(this.bb_pos + offset), this.bb!.__vector_len(this.bb_pos + offset)) : null;
+};
+
+/**
+ * With RoundEncoding.COMPACT: the bytecodes used by the player bodies,
+ * as varints.
+ *
+ * @param number index
+ * @returns number
+ */
+compactBytecodesUsed(index: number):number|null {
+  var offset = this.bb!.__offset(this.bb_pos, 58);
+  return offset ? this.bb!.readUint8(this.bb!.__vector(this.bb_pos + offset) + index) : 0;
+};
+
+/**
+ * @returns number
+ */
+compactBytecodesUsedLength():number {
+  var offset = this.bb!.__offset(this.bb_pos, 58);
+  return offset ? this.bb!.__vector_len(this.bb_pos + offset) : 0;
+};
+
+/**
+ * @returns Uint8Array
+ */
+compactBytecodesUsedArray():Uint8Array|null {
+  var offset = this.bb!.__offset(this.bb_pos, 58);
+  return offset ? new Uint8Array(this.bb!.bytes().buffer, this.bb!.bytes().byteOffset + this.bb!.__vector(this.bb_pos + offset), this.bb!.__vector_len(this.bb_pos + offset)) : null;
+};
+
+/**
+ * The number of indicator dots and lines of each team (in the order of
+ * teamIDs) left out of this round to keep the replay within its budget.
+ * Only written if the server has one; see
+ * bc.server.replay-indicator-budget-bytes.
+ *
+ * @param number index
+ * @returns number
+ */
+teamDroppedIndicators(index: number):number|null {
+  var offset = this.bb!.__offset(this.bb_pos, 60);
+  return offset ? this.bb!.readInt32(this.bb!.__vector(this.bb_pos + offset) + index * 4) : 0;
+};
+
+/**
+ * @returns number
+ */
+teamDroppedIndicatorsLength():number {
+  var offset = this.bb!.__offset(this.bb_pos, 60);
+  return offset ? this.bb!.__vector_len(this.bb_pos + offset) : 0;
+};
+
+/**
+ * @returns Int32Array
+ */
+teamDroppedIndicatorsArray():Int32Array|null {
+  var offset = this.bb!.__offset(this.bb_pos, 60);
+  return offset ? new Int32Array(this.bb!.bytes().buffer, this.bb!.bytes().byteOffset + this.bb!.__vector(this.bb_pos + offset), this.bb!.__vector_len(this.bb_pos + offset)) : null;
+};
+
+/**
+ * The number of bytes of each team's logs left out of this round to
+ * keep the replay within its budget; see
+ * bc.server.replay-log-budget-bytes.
+ *
+ * @param number index
+ * @returns number
+ */
+teamDroppedLogBytes(index: number):number|null {
+  var offset = this.bb!.__offset(this.bb_pos, 62);
+  return offset ? this.bb!.readInt32(this.bb!.__vector(this.bb_pos + offset) + index * 4) : 0;
+};
+
+/**
+ * @returns number
+ */
+teamDroppedLogBytesLength():number {
+  var offset = this.bb!.__offset(this.bb_pos, 62);
+  return offset ? this.bb!.__vector_len(this.bb_pos + offset) : 0;
+};
+
+/**
+ * @returns Int32Array
+ */
+teamDroppedLogBytesArray():Int32Array|null {
+  var offset = this.bb!.__offset(this.bb_pos, 62);
+  return offset ? new Int32Array(this.bb!.bytes().buffer, this.bb!.bytes().byteOffset + this.bb!.__vector(this.bb_pos + offset), this.bb!.__vector_len(this.bb_pos + offset)) : null;
+};
+
 /**
  * @param flatbuffers.Builder builder
  */
 static startRound(builder:flatbuffers.Builder) {
-  builder.startObject(22);
+  builder.startObject(30);
 };
 
 /**
@@ -3251,38 +3538,792 @@ static startTeamNumBuffsVector(builder:flatbuffers.Builder, numElems:number) {
 
 /**
  * @param flatbuffers.Builder builder
+ * @param flatbuffers.Offset compactMovedIndicesOffset
+ */
+static addCompactMovedIndices(builder:flatbuffers.Builder, compactMovedIndicesOffset:flatbuffers.Offset) {
+  builder.addFieldOffset(22, compactMovedIndicesOffset, 0);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param Array.<number> data
  * @returns flatbuffers.Offset
  */
-static endRound(builder:flatbuffers.Builder):flatbuffers.Offset {
-  var offset = builder.endObject();
-  return offset;
+static createCompactMovedIndicesVector(builder:flatbuffers.Builder, data:number[] | Uint8Array):flatbuffers.Offset {
+  builder.startVector(1, data.length, 1);
+  for (var i = data.length - 1; i >= 0; i--) {
+    builder.addInt8(data[i]);
+  }
+  return builder.endVector();
 };
 
-static createRound(builder:flatbuffers.Builder, teamIDsOffset:flatbuffers.Offset, teamVotesOffset:flatbuffers.Offset, teamBidderIDsOffset:flatbuffers.Offset, movedIDsOffset:flatbuffers.Offset, movedLocsOffset:flatbuffers.Offset, spawnedBodiesOffset:flatbuffers.Offset, diedIDsOffset:flatbuffers.Offset, actionIDsOffset:flatbuffers.Offset, actionsOffset:flatbuffers.Offset, actionTargetsOffset:flatbuffers.Offset, indicatorDotIDsOffset:flatbuffers.Offset, indicatorDotLocsOffset:flatbuffers.Offset, indicatorDotRGBsOffset:flatbuffers.Offset, indicatorLineIDsOffset:flatbuffers.Offset, indicatorLineStartLocsOffset:flatbuffers.Offset, indicatorLineEndLocsOffset:flatbuffers.Offset, indicatorLineRGBsOffset:flatbuffers.Offset, logsOffset:flatbuffers.Offset, roundID:number, bytecodeIDsOffset:flatbuffers.Offset, bytecodesUsedOffset:flatbuffers.Offset, teamNumBuffsOffset:flatbuffers.Offset):flatbuffers.Offset {
-  Round.startRound(builder);
-  Round.addTeamIDs(builder, teamIDsOffset);
-  Round.addTeamVotes(builder, teamVotesOffset);
-  Round.addTeamBidderIDs(builder, teamBidderIDsOffset);
-  Round.addMovedIDs(builder, movedIDsOffset);
-  Round.addMovedLocs(builder, movedLocsOffset);
-  Round.addSpawnedBodies(builder, spawnedBodiesOffset);
-  Round.addDiedIDs(builder, diedIDsOffset);
-  Round.addActionIDs(builder, actionIDsOffset);
-  Round.addActions(builder, actionsOffset);
-  Round.addActionTargets(builder, actionTargetsOffset);
-  Round.addIndicatorDotIDs(builder, indicatorDotIDsOffset);
-  Round.addIndicatorDotLocs(builder, indicatorDotLocsOffset);
-  Round.addIndicatorDotRGBs(builder, indicatorDotRGBsOffset);
-  Round.addIndicatorLineIDs(builder, indicatorLineIDsOffset);
-  Round.addIndicatorLineStartLocs(builder, indicatorLineStartLocsOffset);
-  Round.addIndicatorLineEndLocs(builder, indicatorLineEndLocsOffset);
-  Round.addIndicatorLineRGBs(builder, indicatorLineRGBsOffset);
-  Round.addLogs(builder, logsOffset);
-  Round.addRoundID(builder, roundID);
-  Round.addBytecodeIDs(builder, bytecodeIDsOffset);
-  Round.addBytecodesUsed(builder, bytecodesUsedOffset);
-  Round.addTeamNumBuffs(builder, teamNumBuffsOffset);
-  return Round.endRound(builder);
+/**
+ * @param flatbuffers.Builder builder
+ * @param number numElems
+ */
+static startCompactMovedIndicesVector(builder:flatbuffers.Builder, numElems:number) {
+  builder.startVector(1, numElems, 1);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param flatbuffers.Offset compactMovedDirectionsOffset
+ */
+static addCompactMovedDirections(builder:flatbuffers.Builder, compactMovedDirectionsOffset:flatbuffers.Offset) {
+  builder.addFieldOffset(23, compactMovedDirectionsOffset, 0);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param Array.<number> data
+ * @returns flatbuffers.Offset
+ */
+static createCompactMovedDirectionsVector(builder:flatbuffers.Builder, data:number[] | Uint8Array):flatbuffers.Offset {
+  builder.startVector(1, data.length, 1);
+  for (var i = data.length - 1; i >= 0; i--) {
+    builder.addInt8(data[i]);
+  }
+  return builder.endVector();
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param number numElems
+ */
+static startCompactMovedDirectionsVector(builder:flatbuffers.Builder, numElems:number) {
+  builder.startVector(1, numElems, 1);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param flatbuffers.Offset compactActionIndicesOffset
+ */
+static addCompactActionIndices(builder:flatbuffers.Builder, compactActionIndicesOffset:flatbuffers.Offset) {
+  builder.addFieldOffset(24, compactActionIndicesOffset, 0);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param Array.<number> data
+ * @returns flatbuffers.Offset
+ */
+static createCompactActionIndicesVector(builder:flatbuffers.Builder, data:number[] | Uint8Array):flatbuffers.Offset {
+  builder.startVector(1, data.length, 1);
+  for (var i = data.length - 1; i >= 0; i--) {
+    builder.addInt8(data[i]);
+  }
+  return builder.endVector();
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param number numElems
+ */
+static startCompactActionIndicesVector(builder:flatbuffers.Builder, numElems:number) {
+  builder.startVector(1, numElems, 1);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param flatbuffers.Offset compactActionTargetsOffset
+ */
+static addCompactActionTargets(builder:flatbuffers.Builder, compactActionTargetsOffset:flatbuffers.Offset) {
+  builder.addFieldOffset(25, compactActionTargetsOffset, 0);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param Array.<number> data
+ * @returns flatbuffers.Offset
+ */
+static createCompactActionTargetsVector(builder:flatbuffers.Builder, data:number[] | Uint8Array):flatbuffers.Offset {
+  builder.startVector(1, data.length, 1);
+  for (var i = data.length - 1; i >= 0; i--) {
+    builder.addInt8(data[i]);
+  }
+  return builder.endVector();
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param number numElems
+ */
+static startCompactActionTargetsVector(builder:flatbuffers.Builder, numElems:number) {
+  builder.startVector(1, numElems, 1);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param flatbuffers.Offset compactBytecodeIndicesOffset
+ */
+static addCompactBytecodeIndices(builder:flatbuffers.Builder, compactBytecodeIndicesOffset:flatbuffers.Offset) {
+  builder.addFieldOffset(26, compactBytecodeIndicesOffset, 0);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param Array.<number> data
+ * @returns flatbuffers.Offset
+ */
+static createCompactBytecodeIndicesVector(builder:flatbuffers.Builder, data:number[] | Uint8Array):flatbuffers.Offset {
+  builder.startVector(1, data.length, 1);
+  for (var i = data.length - 1; i >= 0; i--) {
+    builder.addInt8(data[i]);
+  }
+  return builder.endVector();
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param number numElems
+ */
+static startCompactBytecodeIndicesVector(builder:flatbuffers.Builder, numElems:number) {
+  builder.startVector(1, numElems, 1);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param flatbuffers.Offset compactBytecodesUsedOffset
+ */
+static addCompactBytecodesUsed(builder:flatbuffers.Builder, compactBytecodesUsedOffset:flatbuffers.Offset) {
+  builder.addFieldOffset(27, compactBytecodesUsedOffset, 0);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param Array.<number> data
+ * @returns flatbuffers.Offset
+ */
+static createCompactBytecodesUsedVector(builder:flatbuffers.Builder, data:number[] | Uint8Array):flatbuffers.Offset {
+  builder.startVector(1, data.length, 1);
+  for (var i = data.length - 1; i >= 0; i--) {
+    builder.addInt8(data[i]);
+  }
+  return builder.endVector();
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param number numElems
+ */
+static startCompactBytecodesUsedVector(builder:flatbuffers.Builder, numElems:number) {
+  builder.startVector(1, numElems, 1);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param flatbuffers.Offset teamDroppedIndicatorsOffset
+ */
+static addTeamDroppedIndicators(builder:flatbuffers.Builder, teamDroppedIndicatorsOffset:flatbuffers.Offset) {
+  builder.addFieldOffset(28, teamDroppedIndicatorsOffset, 0);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param Array.<number> data
+ * @returns flatbuffers.Offset
+ */
+static createTeamDroppedIndicatorsVector(builder:flatbuffers.Builder, data:number[] | Uint8Array):flatbuffers.Offset {
+  builder.startVector(4, data.length, 4);
+  for (var i = data.length - 1; i >= 0; i--) {
+    builder.addInt32(data[i]);
+  }
+  return builder.endVector();
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param number numElems
+ */
+static startTeamDroppedIndicatorsVector(builder:flatbuffers.Builder, numElems:number) {
+  builder.startVector(4, numElems, 4);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param flatbuffers.Offset teamDroppedLogBytesOffset
+ */
+static addTeamDroppedLogBytes(builder:flatbuffers.Builder, teamDroppedLogBytesOffset:flatbuffers.Offset) {
+  builder.addFieldOffset(29, teamDroppedLogBytesOffset, 0);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param Array.<number> data
+ * @returns flatbuffers.Offset
+ */
+static createTeamDroppedLogBytesVector(builder:flatbuffers.Builder, data:number[] | Uint8Array):flatbuffers.Offset {
+  builder.startVector(4, data.length, 4);
+  for (var i = data.length - 1; i >= 0; i--) {
+    builder.addInt32(data[i]);
+  }
+  return builder.endVector();
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param number numElems
+ */
+static startTeamDroppedLogBytesVector(builder:flatbuffers.Builder, numElems:number) {
+  builder.startVector(4, numElems, 4);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @returns flatbuffers.Offset
+ */
+static endRound(builder:flatbuffers.Builder):flatbuffers.Offset {
+  var offset = builder.endObject();
+  return offset;
+};
+
+static createRound(builder:flatbuffers.Builder, teamIDsOffset:flatbuffers.Offset, teamVotesOffset:flatbuffers.Offset, teamBidderIDsOffset:flatbuffers.Offset, movedIDsOffset:flatbuffers.Offset, movedLocsOffset:flatbuffers.Offset, spawnedBodiesOffset:flatbuffers.Offset, diedIDsOffset:flatbuffers.Offset, actionIDsOffset:flatbuffers.Offset, actionsOffset:flatbuffers.Offset, actionTargetsOffset:flatbuffers.Offset, indicatorDotIDsOffset:flatbuffers.Offset, indicatorDotLocsOffset:flatbuffers.Offset, indicatorDotRGBsOffset:flatbuffers.Offset, indicatorLineIDsOffset:flatbuffers.Offset, indicatorLineStartLocsOffset:flatbuffers.Offset, indicatorLineEndLocsOffset:flatbuffers.Offset, indicatorLineRGBsOffset:flatbuffers.Offset, logsOffset:flatbuffers.Offset, roundID:number, bytecodeIDsOffset:flatbuffers.Offset, bytecodesUsedOffset:flatbuffers.Offset, teamNumBuffsOffset:flatbuffers.Offset, compactMovedIndicesOffset:flatbuffers.Offset, compactMovedDirectionsOffset:flatbuffers.Offset, compactActionIndicesOffset:flatbuffers.Offset, compactActionTargetsOffset:flatbuffers.Offset, compactBytecodeIndicesOffset:flatbuffers.Offset, compactBytecodesUsedOffset:flatbuffers.Offset, teamDroppedIndicatorsOffset:flatbuffers.Offset, teamDroppedLogBytesOffset:flatbuffers.Offset):flatbuffers.Offset {
+  Round.startRound(builder);
+  Round.addTeamIDs(builder, teamIDsOffset);
+  Round.addTeamVotes(builder, teamVotesOffset);
+  Round.addTeamBidderIDs(builder, teamBidderIDsOffset);
+  Round.addMovedIDs(builder, movedIDsOffset);
+  Round.addMovedLocs(builder, movedLocsOffset);
+  Round.addSpawnedBodies(builder, spawnedBodiesOffset);
+  Round.addDiedIDs(builder, diedIDsOffset);
+  Round.addActionIDs(builder, actionIDsOffset);
+  Round.addActions(builder, actionsOffset);
+  Round.addActionTargets(builder, actionTargetsOffset);
+  Round.addIndicatorDotIDs(builder, indicatorDotIDsOffset);
+  Round.addIndicatorDotLocs(builder, indicatorDotLocsOffset);
+  Round.addIndicatorDotRGBs(builder, indicatorDotRGBsOffset);
+  Round.addIndicatorLineIDs(builder, indicatorLineIDsOffset);
+  Round.addIndicatorLineStartLocs(builder, indicatorLineStartLocsOffset);
+  Round.addIndicatorLineEndLocs(builder, indicatorLineEndLocsOffset);
+  Round.addIndicatorLineRGBs(builder, indicatorLineRGBsOffset);
+  Round.addLogs(builder, logsOffset);
+  Round.addRoundID(builder, roundID);
+  Round.addBytecodeIDs(builder, bytecodeIDsOffset);
+  Round.addBytecodesUsed(builder, bytecodesUsedOffset);
+  Round.addTeamNumBuffs(builder, teamNumBuffsOffset);
+  Round.addCompactMovedIndices(builder, compactMovedIndicesOffset);
+  Round.addCompactMovedDirections(builder, compactMovedDirectionsOffset);
+  Round.addCompactActionIndices(builder, compactActionIndicesOffset);
+  Round.addCompactActionTargets(builder, compactActionTargetsOffset);
+  Round.addCompactBytecodeIndices(builder, compactBytecodeIndicesOffset);
+  Round.addCompactBytecodesUsed(builder, compactBytecodesUsedOffset);
+  Round.addTeamDroppedIndicators(builder, teamDroppedIndicatorsOffset);
+  Round.addTeamDroppedLogBytes(builder, teamDroppedLogBytesOffset);
+  return Round.endRound(builder);
+}
+}
+}
+/**
+ * A snapshot of every body in a match, so that readers can start from it
+ * instead of applying every Round before it. Struct-of-arrays, like Round.
+ * Keyframes are only made if the server is asked to; see
+ * bc.server.keyframe-interval.
+ *
+ * @constructor
+ */
+export namespace battlecode.schema{
+export class Keyframe {
+  bb: flatbuffers.ByteBuffer|null = null;
+
+  bb_pos:number = 0;
+/**
+ * @param number i
+ * @param flatbuffers.ByteBuffer bb
+ * @returns Keyframe
+ */
+__init(i:number, bb:flatbuffers.ByteBuffer):Keyframe {
+  this.bb_pos = i;
+  this.bb = bb;
+  return this;
+};
+
+/**
+ * @param flatbuffers.ByteBuffer bb
+ * @param Keyframe= obj
+ * @returns Keyframe
+ */
+static getRootAsKeyframe(bb:flatbuffers.ByteBuffer, obj?:Keyframe):Keyframe {
+  return (obj || new Keyframe).__init(bb.readInt32(bb.position()) + bb.position(), bb);
+};
+
+/**
+ * The round this is the state at the end of; the Round with the same
+ * roundID comes just before it.
+ *
+ * @returns number
+ */
+roundID():number {
+  var offset = this.bb!.__offset(this.bb_pos, 4);
+  return offset ? this.bb!.readInt32(this.bb_pos + offset) : 0;
+};
+
+/**
+ * The IDs of every body on the map, in increasing order.
+ *
+ * @param number index
+ * @returns number
+ */
+robotIDs(index: number):number|null {
+  var offset = this.bb!.__offset(this.bb_pos, 6);
+  return offset ? this.bb!.readInt32(this.bb!.__vector(this.bb_pos + offset) + index * 4) : 0;
+};
+
+/**
+ * @returns number
+ */
+robotIDsLength():number {
+  var offset = this.bb!.__offset(this.bb_pos, 6);
+  return offset ? this.bb!.__vector_len(this.bb_pos + offset) : 0;
+};
+
+/**
+ * @returns Int32Array
+ */
+robotIDsArray():Int32Array|null {
+  var offset = this.bb!.__offset(this.bb_pos, 6);
+  return offset ? new Int32Array(this.bb!.bytes().buffer, this.bb!.bytes().byteOffset + this.bb!.__vector(this.bb_pos + offset), this.bb!.__vector_len(this.bb_pos + offset)) : null;
+};
+
+/**
+ * The teams of the bodies.
+ *
+ * @param number index
+ * @returns number
+ */
+teamIDs(index: number):number|null {
+  var offset = this.bb!.__offset(this.bb_pos, 8);
+  return offset ? this.bb!.readInt8(this.bb!.__vector(this.bb_pos + offset) + index) : 0;
+};
+
+/**
+ * @returns number
+ */
+teamIDsLength():number {
+  var offset = this.bb!.__offset(this.bb_pos, 8);
+  return offset ? this.bb!.__vector_len(this.bb_pos + offset) : 0;
+};
+
+/**
+ * @returns Int8Array
+ */
+teamIDsArray():Int8Array|null {
+  var offset = this.bb!.__offset(this.bb_pos, 8);
+  return offset ? new Int8Array(this.bb!.bytes().buffer, this.bb!.bytes().byteOffset + this.bb!.__vector(this.bb_pos + offset), this.bb!.__vector_len(this.bb_pos + offset)) : null;
+};
+
+/**
+ * The types of the bodies.
+ *
+ * @param number index
+ * @returns battlecode.schema.BodyType
+ */
+types(index: number):battlecode.schema.BodyType|null {
+  var offset = this.bb!.__offset(this.bb_pos, 10);
+  return offset ? /**  */ (this.bb!.readInt8(this.bb!.__vector(this.bb_pos + offset) + index)) : /**  */ (0);
+};
+
+/**
+ * @returns number
+ */
+typesLength():number {
+  var offset = this.bb!.__offset(this.bb_pos, 10);
+  return offset ? this.bb!.__vector_len(this.bb_pos + offset) : 0;
+};
+
+/**
+ * @returns Int8Array
+ */
+typesArray():Int8Array|null {
+  var offset = this.bb!.__offset(this.bb_pos, 10);
+  return offset ? new Int8Array(this.bb!.bytes().buffer, this.bb!.bytes().byteOffset + this.bb!.__vector(this.bb_pos + offset), this.bb!.__vector_len(this.bb_pos + offset)) : null;
+};
+
+/**
+ * The locations of the bodies.
+ *
+ * @param battlecode.schema.VecTable= obj
+ * @returns battlecode.schema.VecTable|null
+ */
+locs(obj?:battlecode.schema.VecTable):battlecode.schema.VecTable|null {
+  var offset = this.bb!.__offset(this.bb_pos, 12);
+  return offset ? (obj || new battlecode.schema.VecTable).__init(this.bb!.__indirect(this.bb_pos + offset), this.bb!) : null;
+};
+
+/**
+ * The influence of the bodies.
+ *
+ * @param number index
+ * @returns number
+ */
+influences(index: number):number|null {
+  var offset = this.bb!.__offset(this.bb_pos, 14);
+  return offset ? this.bb!.readInt32(this.bb!.__vector(this.bb_pos + offset) + index * 4) : 0;
+};
+
+/**
+ * @returns number
+ */
+influencesLength():number {
+  var offset = this.bb!.__offset(this.bb_pos, 14);
+  return offset ? this.bb!.__vector_len(this.bb_pos + offset) : 0;
+};
+
+/**
+ * @returns Int32Array
+ */
+influencesArray():Int32Array|null {
+  var offset = this.bb!.__offset(this.bb_pos, 14);
+  return offset ? new Int32Array(this.bb!.bytes().buffer, this.bb!.bytes().byteOffset + this.bb!.__vector(this.bb_pos + offset), this.bb!.__vector_len(this.bb_pos + offset)) : null;
+};
+
+/**
+ * The conviction of the bodies.
+ *
+ * @param number index
+ * @returns number
+ */
+convictions(index: number):number|null {
+  var offset = this.bb!.__offset(this.bb_pos, 16);
+  return offset ? this.bb!.readInt32(this.bb!.__vector(this.bb_pos + offset) + index * 4) : 0;
+};
+
+/**
+ * @returns number
+ */
+convictionsLength():number {
+  var offset = this.bb!.__offset(this.bb_pos, 16);
+  return offset ? this.bb!.__vector_len(this.bb_pos + offset) : 0;
+};
+
+/**
+ * @returns Int32Array
+ */
+convictionsArray():Int32Array|null {
+  var offset = this.bb!.__offset(this.bb_pos, 16);
+  return offset ? new Int32Array(this.bb!.bytes().buffer, this.bb!.bytes().byteOffset + this.bb!.__vector(this.bb_pos + offset), this.bb!.__vector_len(this.bb_pos + offset)) : null;
+};
+
+/**
+ * The flags of the bodies.
+ *
+ * @param number index
+ * @returns number
+ */
+flags(index: number):number|null {
+  var offset = this.bb!.__offset(this.bb_pos, 18);
+  return offset ? this.bb!.readInt32(this.bb!.__vector(this.bb_pos + offset) + index * 4) : 0;
+};
+
+/**
+ * @returns number
+ */
+flagsLength():number {
+  var offset = this.bb!.__offset(this.bb_pos, 18);
+  return offset ? this.bb!.__vector_len(this.bb_pos + offset) : 0;
+};
+
+/**
+ * @returns Int32Array
+ */
+flagsArray():Int32Array|null {
+  var offset = this.bb!.__offset(this.bb_pos, 18);
+  return offset ? new Int32Array(this.bb!.bytes().buffer, this.bb!.bytes().byteOffset + this.bb!.__vector(this.bb_pos + offset), this.bb!.__vector_len(this.bb_pos + offset)) : null;
+};
+
+/**
+ * With RoundEncoding.COMPACT: the spawn indices of the bodies.
+ *
+ * @param number index
+ * @returns number
+ */
+spawnIndices(index: number):number|null {
+  var offset = this.bb!.__offset(this.bb_pos, 20);
+  return offset ? this.bb!.readInt32(this.bb!.__vector(this.bb_pos + offset) + index * 4) : 0;
+};
+
+/**
+ * @returns number
+ */
+spawnIndicesLength():number {
+  var offset = this.bb!.__offset(this.bb_pos, 20);
+  return offset ? this.bb!.__vector_len(this.bb_pos + offset) : 0;
+};
+
+/**
+ * @returns Int32Array
+ */
+spawnIndicesArray():Int32Array|null {
+  var offset = this.bb!.__offset(this.bb_pos, 20);
+  return offset ? new Int32Array(this.bb!.bytes().buffer, this.bb!.bytes().byteOffset + this.bb!.__vector(this.bb_pos + offset), this.bb!.__vector_len(this.bb_pos + offset)) : null;
+};
+
+/**
+ * With RoundEncoding.COMPACT: the number of bodies spawned in the
+ * match so far, and so the spawn index of the next body to spawn.
+ *
+ * @returns number
+ */
+spawnCount():number {
+  var offset = this.bb!.__offset(this.bb_pos, 22);
+  return offset ? this.bb!.readInt32(this.bb_pos + offset) : 0;
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ */
+static startKeyframe(builder:flatbuffers.Builder) {
+  builder.startObject(10);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param number roundID
+ */
+static addRoundID(builder:flatbuffers.Builder, roundID:number) {
+  builder.addFieldInt32(0, roundID, 0);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param flatbuffers.Offset robotIDsOffset
+ */
+static addRobotIDs(builder:flatbuffers.Builder, robotIDsOffset:flatbuffers.Offset) {
+  builder.addFieldOffset(1, robotIDsOffset, 0);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param Array.<number> data
+ * @returns flatbuffers.Offset
+ */
+static createRobotIDsVector(builder:flatbuffers.Builder, data:number[] | Uint8Array):flatbuffers.Offset {
+  builder.startVector(4, data.length, 4);
+  for (var i = data.length - 1; i >= 0; i--) {
+    builder.addInt32(data[i]);
+  }
+  return builder.endVector();
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param number numElems
+ */
+static startRobotIDsVector(builder:flatbuffers.Builder, numElems:number) {
+  builder.startVector(4, numElems, 4);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param flatbuffers.Offset teamIDsOffset
+ */
+static addTeamIDs(builder:flatbuffers.Builder, teamIDsOffset:flatbuffers.Offset) {
+  builder.addFieldOffset(2, teamIDsOffset, 0);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param Array.<number> data
+ * @returns flatbuffers.Offset
+ */
+static createTeamIDsVector(builder:flatbuffers.Builder, data:number[] | Uint8Array):flatbuffers.Offset {
+  builder.startVector(1, data.length, 1);
+  for (var i = data.length - 1; i >= 0; i--) {
+    builder.addInt8(data[i]);
+  }
+  return builder.endVector();
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param number numElems
+ */
+static startTeamIDsVector(builder:flatbuffers.Builder, numElems:number) {
+  builder.startVector(1, numElems, 1);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param flatbuffers.Offset typesOffset
+ */
+static addTypes(builder:flatbuffers.Builder, typesOffset:flatbuffers.Offset) {
+  builder.addFieldOffset(3, typesOffset, 0);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param Array.<battlecode.schema.BodyType> data
+ * @returns flatbuffers.Offset
+ */
+static createTypesVector(builder:flatbuffers.Builder, data:battlecode.schema.BodyType[]):flatbuffers.Offset {
+  builder.startVector(1, data.length, 1);
+  for (var i = data.length - 1; i >= 0; i--) {
+    builder.addInt8(data[i]);
+  }
+  return builder.endVector();
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param number numElems
+ */
+static startTypesVector(builder:flatbuffers.Builder, numElems:number) {
+  builder.startVector(1, numElems, 1);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param flatbuffers.Offset locsOffset
+ */
+static addLocs(builder:flatbuffers.Builder, locsOffset:flatbuffers.Offset) {
+  builder.addFieldOffset(4, locsOffset, 0);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param flatbuffers.Offset influencesOffset
+ */
+static addInfluences(builder:flatbuffers.Builder, influencesOffset:flatbuffers.Offset) {
+  builder.addFieldOffset(5, influencesOffset, 0);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param Array.<number> data
+ * @returns flatbuffers.Offset
+ */
+static createInfluencesVector(builder:flatbuffers.Builder, data:number[] | Uint8Array):flatbuffers.Offset {
+  builder.startVector(4, data.length, 4);
+  for (var i = data.length - 1; i >= 0; i--) {
+    builder.addInt32(data[i]);
+  }
+  return builder.endVector();
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param number numElems
+ */
+static startInfluencesVector(builder:flatbuffers.Builder, numElems:number) {
+  builder.startVector(4, numElems, 4);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param flatbuffers.Offset convictionsOffset
+ */
+static addConvictions(builder:flatbuffers.Builder, convictionsOffset:flatbuffers.Offset) {
+  builder.addFieldOffset(6, convictionsOffset, 0);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param Array.<number> data
+ * @returns flatbuffers.Offset
+ */
+static createConvictionsVector(builder:flatbuffers.Builder, data:number[] | Uint8Array):flatbuffers.Offset {
+  builder.startVector(4, data.length, 4);
+  for (var i = data.length - 1; i >= 0; i--) {
+    builder.addInt32(data[i]);
+  }
+  return builder.endVector();
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param number numElems
+ */
+static startConvictionsVector(builder:flatbuffers.Builder, numElems:number) {
+  builder.startVector(4, numElems, 4);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param flatbuffers.Offset flagsOffset
+ */
+static addFlags(builder:flatbuffers.Builder, flagsOffset:flatbuffers.Offset) {
+  builder.addFieldOffset(7, flagsOffset, 0);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param Array.<number> data
+ * @returns flatbuffers.Offset
+ */
+static createFlagsVector(builder:flatbuffers.Builder, data:number[] | Uint8Array):flatbuffers.Offset {
+  builder.startVector(4, data.length, 4);
+  for (var i = data.length - 1; i >= 0; i--) {
+    builder.addInt32(data[i]);
+  }
+  return builder.endVector();
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param number numElems
+ */
+static startFlagsVector(builder:flatbuffers.Builder, numElems:number) {
+  builder.startVector(4, numElems, 4);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param flatbuffers.Offset spawnIndicesOffset
+ */
+static addSpawnIndices(builder:flatbuffers.Builder, spawnIndicesOffset:flatbuffers.Offset) {
+  builder.addFieldOffset(8, spawnIndicesOffset, 0);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param Array.<number> data
+ * @returns flatbuffers.Offset
+ */
+static createSpawnIndicesVector(builder:flatbuffers.Builder, data:number[] | Uint8Array):flatbuffers.Offset {
+  builder.startVector(4, data.length, 4);
+  for (var i = data.length - 1; i >= 0; i--) {
+    builder.addInt32(data[i]);
+  }
+  return builder.endVector();
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param number numElems
+ */
+static startSpawnIndicesVector(builder:flatbuffers.Builder, numElems:number) {
+  builder.startVector(4, numElems, 4);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @param number spawnCount
+ */
+static addSpawnCount(builder:flatbuffers.Builder, spawnCount:number) {
+  builder.addFieldInt32(9, spawnCount, 0);
+};
+
+/**
+ * @param flatbuffers.Builder builder
+ * @returns flatbuffers.Offset
+ */
+static endKeyframe(builder:flatbuffers.Builder):flatbuffers.Offset {
+  var offset = builder.endObject();
+  return offset;
+};
+
+static createKeyframe(builder:flatbuffers.Builder, roundID:number, robotIDsOffset:flatbuffers.Offset, teamIDsOffset:flatbuffers.Offset, typesOffset:flatbuffers.Offset, locsOffset:flatbuffers.Offset, influencesOffset:flatbuffers.Offset, convictionsOffset:flatbuffers.Offset, flagsOffset:flatbuffers.Offset, spawnIndicesOffset:flatbuffers.Offset, spawnCount:number):flatbuffers.Offset {
+  Keyframe.startKeyframe(builder);
+  Keyframe.addRoundID(builder, roundID);
+  Keyframe.addRobotIDs(builder, robotIDsOffset);
+  Keyframe.addTeamIDs(builder, teamIDsOffset);
+  Keyframe.addTypes(builder, typesOffset);
+  Keyframe.addLocs(builder, locsOffset);
+  Keyframe.addInfluences(builder, influencesOffset);
+  Keyframe.addConvictions(builder, convictionsOffset);
+  Keyframe.addFlags(builder, flagsOffset);
+  Keyframe.addSpawnIndices(builder, spawnIndicesOffset);
+  Keyframe.addSpawnCount(builder, spawnCount);
+  return Keyframe.endKeyframe(builder);
 }
 }
 }